@@ -0,0 +1,98 @@
+/*
+    Copyright 2016 Radosław Skupnik
+
+    This file is part of pigeon-tcp-server.
+
+    Pigeon-tcp-server is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    Pigeon-tcp-server is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with pigeon-tcp-server; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+
+package com.github.rskupnik.pigeon.tcpserver;
+
+import com.github.rskupnik.pigeon.commons.Packet;
+import com.github.rskupnik.pigeon.commons.PacketHandler;
+import com.github.rskupnik.pigeon.commons.exceptions.PigeonException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.IOException;
+import java.net.StandardSocketOptions;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures how many connections per second a local server accepts: every operation connects, waits for the server
+ * to accept the connection and closes it. Run with more threads (-t) to connect from several clients at once.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AcceptBenchmark {
+
+    private static final int PORT = 9062;
+
+    @Param({"blocking", "nio"})
+    private String transportMode;
+
+    private PigeonTcpServer server;
+
+    @Setup
+    public void setup() throws PigeonException {
+        server = Pigeon.newServer()
+                .withPort(PORT)
+                .withTransportMode(TransportMode.fromString(transportMode))
+                .withPackageToScan(EchoServer.PACKAGE)
+                .withPacketHandler(new PacketHandler() {
+                    @Override
+                    public void handle(Packet packet) {
+
+                    }
+                })
+                .build();
+        server.start();
+    }
+
+    @TearDown
+    public void tearDown() {
+        server.shutdown();
+    }
+
+    @Benchmark
+    public void connect() throws IOException {
+        SocketChannel channel = LoadGenerator.connect("localhost", PORT);
+        channel.setOption(StandardSocketOptions.SO_LINGER, 0);  // Resets the connection instead of leaving it in TIME_WAIT, which would use up the ports
+        channel.close();
+    }
+
+    public static void main(String[] args) throws Exception {
+        new Runner(new OptionsBuilder()
+                .include(AcceptBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
@@ -0,0 +1,189 @@
+/*
+    Copyright 2016 Radosław Skupnik
+
+    This file is part of pigeon-tcp-server.
+
+    Pigeon-tcp-server is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    Pigeon-tcp-server is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with pigeon-tcp-server; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+
+package com.github.rskupnik.pigeon.tcpserver;
+
+import com.github.rskupnik.pigeon.commons.Packet;
+import com.github.rskupnik.pigeon.commons.exceptions.PigeonException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the processor time of compressing a packet on one side of a connection and decompressing it on the other,
+ * for a few typical mixes of packets:
+ *
+ * telemetry - JSON readings of a few dozen sensors, around 150 bytes each,
+ * chat - sentences of 5 to 40 words from a small vocabulary, up to a few hundred bytes,
+ * mixed - mostly short acknowledgements below the compression threshold, with every fifth packet a telemetry reading.
+ *
+ * Run main() to get the bytes on the wire per packet of every mix and codec as well.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CompressionBenchmark {
+
+    private static final int PACKETS = 1024;
+    private static final int THRESHOLD = TcpServerDefaults.COMPRESSION_THRESHOLD;
+    private static final int CODECS = PacketCompressor.SUPPORTED_CODECS;
+    private static final String[] WORDS = {
+            "the", "a", "we", "you", "they", "meeting", "server", "deploy", "is", "was", "will", "be", "today", "tomorrow",
+            "after", "before", "lunch", "build", "green", "red", "failing", "fixed", "please", "check", "review", "my",
+            "branch", "merge", "ready", "soon", "thanks", "ok", "see", "logs", "again", "restart", "it", "looks", "good",
+            "latency", "spike", "on", "node", "three", "rolling", "back", "now", "done", "ticket", "updated", "and", "in"
+    };
+
+    @Param({"telemetry", "chat", "mixed"})
+    private String mix;
+
+    @Param({"NONE", "DEFLATE_FAST", "DEFLATE"})
+    private CompressionCodec codec;
+
+    private ByteBuffer[] packets;
+    private CompressionPolicy policy;
+    private PacketCompressor sender;
+    private PacketCompressor receiver;
+    private int next;
+
+    @Setup
+    public void setup() throws PigeonException {
+        PacketRegistry registry = PacketRegistry.scan(EchoServer.PACKAGE);
+        packets = encode(mix, new CompiledPacketCodec(registry, false));
+        policy = new CompressionPolicy(codec, THRESHOLD, Collections.<Class<? extends Packet>, CompressionCodec>emptyMap(), registry);
+
+        BufferPool pool = new BufferPool(false);
+        sender = new PacketCompressor(policy, CODECS, pool);
+        receiver = new PacketCompressor(policy, CODECS, pool);
+    }
+
+    @TearDown
+    public void tearDown() {
+        sender.end();
+        receiver.end();
+    }
+
+    @Benchmark
+    public ByteBuffer compressAndDecompress() throws PigeonException {
+        ByteBuffer packet = packets[next++ & (PACKETS - 1)];
+        CompressionCodec chosen = policy.get(packet.getInt(packet.position()), packet.remaining());
+        if (chosen == CompressionCodec.NONE)
+            return packet;
+
+        PooledBuffer frame = sender.deflate(packet, chosen);
+        ByteBuffer inflated = receiver.inflate(frame.buffer());
+        frame.release();
+        return inflated;
+    }
+
+    /**
+     * Returns the average number of bytes a packet of the mix takes on the wire, sending the packets in order
+     * over a single connection.
+     */
+    static double wireBytesPerPacket(String mix, CompressionCodec codec) throws PigeonException {
+        CompressionBenchmark benchmark = new CompressionBenchmark();
+        benchmark.mix = mix;
+        benchmark.codec = codec;
+        benchmark.setup();
+
+        long bytes = 0;
+        for (ByteBuffer packet : benchmark.packets) {
+            CompressionCodec chosen = benchmark.policy.get(packet.getInt(packet.position()), packet.remaining());
+            if (chosen == CompressionCodec.NONE) {
+                bytes += packet.remaining();
+            } else {
+                PooledBuffer frame = benchmark.sender.deflate(packet, chosen);
+                bytes += frame.buffer().remaining();
+                frame.release();
+            }
+        }
+        benchmark.tearDown();
+        return (double) bytes / PACKETS;
+    }
+
+    private static ByteBuffer[] encode(String mix, PacketCodec packetCodec) throws PigeonException {
+        Random random = new Random(42);     // The same packets for every codec
+        BufferPool pool = new BufferPool(false);
+        ByteBuffer[] encoded = new ByteBuffer[PACKETS];
+        for (int i = 0; i < PACKETS; i++) {
+            BenchmarkPacket packet = new BenchmarkPacket();
+            packet.setClientId(random.nextInt(1000));
+            packet.setPayload(payload(mix, i, random));
+            encoded[i] = packetCodec.encode(packet, pool).buffer();
+        }
+        return encoded;
+    }
+
+    private static String payload(String mix, int i, Random random) {
+        switch (mix) {
+            case "telemetry":
+                return telemetry(i, random);
+            case "chat":
+                StringBuilder sentence = new StringBuilder();
+                int words = 5 + random.nextInt(36);
+                for (int w = 0; w < words; w++)
+                    sentence.append(w > 0 ? " " : "").append(WORDS[random.nextInt(WORDS.length)]);
+                return sentence.toString();
+            case "mixed":
+                return i % 5 == 0 ? telemetry(i, random) : "ack " + i;
+            default:
+                throw new IllegalArgumentException("Unknown mix " + mix);
+        }
+    }
+
+    private static String telemetry(int i, Random random) {
+        return String.format("{\"device\":\"sensor-%d\",\"sequence\":%d,\"temperature\":%.1f,\"humidity\":%.1f,\"battery\":%d,"
+                        + "\"status\":\"ok\",\"firmware\":\"2.4.1\"}",
+                random.nextInt(40), i, 18 + random.nextDouble() * 10, 30 + random.nextDouble() * 40, 50 + random.nextInt(50));
+    }
+
+    public static void main(String[] args) throws Exception {
+        System.out.println("Bytes on the wire per packet:");
+        for (String mix : new String[] {"telemetry", "chat", "mixed"}) {
+            StringBuilder line = new StringBuilder(String.format("%-10s", mix));
+            for (CompressionCodec codec : CompressionCodec.values())
+                line.append(String.format("  %s %.1f", codec, wireBytesPerPacket(mix, codec)));
+            System.out.println(line);
+        }
+
+        new Runner(new OptionsBuilder()
+                .include(CompressionBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
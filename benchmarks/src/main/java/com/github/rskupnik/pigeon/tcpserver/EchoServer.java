@@ -0,0 +1,113 @@
+/*
+    Copyright 2016 Radosław Skupnik
+
+    This file is part of pigeon-tcp-server.
+
+    Pigeon-tcp-server is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    Pigeon-tcp-server is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with pigeon-tcp-server; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+
+package com.github.rskupnik.pigeon.tcpserver;
+
+import com.github.rskupnik.pigeon.commons.Connection;
+import com.github.rskupnik.pigeon.commons.Packet;
+import com.github.rskupnik.pigeon.commons.PacketHandler;
+import com.github.rskupnik.pigeon.commons.callback.ServerCallbackHandler;
+import com.github.rskupnik.pigeon.commons.exceptions.PigeonException;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A server which sends every BenchmarkPacket back to the client it names. Clients are numbered in the order they
+ * connect in, which is the order the server accepts them in as long as they connect one at a time, like LoadGenerator does.
+ */
+final class EchoServer {
+
+    static final String PACKAGE = "com.github.rskupnik.pigeon.tcpserver";
+
+    private final PigeonTcpServer server;
+    private final List<Connection> connections = new CopyOnWriteArrayList<>();
+
+    EchoServer(TransportMode transportMode, int port) throws PigeonException {
+        this(transportMode, port, null);
+    }
+
+    /**
+     * Serves the clients over TLS with the given certificates, unless they're null.
+     */
+    EchoServer(TransportMode transportMode, int port, TestCertificates certificates) throws PigeonException {
+        this.server = Pigeon.newServer()
+                .withPort(port)
+                .withTransportMode(transportMode)
+                .withAcceptorThreadsNumber(1)   // More acceptors could register the clients out of order
+                .withPackageToScan(PACKAGE)
+                .withTcpNoDelay(true)
+                .withTlsEnabled(certificates != null)
+                .withTlsKeyStore(certificates != null ? certificates.getServerKeyStore() : null)
+                .withTlsKeyStorePassword(TestCertificates.PASSWORD)
+                .withPacketHandler(new PacketHandler() {
+                    @Override
+                    public void handle(Packet packet) {
+                        echo((BenchmarkPacket) packet);
+                    }
+                })
+                .withServerCallbackHandler(new ServerCallbackHandler() {
+                    @Override
+                    public void onStarted() {
+
+                    }
+
+                    @Override
+                    public void onNewConnection(Connection connection) {
+                        connections.add(connection);
+                    }
+
+                    @Override
+                    public void onDisconnected(Connection connection) {
+
+                    }
+                })
+                .build();
+    }
+
+    void start() {
+        server.start();
+    }
+
+    /**
+     * Waits until the given number of clients has connected, as the callback comes after the client is told it's connected.
+     */
+    void awaitConnections(int count) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+        while (connections.size() < count) {
+            if (System.nanoTime() > deadline)
+                throw new IllegalStateException("Only " + connections.size() + " of " + count + " clients have connected");
+            Thread.sleep(1);
+        }
+    }
+
+    void shutdown() {
+        server.shutdown();
+    }
+
+    private void echo(BenchmarkPacket packet) {
+        try {
+            server.send(packet, connections.get(packet.getClientId()));
+        } catch (PigeonException e) {
+            throw new IllegalStateException(e.getMessage(), e);
+        }
+    }
+}
@@ -0,0 +1,167 @@
+/*
+    Copyright 2016 Radosław Skupnik
+
+    This file is part of pigeon-tcp-server.
+
+    Pigeon-tcp-server is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    Pigeon-tcp-server is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with pigeon-tcp-server; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+
+package com.github.rskupnik.pigeon.tcpserver;
+
+import com.github.rskupnik.pigeon.commons.Connection;
+import com.github.rskupnik.pigeon.commons.Packet;
+import com.github.rskupnik.pigeon.commons.PacketHandler;
+import com.github.rskupnik.pigeon.commons.exceptions.PigeonException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sends a packet to the same connections in two ways - as a group with sendToGroup() and as a synchronized list
+ * of the application's own with send(Packet, List) - while the server holds the given number of other groups,
+ * and measures joining and leaving a group. Only the sending thread's cost is measured: packets are queued for
+ * the connections, whose clients read everything in the background, and the write queues drop the oldest packets
+ * rather than hold the benchmark up if the clients fall behind. Run with more threads (-t) to send from several
+ * threads at once.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GroupSendBenchmark {
+
+    private static final int PORT = 9090;
+    private static final String GROUP = "benchmark";
+
+    @Param({"1", "1000", "100000"})
+    private int groups;
+
+    @Param({"64"})
+    private int members;
+
+    private PigeonTcpServer server;
+    private List<Socket> clients;
+    private List<Connection> list;
+    private Connection joining;
+    private Packet packet;
+
+    @Setup
+    public void setup() throws PigeonException, IOException, InterruptedException {
+        server = Pigeon.newServer()
+                .withPort(PORT)
+                .withTransportMode(TransportMode.NIO)
+                .withPackageToScan(EchoServer.PACKAGE)
+                .withWriteQueueOverflowPolicy(WriteQueueOverflowPolicy.DROP_OLDEST)
+                .withPacketHandler(new PacketHandler() {
+                    @Override
+                    public void handle(Packet packet) {
+
+                    }
+                })
+                .build();
+        server.start();
+
+        clients = new ArrayList<>(members);
+        for (int i = 0; i < members; i++) {
+            final Socket client = new Socket("localhost", PORT);
+            client.getInputStream().read();
+            clients.add(client);
+            Thread reader = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    byte[] buffer = new byte[64 * 1024];
+                    try {
+                        InputStream in = client.getInputStream();
+                        while (in.read(buffer) >= 0) {
+                            // Discards everything
+                        }
+                    } catch (IOException e) {
+                        // Closed at the end of the benchmark
+                    }
+                }
+            });
+            reader.setDaemon(true);
+            reader.start();
+        }
+        while (server.getConnectionCount() < members)
+            Thread.sleep(10);
+
+        // The other groups have a member each, taking turns
+        list = Collections.synchronizedList(new ArrayList<Connection>(server.getConnections().values()));
+        for (Connection connection : list)
+            server.join(connection, GROUP);
+        for (int i = 1; i < groups; i++)
+            server.join(list.get(i % members), GROUP + i);
+        joining = list.get(0);
+
+        BenchmarkPacket benchmarkPacket = new BenchmarkPacket();
+        benchmarkPacket.setClientId(123456);
+        benchmarkPacket.setPayload("hello");
+        packet = benchmarkPacket;
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        for (Socket client : clients)
+            client.close();
+        server.shutdown();
+    }
+
+    @Benchmark
+    public void sendToGroup() throws PigeonException {
+        server.sendToGroup(packet, GROUP);
+    }
+
+    @Benchmark
+    public void sendToList() throws PigeonException {
+        server.send(packet, list);
+    }
+
+    /**
+     * Copies the group's members twice, its cost grows with the group's size rather than with the number of groups.
+     */
+    @Benchmark
+    public void joinAndLeave() throws PigeonException {
+        server.leave(joining, GROUP);
+        server.join(joining, GROUP);
+    }
+
+    public static void main(String[] args) throws Exception {
+        new Runner(new OptionsBuilder()
+                .include(GroupSendBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
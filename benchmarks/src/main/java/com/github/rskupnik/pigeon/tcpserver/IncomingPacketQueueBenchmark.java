@@ -0,0 +1,132 @@
+/*
+    Copyright 2016 Radosław Skupnik
+
+    This file is part of pigeon-tcp-server.
+
+    Pigeon-tcp-server is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    Pigeon-tcp-server is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with pigeon-tcp-server; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+
+package com.github.rskupnik.pigeon.tcpserver;
+
+import com.github.rskupnik.pigeon.commons.IncomingPacketQueue;
+import com.github.rskupnik.pigeon.commons.Packet;
+import com.github.rskupnik.pigeon.commons.PacketHandler;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Control;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Three producers (like three I/O threads) push packets which a single consumer takes, either from the IncomingPacketQueue
+ * of Pigeon Commons with popAll() or from an IncomingPacketRingBuffer with drainTo() and the given wait strategy.
+ *
+ * In Throughput mode the "packets" counter gives the number of packets consumed per microsecond, in SampleTime mode
+ * the percentiles of produce() show how long an I/O thread is held up by adding a packet.
+ * Run main() to get the results together with the GC profiler's numbers.
+ */
+@State(Scope.Group)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class IncomingPacketQueueBenchmark {
+
+    private static final int CAPACITY = 64 * 1024;
+    private static final int MAX_BATCH = 256;
+
+    // "list" stands for IncomingPacketQueue, the rest are the wait strategies of IncomingPacketRingBuffer
+    @Param({"list", "BUSY_SPIN", "YIELD", "PARK"})
+    private String queueType;
+
+    private IncomingPacketQueue list;
+    private IncomingPacketRingBuffer ring;
+    private Packet packet;
+
+    @Setup(Level.Iteration)
+    public void setup() {
+        list = "list".equals(queueType) ? new IncomingPacketQueue() : null;
+        ring = "list".equals(queueType) ? null : new IncomingPacketRingBuffer(CAPACITY, WaitStrategy.valueOf(queueType));
+        packet = new BenchmarkPacket();
+    }
+
+    @Benchmark
+    @Group("queue")
+    @GroupThreads(3)
+    public void produce(Control control) {
+        if (list != null) {
+            list.push(packet);
+            return;
+        }
+
+        // Not push(), which could wait forever for room once the consumer has stopped at the end of the iteration
+        while (!ring.offer(packet) && !control.stopMeasurement)
+            Thread.yield();
+    }
+
+    @Benchmark
+    @Group("queue")
+    @GroupThreads(1)
+    public void consume(ConsumedPackets consumed) throws InterruptedException {
+        if (list != null) {
+            List<Packet> packets = list.popAll();
+            consumed.packets += packets.size();
+        } else {
+            consumed.packets += ring.drainTo(consumed, MAX_BATCH, 1, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class ConsumedPackets implements PacketHandler {
+
+        public long packets;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            packets = 0;
+        }
+
+        @Override
+        public void handle(Packet packet) {
+            // Counted by consume(), as drainTo() returns the number of packets handed over
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        new Runner(new OptionsBuilder()
+                .include(IncomingPacketQueueBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build()).run();
+    }
+}
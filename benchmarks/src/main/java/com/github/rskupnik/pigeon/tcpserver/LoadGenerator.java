@@ -0,0 +1,233 @@
+/*
+    Copyright 2016 Radosław Skupnik
+
+    This file is part of pigeon-tcp-server.
+
+    Pigeon-tcp-server is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    Pigeon-tcp-server is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with pigeon-tcp-server; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+
+package com.github.rskupnik.pigeon.tcpserver;
+
+import com.github.rskupnik.pigeon.commons.exceptions.PigeonException;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Client side of the end-to-end benchmarks. Opens connections to an EchoServer, sends a BenchmarkPacket through them and
+ * waits for it to come back. Every connection is a blocking socket used by the calling thread, the packet is encoded once
+ * and the reply is compared byte by byte, so the generator itself allocates nothing while running.
+ *
+ * Run main() to load a server on its own: every connection gets its own thread, which sends a packet as soon as the previous
+ * one comes back. Once the time is up the throughput and the round-trip latency percentiles are printed.
+ * Without the host and port an echo server is started in this JVM.
+ *
+ * Arguments: [connections] [seconds] [payload bytes] [host:port]
+ */
+public final class LoadGenerator implements Closeable {
+
+    private static final int EMBEDDED_SERVER_PORT = 9063;
+
+    private final Client[] clients;
+
+    /**
+     * Connects the clients one at a time, so that the echo server numbers them in order.
+     */
+    public LoadGenerator(String host, int port, int connections, int payloadBytes) throws IOException, PigeonException {
+        PacketCodec codec = new CompiledPacketCodec(PacketRegistry.load(EchoServer.PACKAGE), false);
+        char[] payload = new char[payloadBytes];
+        Arrays.fill(payload, 'x');
+
+        this.clients = new Client[connections];
+        try {
+            for (int i = 0; i < connections; i++) {
+                BenchmarkPacket packet = new BenchmarkPacket();
+                packet.setClientId(i);
+                packet.setPayload(new String(payload));
+                clients[i] = new Client(connect(host, port), encode(codec, packet));
+            }
+        } catch (IOException e) {
+            close();
+            throw e;
+        }
+    }
+
+    /**
+     * Opens a connection and waits for the server to accept it.
+     */
+    static SocketChannel connect(String host, int port) throws IOException {
+        SocketChannel channel = SocketChannel.open(new InetSocketAddress(host, port));
+        channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+        ByteBuffer accepted = ByteBuffer.allocate(1);
+        while (accepted.hasRemaining()) {
+            if (channel.read(accepted) < 0)
+                throw new EOFException("Connection was closed by the server");
+        }
+        if (accepted.get(0) != 1) {
+            channel.close();
+            throw new IOException("Connection was refused by the server");
+        }
+        return channel;
+    }
+
+    public int getConnectionCount() {
+        return clients.length;
+    }
+
+    /**
+     * Sends a packet through the given connection and waits for it to come back.
+     * Each connection can be used by one thread at a time.
+     */
+    public void roundTrip(int connection) throws IOException {
+        Client client = clients[connection];
+        client.send();
+        client.receive();
+    }
+
+    /**
+     * Sends a packet through every connection, then waits for all of them to come back. Returns the number of packets.
+     * Must not be called while the connections are used by other threads.
+     */
+    public int roundTripAll() throws IOException {
+        for (Client client : clients)
+            client.send();
+        for (Client client : clients)
+            client.receive();
+        return clients.length;
+    }
+
+    @Override
+    public void close() {
+        for (Client client : clients) {
+            if (client != null) {
+                try {
+                    client.channel.close();
+                } catch (IOException e) {
+                    // Closing anyway
+                }
+            }
+        }
+    }
+
+    static ByteBuffer encode(PacketCodec codec, BenchmarkPacket packet) throws PigeonException {
+        PooledBuffer pooled = codec.encode(packet, new BufferPool(false));
+        ByteBuffer encoded = ByteBuffer.allocateDirect(pooled.buffer().remaining());
+        encoded.put(pooled.buffer()).flip();
+        pooled.release();
+        return encoded;
+    }
+
+    private static final class Client {
+
+        private final SocketChannel channel;
+        private final ByteBuffer request;
+        private final ByteBuffer response;
+
+        private Client(SocketChannel channel, ByteBuffer request) {
+            this.channel = channel;
+            this.request = request;
+            this.response = ByteBuffer.allocateDirect(request.capacity());
+        }
+
+        private void send() throws IOException {
+            request.rewind();
+            while (request.hasRemaining())
+                channel.write(request);
+        }
+
+        private void receive() throws IOException {
+            response.clear();
+            while (response.hasRemaining()) {
+                if (channel.read(response) < 0)
+                    throw new EOFException("Connection was closed by the server");
+            }
+            response.flip();
+            request.rewind();
+            if (!response.equals(request))
+                throw new IOException("The server sent back a different packet");
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        int connections = args.length > 0 ? Integer.parseInt(args[0]) : 16;
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+        int payloadBytes = args.length > 2 ? Integer.parseInt(args[2]) : 64;
+
+        EchoServer server = null;
+        String host = "localhost";
+        int port = EMBEDDED_SERVER_PORT;
+        if (args.length > 3) {
+            host = args[3].substring(0, args[3].lastIndexOf(':'));
+            port = Integer.parseInt(args[3].substring(args[3].lastIndexOf(':') + 1));
+        } else {
+            server = new EchoServer(TransportMode.NIO, port);
+            server.start();
+        }
+
+        final LoadGenerator generator = new LoadGenerator(host, port, connections, payloadBytes);
+        if (server != null)
+            server.awaitConnections(connections);
+
+        final LatencyHistogram latencies = new LatencyHistogram();
+        final AtomicLong failures = new AtomicLong();
+        final long end = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+        final CountDownLatch done = new CountDownLatch(connections);
+        long start = System.nanoTime();
+        for (int i = 0; i < connections; i++) {
+            final int connection = i;
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        long sent;
+                        while ((sent = System.nanoTime()) < end) {
+                            generator.roundTrip(connection);
+                            latencies.record(System.nanoTime() - sent);
+                        }
+                    } catch (IOException e) {
+                        failures.incrementAndGet();
+                        System.err.println("Connection " + connection + " failed: " + e.getMessage());
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }, "load-generator-" + i).start();
+        }
+        done.await();
+        long elapsed = System.nanoTime() - start;
+
+        HistogramSnapshot snapshot = latencies.snapshot();
+        System.out.println("Connections:            " + connections + (failures.get() > 0 ? " (" + failures.get() + " failed)" : ""));
+        System.out.println("Payload (bytes):        " + payloadBytes);
+        System.out.println("Round trips:            " + snapshot.getCount());
+        System.out.println("Throughput (packets/s): " + (long) (snapshot.getCount() / (elapsed / 1e9)));
+        System.out.println("Latency (microseconds): p50=" + snapshot.getP50Nanos() / 1000 + ", p90=" + snapshot.getP90Nanos() / 1000
+                + ", p99=" + snapshot.getP99Nanos() / 1000 + ", p99.9=" + snapshot.getP999Nanos() / 1000 + ", max=" + snapshot.getMaxNanos() / 1000);
+
+        generator.close();
+        if (server != null)
+            server.shutdown();
+        System.exit(0);
+    }
+}
@@ -0,0 +1,96 @@
+/*
+    Copyright 2016 Radosław Skupnik
+
+    This file is part of pigeon-tcp-server.
+
+    Pigeon-tcp-server is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    Pigeon-tcp-server is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with pigeon-tcp-server; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+
+package com.github.rskupnik.pigeon.tcpserver;
+
+import com.github.rskupnik.pigeon.commons.exceptions.PigeonException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the reflective codec with the one compiled with LambdaMetafactory, encoding into pooled buffers
+ * and decoding into new packet instances. Run main() to get the results together with the GC profiler's numbers.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PacketCodecBenchmark {
+
+    private static final String PACKAGE = "com.github.rskupnik.pigeon.tcpserver";
+
+    @Param({"reflective", "compiled"})
+    private String codecType;
+
+    private PacketCodec codec;
+    private BufferPool pool;
+    private BenchmarkPacket packet;
+    private ByteBuffer encoded;
+
+    @Setup
+    public void setup() throws PigeonException {
+        PacketRegistry registry = PacketRegistry.scan(PACKAGE);
+        codec = "compiled".equals(codecType) ? new CompiledPacketCodec(registry, false) : new ReflectivePacketCodec(registry, false);
+        pool = new BufferPool(true);
+
+        packet = new BenchmarkPacket();
+        packet.setClientId(123456);
+        packet.setPayload("hello");
+        encoded = codec.encode(packet, new BufferPool(false)).buffer();
+    }
+
+    @Benchmark
+    public void encode(Blackhole blackhole) throws PigeonException {
+        PooledBuffer buffer = codec.encode(packet, pool);
+        blackhole.consume(buffer.buffer().remaining());
+        buffer.release();
+    }
+
+    @Benchmark
+    public void decode(Blackhole blackhole) throws PigeonException {
+        encoded.rewind();
+        blackhole.consume(codec.decode(encoded));
+    }
+
+    public static void main(String[] args) throws Exception {
+        new Runner(new OptionsBuilder()
+                .include(PacketCodecBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build()).run();
+    }
+}
@@ -0,0 +1,146 @@
+/*
+    Copyright 2016 Radosław Skupnik
+
+    This file is part of pigeon-tcp-server.
+
+    Pigeon-tcp-server is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    Pigeon-tcp-server is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with pigeon-tcp-server; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+
+package com.github.rskupnik.pigeon.tcpserver;
+
+import com.github.rskupnik.pigeon.commons.Connection;
+import com.github.rskupnik.pigeon.commons.IncomingPacketHandleMode;
+import com.github.rskupnik.pigeon.commons.Packet;
+import com.github.rskupnik.pigeon.commons.PacketHandler;
+import com.github.rskupnik.pigeon.commons.exceptions.PigeonException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures how many received packets per microsecond an I/O thread can hand over to the application, without the network:
+ * - handler: the packet handler runs on the I/O thread,
+ * - dispatch: the packet is queued for a dispatch thread running the handler,
+ * - queue: the packet is added to the QUEUE mode queue, which a consumer thread drains.
+ * With metrics enabled the same paths also update the server's counters and histograms.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PacketDispatchBenchmark {
+
+    private static final int PORT = 9060;
+    private static final int MAX_BATCH = 256;
+
+    @Param({"handler", "dispatch", "queue"})
+    private String path;
+
+    @Param({"false", "true"})
+    private boolean metricsEnabled;
+
+    private PigeonTcpServer server;
+    private Thread consumer;
+    private BenchmarkPacket packet;
+
+    private volatile boolean exit;
+
+    @Setup
+    public void setup() throws PigeonException {
+        PacketHandler handler = new PacketHandler() {
+            @Override
+            public void handle(Packet packet) {
+                // The application's work is not measured here
+            }
+        };
+
+        PigeonTcpServerBuilder builder = Pigeon.newServer()
+                .withPort(PORT)
+                .withTransportMode(TransportMode.NIO)
+                .withEventLoopThreadsNumber(1)
+                .withPackageToScan(EchoServer.PACKAGE)
+                .withMetricsEnabled(metricsEnabled);
+        if ("queue".equals(path)) {
+            builder.withIncomingPacketHandleMode(IncomingPacketHandleMode.QUEUE);
+        } else {
+            builder.withPacketHandler(handler)
+                    .withDispatchThreadsNumber("dispatch".equals(path) ? 1 : 0)
+                    // There's no connection to key the packets by
+                    .withDispatchKeyExtractor(new DispatchKeyExtractor() {
+                        @Override
+                        public Object getKey(Connection connection, Packet packet) {
+                            return ((BenchmarkPacket) packet).getClientId();
+                        }
+                    });
+        }
+        server = builder.build();
+        server.start();
+
+        if ("queue".equals(path)) {
+            final IncomingPacketRingBuffer queue = server.getIncomingPacketRingBuffer();
+            final PacketHandler consumerHandler = handler;
+            consumer = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        while (!exit)
+                            queue.drainTo(consumerHandler, MAX_BATCH, 100, TimeUnit.MILLISECONDS);
+                    } catch (InterruptedException e) {
+                        // Leaving
+                    }
+                }
+            }, "benchmark-consumer");
+            consumer.setDaemon(true);
+            consumer.start();
+        }
+
+        packet = new BenchmarkPacket();
+        packet.setPayload("hello");
+    }
+
+    @TearDown
+    public void tearDown() throws InterruptedException {
+        exit = true;
+        server.shutdown();
+        if (consumer != null)
+            consumer.join();
+    }
+
+    @Benchmark
+    public void receive() {
+        server.onPacketReceived(null, 1, packet);
+    }
+
+    public static void main(String[] args) throws Exception {
+        new Runner(new OptionsBuilder()
+                .include(PacketDispatchBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
@@ -0,0 +1,158 @@
+/*
+    Copyright 2016 Radosław Skupnik
+
+    This file is part of pigeon-tcp-server.
+
+    Pigeon-tcp-server is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    Pigeon-tcp-server is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with pigeon-tcp-server; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+
+package com.github.rskupnik.pigeon.tcpserver;
+
+import com.github.rskupnik.pigeon.commons.Packet;
+import com.github.rskupnik.pigeon.commons.exceptions.PigeonException;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Control;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Three producers (like three I/O threads) add packets to the QUEUE mode queue, which a single consumer drains in batches,
+ * acknowledging every batch - without a journal, with the journal synced every 100 ms (the default) and with every packet
+ * synced on its own. The journal's segments are written to a temporary directory, so it should be on the disk the server
+ * would use.
+ *
+ * In Throughput mode the "packets" counter gives the number of packets consumed per microsecond, in SampleTime mode
+ * the percentiles of produce() show how long an I/O thread is held up by adding a packet, journal included.
+ * Run main() to get the results together with the GC profiler's numbers.
+ */
+@State(Scope.Group)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PacketJournalBenchmark {
+
+    private static final String PACKAGE = "com.github.rskupnik.pigeon.tcpserver";
+    private static final int CAPACITY = 64 * 1024;
+    private static final int MAX_BATCH = 256;
+    private static final int SEGMENT_SIZE = 64 * 1024 * 1024;
+
+    @Param({"none", "batched", "every_packet"})
+    private String journalType;
+
+    private PacketCodec codec;
+    private BufferPool pool;
+    private File directory;
+    private PacketJournal journal;
+    private IncomingPacketRingBuffer queue;
+    private Packet packet;
+
+    @Setup
+    public void setup() throws PigeonException {
+        codec = new CompiledPacketCodec(PacketRegistry.scan(PACKAGE), false);
+        pool = new BufferPool(true);
+
+        BenchmarkPacket benchmarkPacket = new BenchmarkPacket();
+        benchmarkPacket.setClientId(123456);
+        benchmarkPacket.setPayload("hello");
+        packet = benchmarkPacket;
+    }
+
+    @Setup(Level.Iteration)
+    public void openJournal() throws IOException {
+        if (!"none".equals(journalType)) {
+            directory = Files.createTempDirectory("pigeon-journal-benchmark").toFile();
+            journal = new PacketJournal(directory.getPath(), SEGMENT_SIZE, "batched".equals(journalType) ? 100 : 0, 0, codec, pool);
+        }
+        queue = new IncomingPacketRingBuffer(CAPACITY, WaitStrategy.PARK, null, journal);
+    }
+
+    @TearDown(Level.Iteration)
+    public void closeJournal() {
+        if (journal != null) {
+            journal.close();
+            for (File file : directory.listFiles())
+                file.delete();
+            directory.delete();
+            journal = null;
+        }
+    }
+
+    @Benchmark
+    @Group("journal")
+    @GroupThreads(3)
+    public void produce(Control control) {
+        // Not push(), which could wait forever for room once the consumer has stopped at the end of the iteration
+        while (!queue.offer(packet) && !control.stopMeasurement)
+            Thread.yield();
+    }
+
+    @Benchmark
+    @Group("journal")
+    @GroupThreads(1)
+    public void consume(ConsumedPackets consumed) throws InterruptedException {
+        int count = queue.drainTo(consumed, MAX_BATCH, 1, TimeUnit.MILLISECONDS);
+        if (count > 0 && journal != null)
+            journal.acknowledge(consumed.lastSequence);
+        consumed.packets += count;
+    }
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class ConsumedPackets implements SequencedPacketHandler {
+
+        public long packets;
+        private long lastSequence;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            packets = 0;
+        }
+
+        @Override
+        public void handle(Packet packet, long sequence) {
+            lastSequence = sequence;
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        new Runner(new OptionsBuilder()
+                .include(PacketJournalBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build()).run();
+    }
+}
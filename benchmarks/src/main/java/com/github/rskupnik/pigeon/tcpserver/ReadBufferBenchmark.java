@@ -0,0 +1,143 @@
+/*
+    Copyright 2016 Radosław Skupnik
+
+    This file is part of pigeon-tcp-server.
+
+    Pigeon-tcp-server is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    Pigeon-tcp-server is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with pigeon-tcp-server; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+
+package com.github.rskupnik.pigeon.tcpserver;
+
+import com.github.rskupnik.pigeon.commons.Packet;
+import com.github.rskupnik.pigeon.commons.PacketHandler;
+import com.github.rskupnik.pigeon.commons.exceptions.PigeonException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Sends packets to a local NIO server and waits until it has handled them, for two kinds of clients:
+ * - chatty sends a single small packet at a time,
+ * - bulk sends 64 packets of 8 KiB at once,
+ * with the read buffer fixed at 1 KiB (how it was sized before it became adaptive) or sized by the predictor
+ * (the defaults). Once the benchmark is done, the average number of bytes the server got per read is printed -
+ * chatty clients should get by with small buffers, bulk ones with far fewer reads.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ReadBufferBenchmark {
+
+    private static final int PORT = 9091;
+    private static final int BULK_PACKETS = 64;
+    private static final int BULK_PAYLOAD_BYTES = 8 * 1024;
+    private static final int CHATTY_PAYLOAD_BYTES = 16;
+
+    @Param({"chatty", "bulk"})
+    private String traffic;
+
+    @Param({"fixed", "adaptive"})
+    private String readBuffer;
+
+    private final AtomicLong handled = new AtomicLong();
+    private PigeonTcpServer server;
+    private SocketChannel client;
+    private ByteBuffer packets;
+    private int packetsPerOperation;
+    private long expected;
+
+    @Setup
+    public void setup() throws PigeonException, IOException, InterruptedException {
+        boolean adaptive = "adaptive".equals(readBuffer);
+        server = Pigeon.newServer()
+                .withPort(PORT)
+                .withTransportMode(TransportMode.NIO)
+                .withPackageToScan(EchoServer.PACKAGE)
+                .withMetricsEnabled(true)
+                .withReadBufferMinSize(adaptive ? TcpServerDefaults.READ_BUFFER_MIN_SIZE : 1024)
+                .withReadBufferInitialSize(1024)
+                .withReadBufferMaxSize(adaptive ? TcpServerDefaults.READ_BUFFER_MAX_SIZE : 1024)
+                .withPacketHandler(new PacketHandler() {
+                    @Override
+                    public void handle(Packet packet) {
+                        handled.incrementAndGet();
+                    }
+                })
+                .build();
+        server.start();
+        Thread.sleep(100);
+        client = LoadGenerator.connect("localhost", PORT);
+
+        boolean bulk = "bulk".equals(traffic);
+        char[] payload = new char[bulk ? BULK_PAYLOAD_BYTES : CHATTY_PAYLOAD_BYTES];
+        Arrays.fill(payload, 'x');
+        BenchmarkPacket packet = new BenchmarkPacket();
+        packet.setPayload(new String(payload));
+        ByteBuffer encoded = LoadGenerator.encode(new CompiledPacketCodec(PacketRegistry.scan(EchoServer.PACKAGE), false), packet);
+
+        packetsPerOperation = bulk ? BULK_PACKETS : 1;
+        packets = ByteBuffer.allocateDirect(encoded.remaining() * packetsPerOperation);
+        for (int i = 0; i < packetsPerOperation; i++)
+            packets.put(encoded.duplicate());
+        packets.flip();
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        MetricsSnapshot metrics = server.getMetrics();
+        System.out.println();
+        System.out.println("Bytes per read: " + (metrics.getSocketReads() > 0 ? metrics.getBytesReceived() / metrics.getSocketReads() : 0));
+
+        client.close();
+        server.shutdown();
+    }
+
+    @Benchmark
+    public void send() throws IOException {
+        ByteBuffer buffer = packets.duplicate();
+        while (buffer.hasRemaining())
+            client.write(buffer);
+        expected += packetsPerOperation;
+        while (handled.get() < expected)
+            Thread.yield();
+    }
+
+    public static void main(String[] args) throws Exception {
+        new Runner(new OptionsBuilder()
+                .include(ReadBufferBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
@@ -0,0 +1,150 @@
+/*
+    Copyright 2016 Radosław Skupnik
+
+    This file is part of pigeon-tcp-server.
+
+    Pigeon-tcp-server is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    Pigeon-tcp-server is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with pigeon-tcp-server; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+
+package com.github.rskupnik.pigeon.tcpserver;
+
+import com.github.rskupnik.pigeon.commons.Connection;
+import com.github.rskupnik.pigeon.commons.Packet;
+import com.github.rskupnik.pigeon.commons.PacketHandler;
+import com.github.rskupnik.pigeon.commons.exceptions.PigeonException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.net.Socket;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Publishes a packet to a group on the first node of a localhost cluster and waits until it has reached the group's
+ * members, one client connected to every node - so the SampleTime percentiles are the latency of a publication
+ * fanned out over the given number of nodes, the first node's own client included. Once the benchmark is done,
+ * the number of bytes the nodes sent each other per publication is printed.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RelayBenchmark {
+
+    private static final int PORT = 9065;
+    private static final int RELAY_PORT = 9165;
+    private static final String PACKAGE = "com.github.rskupnik.pigeon.tcpserver";
+    private static final String GROUP = "benchmark";
+
+    @Param({"1", "2", "4", "8"})
+    private int nodes;
+
+    private PigeonTcpServer[] servers;
+    private Socket[] clients;
+    private DataInputStream[] inputs;
+    private Packet packet;
+    private byte[] received;
+    private long publications;
+
+    @Setup
+    public void setup() throws PigeonException, IOException, InterruptedException {
+        // Every node links to the nodes started before it, which makes a full mesh
+        servers = new PigeonTcpServer[nodes];
+        for (int i = 0; i < nodes; i++) {
+            StringBuilder peers = new StringBuilder();
+            for (int j = 0; j < i; j++)
+                peers.append(j > 0 ? "," : "").append("localhost:").append(RELAY_PORT + j);
+            servers[i] = Pigeon.newServer()
+                    .withPort(PORT + i)
+                    .withTransportMode(TransportMode.NIO)
+                    .withPackageToScan(PACKAGE)
+                    .withMetricsEnabled(true)
+                    .withRelayPort(RELAY_PORT + i)
+                    .withRelayPeers(peers.toString())
+                    .withPacketHandler(new PacketHandler() {
+                        @Override
+                        public void handle(Packet packet) {
+
+                        }
+                    })
+                    .build();
+            servers[i].start();
+        }
+
+        clients = new Socket[nodes];
+        inputs = new DataInputStream[nodes];
+        for (int i = 0; i < nodes; i++) {
+            clients[i] = new Socket("localhost", PORT + i);
+            inputs[i] = new DataInputStream(clients[i].getInputStream());
+            inputs[i].read();
+        }
+        for (PigeonTcpServer server : servers) {
+            while (server.getConnectionCount() < 1 || server.getRelayLinkCount() < nodes - 1)
+                Thread.sleep(10);
+            for (Connection connection : server.getConnections().values())
+                server.join(connection, GROUP);
+        }
+        Thread.sleep(500);  // For the subscriptions to reach the other nodes
+
+        BenchmarkPacket benchmarkPacket = new BenchmarkPacket();
+        benchmarkPacket.setClientId(123456);
+        benchmarkPacket.setPayload("hello");
+        packet = benchmarkPacket;
+        received = new byte[new CompiledPacketCodec(PacketRegistry.scan(PACKAGE), false).encode(packet, new BufferPool(false)).buffer().remaining()];
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        long relayBytes = 0;
+        for (PigeonTcpServer server : servers)
+            relayBytes += server.getMetrics().getRelayBytesSent();
+        System.out.println();
+        System.out.println("Relay bytes per publication: " + (publications > 0 ? relayBytes / publications : 0));
+
+        for (Socket client : clients)
+            client.close();
+        for (PigeonTcpServer server : servers)
+            server.shutdown();
+    }
+
+    @Benchmark
+    public void sendToGroup() throws PigeonException, IOException {
+        servers[0].sendToGroup(packet, GROUP);
+        for (DataInputStream input : inputs)
+            input.readFully(received);
+        publications++;
+    }
+
+    public static void main(String[] args) throws Exception {
+        new Runner(new OptionsBuilder()
+                .include(RelayBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
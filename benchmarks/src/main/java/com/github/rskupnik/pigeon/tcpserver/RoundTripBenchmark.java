@@ -0,0 +1,113 @@
+/*
+    Copyright 2016 Radosław Skupnik
+
+    This file is part of pigeon-tcp-server.
+
+    Pigeon-tcp-server is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    Pigeon-tcp-server is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with pigeon-tcp-server; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+
+package com.github.rskupnik.pigeon.tcpserver;
+
+import com.github.rskupnik.pigeon.commons.exceptions.PigeonException;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sends packets to a local echo server and waits for them to come back, with the given number of open connections:
+ * - roundTrip uses a single connection while the others stay idle, its SampleTime percentiles are the round-trip latency,
+ * - roundTripAll sends a packet through every connection before waiting for the replies, the "packets" counter
+ *   gives the throughput in packets per microsecond.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RoundTripBenchmark {
+
+    private static final int PORT = 9061;
+
+    @Param({"blocking", "nio"})
+    private String transportMode;
+
+    @Param({"1", "16", "256"})
+    private int connections;
+
+    @Param({"64"})
+    private int payloadBytes;
+
+    private EchoServer server;
+    private LoadGenerator generator;
+
+    @Setup
+    public void setup() throws PigeonException, IOException, InterruptedException {
+        server = new EchoServer(TransportMode.fromString(transportMode), PORT);
+        server.start();
+        generator = new LoadGenerator("localhost", PORT, connections, payloadBytes);
+        server.awaitConnections(connections);
+    }
+
+    @TearDown
+    public void tearDown() {
+        generator.close();
+        server.shutdown();
+    }
+
+    @Benchmark
+    public void roundTrip() throws IOException {
+        generator.roundTrip(0);
+    }
+
+    @Benchmark
+    public void roundTripAll(RoundTrips roundTrips) throws IOException {
+        roundTrips.packets += generator.roundTripAll();
+    }
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class RoundTrips {
+
+        public long packets;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            packets = 0;
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        new Runner(new OptionsBuilder()
+                .include(RoundTripBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
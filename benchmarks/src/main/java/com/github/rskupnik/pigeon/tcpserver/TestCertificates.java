@@ -0,0 +1,114 @@
+/*
+    Copyright 2016 Radosław Skupnik
+
+    This file is part of pigeon-tcp-server.
+
+    Pigeon-tcp-server is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    Pigeon-tcp-server is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with pigeon-tcp-server; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+
+package com.github.rskupnik.pigeon.tcpserver;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.TrustManagerFactory;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A throwaway certificate authority and a certificate for localhost signed by it, generated with the JDK's keytool
+ * into a temporary directory, so that no key material has to be kept in the repository. The server's key store holds
+ * the whole chain, the clients trust the authority only.
+ */
+final class TestCertificates {
+
+    static final String PASSWORD = "benchmark";
+
+    private final File directory;
+
+    TestCertificates() throws IOException {
+        this.directory = Files.createTempDirectory("pigeon-tls-").toFile();
+        keytool("-genkeypair", "-alias", "ca", "-keyalg", "EC", "-dname", "CN=Pigeon Test CA", "-ext", "bc:c", "-validity", "2",
+                "-keystore", "ca.p12");
+        keytool("-exportcert", "-rfc", "-alias", "ca", "-keystore", "ca.p12", "-file", "ca.pem");
+        keytool("-genkeypair", "-alias", "server", "-keyalg", "EC", "-dname", "CN=localhost", "-validity", "2",
+                "-keystore", "server.p12");
+        keytool("-certreq", "-alias", "server", "-keystore", "server.p12", "-file", "server.csr");
+        keytool("-gencert", "-rfc", "-alias", "ca", "-keystore", "ca.p12", "-infile", "server.csr", "-outfile", "server.pem",
+                "-ext", "san=dns:localhost,ip:127.0.0.1", "-validity", "2");
+        keytool("-importcert", "-noprompt", "-alias", "ca", "-keystore", "server.p12", "-file", "ca.pem");
+        keytool("-importcert", "-alias", "server", "-keystore", "server.p12", "-file", "server.pem");
+        keytool("-importcert", "-noprompt", "-alias", "ca", "-keystore", "trust.p12", "-file", "ca.pem");
+    }
+
+    String getServerKeyStore() {
+        return new File(directory, "server.p12").getPath();
+    }
+
+    /**
+     * Returns a new client context trusting the test authority, with a session cache of its own.
+     */
+    SSLContext newClientContext() throws IOException, GeneralSecurityException {
+        KeyStore trusted = KeyStore.getInstance("PKCS12");
+        try (InputStream input = new FileInputStream(new File(directory, "trust.p12"))) {
+            trusted.load(input, PASSWORD.toCharArray());
+        }
+        TrustManagerFactory trustManagers = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+        trustManagers.init(trusted);
+
+        SSLContext context = SSLContext.getInstance("TLS");
+        context.init(null, trustManagers.getTrustManagers(), null);
+        return context;
+    }
+
+    void delete() {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files)
+                file.delete();
+        }
+        directory.delete();
+    }
+
+    private void keytool(String... args) throws IOException {
+        List<String> command = new ArrayList<>();
+        command.add(new File(System.getProperty("java.home"), "bin" + File.separator + "keytool").getPath());
+        command.addAll(Arrays.asList(args));
+        command.addAll(Arrays.asList("-storepass", PASSWORD, "-keypass", PASSWORD));
+
+        Process process = new ProcessBuilder(command).directory(directory).redirectErrorStream(true).start();
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        try (InputStream input = process.getInputStream()) {
+            byte[] buffer = new byte[1024];
+            int read;
+            while ((read = input.read(buffer)) > 0)
+                output.write(buffer, 0, read);
+        }
+        try {
+            if (process.waitFor() != 0)
+                throw new IOException("keytool " + args[0] + " failed: " + output.toString("UTF-8"));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for keytool");
+        }
+    }
+}
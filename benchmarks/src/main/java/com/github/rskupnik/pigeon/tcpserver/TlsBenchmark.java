@@ -0,0 +1,227 @@
+/*
+    Copyright 2016 Radosław Skupnik
+
+    This file is part of pigeon-tcp-server.
+
+    Pigeon-tcp-server is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    Pigeon-tcp-server is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with pigeon-tcp-server; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+
+package com.github.rskupnik.pigeon.tcpserver;
+
+import com.github.rskupnik.pigeon.commons.Packet;
+import com.github.rskupnik.pigeon.commons.PacketHandler;
+import com.github.rskupnik.pigeon.commons.exceptions.PigeonException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSessionContext;
+import javax.net.ssl.SSLSocket;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures TLS on the NIO transport against certificates of a throwaway local authority:
+ *
+ * fullHandshake - connections per second when every client goes through the whole key exchange,
+ * resumedHandshake - connections per second when the clients resume their previous session,
+ * roundTrip - round trips per second of a packet over an established connection, to compare with RoundTripBenchmark.
+ *
+ * Handshakes are measured up to the accept byte, which the server sends only once the handshake has finished.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TlsBenchmark {
+
+    private static final int PORT = 9064;
+
+    @State(Scope.Benchmark)
+    public static class Handshakes {
+
+        @Param({"TLSv1.2", "TLSv1.3"})
+        private String protocol;
+
+        private TestCertificates certificates;
+        private PigeonTcpServer server;
+        private SSLContext clientContext;
+
+        @Setup
+        public void setup() throws IOException, GeneralSecurityException, PigeonException {
+            certificates = new TestCertificates();
+            server = Pigeon.newServer()
+                    .withPort(PORT)
+                    .withTransportMode(TransportMode.NIO)
+                    .withPackageToScan(EchoServer.PACKAGE)
+                    .withTcpNoDelay(true)
+                    .withTlsEnabled(true)
+                    .withTlsKeyStore(certificates.getServerKeyStore())
+                    .withTlsKeyStorePassword(TestCertificates.PASSWORD)
+                    .withPacketHandler(new PacketHandler() {
+                        @Override
+                        public void handle(Packet packet) {
+
+                        }
+                    })
+                    .build();
+            server.start();
+            clientContext = certificates.newClientContext();
+        }
+
+        @TearDown
+        public void tearDown() {
+            server.shutdown();
+            certificates.delete();
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class Echo {
+
+        @Param({"TLSv1.3"})
+        private String protocol;
+
+        @Param({"64", "4096"})
+        private int payloadBytes;
+
+        private TestCertificates certificates;
+        private EchoServer server;
+        private SSLContext clientContext;
+        private int clients;
+
+        @Setup
+        public void setup() throws IOException, GeneralSecurityException, PigeonException {
+            certificates = new TestCertificates();
+            server = new EchoServer(TransportMode.NIO, PORT, certificates);
+            server.start();
+            clientContext = certificates.newClientContext();
+        }
+
+        @TearDown
+        public void tearDown() {
+            server.shutdown();
+            certificates.delete();
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Client {
+
+        private SSLSocket socket;
+        private OutputStream output;
+        private DataInputStream input;
+        private byte[] request;
+        private byte[] response;
+
+        @Setup
+        public void setup(Echo echo) throws IOException, PigeonException, InterruptedException {
+            BenchmarkPacket packet = new BenchmarkPacket();
+            char[] payload = new char[echo.payloadBytes];
+            Arrays.fill(payload, 'x');
+            packet.setPayload(new String(payload));
+
+            // The clients connect one at a time, so that the echo server numbers them in order
+            synchronized (echo) {
+                packet.setClientId(echo.clients);
+                socket = connect(echo.clientContext, echo.protocol);
+                echo.server.awaitConnections(++echo.clients);
+            }
+
+            ByteBuffer encoded = LoadGenerator.encode(new CompiledPacketCodec(PacketRegistry.load(EchoServer.PACKAGE), false), packet);
+            request = new byte[encoded.remaining()];
+            encoded.get(request);
+            response = new byte[request.length];
+            output = socket.getOutputStream();
+            input = new DataInputStream(socket.getInputStream());
+        }
+
+        @TearDown
+        public void tearDown() throws IOException {
+            socket.close();
+        }
+    }
+
+    @Benchmark
+    public void fullHandshake(Handshakes handshakes) throws IOException {
+        SSLSocket socket = connect(handshakes.clientContext, handshakes.protocol);
+        close(socket);
+
+        // Forgets the session, together with any TLS 1.3 tickets which came with it
+        SSLSessionContext sessions = handshakes.clientContext.getClientSessionContext();
+        for (byte[] id : Collections.list(sessions.getIds())) {
+            if (sessions.getSession(id) != null)
+                sessions.getSession(id).invalidate();
+        }
+    }
+
+    @Benchmark
+    public void resumedHandshake(Handshakes handshakes) throws IOException {
+        close(connect(handshakes.clientContext, handshakes.protocol));
+    }
+
+    @Benchmark
+    public void roundTrip(Client client) throws IOException {
+        client.output.write(client.request);
+        client.output.flush();
+        client.input.readFully(client.response);
+        if (!Arrays.equals(client.request, client.response))
+            throw new IOException("The server sent back a different packet");
+    }
+
+    /**
+     * Opens a connection, goes through the handshake and waits for the server to accept it.
+     */
+    private static SSLSocket connect(SSLContext context, String protocol) throws IOException {
+        SSLSocket socket = (SSLSocket) context.getSocketFactory().createSocket("localhost", PORT);
+        socket.setEnabledProtocols(new String[] {protocol});
+        socket.setTcpNoDelay(true);
+        if (socket.getInputStream().read() != 1) {
+            socket.close();
+            throw new IOException("Connection was refused by the server");
+        }
+        return socket;
+    }
+
+    private static void close(SSLSocket socket) throws IOException {
+        socket.setSoLinger(true, 0);    // Resets the connection instead of leaving it in TIME_WAIT, which would use up the ports
+        socket.close();
+    }
+
+    public static void main(String[] args) throws Exception {
+        new Runner(new OptionsBuilder()
+                .include(TlsBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
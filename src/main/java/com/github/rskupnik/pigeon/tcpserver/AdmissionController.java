@@ -0,0 +1,168 @@
+/*
+    Copyright 2016 Radosław Skupnik
+
+    This file is part of pigeon-tcp-server.
+
+    Pigeon-tcp-server is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    Pigeon-tcp-server is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with pigeon-tcp-server; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+
+package com.github.rskupnik.pigeon.tcpserver;
+
+import java.net.InetAddress;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Decides whether a newly accepted connection is let in, before anything is allocated for it.
+ *
+ * The checks go from the cheapest to the most expensive: the number of connections, the global and the per-host
+ * accept rates and finally the load of the server - the number of received packets waiting to be handled and the
+ * recent handler time. A client reconnecting in a loop is turned away by its own bucket without touching the others'.
+ *
+ * Admitted connections hold a slot until release() is called, so the connection limit is exact even with many acceptors.
+ */
+final class AdmissionController {
+
+    private static final int HOST_BUCKETS_CLEANUP_THRESHOLD = 4096;
+    private static final long HOST_BUCKETS_CLEANUP_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private final PigeonTcpServer server;
+    private final int maxConnections;
+    private final int acceptRateLimit;
+    private final int acceptRateLimitPerHost;
+    private final int maxPendingPackets;
+    private final long maxHandlerTimeNanos;
+    private final TokenBucket acceptRate;   // Null when the rate isn't limited
+
+    private final AtomicInteger admitted = new AtomicInteger();
+    private final ConcurrentMap<InetAddress, TokenBucket> hostAcceptRates = new ConcurrentHashMap<>();
+    private final AtomicLong lastHostBucketsCleanup = new AtomicLong(System.nanoTime());
+
+    /**
+     * A limit of 0 disables that check.
+     */
+    AdmissionController(PigeonTcpServer server, int maxConnections, int acceptRateLimit, int acceptRateLimitPerHost,
+                        int maxPendingPackets, int maxHandlerTimeMicros) {
+        this.server = server;
+        this.maxConnections = maxConnections;
+        this.acceptRateLimit = acceptRateLimit;
+        this.acceptRateLimitPerHost = acceptRateLimitPerHost;
+        this.maxPendingPackets = maxPendingPackets;
+        this.maxHandlerTimeNanos = TimeUnit.MICROSECONDS.toNanos(maxHandlerTimeMicros);
+        this.acceptRate = acceptRateLimit > 0 ? new TokenBucket(acceptRateLimit, System.nanoTime()) : null;
+    }
+
+    /**
+     * Returns null if the connection is admitted, otherwise the reason it isn't. An admitted connection must be released
+     * once it's closed, or if it fails to be set up.
+     */
+    String admit(InetAddress address) {
+        if (!reserve())
+            return "the limit of " + maxConnections + " connections has been reached";
+
+        String rejection = check(address);
+        if (rejection != null)
+            release();
+        return rejection;
+    }
+
+    void release() {
+        admitted.decrementAndGet();
+    }
+
+    int getAdmittedConnections() {
+        return admitted.get();
+    }
+
+    int getConnectionLimit() {
+        return maxConnections;
+    }
+
+    /**
+     * Returns the number of hosts which have an accept rate bucket.
+     */
+    int getTrackedHosts() {
+        return hostAcceptRates.size();
+    }
+
+    private boolean reserve() {
+        while (true) {
+            int current = admitted.get();
+            if (maxConnections > 0 && current >= maxConnections)
+                return false;
+            if (admitted.compareAndSet(current, current + 1))
+                return true;
+        }
+    }
+
+    private String check(InetAddress address) {
+        if (acceptRate != null || acceptRateLimitPerHost > 0) {
+            long now = System.nanoTime();
+            if (acceptRate != null && !acceptRate.tryAcquire(now))
+                return "more than " + acceptRateLimit + " connections per second are being accepted";
+            if (acceptRateLimitPerHost > 0 && !hostAcceptRate(address, now).tryAcquire(now))
+                return "the host opens more than " + acceptRateLimitPerHost + " connections per second";
+        }
+
+        if (maxPendingPackets > 0) {
+            int pending = server.getPendingPackets();
+            if (pending > maxPendingPackets)
+                return pending + " received packets are waiting to be handled";
+        }
+
+        if (maxHandlerTimeNanos > 0) {
+            long handlerNanos = server.getServerMetrics().getRecentHandlerTimeNanos();
+            if (handlerNanos > maxHandlerTimeNanos)
+                return "handling a packet takes " + TimeUnit.NANOSECONDS.toMicros(handlerNanos) + " us";
+        }
+
+        return null;
+    }
+
+    private TokenBucket hostAcceptRate(InetAddress address, long now) {
+        TokenBucket bucket = hostAcceptRates.get(address);
+        if (bucket == null) {
+            cleanUpHostBuckets(now);
+            TokenBucket created = new TokenBucket(acceptRateLimitPerHost, now);
+            bucket = hostAcceptRates.putIfAbsent(address, created);
+            if (bucket == null)
+                bucket = created;
+        }
+        return bucket;
+    }
+
+    /**
+     * Hosts which have stopped connecting would otherwise keep their buckets forever. Once there are many of them,
+     * full buckets are thrown away - at most once a second and by a single acceptor.
+     */
+    private void cleanUpHostBuckets(long now) {
+        if (hostAcceptRates.size() < HOST_BUCKETS_CLEANUP_THRESHOLD)
+            return;
+
+        long last = lastHostBucketsCleanup.get();
+        if (now - last < HOST_BUCKETS_CLEANUP_INTERVAL_NANOS || !lastHostBucketsCleanup.compareAndSet(last, now))
+            return;
+
+        Iterator<TokenBucket> buckets = hostAcceptRates.values().iterator();
+        while (buckets.hasNext()) {
+            if (buckets.next().isFull(now))
+                buckets.remove();
+        }
+    }
+}
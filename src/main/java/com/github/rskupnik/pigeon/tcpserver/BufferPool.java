@@ -0,0 +1,79 @@
+/*
+    Copyright 2016 Radosław Skupnik
+
+    This file is part of pigeon-tcp-server.
+
+    Pigeon-tcp-server is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    Pigeon-tcp-server is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with pigeon-tcp-server; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+
+package com.github.rskupnik.pigeon.tcpserver;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Pool of heap or direct buffers in power of two size classes from MIN_SIZE to MAX_SIZE bytes, each with its own
+ * Recycler. Larger buffers are allocated on demand and left to the garbage collector after release.
+ */
+final class BufferPool {
+
+    static final int MIN_SIZE = 64;
+    static final int MAX_SIZE = 64 * 1024;
+
+    private static final int THREAD_CACHE_SIZE = 64;
+    private static final int SHARED_POOL_BYTES = 4 * 1024 * 1024;     // Per size class
+
+    private final boolean direct;
+    private final Recycler<PooledBuffer>[] sizeClasses;
+
+    @SuppressWarnings("unchecked")
+    BufferPool(boolean direct) {
+        this.direct = direct;
+        this.sizeClasses = new Recycler[sizeClass(MAX_SIZE) + 1];
+        for (int i = 0; i < sizeClasses.length; i++)
+            sizeClasses[i] = new Recycler<>(THREAD_CACHE_SIZE, Math.max(SHARED_POOL_BYTES / (MIN_SIZE << i), THREAD_CACHE_SIZE));
+    }
+
+    /**
+     * Returns a buffer with its position at 0 and its limit at the requested size.
+     */
+    PooledBuffer acquire(int size) {
+        if (size > MAX_SIZE)
+            return new PooledBuffer(allocate(size), null).init(size);
+
+        int sizeClass = sizeClass(size);
+        PooledBuffer buffer = sizeClasses[sizeClass].get();
+        if (buffer == null)
+            buffer = new PooledBuffer(allocate(MIN_SIZE << sizeClass), this);
+        return buffer.init(size);
+    }
+
+    void release(PooledBuffer buffer) {
+        sizeClasses[sizeClass(buffer.buffer().capacity())].recycle(buffer);
+    }
+
+    boolean isDirect() {
+        return direct;
+    }
+
+    private ByteBuffer allocate(int capacity) {
+        return direct ? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity);
+    }
+
+    private static int sizeClass(int size) {
+        if (size <= MIN_SIZE)
+            return 0;
+        return 32 - Integer.numberOfLeadingZeros(size - 1) - Integer.numberOfTrailingZeros(MIN_SIZE);
+    }
+}
@@ -0,0 +1,278 @@
+/*
+    Copyright 2016 Radosław Skupnik
+
+    This file is part of pigeon-tcp-server.
+
+    Pigeon-tcp-server is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    Pigeon-tcp-server is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with pigeon-tcp-server; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+
+package com.github.rskupnik.pigeon.tcpserver;
+
+import com.github.rskupnik.pigeon.commons.Packet;
+import com.github.rskupnik.pigeon.commons.exceptions.PigeonException;
+
+import java.lang.invoke.CallSite;
+import java.lang.invoke.LambdaMetafactory;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.function.ObjIntConsumer;
+import java.util.function.Supplier;
+import java.util.function.ToIntFunction;
+
+/**
+ * PacketCodec which turns the constructor, getters and setters of every packet class into lambdas with
+ * LambdaMetafactory when it's created, so that encoding and decoding calls them directly - without
+ * Method.invoke(), argument arrays or boxing of ints.
+ */
+final class CompiledPacketCodec implements PacketCodec {
+
+    private static final int MAX_DENSE_ID = 4096;
+
+    private final Map<Class<?>, CompiledPacket> byType = new HashMap<>();
+    private final CompiledPacket[] byDenseId;             // Indexed by packet id when all the ids are small
+    private final Map<Integer, CompiledPacket> bySparseId;  // Used otherwise
+    private final boolean packetRecycling;
+
+    /**
+     * Throws PigeonException if any of the packet classes can't be compiled, for example because it's not visible
+     * from this class' class loader - ReflectivePacketCodec can be used instead then.
+     */
+    CompiledPacketCodec(PacketRegistry registry, boolean packetRecycling) throws PigeonException {
+        this.packetRecycling = packetRecycling;
+
+        MethodHandles.Lookup lookup = MethodHandles.lookup();
+        boolean dense = true;
+        Map<Integer, CompiledPacket> byId = new HashMap<>();
+        for (PacketDescriptor descriptor : registry.getDescriptors()) {
+            CompiledPacket compiled = compile(lookup, descriptor);
+            byType.put(descriptor.getType(), compiled);
+            byId.put(descriptor.getId(), compiled);
+            dense &= descriptor.getId() >= 0 && descriptor.getId() < MAX_DENSE_ID;
+        }
+
+        if (dense) {
+            int maxId = -1;
+            for (int id : byId.keySet())
+                maxId = Math.max(maxId, id);
+            byDenseId = new CompiledPacket[maxId + 1];
+            for (Map.Entry<Integer, CompiledPacket> entry : byId.entrySet())
+                byDenseId[entry.getKey()] = entry.getValue();
+            bySparseId = null;
+        } else {
+            byDenseId = null;
+            bySparseId = byId;
+        }
+    }
+
+    @Override
+    public PooledBuffer encode(Packet packet, BufferPool pool) throws PigeonException {
+        CompiledPacket compiled = byType.get(packet.getClass());
+        if (compiled == null)
+            throw new PigeonException("Class " + packet.getClass().getName() + " is not a known packet");
+
+        FieldCodec[] fields = compiled.fields;
+        int size = 4;
+        for (FieldCodec field : fields)
+            size += field.size(packet);
+
+        PooledBuffer pooled = pool.acquire(size);
+        ByteBuffer buffer = pooled.buffer();
+        buffer.putInt(compiled.descriptor.getId());
+        for (FieldCodec field : fields)
+            field.write(packet, buffer);
+        buffer.flip();
+        return pooled;
+    }
+
+    @Override
+    public Packet decode(ByteBuffer buffer) throws PigeonException {
+        int start = buffer.position();
+        Packet packet = null;
+        CompiledPacket compiled = null;
+        try {
+            int id = buffer.getInt();
+            compiled = get(id);
+            if (compiled == null)
+                throw new PigeonException("Received a packet with an unknown id: " + id);
+
+            packet = packetRecycling ? compiled.descriptor.getRecycler().get() : null;
+            if (packet == null)
+                packet = compiled.constructor.get();
+
+            for (FieldCodec field : compiled.fields)
+                field.read(packet, buffer);
+
+            return packet;
+        } catch (BufferUnderflowException e) {
+            buffer.position(start);
+            if (packet != null && packetRecycling)
+                compiled.descriptor.getRecycler().recycle(packet);
+            return null;
+        }
+    }
+
+    @Override
+    public void recycle(Packet packet) {
+        if (!packetRecycling)
+            return;
+
+        CompiledPacket compiled = byType.get(packet.getClass());
+        if (compiled != null)
+            compiled.descriptor.getRecycler().recycle(packet);
+    }
+
+    private CompiledPacket get(int id) {
+        if (byDenseId != null)
+            return id >= 0 && id < byDenseId.length ? byDenseId[id] : null;
+        return bySparseId.get(id);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static CompiledPacket compile(MethodHandles.Lookup lookup, PacketDescriptor descriptor) throws PigeonException {
+        Class<? extends Packet> type = descriptor.getType();
+        try {
+            Supplier<Packet> constructor = (Supplier<Packet>) lambda(lookup, Supplier.class, "get",
+                    MethodType.methodType(Object.class), lookup.unreflectConstructor(descriptor.getConstructor()));
+
+            List<PacketDescriptor.Field> fields = descriptor.getFields();
+            FieldCodec[] codecs = new FieldCodec[fields.size()];
+            for (int i = 0; i < codecs.length; i++) {
+                PacketDescriptor.Field field = fields.get(i);
+                MethodHandle getter = lookup.unreflect(field.getGetter());
+                MethodHandle setter = lookup.unreflect(field.getSetter());
+                switch (field.getType()) {
+                    case INT:
+                        codecs[i] = new IntFieldCodec(
+                                (ToIntFunction<Packet>) lambda(lookup, ToIntFunction.class, "applyAsInt", MethodType.methodType(int.class, Object.class), getter),
+                                (ObjIntConsumer<Packet>) lambda(lookup, ObjIntConsumer.class, "accept", MethodType.methodType(void.class, Object.class, int.class), setter));
+                        break;
+                    case STRING:
+                        codecs[i] = new StringFieldCodec(field.getName(), type,
+                                (Function<Packet, String>) lambda(lookup, Function.class, "apply", MethodType.methodType(Object.class, Object.class), getter),
+                                (BiConsumer<Packet, String>) lambda(lookup, BiConsumer.class, "accept", MethodType.methodType(void.class, Object.class, Object.class), setter));
+                        break;
+                }
+            }
+
+            return new CompiledPacket(descriptor, constructor, codecs);
+        } catch (Throwable e) {     // LambdaConversionException, IllegalAccessException or a linkage error
+            throw new PigeonException("Could not compile a codec for " + type.getName() + ": " + e);
+        }
+    }
+
+    /**
+     * Creates an instance of the functional interface which calls the method handle.
+     */
+    private static Object lambda(MethodHandles.Lookup lookup, Class<?> interfaceType, String interfaceMethod,
+                                 MethodType erasedType, MethodHandle implementation) throws Throwable {
+        CallSite site = LambdaMetafactory.metafactory(lookup, interfaceMethod, MethodType.methodType(interfaceType),
+                erasedType, implementation, implementation.type());
+        return site.getTarget().invoke();
+    }
+
+    private static final class CompiledPacket {
+
+        private final PacketDescriptor descriptor;
+        private final Supplier<Packet> constructor;
+        private final FieldCodec[] fields;
+
+        private CompiledPacket(PacketDescriptor descriptor, Supplier<Packet> constructor, FieldCodec[] fields) {
+            this.descriptor = descriptor;
+            this.constructor = constructor;
+            this.fields = fields;
+        }
+    }
+
+    private abstract static class FieldCodec {
+
+        abstract int size(Packet packet) throws PigeonException;
+
+        abstract void write(Packet packet, ByteBuffer buffer);
+
+        abstract void read(Packet packet, ByteBuffer buffer);
+    }
+
+    private static final class IntFieldCodec extends FieldCodec {
+
+        private final ToIntFunction<Packet> getter;
+        private final ObjIntConsumer<Packet> setter;
+
+        private IntFieldCodec(ToIntFunction<Packet> getter, ObjIntConsumer<Packet> setter) {
+            this.getter = getter;
+            this.setter = setter;
+        }
+
+        @Override
+        int size(Packet packet) {
+            return 4;
+        }
+
+        @Override
+        void write(Packet packet, ByteBuffer buffer) {
+            buffer.putInt(getter.applyAsInt(packet));
+        }
+
+        @Override
+        void read(Packet packet, ByteBuffer buffer) {
+            setter.accept(packet, buffer.getInt());
+        }
+    }
+
+    private static final class StringFieldCodec extends FieldCodec {
+
+        private final String name;
+        private final Class<?> packetType;
+        private final Function<Packet, String> getter;
+        private final BiConsumer<Packet, String> setter;
+
+        private StringFieldCodec(String name, Class<?> packetType, Function<Packet, String> getter, BiConsumer<Packet, String> setter) {
+            this.name = name;
+            this.packetType = packetType;
+            this.getter = getter;
+            this.setter = setter;
+        }
+
+        @Override
+        int size(Packet packet) throws PigeonException {
+            int length = ModifiedUtf8.length(value(packet));
+            if (length > ModifiedUtf8.MAX_LENGTH)
+                throw new PigeonException("Field " + name + " of " + packetType.getName() + " is too long to be encoded");
+            return length;
+        }
+
+        @Override
+        void write(Packet packet, ByteBuffer buffer) {
+            ModifiedUtf8.write(value(packet), buffer);
+        }
+
+        @Override
+        void read(Packet packet, ByteBuffer buffer) {
+            setter.accept(packet, ModifiedUtf8.read(buffer));
+        }
+
+        private String value(Packet packet) {
+            String value = getter.apply(packet);
+            return value != null ? value : "";
+        }
+    }
+}
@@ -0,0 +1,65 @@
+/*
+    Copyright 2016 Radosław Skupnik
+
+    This file is part of pigeon-tcp-server.
+
+    Pigeon-tcp-server is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    Pigeon-tcp-server is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with pigeon-tcp-server; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+
+package com.github.rskupnik.pigeon.tcpserver;
+
+import java.util.zip.Deflater;
+
+/**
+ * Compression of the packets exchanged with NIO connections which have asked for it.
+ *
+ * NONE - packets are sent as they are (default).
+ * DEFLATE_FAST - Deflate at its fastest level, for links where processor time matters about as much as bandwidth.
+ * DEFLATE - Deflate at its default level, which compresses better at a few times the processor time.
+ */
+public enum CompressionCodec {
+    NONE(Deflater.NO_COMPRESSION),
+    DEFLATE_FAST(Deflater.BEST_SPEED),
+    DEFLATE(Deflater.DEFAULT_COMPRESSION);
+
+    private final int level;
+
+    CompressionCodec(int level) {
+        this.level = level;
+    }
+
+    int getLevel() {
+        return level;
+    }
+
+    /**
+     * The codec's bit in the set of codecs exchanged by the client and the server when negotiating compression.
+     */
+    int getMask() {
+        return this == NONE ? 0 : 1 << ordinal();
+    }
+
+    public static CompressionCodec fromString(String value) {
+        if (value == null)
+            return null;
+
+        for (CompressionCodec codec : values()) {
+            if (codec.name().equalsIgnoreCase(value.trim()))
+                return codec;
+        }
+
+        return null;
+    }
+}
@@ -0,0 +1,100 @@
+/*
+    Copyright 2016 Radosław Skupnik
+
+    This file is part of pigeon-tcp-server.
+
+    Pigeon-tcp-server is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    Pigeon-tcp-server is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with pigeon-tcp-server; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+
+package com.github.rskupnik.pigeon.tcpserver;
+
+import com.github.rskupnik.pigeon.commons.Packet;
+import com.github.rskupnik.pigeon.commons.exceptions.PigeonException;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Decides which codec compresses a packet sent to a connection, by the packet's id and size.
+ * Packets smaller than the threshold are sent as they are - compressing them costs more than it saves.
+ */
+final class CompressionPolicy {
+
+    private static final int MAX_DENSE_ID = 4096;
+
+    private final CompressionCodec defaultCodec;
+    private final int threshold;
+    private final int codecs;   // The codecs used by any packet, as masks
+    private final CompressionCodec[] byDenseId;
+    private final Map<Integer, CompressionCodec> bySparseId;
+
+    /**
+     * Throws PigeonException if a codec is given for an unknown packet.
+     */
+    CompressionPolicy(CompressionCodec defaultCodec, int threshold, Map<Class<? extends Packet>, CompressionCodec> packetCodecs,
+                      PacketRegistry registry) throws PigeonException {
+        this.defaultCodec = defaultCodec;
+        this.threshold = threshold;
+
+        Map<Integer, CompressionCodec> byId = new HashMap<>();
+        int usedCodecs = defaultCodec.getMask();
+        boolean dense = true;
+        for (Map.Entry<Class<? extends Packet>, CompressionCodec> entry : packetCodecs.entrySet()) {
+            PacketDescriptor descriptor = registry.get(entry.getKey());
+            if (descriptor == null)
+                throw new PigeonException("Compression codec for " + entry.getKey().getName() + " doesn't match any known packet");
+
+            byId.put(descriptor.getId(), entry.getValue());
+            usedCodecs |= entry.getValue().getMask();
+            dense &= descriptor.getId() >= 0 && descriptor.getId() < MAX_DENSE_ID;
+        }
+        this.codecs = usedCodecs;
+
+        if (dense) {
+            int maxId = -1;
+            for (int id : byId.keySet())
+                maxId = Math.max(maxId, id);
+            byDenseId = new CompressionCodec[maxId + 1];
+            for (Map.Entry<Integer, CompressionCodec> entry : byId.entrySet())
+                byDenseId[entry.getKey()] = entry.getValue();
+            bySparseId = null;
+        } else {
+            byDenseId = null;
+            bySparseId = byId;
+        }
+    }
+
+    /**
+     * Returns the codec of an encoded packet with the given id and size, NONE if it's to be sent as it is.
+     */
+    CompressionCodec get(int id, int size) {
+        if (size < threshold)
+            return CompressionCodec.NONE;
+
+        CompressionCodec codec;
+        if (byDenseId != null)
+            codec = id >= 0 && id < byDenseId.length ? byDenseId[id] : null;
+        else
+            codec = bySparseId.get(id);
+        return codec != null ? codec : defaultCodec;
+    }
+
+    /**
+     * Returns the codecs used by any packet, as masks. 0 means nothing is ever compressed.
+     */
+    int getCodecs() {
+        return codecs;
+    }
+}
@@ -0,0 +1,165 @@
+/*
+    Copyright 2016 Radosław Skupnik
+
+    This file is part of pigeon-tcp-server.
+
+    Pigeon-tcp-server is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    Pigeon-tcp-server is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with pigeon-tcp-server; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+
+package com.github.rskupnik.pigeon.tcpserver;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiFunction;
+
+/**
+ * Named groups of the server's sessions, which packets can be sent to. A group exists only while it has members.
+ *
+ * Every group's members are kept in an array which is never modified, only replaced - joining or leaving copies it,
+ * under the lock of the group's bin in the map - so sending to a group takes a single lookup and walks a plain array,
+ * without locks or iterators, however many groups there are and whatever joins and leaves meanwhile. Groups are expected
+ * to be sent to far more often than their members change. Every session also knows its groups, so that it can leave
+ * all of them when it's closed.
+ */
+final class ConnectionGroups {
+
+    private static final Session[] NO_MEMBERS = new Session[0];
+
+    private final ConcurrentHashMap<String, Session[]> groups = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Session, Set<String>> memberships = new ConcurrentHashMap<>();
+
+    /**
+     * Returns true if the session is the group's first member.
+     */
+    boolean join(final Session session, final String group) {
+        final boolean[] added = new boolean[1];
+        Session[] members = groups.compute(group, new BiFunction<String, Session[], Session[]>() {
+            @Override
+            public Session[] apply(String name, Session[] members) {
+                if (members == null) {
+                    added[0] = true;
+                    return new Session[] {session};
+                }
+                if (indexOf(members, session) >= 0)
+                    return members;
+
+                added[0] = true;
+                Session[] joined = Arrays.copyOf(members, members.length + 1);
+                joined[members.length] = session;
+                return joined;
+            }
+        });
+        if (added[0]) {
+            memberships.compute(session, new BiFunction<Session, Set<String>, Set<String>>() {
+                @Override
+                public Set<String> apply(Session member, Set<String> sessionGroups) {
+                    if (sessionGroups == null)
+                        sessionGroups = ConcurrentHashMap.newKeySet();
+                    sessionGroups.add(group);
+                    return sessionGroups;
+                }
+            });
+        }
+        return added[0] && members.length == 1;
+    }
+
+    /**
+     * Returns true if the session was the group's last member.
+     */
+    boolean leave(final Session session, final String group) {
+        final boolean[] emptied = new boolean[1];
+        groups.computeIfPresent(group, new BiFunction<String, Session[], Session[]>() {
+            @Override
+            public Session[] apply(String name, Session[] members) {
+                int index = indexOf(members, session);
+                if (index < 0)
+                    return members;
+                if (members.length == 1) {
+                    emptied[0] = true;
+                    return null;
+                }
+
+                Session[] left = new Session[members.length - 1];
+                System.arraycopy(members, 0, left, 0, index);
+                System.arraycopy(members, index + 1, left, index, left.length - index);
+                return left;
+            }
+        });
+        // A session without groups is forgotten, or one closed while joining would be kept for good
+        memberships.computeIfPresent(session, new BiFunction<Session, Set<String>, Set<String>>() {
+            @Override
+            public Set<String> apply(Session member, Set<String> sessionGroups) {
+                sessionGroups.remove(group);
+                return sessionGroups.isEmpty() ? null : sessionGroups;
+            }
+        });
+        return emptied[0];
+    }
+
+    /**
+     * Removes the session from all its groups and returns the names of those it was the last member of.
+     */
+    Collection<String> leaveAll(Session session) {
+        Set<String> sessionGroups = memberships.remove(session);
+        if (sessionGroups == null)
+            return Collections.emptySet();
+
+        Collection<String> emptied = new ArrayList<>();
+        for (String group : sessionGroups) {
+            if (leave(session, group))
+                emptied.add(group);
+        }
+        return emptied;
+    }
+
+    /**
+     * Returns the group's members at this moment, an empty array if the group doesn't exist. The array must not be modified.
+     */
+    Session[] getMembers(String group) {
+        Session[] members = groups.get(group);
+        return members != null ? members : NO_MEMBERS;
+    }
+
+    boolean hasMembers(String group) {
+        return groups.containsKey(group);
+    }
+
+    /**
+     * Returns a live view of the names of the groups which have members.
+     */
+    Set<String> getGroups() {
+        return groups.keySet();
+    }
+
+    /**
+     * Returns the names of the session's groups, empty if it has none.
+     */
+    Set<String> getGroups(Session session) {
+        Set<String> sessionGroups = memberships.get(session);
+        return sessionGroups != null ? sessionGroups : Collections.<String>emptySet();
+    }
+
+    private static int indexOf(Session[] members, Session session) {
+        for (int i = 0; i < members.length; i++) {
+            if (members[i] == session)
+                return i;
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,111 @@
+/*
+    Copyright 2016 Radosław Skupnik
+
+    This file is part of pigeon-tcp-server.
+
+    Pigeon-tcp-server is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    Pigeon-tcp-server is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with pigeon-tcp-server; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+
+package com.github.rskupnik.pigeon.tcpserver;
+
+import com.github.rskupnik.pigeon.commons.Connection;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiFunction;
+
+/**
+ * Keeps track of the server's connections without a global lock. Lookups never block, iterating over the
+ * connections works on the live maps (weakly consistent, no copying) and connections are also indexed by remote host.
+ */
+final class ConnectionRegistry {
+
+    private final Map<UUID, Session> sessions = new ConcurrentHashMap<>();
+    private final Map<UUID, Connection> connections = new ConcurrentHashMap<>();
+    private final Map<Connection, Session> sessionsByConnection = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Set<Connection>> connectionsByHost = new ConcurrentHashMap<>();
+
+    private final Map<UUID, Connection> connectionsView = Collections.unmodifiableMap(connections);
+
+    void add(final Session session) {
+        sessions.put(session.getUuid(), session);
+        sessionsByConnection.put(session.getConnection(), session);
+        connectionsByHost.compute(session.getHost(), new BiFunction<String, Set<Connection>, Set<Connection>>() {
+            @Override
+            public Set<Connection> apply(String host, Set<Connection> hostConnections) {
+                if (hostConnections == null)
+                    hostConnections = ConcurrentHashMap.newKeySet();
+                hostConnections.add(session.getConnection());
+                return hostConnections;
+            }
+        });
+        connections.put(session.getUuid(), session.getConnection());
+    }
+
+    /**
+     * Removes the connection and returns its session, or null if it was not registered (or has already been removed by another thread).
+     */
+    Session remove(UUID uuid) {
+        final Session session = sessions.remove(uuid);
+        if (session == null)
+            return null;
+
+        connections.remove(uuid);
+        sessionsByConnection.remove(session.getConnection());
+        connectionsByHost.computeIfPresent(session.getHost(), new BiFunction<String, Set<Connection>, Set<Connection>>() {
+            @Override
+            public Set<Connection> apply(String host, Set<Connection> hostConnections) {
+                hostConnections.remove(session.getConnection());
+                return hostConnections.isEmpty() ? null : hostConnections;
+            }
+        });
+        return session;
+    }
+
+    Session get(UUID uuid) {
+        return sessions.get(uuid);
+    }
+
+    Session get(Connection connection) {
+        return sessionsByConnection.get(connection);
+    }
+
+    /**
+     * Returns a read-only live view of all the connections.
+     */
+    Map<UUID, Connection> getConnections() {
+        return connectionsView;
+    }
+
+    /**
+     * Returns a read-only live view of the connections from the given host.
+     */
+    Collection<Connection> getConnectionsFromHost(String host) {
+        Set<Connection> hostConnections = connectionsByHost.get(host);
+        return hostConnections != null ? Collections.unmodifiableSet(hostConnections) : Collections.<Connection>emptySet();
+    }
+
+    Collection<Session> getSessions() {
+        return sessions.values();
+    }
+
+    int size() {
+        return sessions.size();
+    }
+}
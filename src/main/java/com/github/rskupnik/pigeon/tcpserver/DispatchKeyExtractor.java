@@ -0,0 +1,37 @@
+/*
+    Copyright 2016 Radosław Skupnik
+
+    This file is part of pigeon-tcp-server.
+
+    Pigeon-tcp-server is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    Pigeon-tcp-server is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with pigeon-tcp-server; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+
+package com.github.rskupnik.pigeon.tcpserver;
+
+import com.github.rskupnik.pigeon.commons.Connection;
+import com.github.rskupnik.pigeon.commons.Packet;
+
+/**
+ * Decides which dispatch worker handles a received packet. Packets with equal keys are handled by the same worker,
+ * one after another in the order they were received.
+ * Called on the I/O threads, so it should be quick and must not block.
+ */
+public interface DispatchKeyExtractor {
+
+    /**
+     * Returns the key of the packet, or null to use the connection it came from.
+     */
+    Object getKey(Connection connection, Packet packet);
+}
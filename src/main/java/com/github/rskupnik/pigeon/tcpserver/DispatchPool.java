@@ -0,0 +1,225 @@
+/*
+    Copyright 2016 Radosław Skupnik
+
+    This file is part of pigeon-tcp-server.
+
+    Pigeon-tcp-server is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    Pigeon-tcp-server is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with pigeon-tcp-server; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+
+package com.github.rskupnik.pigeon.tcpserver;
+
+import com.github.rskupnik.pigeon.commons.Connection;
+import com.github.rskupnik.pigeon.commons.Packet;
+import com.github.rskupnik.pigeon.commons.PacketHandler;
+
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Fixed pool of threads running the PacketHandler in HANDLER mode, so that the I/O threads don't wait for it.
+ * Each worker has its own queue and every packet goes to the worker chosen by hashing its key - the connection
+ * by default - so packets with the same key are still handled one at a time and in order.
+ *
+ * An event loop never waits for a full queue, as that would hold up every connection it serves. The packet goes to
+ * the worker's unbounded overflow instead, followed by every packet for that worker until the overflow has been
+ * handled, and the connection stops reading until then - so the overflow only holds what's been read already.
+ */
+final class DispatchPool {
+
+    private static final org.apache.logging.log4j.Logger log = org.apache.logging.log4j.LogManager.getLogger(DispatchPool.class);
+
+    private static final int MAX_BATCH = 256;
+    private static final long IDLE_CHECK_MILLIS = 100;  // How often an idle worker checks whether the pool has been shut down
+
+    private final Worker[] workers;
+    private final PacketHandler packetHandler;
+    private final DispatchKeyExtractor keyExtractor;
+    private final PacketCodec packetCodec;
+    private final ServerMetrics metrics;   // Null when metrics are disabled
+    private final long startTime = System.nanoTime();
+
+    private volatile boolean exit;
+
+    DispatchPool(int threadsNumber, int queueCapacity, PacketHandler packetHandler, DispatchKeyExtractor keyExtractor, PacketCodec packetCodec,
+                 ServerMetrics metrics, String threadNamePrefix) {
+        this.packetHandler = packetHandler;
+        this.keyExtractor = keyExtractor;
+        this.packetCodec = packetCodec;
+        this.metrics = metrics;
+        this.workers = new Worker[threadsNumber];
+        for (int i = 0; i < workers.length; i++) {
+            workers[i] = new Worker(threadNamePrefix + i,
+                    new IncomingPacketRingBuffer(queueCapacity, WaitStrategy.PARK, metrics != null ? metrics.getQueueWaitHistogram() : null));
+        }
+    }
+
+    void start() {
+        for (Worker worker : workers)
+            worker.start();
+    }
+
+    /**
+     * Queues the packet for its worker. If the worker's queue is full, an NIO session stops reading until the worker
+     * catches up, while a blocking connection's thread waits for room - either way, only that connection is held up.
+     */
+    void dispatch(Session session, Packet packet) {
+        Connection connection = session.getConnection();
+        Object key = keyExtractor != null ? keyExtractor.getKey(connection, packet) : null;
+        if (key == null)
+            key = connection;
+
+        int hash = key.hashCode();
+        hash ^= hash >>> 16;
+        Worker worker = workers[(hash & Integer.MAX_VALUE) % workers.length];
+        if (worker.overflow.isEmpty() && worker.queue.offer(packet))
+            return;
+        if (exit)
+            return;     // Dropped, like a packet pushed to a closed queue
+
+        if (session.suspendReading()) {
+            // Registered before the packet is added, so that the worker resumes it once it's handled the packet
+            worker.suspended.add(session);
+            worker.overflow.add(packet);
+        } else {
+            worker.queue.push(packet);
+        }
+    }
+
+    /**
+     * Stops accepting packets. The workers handle the ones already queued and stop.
+     */
+    void shutdown() {
+        exit = true;
+        for (Worker worker : workers)
+            worker.queue.close();
+    }
+
+    /**
+     * Waits until the workers have stopped after a shutdown, or until the deadline (System.nanoTime()) has passed.
+     * Returns true if all of them have stopped.
+     */
+    boolean awaitTermination(long deadline) throws InterruptedException {
+        for (Worker worker : workers) {
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0)
+                break;
+            TimeUnit.NANOSECONDS.timedJoin(worker, remaining);
+        }
+        for (Worker worker : workers) {
+            if (worker.isAlive())
+                return false;
+        }
+        return true;
+    }
+
+    DispatchWorkerStats[] getStats() {
+        long uptime = System.nanoTime() - startTime;
+        DispatchWorkerStats[] stats = new DispatchWorkerStats[workers.length];
+        for (int i = 0; i < workers.length; i++)
+            stats[i] = new DispatchWorkerStats(workers[i].getQueueDepth(), workers[i].handledPackets.get(), workers[i].busyNanos.get(), uptime);
+        return stats;
+    }
+
+    int getQueueDepth() {
+        int depth = 0;
+        for (Worker worker : workers)
+            depth += worker.getQueueDepth();
+        return depth;
+    }
+
+    private final class Worker extends Thread implements PacketHandler {
+
+        private final IncomingPacketRingBuffer queue;
+        private final Queue<Packet> overflow = new ConcurrentLinkedQueue<>();
+        private final Set<Session> suspended = ConcurrentHashMap.newKeySet();    // Sessions to resume once the overflow is empty
+        private final AtomicLong handledPackets = new AtomicLong();
+        private final AtomicLong busyNanos = new AtomicLong();
+
+        // Only touched by the worker thread, published to the atomic counters once per batch
+        private long batchBusyNanos;
+
+        private Worker(String name, IncomingPacketRingBuffer queue) {
+            super(name);
+            this.queue = queue;
+            setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            WriteQueue.markSharedThread();
+            try {
+                while (!exit || !queue.isEmpty() || !overflow.isEmpty()) {
+                    int handled = queue.drainTo(this, MAX_BATCH, IDLE_CHECK_MILLIS, TimeUnit.MILLISECONDS);
+                    if (queue.isEmpty())    // The overflow was queued after everything in the queue
+                        handled += drainOverflow();
+                    if (handled > 0) {
+                        handledPackets.lazySet(handledPackets.get() + handled);
+                        busyNanos.lazySet(busyNanos.get() + batchBusyNanos);
+                        batchBusyNanos = 0;
+                    }
+                }
+            } catch (InterruptedException e) {
+                // Leaving, as nothing else interrupts the worker
+            }
+        }
+
+        /**
+         * Handles the packets in the overflow, then resumes the sessions which stopped reading because of it.
+         * Sessions registered meanwhile are resumed too - the packets they added are handled by the next call.
+         */
+        private int drainOverflow() {
+            int handled = 0;
+            Packet packet;
+            while ((packet = overflow.poll()) != null) {
+                handle(packet);
+                handled++;
+            }
+            for (Session session : suspended) {
+                suspended.remove(session);
+                session.resumeReading();
+            }
+            return handled;
+        }
+
+        /**
+         * Walks the overflow, which only has packets while the worker is behind.
+         */
+        private int getQueueDepth() {
+            return queue.size() + (overflow.isEmpty() ? 0 : overflow.size());
+        }
+
+        @Override
+        public void handle(Packet packet) {
+            long start = System.nanoTime();
+            try {
+                packetHandler.handle(packet);
+            } catch (RuntimeException e) {  // A failing handler must not stop the worker
+                log.error(e.getMessage(), e);
+                if (metrics != null)
+                    metrics.onHandlerError();
+            } finally {
+                packetCodec.recycle(packet);
+                long busy = System.nanoTime() - start;
+                batchBusyNanos += busy;
+                if (metrics != null)
+                    metrics.onPacketHandled(busy);
+            }
+        }
+    }
+}
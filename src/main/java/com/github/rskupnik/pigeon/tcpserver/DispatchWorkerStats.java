@@ -0,0 +1,74 @@
+/*
+    Copyright 2016 Radosław Skupnik
+
+    This file is part of pigeon-tcp-server.
+
+    Pigeon-tcp-server is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    Pigeon-tcp-server is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with pigeon-tcp-server; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+
+package com.github.rskupnik.pigeon.tcpserver;
+
+/**
+ * A snapshot of the state of a single dispatch worker. The counters grow from the moment the server was built,
+ * so rates are computed from the difference between two snapshots.
+ */
+public final class DispatchWorkerStats {
+
+    private final int queueDepth;
+    private final long handledPackets;
+    private final long busyNanos;
+    private final long uptimeNanos;
+
+    DispatchWorkerStats(int queueDepth, long handledPackets, long busyNanos, long uptimeNanos) {
+        this.queueDepth = queueDepth;
+        this.handledPackets = handledPackets;
+        this.busyNanos = busyNanos;
+        this.uptimeNanos = uptimeNanos;
+    }
+
+    /**
+     * Number of packets waiting for this worker.
+     */
+    public int getQueueDepth() {
+        return queueDepth;
+    }
+
+    public long getHandledPackets() {
+        return handledPackets;
+    }
+
+    /**
+     * Time spent in the packet handler.
+     */
+    public long getBusyNanos() {
+        return busyNanos;
+    }
+
+    public long getUptimeNanos() {
+        return uptimeNanos;
+    }
+
+    /**
+     * Fraction of the uptime spent in the packet handler, from 0 to 1.
+     */
+    public double getUtilization() {
+        return uptimeNanos > 0 ? Math.min(1.0, (double) busyNanos / uptimeNanos) : 0.0;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("queueDepth=%d, handledPackets=%d, utilization=%.3f", queueDepth, handledPackets, getUtilization());
+    }
+}
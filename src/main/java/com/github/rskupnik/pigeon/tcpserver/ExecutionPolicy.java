@@ -0,0 +1,46 @@
+/*
+    Copyright 2016 Radosław Skupnik
+
+    This file is part of pigeon-tcp-server.
+
+    Pigeon-tcp-server is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    Pigeon-tcp-server is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with pigeon-tcp-server; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+
+package com.github.rskupnik.pigeon.tcpserver;
+
+/**
+ * Determines which threads run the handler of a packet route.
+ *
+ * INLINE - the I/O thread which received the packet, for packets which are handled quickly and shouldn't wait in a queue.
+ * SHARED - the dispatch threads shared with the default packet handler.
+ * DEDICATED - threads of the route's own, which packets of other types can't keep busy.
+ */
+public enum ExecutionPolicy {
+    INLINE,
+    SHARED,
+    DEDICATED;
+
+    public static ExecutionPolicy fromString(String value) {
+        if (value == null)
+            return null;
+
+        for (ExecutionPolicy policy : values()) {
+            if (policy.name().equalsIgnoreCase(value.trim()))
+                return policy;
+        }
+
+        return null;
+    }
+}
@@ -0,0 +1,151 @@
+/*
+    Copyright 2016 Radosław Skupnik
+
+    This file is part of pigeon-tcp-server.
+
+    Pigeon-tcp-server is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    Pigeon-tcp-server is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with pigeon-tcp-server; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+
+package com.github.rskupnik.pigeon.tcpserver;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Runs tasks after a delay on a single thread, for any number of tasks at a constant cost per task.
+ *
+ * Time is split into ticks and tasks are kept in a ring of buckets, one per tick - a task due in n ticks goes into the
+ * bucket n places ahead of the current one, together with the number of full turns of the ring it has to wait for.
+ * Every tick only the current bucket is looked at, so adding a task or checking whether it's due never depends on how
+ * many tasks there are, unlike with a priority queue. The price is precision: tasks run up to a tick late.
+ *
+ * Tasks run on the wheel's thread and must be quick, as they hold up all the others.
+ */
+final class HashedTimerWheel implements Runnable {
+
+    private static final org.apache.logging.log4j.Logger log = org.apache.logging.log4j.LogManager.getLogger(HashedTimerWheel.class);
+
+    private final long tickNanos;
+    private final Timeout[] buckets;
+    private final int mask;
+    private final Queue<Timeout> scheduled = new ConcurrentLinkedQueue<>();
+    private final Thread thread;
+
+    // Only touched by the wheel's thread
+    private long startTime;
+    private long tick;
+
+    private volatile boolean exit;
+
+    /**
+     * The number of buckets is rounded up to the next power of two.
+     */
+    HashedTimerWheel(long tickNanos, int bucketsNumber, String threadName) {
+        int size = Integer.highestOneBit(bucketsNumber);
+        if (size < bucketsNumber)
+            size <<= 1;
+
+        this.tickNanos = tickNanos;
+        this.buckets = new Timeout[size];
+        this.mask = size - 1;
+        this.thread = new Thread(this, threadName);
+        this.thread.setDaemon(true);
+    }
+
+    void start() {
+        thread.start();
+    }
+
+    void shutdown() {
+        exit = true;
+        LockSupport.unpark(thread);
+    }
+
+    /**
+     * Runs the task once the delay has passed, can be called from any thread including the wheel's own.
+     */
+    void schedule(Runnable task, long delayNanos) {
+        scheduled.add(new Timeout(task, System.nanoTime() + delayNanos));
+    }
+
+    @Override
+    public void run() {
+        startTime = System.nanoTime();
+        while (!exit) {
+            awaitNextTick();
+            if (exit)
+                break;
+
+            addScheduled();
+            expire((int) tick & mask);
+            tick++;
+        }
+    }
+
+    private void awaitNextTick() {
+        long deadline = startTime + (tick + 1) * tickNanos;
+        long remaining;
+        while (!exit && (remaining = deadline - System.nanoTime()) > 0)
+            LockSupport.parkNanos(this, remaining);
+    }
+
+    private void addScheduled() {
+        Timeout timeout;
+        while ((timeout = scheduled.poll()) != null) {
+            // Rounded up, so that a task never runs early, and never into a bucket already passed
+            long dueTick = Math.max((timeout.deadline - startTime + tickNanos - 1) / tickNanos, tick);
+            timeout.remainingRounds = (dueTick - tick) >> Integer.numberOfTrailingZeros(buckets.length);
+            int bucket = (int) dueTick & mask;
+            timeout.next = buckets[bucket];
+            buckets[bucket] = timeout;
+        }
+    }
+
+    private void expire(int bucket) {
+        Timeout timeout = buckets[bucket];
+        Timeout kept = null;
+        buckets[bucket] = null;
+        while (timeout != null) {
+            Timeout next = timeout.next;
+            if (timeout.remainingRounds > 0) {
+                timeout.remainingRounds--;
+                timeout.next = kept;
+                kept = timeout;
+            } else {
+                try {
+                    timeout.task.run();
+                } catch (RuntimeException e) {  // A failing task must not stop the others
+                    log.error(e.getMessage(), e);
+                }
+            }
+            timeout = next;
+        }
+        buckets[bucket] = kept;
+    }
+
+    private static final class Timeout {
+
+        private final Runnable task;
+        private final long deadline;
+        private long remainingRounds;
+        private Timeout next;
+
+        private Timeout(Runnable task, long deadline) {
+            this.task = task;
+            this.deadline = deadline;
+        }
+    }
+}
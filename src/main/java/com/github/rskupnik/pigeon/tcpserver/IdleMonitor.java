@@ -0,0 +1,117 @@
+/*
+    Copyright 2016 Radosław Skupnik
+
+    This file is part of pigeon-tcp-server.
+
+    Pigeon-tcp-server is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    Pigeon-tcp-server is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with pigeon-tcp-server; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+
+package com.github.rskupnik.pigeon.tcpserver;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Finds connections which haven't read or written anything for too long, with a single HashedTimerWheel for all of them.
+ *
+ * Reads and writes only note the time in the session. Each session has at most one read check and one write check
+ * waiting in the wheel - a check which finds the session active schedules the next one for the moment it could
+ * become idle at the earliest, so a busy connection costs one check per timeout and nothing per packet.
+ *
+ * The wheel's thread only runs the checks. What's done about an idle session - the callbacks, the eviction and the
+ * heartbeat - runs on the session's own I/O thread, so a slow callback can't delay the checks of all the others.
+ */
+final class IdleMonitor {
+
+    private static final long TICK_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+    private static final int BUCKETS_NUMBER = 512;
+
+    private final PigeonTcpServer server;
+    private final long readIdleNanos;
+    private final long writeIdleNanos;
+    private final HashedTimerWheel wheel = new HashedTimerWheel(TICK_NANOS, BUCKETS_NUMBER, "pigeon-idle-monitor");
+
+    /**
+     * A timeout of 0 disables the checks of that direction.
+     */
+    IdleMonitor(PigeonTcpServer server, int readIdleTimeoutMillis, int writeIdleTimeoutMillis) {
+        this.server = server;
+        this.readIdleNanos = TimeUnit.MILLISECONDS.toNanos(readIdleTimeoutMillis);
+        this.writeIdleNanos = TimeUnit.MILLISECONDS.toNanos(writeIdleTimeoutMillis);
+    }
+
+    void start() {
+        wheel.start();
+    }
+
+    void shutdown() {
+        wheel.shutdown();
+    }
+
+    /**
+     * Starts watching a newly accepted session. The checks stop by themselves once it's closed.
+     */
+    void register(final Session session) {
+        final Runnable onReadIdle = new Runnable() {
+            @Override
+            public void run() {
+                if (!session.isClosed())
+                    server.onReadIdle(session);
+            }
+        };
+        final Runnable onWriteIdle = new Runnable() {
+            @Override
+            public void run() {
+                if (!session.isClosed())
+                    server.onWriteIdle(session);
+            }
+        };
+
+        if (readIdleNanos > 0) {
+            wheel.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    if (session.isClosed())
+                        return;
+
+                    long idle = System.nanoTime() - session.getLastReadTime();
+                    if (idle >= readIdleNanos) {
+                        session.execute(onReadIdle);
+                        idle = 0;   // Reported again if it stays idle for another timeout
+                    }
+                    if (!session.isClosed())
+                        wheel.schedule(this, readIdleNanos - idle);
+                }
+            }, readIdleNanos);
+        }
+
+        if (writeIdleNanos > 0) {
+            wheel.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    if (session.isClosed())
+                        return;
+
+                    long idle = System.nanoTime() - session.getLastWriteTime();
+                    if (idle >= writeIdleNanos) {
+                        session.execute(onWriteIdle);
+                        idle = 0;
+                    }
+                    if (!session.isClosed())
+                        wheel.schedule(this, writeIdleNanos - idle);
+                }
+            }, writeIdleNanos);
+        }
+    }
+}
@@ -0,0 +1,407 @@
+/*
+    Copyright 2016 Radosław Skupnik
+
+    This file is part of pigeon-tcp-server.
+
+    Pigeon-tcp-server is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    Pigeon-tcp-server is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with pigeon-tcp-server; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+
+package com.github.rskupnik.pigeon.tcpserver;
+
+import com.github.rskupnik.pigeon.commons.IncomingPacketQueue;
+import com.github.rskupnik.pigeon.commons.Packet;
+import com.github.rskupnik.pigeon.commons.PacketHandler;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Bounded lock-free queue of received packets, used in QUEUE mode. Any number of threads can add and take packets.
+ *
+ * Every slot of the ring has a sequence number telling whether it's ready to be written or read in the current lap,
+ * so producers and consumers only compete for the head or tail counter and never take a lock. Only threads waiting
+ * with the PARK strategy use a lock, to sleep until the other side wakes them up.
+ *
+ * Producers wait (according to the wait strategy) while the queue is full, which stops the server from reading
+ * more packets from the connections until the consumers catch up.
+ */
+public final class IncomingPacketRingBuffer extends IncomingPacketQueue {
+
+    private final int mask;
+    private final Packet[] packets;
+    private final AtomicLongArray sequences;
+    private final WaitStrategy waitStrategy;
+
+    // Set only when metrics are enabled, records how long the packets waited in the queue
+    private final LatencyHistogram queueWaitTime;
+    private final long[] enqueueTimes;
+
+    private final PacketJournal journal;    // Set only when the journal is enabled
+
+    private final PaddedCounter head = new PaddedCounter();     // Position of the next packet to take
+    private final PaddedCounter tail = new PaddedCounter();     // Position of the next packet to add
+
+    // Used only by the PARK wait strategy
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition notFull = lock.newCondition();
+    private final AtomicInteger waitingConsumers = new AtomicInteger();
+    private final AtomicInteger waitingProducers = new AtomicInteger();
+
+    private volatile boolean closed;
+
+    /**
+     * The capacity is rounded up to the next power of two.
+     */
+    public IncomingPacketRingBuffer(int capacity, WaitStrategy waitStrategy) {
+        this(capacity, waitStrategy, null);
+    }
+
+    IncomingPacketRingBuffer(int capacity, WaitStrategy waitStrategy, LatencyHistogram queueWaitTime) {
+        this(capacity, waitStrategy, queueWaitTime, null);
+    }
+
+    /**
+     * With a journal, every packet is written to it before it's published, and positions start where the journal
+     * left off the last time, so that a packet's position is its sequence number in the journal.
+     */
+    IncomingPacketRingBuffer(int capacity, WaitStrategy waitStrategy, LatencyHistogram queueWaitTime, PacketJournal journal) {
+        if (capacity <= 0 || capacity > 1 << 30)
+            throw new IllegalArgumentException("Capacity must be between 1 and " + (1 << 30));
+        if (waitStrategy == null)
+            throw new IllegalArgumentException("Wait strategy cannot be null");
+
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity)
+            size <<= 1;
+
+        this.mask = size - 1;
+        this.packets = new Packet[size];
+        this.sequences = new AtomicLongArray(size);
+        this.waitStrategy = waitStrategy;
+        this.queueWaitTime = queueWaitTime;
+        this.enqueueTimes = queueWaitTime != null ? new long[size] : null;
+        this.journal = journal;
+
+        long start = journal != null ? journal.getFirstSequence() : 0;
+        head.set(start);
+        tail.set(start);
+        for (long position = start; position < start + size; position++)
+            sequences.set((int) position & mask, position);
+    }
+
+    /**
+     * Adds the packet, waiting while the queue is full. The packet is dropped if the queue is closed in the meantime.
+     */
+    @Override
+    public void push(Packet packet) {
+        while (!offer(packet)) {
+            if (closed)
+                return;
+            awaitNotFull();
+        }
+    }
+
+    /**
+     * Adds the packet if there's room for it. Returns false if the queue is full or closed.
+     */
+    public boolean offer(Packet packet) {
+        if (packet == null)
+            throw new NullPointerException();
+        if (closed)
+            return false;
+
+        while (true) {
+            long position = tail.get();
+            int index = (int) position & mask;
+            long difference = sequences.get(index) - position;
+            if (difference == 0) {
+                if (tail.compareAndSet(position, position + 1)) {
+                    try {
+                        if (journal != null)
+                            journal.append(position, packet);
+                    } finally {
+                        packets[index] = packet;
+                        if (enqueueTimes != null)
+                            enqueueTimes[index] = System.nanoTime();
+                        sequences.set(index, position + 1);     // Publishes the packet
+                    }
+                    break;
+                }
+            } else if (difference < 0) {    // The slot still holds a packet from the previous lap
+                return false;
+            }
+            // Otherwise another producer has taken this position, try the next one
+        }
+
+        if (waitingConsumers.get() > 0)
+            signalAll(notEmpty);
+        return true;
+    }
+
+    /**
+     * Takes the oldest packet, or returns null if the queue is empty.
+     */
+    public Packet poll() {
+        while (true) {
+            long position = head.get();
+            int index = (int) position & mask;
+            long difference = sequences.get(index) - (position + 1);
+            if (difference == 0) {
+                if (head.compareAndSet(position, position + 1)) {
+                    Packet packet = packets[index];
+                    packets[index] = null;
+                    if (queueWaitTime != null)
+                        queueWaitTime.record(System.nanoTime() - enqueueTimes[index]);
+                    sequences.set(index, position + mask + 1);  // Frees the slot for the next lap
+                    if (waitingProducers.get() > 0)
+                        signalAll(notFull);
+                    return packet;
+                }
+            } else if (difference < 0) {    // Nothing has been published at this position yet
+                return null;
+            }
+        }
+    }
+
+    /**
+     * Takes the oldest packet, waiting up to the given time for one to arrive. Returns null if none did.
+     */
+    public Packet take(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (true) {
+            Packet packet = poll();
+            if (packet != null)
+                return packet;
+
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0)
+                return null;
+            awaitNotEmpty(remaining);
+        }
+    }
+
+    /**
+     * Hands up to maxBatch of the oldest packets to the handler, in order, on the calling thread. Returns their number.
+     * The whole batch is claimed at once and nothing is allocated, so a consumer calling this in a loop with the same handler
+     * creates no garbage. If the handler throws, it's still given the rest of the batch and the first exception is rethrown.
+     */
+    public int drainTo(PacketHandler handler, int maxBatch) {
+        return drain(handler, null, maxBatch);
+    }
+
+    /**
+     * Like drainTo(handler, maxBatch), but hands every packet over with its sequence number, to be acknowledged once handled.
+     */
+    public int drainTo(SequencedPacketHandler handler, int maxBatch) {
+        return drain(null, handler, maxBatch);
+    }
+
+    /**
+     * Like drainTo(handler, maxBatch), but waits up to the given time for at least one packet to arrive. Returns 0 if none did.
+     */
+    public int drainTo(PacketHandler handler, int maxBatch, long timeout, TimeUnit unit) throws InterruptedException {
+        return drain(handler, null, maxBatch, timeout, unit);
+    }
+
+    /**
+     * Like drainTo(handler, maxBatch), but waits up to the given time for at least one packet to arrive. Returns 0 if none did.
+     */
+    public int drainTo(SequencedPacketHandler handler, int maxBatch, long timeout, TimeUnit unit) throws InterruptedException {
+        return drain(null, handler, maxBatch, timeout, unit);
+    }
+
+    /**
+     * Exactly one of the handlers is set.
+     */
+    private int drain(PacketHandler handler, SequencedPacketHandler sequencedHandler, int maxBatch) {
+        if (maxBatch <= 0)
+            throw new IllegalArgumentException("Max batch must be greater than 0");
+
+        long position;
+        int count;
+        while (true) {
+            position = head.get();
+            count = 0;
+            while (count < maxBatch && sequences.get((int) (position + count) & mask) == position + count + 1)
+                count++;
+
+            if (count == 0) {
+                if (sequences.get((int) position & mask) - (position + 1) < 0)
+                    return 0;   // Empty
+                continue;       // Another consumer has moved the head
+            }
+            if (head.compareAndSet(position, position + count))
+                break;
+        }
+
+        // The clock is read once per batch, so a packet's wait doesn't include handling the packets before it in the batch
+        long takenAt = queueWaitTime != null ? System.nanoTime() : 0;
+        RuntimeException failure = null;
+        for (int i = 0; i < count; i++) {
+            int index = (int) (position + i) & mask;
+            Packet packet = packets[index];
+            packets[index] = null;
+            if (queueWaitTime != null)
+                queueWaitTime.record(takenAt - enqueueTimes[index]);
+            sequences.set(index, position + i + mask + 1);
+            try {
+                if (handler != null)
+                    handler.handle(packet);
+                else
+                    sequencedHandler.handle(packet, position + i);
+            } catch (RuntimeException e) {
+                if (failure == null)
+                    failure = e;
+            }
+        }
+
+        if (waitingProducers.get() > 0)
+            signalAll(notFull);
+        if (failure != null)
+            throw failure;
+        return count;
+    }
+
+    private int drain(PacketHandler handler, SequencedPacketHandler sequencedHandler, int maxBatch, long timeout, TimeUnit unit)
+            throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (true) {
+            int count = drain(handler, sequencedHandler, maxBatch);
+            if (count > 0)
+                return count;
+
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0)
+                return 0;
+            awaitNotEmpty(remaining);
+        }
+    }
+
+    /**
+     * Takes all the packets queued at the moment of the call into a new list.
+     * Kept for compatibility with IncomingPacketQueue - drainTo() does the same without allocating.
+     */
+    @Override
+    public List<Packet> popAll() {
+        int size = size();
+        List<Packet> result = new ArrayList<>(size);
+        Packet packet;
+        while (size-- > 0 && (packet = poll()) != null)
+            result.add(packet);
+        return result;
+    }
+
+    /**
+     * Stops accepting packets and wakes up the producers waiting for room, which give up.
+     */
+    public void close() {
+        closed = true;
+        signalAll(notFull);
+    }
+
+    public int size() {
+        // Read in this order, the head can't overtake the tail
+        long currentHead = head.get();
+        long currentTail = tail.get();
+        return (int) Math.max(0, Math.min(currentTail - currentHead, packets.length));
+    }
+
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    public int getCapacity() {
+        return packets.length;
+    }
+
+    public WaitStrategy getWaitStrategy() {
+        return waitStrategy;
+    }
+
+    private void awaitNotEmpty(long nanos) throws InterruptedException {
+        switch (waitStrategy) {
+            case BUSY_SPIN:
+                break;
+            case YIELD:
+                Thread.yield();
+                break;
+            case PARK:
+                lock.lockInterruptibly();
+                try {
+                    // Registered before checking the queue again, so that a producer publishing a packet after the check sees us
+                    waitingConsumers.incrementAndGet();
+                    try {
+                        if (isEmpty())
+                            notEmpty.awaitNanos(nanos);
+                    } finally {
+                        waitingConsumers.decrementAndGet();
+                    }
+                } finally {
+                    lock.unlock();
+                }
+                break;
+        }
+        if (Thread.interrupted())
+            throw new InterruptedException();
+    }
+
+    private void awaitNotFull() {
+        switch (waitStrategy) {
+            case BUSY_SPIN:
+                break;
+            case YIELD:
+                Thread.yield();
+                break;
+            case PARK:
+                lock.lock();
+                try {
+                    waitingProducers.incrementAndGet();
+                    try {
+                        if (!closed && size() >= packets.length)
+                            notFull.awaitUninterruptibly();
+                    } finally {
+                        waitingProducers.decrementAndGet();
+                    }
+                } finally {
+                    lock.unlock();
+                }
+                break;
+        }
+    }
+
+    private void signalAll(Condition condition) {
+        lock.lock();
+        try {
+            condition.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Keeps the head and the tail on separate cache lines, so that producers and consumers don't slow each other down.
+     */
+    @SuppressWarnings("unused")
+    private static final class PaddedCounter extends AtomicLong {
+        private long p1, p2, p3, p4, p5, p6, p7;
+    }
+}
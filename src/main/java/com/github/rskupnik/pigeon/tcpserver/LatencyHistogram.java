@@ -0,0 +1,83 @@
+/*
+    Copyright 2016 Radosław Skupnik
+
+    This file is part of pigeon-tcp-server.
+
+    Pigeon-tcp-server is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    Pigeon-tcp-server is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with pigeon-tcp-server; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+
+package com.github.rskupnik.pigeon.tcpserver;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Concurrent histogram of durations in nanoseconds, laid out like HdrHistogram: values are counted in buckets which double
+ * in width, each split into 64 linear sub-buckets, so every value is kept with a relative error below 1/64 and recording
+ * costs a couple of bit operations and one atomic increment, whatever the value.
+ *
+ * Values above MAX_VALUE (about 68 seconds) are counted as MAX_VALUE.
+ */
+final class LatencyHistogram {
+
+    static final long MAX_VALUE = (1L << 36) - 1;
+
+    private static final int SUB_BUCKET_BITS = 6;
+    private static final int SUB_BUCKET_MASK = (1 << (SUB_BUCKET_BITS + 1)) - 1;
+
+    private final AtomicLongArray counts = new AtomicLongArray(index(MAX_VALUE) + 1);
+    private final LongAdder total = new LongAdder();
+    private final AtomicLong max = new AtomicLong();
+
+    void record(long nanos) {
+        long value = Math.max(0, Math.min(nanos, MAX_VALUE));
+        counts.getAndIncrement(index(value));
+        total.add(value);
+
+        long currentMax;
+        while (value > (currentMax = max.get()) && !max.compareAndSet(currentMax, value)) {
+            // Raised by another thread in the meantime, compare again
+        }
+    }
+
+    /**
+     * Copies the counts recorded so far. Values recorded while the copy is made may be included or not.
+     */
+    HistogramSnapshot snapshot() {
+        long[] copy = new long[counts.length()];
+        for (int i = 0; i < copy.length; i++)
+            copy[i] = counts.get(i);
+        return new HistogramSnapshot(copy, total.sum(), max.get());
+    }
+
+    /**
+     * The first bucket holds 128 values one nanosecond wide, every next one holds 64 values twice as wide as the previous one.
+     */
+    static int index(long value) {
+        int bucket = 63 - Long.numberOfLeadingZeros(value | SUB_BUCKET_MASK) - SUB_BUCKET_BITS;
+        int subBucket = (int) (value >>> bucket);
+        return (bucket << SUB_BUCKET_BITS) + subBucket;
+    }
+
+    /**
+     * Returns the highest value counted at the given index.
+     */
+    static long highestValueAt(int index) {
+        int bucket = Math.max(0, (index >> SUB_BUCKET_BITS) - 1);
+        long subBucket = index - (bucket << SUB_BUCKET_BITS);
+        return (subBucket << bucket) + (1L << bucket) - 1;
+    }
+}
@@ -0,0 +1,202 @@
+/*
+    Copyright 2016 Radosław Skupnik
+
+    This file is part of pigeon-tcp-server.
+
+    Pigeon-tcp-server is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    Pigeon-tcp-server is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with pigeon-tcp-server; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+
+package com.github.rskupnik.pigeon.tcpserver;
+
+/**
+ * Server metrics at a point in time, see PigeonTcpServer.getMetrics(). Counters are totals since the server was created.
+ *
+ * Bytes received are counted in NIO mode only, as blocking connections read from their sockets on their own,
+ * which is also why decode times are NIO only. Queue wait times cover the dispatch threads' queues and the queue of
+ * QUEUE mode, send times run from queueing a packet for a connection to having written it to the socket. Relay counters
+ * and forward times are those of the links to the other nodes of a cluster, zero if the server isn't one of them.
+ */
+public final class MetricsSnapshot {
+
+    private final long connectionsAccepted;
+    private final long connectionsRejected;
+    private final long connectionsClosed;
+    private final long packetsReceived;
+    private final long bytesReceived;
+    private final long socketReads;
+    private final long packetsSent;
+    private final long bytesSent;
+    private final long packetsDropped;
+    private final long handlerErrors;
+    private final long relayPacketsSent;
+    private final long relayBytesSent;
+    private final long relayFramesSent;
+    private final long relayPacketsReceived;
+    private final long relayBytesReceived;
+    private final long relayPacketsDropped;
+    private final long recentHandlerTimeNanos;
+    private final HistogramSnapshot decodeTime;
+    private final HistogramSnapshot handlerTime;
+    private final HistogramSnapshot queueWaitTime;
+    private final HistogramSnapshot sendTime;
+    private final HistogramSnapshot relayForwardTime;
+
+    MetricsSnapshot(ServerMetricsMXBean metrics) {
+        this.connectionsAccepted = metrics.getConnectionsAccepted();
+        this.connectionsRejected = metrics.getConnectionsRejected();
+        this.connectionsClosed = metrics.getConnectionsClosed();
+        this.packetsReceived = metrics.getPacketsReceived();
+        this.bytesReceived = metrics.getBytesReceived();
+        this.socketReads = metrics.getSocketReads();
+        this.packetsSent = metrics.getPacketsSent();
+        this.bytesSent = metrics.getBytesSent();
+        this.packetsDropped = metrics.getPacketsDropped();
+        this.handlerErrors = metrics.getHandlerErrors();
+        this.relayPacketsSent = metrics.getRelayPacketsSent();
+        this.relayBytesSent = metrics.getRelayBytesSent();
+        this.relayFramesSent = metrics.getRelayFramesSent();
+        this.relayPacketsReceived = metrics.getRelayPacketsReceived();
+        this.relayBytesReceived = metrics.getRelayBytesReceived();
+        this.relayPacketsDropped = metrics.getRelayPacketsDropped();
+        this.recentHandlerTimeNanos = metrics.getRecentHandlerTimeNanos();
+        this.decodeTime = metrics.getDecodeTime();
+        this.handlerTime = metrics.getHandlerTime();
+        this.queueWaitTime = metrics.getQueueWaitTime();
+        this.sendTime = metrics.getSendTime();
+        this.relayForwardTime = metrics.getRelayForwardTime();
+    }
+
+    public long getConnectionsAccepted() {
+        return connectionsAccepted;
+    }
+
+    /**
+     * Returns the number of connections refused by the admission control, including those refused because all the
+     * receiver threads of a fixed pool were busy.
+     */
+    public long getConnectionsRejected() {
+        return connectionsRejected;
+    }
+
+    public long getConnectionsClosed() {
+        return connectionsClosed;
+    }
+
+    public long getPacketsReceived() {
+        return packetsReceived;
+    }
+
+    public long getBytesReceived() {
+        return bytesReceived;
+    }
+
+    /**
+     * Returns the number of reads from the sockets, NIO mode only. The bytes received divided by it give the average read size.
+     */
+    public long getSocketReads() {
+        return socketReads;
+    }
+
+    public long getPacketsSent() {
+        return packetsSent;
+    }
+
+    public long getBytesSent() {
+        return bytesSent;
+    }
+
+    /**
+     * Returns the number of sent packets dropped by the write queue overflow policy.
+     */
+    public long getPacketsDropped() {
+        return packetsDropped;
+    }
+
+    public long getHandlerErrors() {
+        return handlerErrors;
+    }
+
+    /**
+     * Returns the number of published packets forwarded to other nodes, a packet counted once for every node.
+     */
+    public long getRelayPacketsSent() {
+        return relayPacketsSent;
+    }
+
+    public long getRelayBytesSent() {
+        return relayBytesSent;
+    }
+
+    /**
+     * Returns the number of frames the forwarded packets were batched in.
+     */
+    public long getRelayFramesSent() {
+        return relayFramesSent;
+    }
+
+    public long getRelayPacketsReceived() {
+        return relayPacketsReceived;
+    }
+
+    public long getRelayBytesReceived() {
+        return relayBytesReceived;
+    }
+
+    /**
+     * Returns the number of published packets which didn't fit in the queue of a link to another node.
+     */
+    public long getRelayPacketsDropped() {
+        return relayPacketsDropped;
+    }
+
+    /**
+     * Returns the moving average of the handler time, which follows the last few dozen packets.
+     */
+    public long getRecentHandlerTimeNanos() {
+        return recentHandlerTimeNanos;
+    }
+
+    public HistogramSnapshot getDecodeTime() {
+        return decodeTime;
+    }
+
+    public HistogramSnapshot getHandlerTime() {
+        return handlerTime;
+    }
+
+    public HistogramSnapshot getQueueWaitTime() {
+        return queueWaitTime;
+    }
+
+    public HistogramSnapshot getSendTime() {
+        return sendTime;
+    }
+
+    public HistogramSnapshot getRelayForwardTime() {
+        return relayForwardTime;
+    }
+
+    @Override
+    public String toString() {
+        return "connections accepted=" + connectionsAccepted + ", rejected=" + connectionsRejected + ", closed=" + connectionsClosed
+                + "; packets received=" + packetsReceived + " (" + bytesReceived + " bytes in " + socketReads + " reads), sent=" + packetsSent + " (" + bytesSent + " bytes)"
+                + ", dropped=" + packetsDropped + "; handler errors=" + handlerErrors
+                + ", recent handler time=" + recentHandlerTimeNanos + " ns"
+                + "; relay packets sent=" + relayPacketsSent + " (" + relayBytesSent + " bytes in " + relayFramesSent + " frames)"
+                + ", received=" + relayPacketsReceived + " (" + relayBytesReceived + " bytes), dropped=" + relayPacketsDropped
+                + "\ndecode: " + decodeTime + "\nhandler: " + handlerTime + "\nqueue wait: " + queueWaitTime + "\nsend: " + sendTime
+                + "\nrelay forward: " + relayForwardTime;
+    }
+}
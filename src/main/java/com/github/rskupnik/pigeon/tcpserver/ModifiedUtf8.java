@@ -0,0 +1,116 @@
+/*
+    Copyright 2016 Radosław Skupnik
+
+    This file is part of pigeon-tcp-server.
+
+    Pigeon-tcp-server is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    Pigeon-tcp-server is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with pigeon-tcp-server; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+
+package com.github.rskupnik.pigeon.tcpserver;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+
+/**
+ * Reads and writes strings in the DataOutput.writeUTF() format straight from and to a ByteBuffer.
+ */
+final class ModifiedUtf8 {
+
+    // Including the length prefix
+    static final int MAX_LENGTH = 65535 + 2;
+
+    // Decoded characters are collected here before being copied into the string, so that only the string allocates
+    private static final ThreadLocal<char[]> SCRATCH = new ThreadLocal<char[]>() {
+        @Override
+        protected char[] initialValue() {
+            return new char[256];
+        }
+    };
+
+    private ModifiedUtf8() {
+
+    }
+
+    /**
+     * Throws BufferUnderflowException if the buffer does not hold the whole string yet.
+     */
+    static String read(ByteBuffer buffer) {
+        int length = buffer.getShort() & 0xFFFF;
+        if (buffer.remaining() < length)
+            throw new BufferUnderflowException();
+
+        char[] chars = SCRATCH.get();
+        if (chars.length < length) {
+            chars = new char[length];
+            SCRATCH.set(chars);
+        }
+        int count = 0;
+        int end = buffer.position() + length;
+        while (buffer.position() < end) {
+            int a = buffer.get() & 0xFF;
+            if (a < 0x80) {
+                chars[count++] = (char) a;
+            } else if ((a & 0xE0) == 0xC0) {
+                int b = buffer.get() & 0xFF;
+                chars[count++] = (char) (((a & 0x1F) << 6) | (b & 0x3F));
+            } else {
+                int b = buffer.get() & 0xFF;
+                int c = buffer.get() & 0xFF;
+                chars[count++] = (char) (((a & 0x0F) << 12) | ((b & 0x3F) << 6) | (c & 0x3F));
+            }
+        }
+
+        return new String(chars, 0, count);
+    }
+
+    /**
+     * Returns the number of bytes the string takes when written, including the length prefix.
+     */
+    static int length(String string) {
+        int length = 2;
+        for (int i = 0; i < string.length(); i++) {
+            char c = string.charAt(i);
+            if (c >= 0x0001 && c <= 0x007F)
+                length += 1;
+            else if (c <= 0x07FF)
+                length += 2;
+            else
+                length += 3;
+        }
+        return length;
+    }
+
+    /**
+     * Writes the string, which must take no more than 65535 bytes without the length prefix.
+     */
+    static void write(String string, ByteBuffer buffer) {
+        int start = buffer.position();
+        buffer.position(start + 2);     // The length is known only once the string has been written
+        for (int i = 0; i < string.length(); i++) {
+            char c = string.charAt(i);
+            if (c >= 0x0001 && c <= 0x007F) {
+                buffer.put((byte) c);
+            } else if (c <= 0x07FF) {
+                buffer.put((byte) (0xC0 | ((c >> 6) & 0x1F)));
+                buffer.put((byte) (0x80 | (c & 0x3F)));
+            } else {
+                buffer.put((byte) (0xE0 | ((c >> 12) & 0x0F)));
+                buffer.put((byte) (0x80 | ((c >> 6) & 0x3F)));
+                buffer.put((byte) (0x80 | (c & 0x3F)));
+            }
+        }
+        buffer.putShort(start, (short) (buffer.position() - start - 2));
+    }
+}
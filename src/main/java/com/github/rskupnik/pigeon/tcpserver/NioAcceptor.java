@@ -0,0 +1,130 @@
+/*
+    Copyright 2016 Radosław Skupnik
+
+    This file is part of pigeon-tcp-server.
+
+    Pigeon-tcp-server is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    Pigeon-tcp-server is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with pigeon-tcp-server; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+
+package com.github.rskupnik.pigeon.tcpserver;
+
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.net.SocketOption;
+import java.net.StandardSocketOptions;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+
+/**
+ * Accepts connections from a listening channel and hands them over to the server.
+ * Several acceptors either share one channel or, where SO_REUSEPORT is available, each listen on their own.
+ */
+final class NioAcceptor implements Runnable {
+
+    private static final org.apache.logging.log4j.Logger log = org.apache.logging.log4j.LogManager.getLogger(NioAcceptor.class);
+
+    private static final SocketOption<Boolean> SO_REUSEPORT = findReusePortOption();
+
+    private final PigeonTcpServer server;
+    private final ServerSocketChannel channel;
+    private final Selector selector;
+
+    private volatile boolean exit;
+
+    NioAcceptor(PigeonTcpServer server, ServerSocketChannel channel) throws IOException {
+        this.server = server;
+        this.channel = channel;
+        this.selector = Selector.open();
+        channel.configureBlocking(false);
+        channel.register(selector, SelectionKey.OP_ACCEPT);
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (!exit) {
+                selector.select();
+                selector.selectedKeys().clear();
+
+                // Other acceptors sharing the channel may have taken the connection already, in which case accept() returns null
+                SocketChannel clientChannel;
+                while (!exit && (clientChannel = channel.accept()) != null)
+                    server.accept(clientChannel);
+            }
+        } catch (IOException e) {
+            if (!exit)
+                log.error(e.getMessage(), e);
+        } catch (ClosedSelectorException e) {
+            // The server has been shut down
+        } finally {
+            closeSelector();
+        }
+    }
+
+    /**
+     * Stops accepting connections, leaving the channel open for another acceptor.
+     */
+    void stop() {
+        exit = true;
+        closeSelector();
+    }
+
+    void shutdown() {
+        stop();
+        try {
+            channel.close();
+        } catch (IOException e) {
+            log.error(e.getMessage(), e);
+        }
+    }
+
+    ServerSocketChannel getChannel() {
+        return channel;
+    }
+
+    private void closeSelector() {
+        try {
+            selector.close();
+        } catch (IOException e) {
+            log.error(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Enables SO_REUSEPORT on the channel so that it can be bound to a port other channels listen on as well.
+     * Returns false if the JDK or the platform doesn't support it.
+     */
+    static boolean enableReusePort(ServerSocketChannel channel) throws IOException {
+        if (SO_REUSEPORT == null || !channel.supportedOptions().contains(SO_REUSEPORT))
+            return false;
+
+        channel.setOption(SO_REUSEPORT, true);
+        return true;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static SocketOption<Boolean> findReusePortOption() {
+        // StandardSocketOptions.SO_REUSEPORT only exists since Java 9
+        try {
+            Field field = StandardSocketOptions.class.getField("SO_REUSEPORT");
+            return (SocketOption<Boolean>) field.get(null);
+        } catch (NoSuchFieldException | IllegalAccessException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,518 @@
+/*
+    Copyright 2016 Radosław Skupnik
+
+    This file is part of pigeon-tcp-server.
+
+    Pigeon-tcp-server is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    Pigeon-tcp-server is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with pigeon-tcp-server; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+
+package com.github.rskupnik.pigeon.tcpserver;
+
+import com.github.rskupnik.pigeon.commons.Packet;
+import com.github.rskupnik.pigeon.commons.exceptions.PigeonException;
+
+import javax.net.ssl.SSLEngineResult;
+import javax.net.ssl.SSLException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A single selector thread which reads, decodes and writes packets for all the sessions registered with it.
+ */
+final class NioEventLoop extends Thread {
+
+    private static final org.apache.logging.log4j.Logger log = org.apache.logging.log4j.LogManager.getLogger(NioEventLoop.class);
+
+    private final PigeonTcpServer server;
+    private final PacketCodec codec;
+    private final ServerMetrics metrics;   // Null when metrics are disabled
+    private final CompressionPolicy compressionPolicy;     // Null when compression is disabled
+    private final boolean idleMonitored;
+    private final Selector selector;
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger sessionCount = new AtomicInteger();
+
+    // Only touched by the event loop thread
+    private final PriorityQueue<DelayedTask> delayedTasks = new PriorityQueue<>();
+
+    private volatile boolean exit;
+
+    NioEventLoop(PigeonTcpServer server, PacketCodec codec, int index) throws IOException {
+        super("pigeon-nio-" + index);
+        this.server = server;
+        this.codec = codec;
+        this.metrics = server.getServerMetrics();
+        this.compressionPolicy = server.getCompressionPolicy();
+        this.idleMonitored = server.getReadIdleTimeoutMillis() > 0;
+        this.selector = Selector.open();
+    }
+
+    /**
+     * Runs the task on this event loop's thread, can be called from any thread.
+     */
+    void execute(Runnable task) {
+        tasks.add(task);
+        selector.wakeup();
+    }
+
+    /**
+     * Runs the task on this event loop's thread once the delay has passed, can be called from any thread.
+     * The selector's timeout has millisecond precision, so the delay is effectively rounded up to whole milliseconds.
+     */
+    void schedule(Runnable task, long delayNanos) {
+        final DelayedTask delayedTask = new DelayedTask(task, System.nanoTime() + delayNanos);
+        if (Thread.currentThread() == this) {
+            delayedTasks.add(delayedTask);
+        } else {
+            execute(new Runnable() {
+                @Override
+                public void run() {
+                    delayedTasks.add(delayedTask);
+                }
+            });
+        }
+    }
+
+    void register(final NioSession session) {
+        sessionCount.incrementAndGet();
+        execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    session.setKey(session.getChannel().register(selector, session.isReadingPaused() ? 0 : SelectionKey.OP_READ, session));
+                } catch (IOException e) {
+                    log.error(e.getMessage(), e);
+                    close(session);
+                }
+            }
+        });
+    }
+
+    @Override
+    public void run() {
+        WriteQueue.markSharedThread();
+        try {
+            while (!exit) {
+                select();
+                runTasks();
+                runDelayedTasks();
+
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+
+                    NioSession session = (NioSession) key.attachment();
+                    if (key.isValid() && key.isReadable())
+                        read(session);
+                    if (key.isValid() && key.isWritable())
+                        flush(session);
+                }
+            }
+        } catch (IOException e) {
+            if (!exit)
+                log.error(e.getMessage(), e);
+        } catch (ClosedSelectorException e) {
+            // The server has been shut down
+        } finally {
+            runTasks();     // Fails the in-flight writes of sessions closed during the shutdown
+            closeSelector();
+        }
+    }
+
+    void onSessionClosed() {
+        sessionCount.decrementAndGet();
+    }
+
+    int getSessionCount() {
+        return sessionCount.get();
+    }
+
+    void shutdown() {
+        exit = true;
+        if (getState() == State.NEW)
+            closeSelector();
+        else
+            selector.wakeup();
+    }
+
+    /**
+     * Writes as much of the session's write queue as the socket accepts. Up to NioSession.MAX_GATHERED_WRITES
+     * buffers are written with a single gathering write, so many small packets cost a single syscall.
+     */
+    void flush(NioSession session) {
+        if (session.isClosed() || session.getKey() == null || !session.getKey().isValid())     // Not registered yet, or the channel has been closed
+            return;
+        if (session.getTls() != null) {
+            flushTls(session);
+            return;
+        }
+
+        SelectionKey key = session.getKey();
+        try {
+            while (true) {
+                int count = pollWrites(session);
+                if (count == 0)
+                    break;
+
+                session.getChannel().write(session.getInFlightBuffers(), 0, count);
+
+                if (completeWrites(session) > 0) {      // The socket's send buffer is full, wait until it's writable again
+                    key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+                    return;
+                }
+            }
+            key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+        } catch (IOException e) {
+            close(session);
+        }
+    }
+
+    /**
+     * Carries on with a TLS session once the delegated tasks of its handshake have been run.
+     */
+    void resumeTls(NioSession session) {
+        if (session.isClosed())
+            return;
+
+        try {
+            session.getTls().checkTasks();
+        } catch (SSLException e) {
+            log.error(e.getMessage(), e);
+            close(session);
+            return;
+        }
+
+        flush(session);
+        try {
+            unwrap(session);
+        } catch (IOException e) {
+            close(session);
+        } catch (PigeonException e) {
+            log.error(e.getMessage(), e);
+            close(session);
+        }
+    }
+
+    /**
+     * Like flush(), but the in-flight buffers are encrypted into the session's network buffer and sent from there.
+     * Nothing is taken from the write queue until the handshake has finished, so the accept byte goes out first.
+     */
+    private void flushTls(NioSession session) {
+        SelectionKey key = session.getKey();
+        TlsSession tls = session.getTls();
+        try {
+            while (true) {
+                if (!tls.write(session.getChannel())) {
+                    key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+                    return;
+                }
+                if (tls.isRunningTasks())
+                    break;
+
+                SSLEngineResult.HandshakeStatus handshake = tls.getHandshakeStatus();
+                if (handshake == SSLEngineResult.HandshakeStatus.NEED_TASK) {
+                    tls.runTasks(this, session.getTlsResumeTask());
+                    break;
+                }
+                if (handshake == SSLEngineResult.HandshakeStatus.NEED_WRAP) {
+                    tls.wrapHandshake();
+                    continue;
+                }
+                if (handshake == SSLEngineResult.HandshakeStatus.NEED_UNWRAP)    // Waiting for the client
+                    break;
+
+                int count = pollWrites(session);
+                if (count == 0)
+                    break;
+                tls.wrap(session.getInFlightBuffers(), 0, count);
+                completeWrites(session);
+            }
+            key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+        } catch (IOException e) {
+            close(session);
+        }
+    }
+
+    /**
+     * Tops up the session's in-flight writes from its write queue. Returns their number.
+     */
+    private int pollWrites(NioSession session) {
+        WriteQueue writeQueue = session.getWriteQueue();
+        WriteQueue.Entry[] entries = session.getInFlightWrites();
+        ByteBuffer[] buffers = session.getInFlightBuffers();
+        int count = session.getInFlightWriteCount();
+        WriteQueue.Entry entry;
+        while (count < entries.length && (entry = writeQueue.poll()) != null) {
+            // Compressed in the order of writing, which is the order the client decompresses them in
+            if (session.getCompressor() != null)
+                session.getCompressor().compress(entry);
+            entries[count] = entry;
+            buffers[count] = entry.getBuffer();
+            count++;
+        }
+        session.setInFlightWriteCount(count);
+        return count;
+    }
+
+    /**
+     * Completes the in-flight writes which have been fully written. Returns the number of the remaining ones.
+     */
+    private int completeWrites(NioSession session) {
+        WriteQueue writeQueue = session.getWriteQueue();
+        WriteQueue.Entry[] entries = session.getInFlightWrites();
+        ByteBuffer[] buffers = session.getInFlightBuffers();
+        int count = session.getInFlightWriteCount();
+        int written = 0;
+        while (written < count && !buffers[written].hasRemaining())
+            writeQueue.written(entries[written++]);
+        return session.removeInFlightWrites(written);
+    }
+
+    private void read(NioSession session) {
+        try {
+            if (session.getTls() != null) {
+                int read = session.getTls().read(session.getChannel());
+                if (read < 0) {
+                    close(session);
+                    return;
+                }
+                onRead(session, read);
+                unwrap(session);
+                return;
+            }
+
+            ByteBuffer buffer = session.getReadBuffer();
+            int room = buffer.remaining();
+            int read = session.getChannel().read(buffer);
+            if (read < 0) {
+                close(session);
+                return;
+            }
+            onRead(session, read);
+            if (read > 0)
+                session.getReadBufferPredictor().record(read, room);
+
+            if (!decode(session, buffer))
+                return;
+            // A packet bigger than the buffer is pending, make room for it
+            if (!buffer.hasRemaining() && !session.growReadBuffer()) {
+                tooBig(session);
+                return;
+            }
+            session.releaseReadBuffer();
+        } catch (IOException e) {
+            close(session);
+        } catch (PigeonException e) {
+            log.error(e.getMessage(), e);
+            close(session);
+        }
+    }
+
+    /**
+     * Decrypts and decodes the records read from a TLS session, answering its handshake on the way.
+     */
+    private void unwrap(NioSession session) throws IOException, PigeonException {
+        TlsSession tls = session.getTls();
+        while (!session.isClosed() && !tls.isRunningTasks()) {
+            if (!session.ensureReadRoom(tls.getApplicationBufferSize())) {
+                tooBig(session);
+                return;
+            }
+            ByteBuffer buffer = session.getReadBuffer();
+            TlsSession.Status status = tls.unwrap(buffer);
+            if (!decode(session, buffer))
+                return;
+
+            switch (status) {
+                case UNDERFLOW:
+                    session.releaseReadBuffer();
+                    flush(session);     // The handshake may have just finished, with the accept byte waiting
+                    return;
+                case OVERFLOW:          // Decoding has made room
+                    break;
+                case WRAP:
+                    flush(session);
+                    if (tls.hasPendingOutput())     // Carried on once the socket is writable again
+                        return;
+                    break;
+                case TASK:
+                    tls.runTasks(this, session.getTlsResumeTask());
+                    return;
+                case CLOSED:
+                    close(session);
+                    return;
+            }
+        }
+    }
+
+    /**
+     * Decodes the complete packets in the buffer, which is in write mode, and hands them over to the server.
+     * The buffer is left in write mode with the beginning of the next packet. Returns false if the session has been closed.
+     */
+    private boolean decode(NioSession session, ByteBuffer buffer) throws PigeonException {
+        buffer.flip();
+        while (!session.isClosed()) {
+            int id = buffer.remaining() >= 4 ? buffer.getInt(buffer.position()) : 0;
+            if (id == PacketCompressor.HELLO_ID) {
+                if (buffer.remaining() < PacketCompressor.HELLO_SIZE)
+                    break;
+                buffer.getInt();
+                negotiateCompression(session, buffer.getInt());
+                continue;
+            }
+
+            long decodeStart = metrics != null ? System.nanoTime() : 0;
+            ByteBuffer source = buffer;
+            if (id == PacketCompressor.COMPRESSED_ID) {
+                if (session.getCompressor() == null)
+                    throw new PigeonException("Connection [" + session.getUuid() + "] sent a compressed packet without negotiating compression");
+                source = session.getCompressor().inflate(buffer);
+                if (source == null)
+                    break;
+            }
+
+            int start = source.position();
+            Packet packet = codec.decode(source);
+            if (packet == null) {
+                if (source != buffer)
+                    throw new PigeonException("Compressed packet from connection [" + session.getUuid() + "] is incomplete");
+                break;
+            }
+            if (metrics != null)
+                metrics.onPacketDecoded(System.nanoTime() - decodeStart);
+
+            try {
+                server.onPacketReceived(session, source.getInt(start), packet);    // A packet starts with its id
+            } catch (RuntimeException e) {  // A failing handler must not take down the other sessions of this loop
+                log.error(e.getMessage(), e);
+            }
+        }
+        if (session.isClosed())     // Closed by the handler
+            return false;
+        buffer.compact();
+        return true;
+    }
+
+    private void onRead(NioSession session, int read) {
+        if (metrics != null)
+            metrics.onBytesReceived(read);
+        if (idleMonitored && read > 0)
+            session.markRead();
+    }
+
+    private void tooBig(NioSession session) {
+        log.error("Packet from connection [" + session.getUuid() + "] exceeds " + NioSession.MAX_READ_BUFFER_SIZE + " bytes");
+        close(session);
+    }
+
+    /**
+     * Answers the client's hello with the codecs both sides support. Packets sent before the answer aren't compressed.
+     * Any supported codec is accepted from the client, the policy only decides how the packets sent to it are compressed.
+     */
+    private void negotiateCompression(NioSession session, int clientCodecs) throws PigeonException {
+        if (session.getCompressor() != null)
+            throw new PigeonException("Connection [" + session.getUuid() + "] has negotiated compression already");
+
+        int codecs = compressionPolicy != null ? clientCodecs & PacketCompressor.SUPPORTED_CODECS : 0;
+        if (codecs == 0) {
+            session.send(PacketCompressor.hello(0), null, null);
+            return;
+        }
+
+        PacketCompressor compressor = new PacketCompressor(compressionPolicy, codecs, server.getBufferPool());
+        session.setCompressor(compressor);
+        session.send(compressor.acknowledge(), null, null);
+        log.debug("Connection [" + session.getUuid() + "] has negotiated compression with codecs " + codecs);
+    }
+
+    private void close(NioSession session) {
+        session.close();
+        server.onDisconnected(session.getUuid());
+    }
+
+    private void select() throws IOException {
+        DelayedTask next = delayedTasks.peek();
+        if (next == null) {
+            selector.select();
+            return;
+        }
+
+        long timeoutMillis = TimeUnit.NANOSECONDS.toMillis(next.deadline - System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(1) - 1);
+        if (timeoutMillis > 0)
+            selector.select(timeoutMillis);
+        else
+            selector.selectNow();
+    }
+
+    private void runTasks() {
+        Runnable task;
+        while ((task = tasks.poll()) != null)
+            runTask(task);
+    }
+
+    private void runDelayedTasks() {
+        long now = System.nanoTime();
+        DelayedTask next;
+        while ((next = delayedTasks.peek()) != null && next.deadline - now <= 0) {
+            delayedTasks.poll();
+            runTask(next.task);
+        }
+    }
+
+    /**
+     * Tasks can end up in the application's callbacks, a failing one must not stop the loop and strand its sessions.
+     */
+    private void runTask(Runnable task) {
+        try {
+            task.run();
+        } catch (Throwable e) {
+            log.error(e.getMessage(), e);
+        }
+    }
+
+    private void closeSelector() {
+        try {
+            selector.close();
+        } catch (IOException e) {
+            log.error(e.getMessage(), e);
+        }
+    }
+
+    private static final class DelayedTask implements Comparable<DelayedTask> {
+
+        private final Runnable task;
+        private final long deadline;
+
+        private DelayedTask(Runnable task, long deadline) {
+            this.task = task;
+            this.deadline = deadline;
+        }
+
+        @Override
+        public int compareTo(DelayedTask other) {
+            return Long.compare(deadline - other.deadline, 0);
+        }
+    }
+}
@@ -0,0 +1,326 @@
+/*
+    Copyright 2016 Radosław Skupnik
+
+    This file is part of pigeon-tcp-server.
+
+    Pigeon-tcp-server is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    Pigeon-tcp-server is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with pigeon-tcp-server; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+
+package com.github.rskupnik.pigeon.tcpserver;
+
+import com.github.rskupnik.pigeon.commons.Connection;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Session of a connection served by an NioEventLoop.
+ * The Connection object is kept only as the handle exposed to the user - it never runs its own read loop.
+ */
+final class NioSession extends Session {
+
+    private static final org.apache.logging.log4j.Logger log = org.apache.logging.log4j.LogManager.getLogger(NioSession.class);
+
+    static final int MAX_READ_BUFFER_SIZE = 1024 * 1024;
+    static final int MAX_GATHERED_WRITES = 64;
+
+    private final SocketChannel channel;
+    private final NioEventLoop eventLoop;
+    private final BufferPool bufferPool;
+    private final AtomicBoolean flushScheduled = new AtomicBoolean();
+    private final Runnable flushTask = new Runnable() {
+        @Override
+        public void run() {
+            flushScheduled.set(false);
+            eventLoop.flush(NioSession.this);
+        }
+    };
+    private final TlsSession tls;   // Null when TLS is disabled
+    private final Runnable tlsResumeTask = new Runnable() {
+        @Override
+        public void run() {
+            eventLoop.resumeTls(NioSession.this);
+        }
+    };
+
+    // Only touched by the event loop thread
+    // Taken from the pool for a read and released once all the packets in it have been decoded,
+    // so that idle connections don't hold any buffer
+    private PooledBuffer readBuffer;
+    private final ReadBufferPredictor readBufferPredictor;     // Sizes the read buffer taken from the pool
+    private SelectionKey key;
+    private PacketCompressor compressor;    // Set once the client has negotiated compression
+    private boolean readingPaused;      // For good, by a graceful shutdown
+    private boolean readingSuspended;   // Until the dispatch pool has room for the session's packets
+
+    // Entries taken from the write queue but not fully written yet, only touched by the event loop thread
+    private final WriteQueue.Entry[] inFlightWrites = new WriteQueue.Entry[MAX_GATHERED_WRITES];
+    private final ByteBuffer[] inFlightBuffers = new ByteBuffer[MAX_GATHERED_WRITES];
+    private int inFlightWriteCount;
+    private final Runnable releaseTask = new Runnable() {
+        @Override
+        public void run() {
+            for (int i = 0; i < inFlightWriteCount; i++)
+                getWriteQueue().fail(inFlightWrites[i]);
+            removeInFlightWrites(inFlightWriteCount);
+
+            if (readBuffer != null) {
+                readBuffer.release();
+                readBuffer = null;
+            }
+            if (compressor != null) {
+                compressor.end();
+                compressor = null;
+            }
+            if (tls != null)
+                tls.release();
+        }
+    };
+
+    NioSession(UUID uuid, String host, SocketChannel channel, Connection connection, NioEventLoop eventLoop, PigeonTcpServer server,
+               TlsSession tls) {
+        super(uuid, host, connection, server);
+        this.channel = channel;
+        this.eventLoop = eventLoop;
+        this.tls = tls;
+        this.bufferPool = server.getBufferPool();
+        this.readBufferPredictor = new ReadBufferPredictor(server.getReadBufferMinSize(), server.getReadBufferInitialSize(),
+                server.getReadBufferMaxSize());
+    }
+
+    @Override
+    void scheduleFlush() {
+        if (flushScheduled.compareAndSet(false, true))
+            eventLoop.execute(flushTask);
+    }
+
+    @Override
+    void scheduleDelayed(Runnable task, long delayNanos) {
+        eventLoop.schedule(task, delayNanos);
+    }
+
+    @Override
+    boolean isIoThread() {
+        return Thread.currentThread() == eventLoop;
+    }
+
+    @Override
+    void execute(Runnable task) {
+        eventLoop.execute(task);
+    }
+
+    @Override
+    void pauseReading() {
+        eventLoop.execute(new Runnable() {
+            @Override
+            public void run() {
+                readingPaused = true;
+                updateReadInterest();
+            }
+        });
+    }
+
+    @Override
+    boolean suspendReading() {
+        if (isIoThread()) {
+            readingSuspended = true;
+            updateReadInterest();
+        } else {
+            eventLoop.execute(new Runnable() {
+                @Override
+                public void run() {
+                    readingSuspended = true;
+                    updateReadInterest();
+                }
+            });
+        }
+        return true;
+    }
+
+    @Override
+    void resumeReading() {
+        eventLoop.execute(new Runnable() {
+            @Override
+            public void run() {
+                readingSuspended = false;
+                updateReadInterest();
+            }
+        });
+    }
+
+    /**
+     * To be called by the event loop thread only.
+     */
+    private void updateReadInterest() {
+        if (key == null || !key.isValid())
+            return;
+        if (isReadingPaused())
+            key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+        else
+            key.interestOps(key.interestOps() | SelectionKey.OP_READ);
+    }
+
+    @Override
+    void close() {
+        if (!markClosed())
+            return;
+
+        eventLoop.onSessionClosed();
+        getWriteQueue().failAll();
+        // Even on the event loop thread, as the read buffer may still be in use by the read which led to this call
+        eventLoop.execute(releaseTask);
+
+        if (key != null)
+            key.cancel();
+
+        try {
+            channel.close();
+        } catch (IOException e) {
+            log.error(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Replaces a full read buffer with a larger one, keeping its content. Returns false if the limit has been reached.
+     */
+    boolean growReadBuffer() {
+        ByteBuffer buffer = readBuffer.buffer();
+        if (buffer.capacity() >= MAX_READ_BUFFER_SIZE)
+            return false;
+
+        PooledBuffer larger = bufferPool.acquire(Math.min(buffer.capacity() * 2, MAX_READ_BUFFER_SIZE));
+        buffer.flip();
+        larger.buffer().put(buffer);
+        readBuffer.release();
+        readBuffer = larger;
+        return true;
+    }
+
+    /**
+     * Makes sure the read buffer has room for at least the given number of bytes, as a TLS record is decrypted
+     * into it as a whole. Returns false if the buffer already holds a pending packet as big as the limit.
+     */
+    boolean ensureReadRoom(int room) {
+        if (readBuffer == null) {
+            readBuffer = bufferPool.acquire(Integer.highestOneBit(room - 1) << 1);
+            return true;
+        }
+
+        ByteBuffer buffer = readBuffer.buffer();
+        if (buffer.remaining() >= room)
+            return true;
+        if (buffer.position() >= MAX_READ_BUFFER_SIZE)
+            return false;
+
+        PooledBuffer larger = bufferPool.acquire(Integer.highestOneBit(buffer.position() + room - 1) << 1);
+        buffer.flip();
+        larger.buffer().put(buffer);
+        readBuffer.release();
+        readBuffer = larger;
+        return true;
+    }
+
+    /**
+     * Returns the read buffer to the pool if it doesn't hold the beginning of a packet.
+     */
+    void releaseReadBuffer() {
+        if (readBuffer != null && readBuffer.buffer().position() == 0) {
+            readBuffer.release();
+            readBuffer = null;
+        }
+    }
+
+    SocketChannel getChannel() {
+        return channel;
+    }
+
+    NioEventLoop getEventLoop() {
+        return eventLoop;
+    }
+
+    ByteBuffer getReadBuffer() {
+        if (readBuffer == null)
+            readBuffer = bufferPool.acquire(readBufferPredictor.nextSize());
+        return readBuffer.buffer();
+    }
+
+    ReadBufferPredictor getReadBufferPredictor() {
+        return readBufferPredictor;
+    }
+
+    WriteQueue.Entry[] getInFlightWrites() {
+        return inFlightWrites;
+    }
+
+    ByteBuffer[] getInFlightBuffers() {
+        return inFlightBuffers;
+    }
+
+    int getInFlightWriteCount() {
+        return inFlightWriteCount;
+    }
+
+    void setInFlightWriteCount(int inFlightWriteCount) {
+        this.inFlightWriteCount = inFlightWriteCount;
+    }
+
+    /**
+     * Removes the given number of fully written entries from the front of the in-flight writes.
+     * Returns the number of the remaining ones.
+     */
+    int removeInFlightWrites(int written) {
+        int remaining = inFlightWriteCount - written;
+        System.arraycopy(inFlightWrites, written, inFlightWrites, 0, remaining);
+        System.arraycopy(inFlightBuffers, written, inFlightBuffers, 0, remaining);
+        for (int i = remaining; i < inFlightWriteCount; i++) {
+            inFlightWrites[i] = null;
+            inFlightBuffers[i] = null;
+        }
+        inFlightWriteCount = remaining;
+        return remaining;
+    }
+
+    PacketCompressor getCompressor() {
+        return compressor;
+    }
+
+    void setCompressor(PacketCompressor compressor) {
+        this.compressor = compressor;
+    }
+
+    TlsSession getTls() {
+        return tls;
+    }
+
+    Runnable getTlsResumeTask() {
+        return tlsResumeTask;
+    }
+
+    boolean isReadingPaused() {
+        return readingPaused || readingSuspended;
+    }
+
+    SelectionKey getKey() {
+        return key;
+    }
+
+    void setKey(SelectionKey key) {
+        this.key = key;
+    }
+}
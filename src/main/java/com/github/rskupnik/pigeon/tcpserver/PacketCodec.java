@@ -0,0 +1,51 @@
+/*
+    Copyright 2016 Radosław Skupnik
+
+    This file is part of pigeon-tcp-server.
+
+    Pigeon-tcp-server is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    Pigeon-tcp-server is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with pigeon-tcp-server; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+
+package com.github.rskupnik.pigeon.tcpserver;
+
+import com.github.rskupnik.pigeon.commons.Packet;
+import com.github.rskupnik.pigeon.commons.exceptions.PigeonException;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Converts packets to and from the Pigeon wire format: the packet id as an int followed by
+ * every @PacketDataField in declaration order (ints as 4 big-endian bytes, strings in modified UTF-8
+ * prefixed with an unsigned short length - the same layout DataOutputStream produces).
+ */
+interface PacketCodec {
+
+    /**
+     * Encodes the packet into a buffer taken from the pool, with its position at 0 and its limit at the end of the packet.
+     */
+    PooledBuffer encode(Packet packet, BufferPool pool) throws PigeonException;
+
+    /**
+     * Decodes a single packet from the buffer, advancing its position past it.
+     * Returns null and leaves the position untouched if the buffer does not hold a complete packet yet.
+     */
+    Packet decode(ByteBuffer buffer) throws PigeonException;
+
+    /**
+     * Takes back a decoded packet which the application no longer uses, so that decode() can fill it with
+     * the content of another packet instead of creating a new one. Does nothing unless packet recycling is enabled.
+     */
+    void recycle(Packet packet);
+}
@@ -0,0 +1,243 @@
+/*
+    Copyright 2016 Radosław Skupnik
+
+    This file is part of pigeon-tcp-server.
+
+    Pigeon-tcp-server is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    Pigeon-tcp-server is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with pigeon-tcp-server; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+
+package com.github.rskupnik.pigeon.tcpserver;
+
+import com.github.rskupnik.pigeon.commons.exceptions.PigeonException;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Compresses the packets sent to a single connection and decompresses the ones received from it.
+ *
+ * A client asks for compression with a hello frame - HELLO_ID followed by the codecs it supports as an int of masks - right
+ * after reading the accept byte. The server answers with the same frame holding the codecs both sides support, or none
+ * if compression is disabled. Each side then compresses with whichever of them it likes.
+ * Afterwards either side may send a compressed frame instead of a packet: COMPRESSED_ID, the codec as a byte, the size
+ * of the packet and the size of the compressed bytes as ints, then the compressed bytes.
+ *
+ * Every codec is a single raw Deflate stream per direction, flushed with a sync flush after every packet. The stream
+ * keeps its dictionary between packets, so repetitive packets compress far better than each of them would on its own,
+ * but it also means every compressed packet has to be sent, in order - which is why packets are compressed by the event
+ * loop right before they're written. The contexts are created once per connection and reused, so compressing
+ * a packet allocates nothing but the pooled buffer holding the frame.
+ *
+ * Only touched by the event loop thread of the connection.
+ */
+final class PacketCompressor {
+
+    static final int HELLO_ID = Integer.MIN_VALUE;
+    static final int COMPRESSED_ID = Integer.MIN_VALUE + 1;
+    static final int HELLO_SIZE = 8;
+    static final int HEADER_SIZE = 13;
+    static final int MAX_PACKET_SIZE = NioSession.MAX_READ_BUFFER_SIZE;
+    static final int SUPPORTED_CODECS = CompressionCodec.DEFLATE_FAST.getMask() | CompressionCodec.DEFLATE.getMask();
+
+    private static final int INITIAL_BUFFER_SIZE = 1024;
+    private static final CompressionCodec[] CODECS = CompressionCodec.values();
+
+    private final CompressionPolicy policy;
+    private final int codecs;
+    private final BufferPool pool;
+
+    private final Deflater[] deflaters = new Deflater[CODECS.length];
+    private final Inflater[] inflaters = new Inflater[CODECS.length];
+    private byte[] input = new byte[INITIAL_BUFFER_SIZE];
+    private byte[] output = new byte[INITIAL_BUFFER_SIZE];
+    private ByteBuffer inflated = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+
+    // Nothing queued before the acknowledgement may be compressed, the client doesn't expect it yet
+    private ByteBuffer acknowledgement;
+    private boolean active;
+
+    /**
+     * The policy picks the codec of every sent packet, it's only needed by compress(). The codecs, as masks, are the ones
+     * both sides support.
+     */
+    PacketCompressor(CompressionPolicy policy, int codecs, BufferPool pool) {
+        this.policy = policy;
+        this.codecs = codecs;
+        this.pool = pool;
+    }
+
+    /**
+     * Returns a hello frame with the given codecs, as masks.
+     */
+    static ByteBuffer hello(int codecs) {
+        ByteBuffer hello = ByteBuffer.allocate(HELLO_SIZE);
+        hello.putInt(HELLO_ID).putInt(codecs).flip();
+        return hello;
+    }
+
+    /**
+     * Returns the answer to the client's hello. Packets are compressed once it has been taken from the write queue.
+     */
+    ByteBuffer acknowledge() {
+        acknowledgement = hello(codecs);
+        return acknowledgement;
+    }
+
+    /**
+     * Replaces the buffer of a packet just taken from the write queue with a compressed frame, if the policy says so.
+     */
+    void compress(WriteQueue.Entry entry) {
+        ByteBuffer buffer = entry.getBuffer();
+        if (!active) {
+            if (buffer == acknowledgement) {
+                active = true;
+                acknowledgement = null;
+            }
+            return;
+        }
+
+        if (buffer.remaining() < 4)
+            return;
+        CompressionCodec codec = policy.get(buffer.getInt(buffer.position()), buffer.remaining());
+        if ((codec.getMask() & codecs) != 0)    // NONE has no mask
+            entry.replaceBuffer(deflate(buffer, codec));
+    }
+
+    /**
+     * Returns a pooled buffer holding the packet as a compressed frame, leaving the packet's buffer untouched.
+     */
+    PooledBuffer deflate(ByteBuffer packet, CompressionCodec codec) {
+        int size = packet.remaining();
+        Deflater deflater = deflater(codec);
+        if (packet.hasArray()) {
+            deflater.setInput(packet.array(), packet.arrayOffset() + packet.position(), size);
+        } else {
+            byte[] bytes = input(size);
+            int position = packet.position();
+            packet.get(bytes, 0, size);
+            packet.position(position);
+            deflater.setInput(bytes, 0, size);
+        }
+
+        // A full output buffer means the flush may not be complete yet
+        int length = 0;
+        while (true) {
+            length += deflater.deflate(output, length, output.length - length, Deflater.SYNC_FLUSH);
+            if (length < output.length)
+                break;
+            output = Arrays.copyOf(output, output.length * 2);
+        }
+
+        PooledBuffer frame = pool.acquire(HEADER_SIZE + length);
+        frame.buffer().putInt(COMPRESSED_ID).put((byte) codec.ordinal()).putInt(size).putInt(length).put(output, 0, length).flip();
+        return frame;
+    }
+
+    /**
+     * Decompresses the frame at the buffer's position, which has to start with COMPRESSED_ID, and moves the position
+     * past it. Returns a buffer holding the packet, valid until the next call, or null and leaves the position untouched
+     * if the frame is not complete yet.
+     */
+    ByteBuffer inflate(ByteBuffer buffer) throws PigeonException {
+        int start = buffer.position();
+        if (buffer.remaining() < HEADER_SIZE)
+            return null;
+
+        int codecIndex = buffer.get(start + 4);
+        int size = buffer.getInt(start + 5);
+        int length = buffer.getInt(start + 9);
+        if (codecIndex <= 0 || codecIndex >= CODECS.length || (CODECS[codecIndex].getMask() & codecs) == 0)
+            throw new PigeonException("Compressed packet uses codec " + codecIndex + ", which hasn't been negotiated");
+        if (size <= 0 || size > MAX_PACKET_SIZE || length <= 0 || length > MAX_PACKET_SIZE - HEADER_SIZE)
+            throw new PigeonException("Compressed packet of " + length + " bytes declares a size of " + size + " bytes");
+        if (buffer.remaining() < HEADER_SIZE + length)
+            return null;
+
+        Inflater inflater = inflater(CODECS[codecIndex]);
+        if (buffer.hasArray()) {
+            inflater.setInput(buffer.array(), buffer.arrayOffset() + start + HEADER_SIZE, length);
+        } else {
+            byte[] bytes = input(length);
+            buffer.position(start + HEADER_SIZE);
+            buffer.get(bytes, 0, length);
+            inflater.setInput(bytes, 0, length);
+        }
+        buffer.position(start + HEADER_SIZE + length);
+
+        // One byte more than the packet, so that the rest of the frame (the end of the flush) is consumed as well
+        // and any byte over the declared size is noticed
+        if (inflated.capacity() <= size)
+            inflated = ByteBuffer.allocate(Math.max(inflated.capacity() * 2, size + 1));
+        byte[] bytes = inflated.array();
+        int inflatedSize = 0;
+        try {
+            while (!inflater.needsInput()) {
+                int remaining = inflater.getRemaining();
+                int count = inflater.inflate(bytes, inflatedSize, size + 1 - inflatedSize);
+                inflatedSize += count;
+                if (inflatedSize > size || (count == 0 && inflater.getRemaining() == remaining))
+                    break;
+            }
+        } catch (DataFormatException e) {
+            throw new PigeonException("Compressed packet is corrupted: " + e.getMessage());
+        }
+        if (inflatedSize != size || !inflater.needsInput())
+            throw new PigeonException("Compressed packet doesn't hold the declared " + size + " bytes");
+
+        inflated.clear().limit(size);
+        return inflated;
+    }
+
+    /**
+     * Frees the native memory of the compression contexts, to be called once the connection is closed.
+     */
+    void end() {
+        for (Deflater deflater : deflaters) {
+            if (deflater != null)
+                deflater.end();
+        }
+        for (Inflater inflater : inflaters) {
+            if (inflater != null)
+                inflater.end();
+        }
+    }
+
+    private Deflater deflater(CompressionCodec codec) {
+        Deflater deflater = deflaters[codec.ordinal()];
+        if (deflater == null) {
+            deflater = new Deflater(codec.getLevel(), true);
+            deflaters[codec.ordinal()] = deflater;
+        }
+        return deflater;
+    }
+
+    private Inflater inflater(CompressionCodec codec) {
+        Inflater inflater = inflaters[codec.ordinal()];
+        if (inflater == null) {
+            inflater = new Inflater(true);
+            inflaters[codec.ordinal()] = inflater;
+        }
+        return inflater;
+    }
+
+    private byte[] input(int size) {
+        if (input.length < size)
+            input = new byte[Math.max(input.length * 2, size)];
+        return input;
+    }
+}
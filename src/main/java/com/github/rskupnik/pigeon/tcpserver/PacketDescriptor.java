@@ -0,0 +1,110 @@
+/*
+    Copyright 2016 Radosław Skupnik
+
+    This file is part of pigeon-tcp-server.
+
+    Pigeon-tcp-server is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    Pigeon-tcp-server is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with pigeon-tcp-server; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+
+package com.github.rskupnik.pigeon.tcpserver;
+
+import com.github.rskupnik.pigeon.commons.Packet;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Describes the wire layout of a single @PigeonPacket class - its id and the
+ * ordered list of @PacketDataField fields together with their accessors.
+ */
+final class PacketDescriptor {
+
+    private final int id;
+    private final Class<? extends Packet> type;
+    private final Constructor<? extends Packet> constructor;
+    private final List<Field> fields;
+    private final Recycler<Packet> recycler = new Recycler<>(RECYCLER_THREAD_CACHE_SIZE, RECYCLER_SHARED_CAPACITY);
+
+    private static final int RECYCLER_THREAD_CACHE_SIZE = 64;
+    private static final int RECYCLER_SHARED_CAPACITY = 1024;
+
+    PacketDescriptor(int id, Class<? extends Packet> type, Constructor<? extends Packet> constructor, List<Field> fields) {
+        this.id = id;
+        this.type = type;
+        this.constructor = constructor;
+        this.fields = Collections.unmodifiableList(fields);
+    }
+
+    int getId() {
+        return id;
+    }
+
+    Class<? extends Packet> getType() {
+        return type;
+    }
+
+    Constructor<? extends Packet> getConstructor() {
+        return constructor;
+    }
+
+    List<Field> getFields() {
+        return fields;
+    }
+
+    /**
+     * Instances of this packet returned by the application, used with packet recycling.
+     */
+    Recycler<Packet> getRecycler() {
+        return recycler;
+    }
+
+    enum FieldType {
+        INT,
+        STRING
+    }
+
+    static final class Field {
+
+        private final String name;
+        private final FieldType type;
+        private final Method getter;
+        private final Method setter;
+
+        Field(String name, FieldType type, Method getter, Method setter) {
+            this.name = name;
+            this.type = type;
+            this.getter = getter;
+            this.setter = setter;
+        }
+
+        String getName() {
+            return name;
+        }
+
+        FieldType getType() {
+            return type;
+        }
+
+        Method getGetter() {
+            return getter;
+        }
+
+        Method getSetter() {
+            return setter;
+        }
+    }
+}
@@ -0,0 +1,140 @@
+/*
+    Copyright 2016 Radosław Skupnik
+
+    This file is part of pigeon-tcp-server.
+
+    Pigeon-tcp-server is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    Pigeon-tcp-server is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with pigeon-tcp-server; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+
+package com.github.rskupnik.pigeon.tcpserver;
+
+import com.github.rskupnik.pigeon.commons.annotations.PigeonPacket;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.TypeElement;
+import javax.tools.Diagnostic;
+import javax.tools.FileObject;
+import javax.tools.StandardLocation;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Annotation processor which lists the ids and names of the @PigeonPacket classes being compiled in
+ * META-INF/pigeon/packets.index, so that the server can find them at startup without scanning the classpath.
+ * It's registered as a service, so javac runs it for every project which has Pigeon on its classpath.
+ */
+public final class PacketIndexProcessor extends AbstractProcessor {
+
+    // Keyed by class name and sorted, so that an unchanged set of packets always gives the same index
+    private final Map<String, Integer> packets = new TreeMap<>();
+    private boolean previousIndexRead;
+
+    @Override
+    public Set<String> getSupportedAnnotationTypes() {
+        return Collections.singleton(PigeonPacket.class.getName());
+    }
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+        if (!previousIndexRead) {
+            readPreviousIndex();
+            previousIndexRead = true;
+        }
+
+        for (Element element : roundEnv.getElementsAnnotatedWith(PigeonPacket.class)) {
+            if (element.getKind() != ElementKind.CLASS) {
+                processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, "@PigeonPacket can only be used on classes", element);
+                continue;
+            }
+
+            TypeElement type = (TypeElement) element;
+            packets.put(processingEnv.getElementUtils().getBinaryName(type).toString(), type.getAnnotation(PigeonPacket.class).id());
+        }
+
+        if (roundEnv.processingOver() && checkIds())
+            writeIndex();
+
+        return false;   // Other processors may be interested in @PigeonPacket as well
+    }
+
+    /**
+     * An incremental build compiles only the changed classes, so the packets listed by the index written by the previous build
+     * are kept, as long as they still exist and are still annotated.
+     */
+    private void readPreviousIndex() {
+        try {
+            FileObject index = processingEnv.getFiler().getResource(StandardLocation.CLASS_OUTPUT, "", PacketRegistry.INDEX);
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(index.openInputStream(), StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    PacketRegistry.IndexEntry entry = PacketRegistry.IndexEntry.parse(line);
+                    if (entry == null)
+                        continue;
+
+                    TypeElement type = processingEnv.getElementUtils().getTypeElement(entry.getClassName().replace('$', '.'));
+                    if (type != null && type.getAnnotation(PigeonPacket.class) != null)
+                        packets.put(entry.getClassName(), type.getAnnotation(PigeonPacket.class).id());
+                }
+            }
+        } catch (IOException | IllegalArgumentException e) {
+            // There's no previous index
+        }
+    }
+
+    private boolean checkIds() {
+        Map<Integer, String> byId = new HashMap<>();
+        boolean valid = true;
+        for (Map.Entry<String, Integer> packet : packets.entrySet()) {
+            String existing = byId.put(packet.getValue(), packet.getKey());
+            if (existing != null) {
+                processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR,
+                        "Packet id " + packet.getValue() + " is used by both " + existing + " and " + packet.getKey());
+                valid = false;
+            }
+        }
+        return valid;
+    }
+
+    private void writeIndex() {
+        try {
+            FileObject index = processingEnv.getFiler().createResource(StandardLocation.CLASS_OUTPUT, "", PacketRegistry.INDEX);
+            try (Writer writer = new OutputStreamWriter(index.openOutputStream(), StandardCharsets.UTF_8)) {
+                writer.write("# Generated by " + PacketIndexProcessor.class.getName() + "\n");
+                for (Map.Entry<String, Integer> packet : packets.entrySet())
+                    writer.write(new PacketRegistry.IndexEntry(packet.getValue(), packet.getKey()).toString() + "\n");
+            }
+        } catch (IOException e) {
+            processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, "Cannot write " + PacketRegistry.INDEX + ": " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,423 @@
+/*
+    Copyright 2016 Radosław Skupnik
+
+    This file is part of pigeon-tcp-server.
+
+    Pigeon-tcp-server is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    Pigeon-tcp-server is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with pigeon-tcp-server; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+
+package com.github.rskupnik.pigeon.tcpserver;
+
+import com.github.rskupnik.pigeon.commons.Packet;
+import com.github.rskupnik.pigeon.commons.exceptions.PigeonException;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only log of the packets put into the QUEUE mode queue, so that packets the application hasn't acknowledged
+ * yet are handed to it again after the process dies or is restarted.
+ *
+ * Packets are written to memory-mapped segment files as records of the packet's length, a CRC32 of the rest,
+ * its sequence number (its position in the queue) and the encoded packet. Appending only copies the record into
+ * the mapping, under a lock held for just as long - the operating system writes the pages out on its own, so a crash
+ * of the process loses nothing, and a single thread forces them to disk every sync interval, so a crash of the machine
+ * loses at most that much. Records are appended in the order the producers get the lock, which may differ slightly
+ * from the order of their sequence numbers, so the recovery sorts them.
+ *
+ * Segments are named after the sequence number of the record which opened them and rolled once the next record
+ * doesn't fit. Acknowledgements are cumulative, like a consumer's offset: the highest acknowledged sequence number
+ * is kept in a file of its own, and segments holding nothing above it are deleted once they're older than
+ * the retention period. Packets recovered at startup are queued - and so appended - again, with new sequence numbers.
+ */
+final class PacketJournal {
+
+    private static final org.apache.logging.log4j.Logger log = org.apache.logging.log4j.LogManager.getLogger(PacketJournal.class);
+
+    static final int RECORD_HEADER_SIZE = 16;   // Length, CRC32 of the sequence number and the packet, sequence number
+
+    private static final String SEGMENT_SUFFIX = ".journal";
+    private static final String ACKNOWLEDGED_FILENAME = "acknowledged";
+    private static final String LOCK_FILENAME = "lock";
+
+    private final Path directory;
+    private final int segmentSize;
+    private final long retentionMillis;
+    private final PacketCodec codec;
+    private final BufferPool bufferPool;
+
+    private final FileChannel lockChannel;
+    private final FileLock lock;                    // Keeps other servers, in this JVM or another, out of the directory
+    private final MappedByteBuffer acknowledgedBuffer;
+    private final AtomicLong acknowledged;          // The highest acknowledged sequence number, -1 if none
+    private final long firstSequence;               // Sequence number of the first packet appended after opening
+    private final ArrayDeque<Segment> segments = new ArrayDeque<>();   // Rolled segments, the oldest first
+    private final ConcurrentLinkedQueue<MappedByteBuffer> unsynced = new ConcurrentLinkedQueue<>();
+    private final CRC32 crc = new CRC32();
+    private final ScheduledExecutorService syncer;  // Null when every record is forced to disk on its own
+
+    private Map<Long, ByteBuffer> recovered;        // Unacknowledged packets found at opening, until they're replayed
+    private Segment active;
+    private volatile MappedByteBuffer activeBuffer;
+    private ByteBuffer activeView;                  // Of the active segment, for the checksums
+    private volatile boolean dirty;
+    private volatile boolean acknowledgedDirty;
+    private volatile boolean closed;
+
+    /**
+     * A sync interval of 0 forces every record to disk before the packet is queued, which is safe but slow.
+     */
+    PacketJournal(String directory, int segmentSize, int syncIntervalMillis, int retentionSeconds,
+                  PacketCodec codec, BufferPool bufferPool) throws IOException {
+        this.directory = Paths.get(directory);
+        this.segmentSize = segmentSize;
+        this.retentionMillis = TimeUnit.SECONDS.toMillis(retentionSeconds);
+        this.codec = codec;
+        this.bufferPool = bufferPool;
+
+        Files.createDirectories(this.directory);
+        this.lockChannel = FileChannel.open(this.directory.resolve(LOCK_FILENAME), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        FileLock directoryLock;
+        try {
+            directoryLock = lockChannel.tryLock();
+        } catch (OverlappingFileLockException e) {
+            directoryLock = null;
+        }
+        if (directoryLock == null) {
+            lockChannel.close();
+            throw new IOException("Journal directory " + directory + " is used by another server");
+        }
+        this.lock = directoryLock;
+
+        // Holds the sequence number following the highest acknowledged one, so that a new, zeroed file means none
+        try (FileChannel channel = FileChannel.open(this.directory.resolve(ACKNOWLEDGED_FILENAME),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            this.acknowledgedBuffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, 8);
+        }
+        this.acknowledged = new AtomicLong(acknowledgedBuffer.getLong(0) - 1);
+
+        this.recovered = new TreeMap<>();
+        long lastSequence = recover();
+        this.firstSequence = Math.max(lastSequence, acknowledged.get()) + 1;
+        this.active = new Segment(segmentPath(firstSequence), firstSequence);
+        this.activeBuffer = map(active.path);
+        this.activeView = activeBuffer.duplicate();
+
+        if (syncIntervalMillis > 0) {
+            syncer = Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory("pigeon-journal-", true));
+            syncer.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    sync();
+                }
+            }, syncIntervalMillis, syncIntervalMillis, TimeUnit.MILLISECONDS);
+        } else {
+            syncer = null;
+        }
+
+        log.info("Opened the journal in " + directory + " with " + recovered.size() + " unacknowledged packets, "
+                + "the next sequence number is " + firstSequence);
+    }
+
+    /**
+     * Reads the existing segments, collecting the records which haven't been acknowledged. Every segment is read up to
+     * its first missing or damaged record. Returns the highest sequence number found, -1 if none.
+     */
+    private long recover() throws IOException {
+        List<Segment> found = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*" + SEGMENT_SUFFIX)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                try {
+                    found.add(new Segment(file, Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length()))));
+                } catch (NumberFormatException e) {
+                    log.warn("Ignoring " + file + ", which isn't a journal segment");
+                }
+            }
+        }
+        Collections.sort(found);
+
+        long highest = -1;
+        for (Segment segment : found) {
+            ByteBuffer buffer;
+            try (FileChannel channel = FileChannel.open(segment.path, StandardOpenOption.READ)) {
+                buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            }
+            ByteBuffer view = buffer.duplicate();
+
+            int position = 0;
+            while (position + RECORD_HEADER_SIZE <= buffer.limit()) {
+                int length = buffer.getInt(position);
+                if (length <= 0 || length > buffer.limit() - position - RECORD_HEADER_SIZE)
+                    break;
+
+                int end = position + RECORD_HEADER_SIZE + length;
+                if (checksum(view, position + 8, end) != buffer.getInt(position + 4)) {
+                    log.warn("Journal segment " + segment.path + " is damaged at byte " + position + ", the records after it are lost");
+                    break;
+                }
+
+                long sequence = buffer.getLong(position + 8);
+                segment.lastSequence = Math.max(segment.lastSequence, sequence);
+                if (sequence > acknowledged.get()) {
+                    ByteBuffer content = buffer.duplicate();
+                    content.limit(end).position(position + RECORD_HEADER_SIZE);
+                    recovered.put(sequence, content.slice());
+                }
+                position = end;
+            }
+
+            if (segment.lastSequence < 0) {
+                Files.deleteIfExists(segment.path);
+            } else {
+                segment.closedAt = Files.getLastModifiedTime(segment.path).toMillis();
+                segments.add(segment);
+                highest = Math.max(highest, segment.lastSequence);
+            }
+        }
+        return highest;
+    }
+
+    /**
+     * Queues the packets recovered at opening which haven't been acknowledged since, in the order of their sequence
+     * numbers, waiting for room in the queue if needed. Returns their number.
+     */
+    int replay(IncomingPacketRingBuffer queue) {
+        int replayed = 0;
+        for (Map.Entry<Long, ByteBuffer> record : recovered.entrySet()) {
+            if (record.getKey() <= acknowledged.get())
+                continue;
+
+            Packet packet;
+            try {
+                packet = codec.decode(record.getValue());
+            } catch (PigeonException e) {
+                packet = null;
+            }
+            if (packet == null) {
+                log.error("Skipping packet " + record.getKey() + " of the journal, which can't be decoded");
+                continue;
+            }
+            queue.push(packet);
+            replayed++;
+        }
+        recovered = Collections.emptyMap();     // Lets go of the recovered segments' mappings
+        return replayed;
+    }
+
+    /**
+     * Writes the packet with the given sequence number. Called by the queue between taking a position for the packet
+     * and publishing it, so that a packet is never handed to a consumer before it's in the journal. A packet which can't
+     * be written is logged and queued anyway.
+     */
+    void append(long sequence, Packet packet) {
+        PooledBuffer encoded;
+        try {
+            encoded = codec.encode(packet, bufferPool);
+        } catch (PigeonException e) {
+            log.error("Packet " + sequence + " couldn't be written to the journal: " + e.getMessage(), e);
+            return;
+        }
+
+        try {
+            ByteBuffer content = encoded.buffer();
+            int length = content.remaining();
+            if (length > segmentSize - RECORD_HEADER_SIZE) {
+                log.error("Packet " + sequence + " of " + length + " bytes doesn't fit in a journal segment and won't be written to it");
+                return;
+            }
+            synchronized (this) {
+                if (closed)
+                    return;
+                if (activeBuffer.remaining() < RECORD_HEADER_SIZE + length)
+                    roll(sequence);
+
+                MappedByteBuffer buffer = activeBuffer;
+                int start = buffer.position();
+                buffer.putLong(start + 8, sequence);
+                buffer.position(start + RECORD_HEADER_SIZE);
+                buffer.put(content);
+                buffer.putInt(start + 4, checksum(activeView, start + 8, buffer.position()));
+                buffer.putInt(start, length);   // Written last, a record without a length ends the segment
+                active.lastSequence = Math.max(active.lastSequence, sequence);
+                dirty = true;
+                if (syncer == null)
+                    sync();
+            }
+        } catch (IOException e) {
+            log.error("Packet " + sequence + " couldn't be written to the journal: " + e.getMessage(), e);
+        } finally {
+            encoded.release();
+        }
+    }
+
+    /**
+     * Marks the packets with sequence numbers up to the given one as handled. Acknowledging a lower number than before
+     * does nothing.
+     */
+    void acknowledge(long sequence) {
+        long current;
+        do {
+            current = acknowledged.get();
+            if (sequence <= current)
+                return;
+        } while (!acknowledged.compareAndSet(current, sequence));
+
+        // Always writes the highest number, whichever acknowledgement gets here last
+        synchronized (acknowledgedBuffer) {
+            acknowledgedBuffer.putLong(0, acknowledged.get() + 1);
+        }
+        acknowledgedDirty = true;
+        if (syncer == null)
+            sync();
+    }
+
+    long getAcknowledged() {
+        return acknowledged.get();
+    }
+
+    long getFirstSequence() {
+        return firstSequence;
+    }
+
+    /**
+     * Forces what has been written since the last sync to disk and deletes the segments which are no longer needed.
+     */
+    void sync() {
+        MappedByteBuffer rolled;
+        while ((rolled = unsynced.poll()) != null)
+            rolled.force();
+        if (dirty) {
+            dirty = false;  // Cleared first, so that a record appended meanwhile is synced next time
+            activeBuffer.force();
+        }
+        if (acknowledgedDirty) {
+            acknowledgedDirty = false;
+            acknowledgedBuffer.force();
+        }
+
+        synchronized (this) {
+            deleteAcknowledgedSegments();
+        }
+    }
+
+    /**
+     * Forces everything to disk and releases the directory. Packets queued afterwards are no longer written.
+     */
+    void close() {
+        synchronized (this) {
+            if (closed)
+                return;
+            closed = true;
+        }
+        if (syncer != null)
+            syncer.shutdown();
+        sync();
+        try {
+            lock.release();
+            lockChannel.close();
+        } catch (IOException e) {
+            log.warn(e.getMessage(), e);
+        }
+    }
+
+    private void roll(long sequence) throws IOException {
+        active.closedAt = System.currentTimeMillis();
+        segments.add(active);
+        unsynced.add(activeBuffer);     // Forced by the next sync, not by the I/O thread
+        active = new Segment(segmentPath(sequence), sequence);
+        activeBuffer = map(active.path);
+        activeView = activeBuffer.duplicate();
+        deleteAcknowledgedSegments();
+    }
+
+    private void deleteAcknowledgedSegments() {
+        long now = System.currentTimeMillis();
+        while (!segments.isEmpty()) {
+            Segment oldest = segments.peekFirst();
+            if (oldest.lastSequence > acknowledged.get() || now - oldest.closedAt < retentionMillis)
+                return;
+            try {
+                Files.deleteIfExists(oldest.path);
+            } catch (IOException e) {
+                log.warn("Journal segment " + oldest.path + " couldn't be deleted: " + e.getMessage());
+                return;
+            }
+            segments.pollFirst();
+        }
+    }
+
+    private Path segmentPath(long sequence) {
+        return directory.resolve(String.format("%020d", sequence) + SEGMENT_SUFFIX);
+    }
+
+    private MappedByteBuffer map(Path path) throws IOException {
+        Files.deleteIfExists(path);     // A leftover segment with no valid records
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            return channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+        }
+    }
+
+    /**
+     * Checksums the given bytes of a segment in one go, moving the view over them. Called while opening the journal
+     * or with the lock held.
+     */
+    private int checksum(ByteBuffer view, int from, int to) {
+        view.clear();
+        view.position(from).limit(to);
+        crc.reset();
+        crc.update(view);
+        return (int) crc.getValue();
+    }
+
+    private static final class Segment implements Comparable<Segment> {
+
+        private final Path path;
+        private final long firstSequence;
+        private long lastSequence = -1;     // The highest sequence number in the segment
+        private long closedAt;
+
+        private Segment(Path path, long firstSequence) {
+            this.path = path;
+            this.firstSequence = firstSequence;
+        }
+
+        @Override
+        public int compareTo(Segment other) {
+            return Long.compare(firstSequence, other.firstSequence);
+        }
+    }
+}
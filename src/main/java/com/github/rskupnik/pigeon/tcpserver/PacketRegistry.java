@@ -0,0 +1,364 @@
+/*
+    Copyright 2016 Radosław Skupnik
+
+    This file is part of pigeon-tcp-server.
+
+    Pigeon-tcp-server is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    Pigeon-tcp-server is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with pigeon-tcp-server; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+
+package com.github.rskupnik.pigeon.tcpserver;
+
+import com.github.rskupnik.pigeon.commons.Packet;
+import com.github.rskupnik.pigeon.commons.annotations.PacketDataField;
+import com.github.rskupnik.pigeon.commons.annotations.PigeonPacket;
+import com.github.rskupnik.pigeon.commons.exceptions.PigeonException;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.net.JarURLConnection;
+import java.net.URL;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+
+/**
+ * Server-side registry of known packet classes, keyed both by their @PigeonPacket id and by class.
+ * Used by the codecs which encode and decode packets without going through a blocking Connection.
+ */
+final class PacketRegistry {
+
+    private static final org.apache.logging.log4j.Logger log = org.apache.logging.log4j.LogManager.getLogger(PacketRegistry.class);
+
+    // Written at compile time by PacketIndexProcessor
+    static final String INDEX = "META-INF/pigeon/packets.index";
+
+    private static final String CLASS_SUFFIX = ".class";
+
+    private final Map<Integer, PacketDescriptor> byId = new HashMap<>();
+    private final Map<Class<?>, PacketDescriptor> byType = new HashMap<>();
+
+    /**
+     * Registers the @PigeonPacket classes listed in the indexes generated by PacketIndexProcessor which are in the given package,
+     * or all of them if the package is null. The classpath is scanned only if there's no index, or none of the indexed classes
+     * is in the package.
+     */
+    static PacketRegistry load(String packageToScan) throws PigeonException {
+        ClassLoader classLoader = classLoader();
+        List<IndexEntry> entries;
+        try {
+            entries = readIndexes(classLoader);
+        } catch (IOException e) {
+            throw new PigeonException(e.getMessage());
+        }
+
+        PacketRegistry registry = new PacketRegistry();
+        for (IndexEntry entry : entries) {
+            if (packageToScan != null && !entry.getClassName().startsWith(packageToScan + "."))
+                continue;
+
+            Class<?> type;
+            try {
+                type = Class.forName(entry.getClassName(), false, classLoader);
+            } catch (ClassNotFoundException | LinkageError e) {
+                log.warn("Indexed packet class " + entry.getClassName() + " cannot be loaded, the packet index is out of date");
+                continue;
+            }
+
+            if (!type.isAnnotationPresent(PigeonPacket.class) || type.getAnnotation(PigeonPacket.class).id() != entry.getId())
+                log.warn("Indexed packet class " + entry.getClassName() + " has changed, the packet index is out of date");
+            if (type.isAnnotationPresent(PigeonPacket.class))
+                registry.register(type);
+        }
+
+        if (registry.byId.isEmpty()) {
+            log.debug("No indexed packet classes found, scanning " + (packageToScan != null ? packageToScan : "the classpath"));
+            return scan(packageToScan);
+        }
+
+        log.debug("Registered " + registry.byId.size() + " indexed packet classes");
+        return registry;
+    }
+
+    /**
+     * Finds all @PigeonPacket classes in the given package, or on the entire classpath if the package is null.
+     */
+    static PacketRegistry scan(String packageToScan) throws PigeonException {
+        PacketRegistry registry = new PacketRegistry();
+        ClassLoader classLoader = classLoader();
+
+        Set<String> classNames;
+        try {
+            classNames = packageToScan != null ? findClassNames(classLoader, packageToScan) : findClassNames();
+        } catch (IOException e) {
+            throw new PigeonException(e.getMessage());
+        }
+
+        for (String className : classNames) {
+            Class<?> type;
+            try {
+                type = Class.forName(className, false, classLoader);
+            } catch (ClassNotFoundException | LinkageError e) {
+                continue;   // Not every class on the classpath can be loaded, which is fine as long as it's not a packet
+            }
+
+            if (type.isAnnotationPresent(PigeonPacket.class))
+                registry.register(type);
+        }
+
+        log.debug("Registered " + registry.byId.size() + " packet classes");
+        return registry;
+    }
+
+    void register(Class<?> type) throws PigeonException {
+        if (!Packet.class.isAssignableFrom(type))
+            throw new PigeonException("Class " + type.getName() + " is annotated with @PigeonPacket but does not extend Packet");
+
+        @SuppressWarnings("unchecked")
+        Class<? extends Packet> packetType = (Class<? extends Packet>) type;
+        int id = type.getAnnotation(PigeonPacket.class).id();
+
+        if (id == PacketCompressor.HELLO_ID || id == PacketCompressor.COMPRESSED_ID)
+            throw new PigeonException("Packet id " + id + " of " + type.getName() + " is reserved");
+
+        PacketDescriptor existing = byId.get(id);
+        if (existing != null && existing.getType() != type)
+            throw new PigeonException("Packet id " + id + " is used by both " + existing.getType().getName() + " and " + type.getName());
+
+        Constructor<? extends Packet> constructor;
+        try {
+            constructor = packetType.getConstructor();
+        } catch (NoSuchMethodException e) {
+            throw new PigeonException("Packet class " + type.getName() + " must have a public no-argument constructor");
+        }
+
+        PacketDescriptor descriptor = new PacketDescriptor(id, packetType, constructor, describeFields(packetType));
+        byId.put(id, descriptor);
+        byType.put(type, descriptor);
+    }
+
+    PacketDescriptor get(int id) {
+        return byId.get(id);
+    }
+
+    PacketDescriptor get(Class<?> type) {
+        return byType.get(type);
+    }
+
+    Collection<PacketDescriptor> getDescriptors() {
+        return Collections.unmodifiableCollection(byId.values());
+    }
+
+    /**
+     * Returns the most specific package containing all the registered packet classes, or null if there's no such package.
+     */
+    String getCommonPackage() {
+        String common = null;
+        for (Class<?> type : byType.keySet()) {
+            String name = type.getName();
+            String packageName = name.lastIndexOf('.') > 0 ? name.substring(0, name.lastIndexOf('.')) : "";
+            if (common == null) {
+                common = packageName;
+                continue;
+            }
+
+            while (!common.isEmpty() && !packageName.equals(common) && !packageName.startsWith(common + "."))
+                common = common.lastIndexOf('.') > 0 ? common.substring(0, common.lastIndexOf('.')) : "";
+        }
+
+        return common == null || common.isEmpty() ? null : common;
+    }
+
+    private static ClassLoader classLoader() {
+        ClassLoader classLoader = Thread.currentThread().getContextClassLoader();
+        return classLoader != null ? classLoader : PacketRegistry.class.getClassLoader();
+    }
+
+    private static List<IndexEntry> readIndexes(ClassLoader classLoader) throws IOException {
+        List<IndexEntry> entries = new ArrayList<>();
+        Enumeration<URL> indexes = classLoader.getResources(INDEX);
+        while (indexes.hasMoreElements()) {
+            URL index = indexes.nextElement();
+            try (InputStream input = index.openStream()) {
+                BufferedReader reader = new BufferedReader(new InputStreamReader(input, StandardCharsets.UTF_8));
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    try {
+                        IndexEntry entry = IndexEntry.parse(line);
+                        if (entry != null)
+                            entries.add(entry);
+                    } catch (IllegalArgumentException e) {
+                        log.warn("Skipping malformed line of " + index + ": " + line);
+                    }
+                }
+            }
+        }
+
+        return entries;
+    }
+
+    private static List<PacketDescriptor.Field> describeFields(Class<? extends Packet> type) throws PigeonException {
+        // Fields of packet superclasses go first, in declaration order
+        Deque<Class<?>> hierarchy = new ArrayDeque<>();
+        for (Class<?> current = type; current != null && current != Packet.class; current = current.getSuperclass())
+            hierarchy.push(current);
+
+        List<PacketDescriptor.Field> fields = new ArrayList<>();
+        for (Class<?> current : hierarchy) {
+            for (Field field : current.getDeclaredFields()) {
+                if (!field.isAnnotationPresent(PacketDataField.class) || Modifier.isStatic(field.getModifiers()))
+                    continue;
+
+                PacketDescriptor.FieldType fieldType;
+                if (field.getType() == int.class)
+                    fieldType = PacketDescriptor.FieldType.INT;
+                else if (field.getType() == String.class)
+                    fieldType = PacketDescriptor.FieldType.STRING;
+                else
+                    throw new PigeonException("Field " + field.getName() + " in " + type.getName() + " has an unsupported type: " + field.getType().getName());
+
+                String capitalized = Character.toUpperCase(field.getName().charAt(0)) + field.getName().substring(1);
+                Method getter;
+                Method setter;
+                try {
+                    getter = type.getMethod("get" + capitalized);
+                    setter = type.getMethod("set" + capitalized, field.getType());
+                } catch (NoSuchMethodException e) {
+                    throw new PigeonException("Field " + field.getName() + " in " + type.getName() + " is missing a public getter or setter");
+                }
+
+                fields.add(new PacketDescriptor.Field(field.getName(), fieldType, getter, setter));
+            }
+        }
+
+        return fields;
+    }
+
+    private static Set<String> findClassNames(ClassLoader classLoader, String packageToScan) throws IOException {
+        Set<String> classNames = new LinkedHashSet<>();
+        String path = packageToScan.replace('.', '/');
+        Enumeration<URL> resources = classLoader.getResources(path);
+        while (resources.hasMoreElements()) {
+            URL resource = resources.nextElement();
+            if ("file".equals(resource.getProtocol())) {
+                collectFromDirectory(new File(URLDecoder.decode(resource.getFile(), "UTF-8")), packageToScan, classNames);
+            } else if ("jar".equals(resource.getProtocol())) {
+                JarURLConnection connection = (JarURLConnection) resource.openConnection();
+                connection.setUseCaches(false);
+                try (JarFile jar = connection.getJarFile()) {
+                    collectFromJar(jar, path + "/", classNames);
+                }
+            }
+        }
+
+        return classNames;
+    }
+
+    private static Set<String> findClassNames() throws IOException {
+        Set<String> classNames = new LinkedHashSet<>();
+        String classPath = System.getProperty("java.class.path", "");
+        for (String entry : classPath.split(File.pathSeparator)) {
+            if (entry.isEmpty())
+                continue;
+
+            File file = new File(entry);
+            if (file.isDirectory()) {
+                collectFromDirectory(file, null, classNames);
+            } else if (file.isFile()) {
+                try (JarFile jar = new JarFile(file)) {
+                    collectFromJar(jar, "", classNames);
+                } catch (IOException e) {
+                    log.debug("Skipping unreadable classpath entry " + entry);
+                }
+            }
+        }
+
+        return classNames;
+    }
+
+    private static void collectFromDirectory(File directory, String packageName, Set<String> classNames) {
+        File[] files = directory.listFiles();
+        if (files == null)
+            return;
+
+        for (File file : files) {
+            String name = file.getName();
+            if (file.isDirectory()) {
+                collectFromDirectory(file, packageName == null ? name : packageName + "." + name, classNames);
+            } else if (name.endsWith(CLASS_SUFFIX) && packageName != null && !name.contains("-")) {
+                classNames.add(packageName + "." + name.substring(0, name.length() - CLASS_SUFFIX.length()));
+            }
+        }
+    }
+
+    private static void collectFromJar(JarFile jar, String prefix, Set<String> classNames) {
+        Enumeration<JarEntry> entries = jar.entries();
+        while (entries.hasMoreElements()) {
+            String name = entries.nextElement().getName();
+            if (name.startsWith(prefix) && name.endsWith(CLASS_SUFFIX) && !name.contains("-"))
+                classNames.add(name.substring(0, name.length() - CLASS_SUFFIX.length()).replace('/', '.'));
+        }
+    }
+
+    /**
+     * A line of the packet index: the packet's id followed by its binary class name.
+     */
+    static final class IndexEntry {
+
+        private final int id;
+        private final String className;
+
+        IndexEntry(int id, String className) {
+            this.id = id;
+            this.className = className;
+        }
+
+        /**
+         * Returns null for blank lines and comments, throws IllegalArgumentException if the line is malformed.
+         */
+        static IndexEntry parse(String line) {
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#"))
+                return null;
+
+            String[] parts = line.split("\\s+");
+            if (parts.length != 2)
+                throw new IllegalArgumentException(line);
+
+            return new IndexEntry(Integer.parseInt(parts[0]), parts[1]);
+        }
+
+        int getId() {
+            return id;
+        }
+
+        String getClassName() {
+            return className;
+        }
+
+        @Override
+        public String toString() {
+            return id + " " + className;
+        }
+    }
+}
@@ -0,0 +1,83 @@
+/*
+    Copyright 2016 Radosław Skupnik
+
+    This file is part of pigeon-tcp-server.
+
+    Pigeon-tcp-server is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    Pigeon-tcp-server is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with pigeon-tcp-server; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+
+package com.github.rskupnik.pigeon.tcpserver;
+
+import com.github.rskupnik.pigeon.commons.Packet;
+import com.github.rskupnik.pigeon.commons.PacketHandler;
+
+/**
+ * A handler registered for a single packet type with PigeonTcpServerBuilder.withRoute(), together with the way it's run.
+ * The packet type is given either by its id or by its class - the class is resolved to the id once the packets are registered.
+ */
+final class PacketRoute {
+
+    private final Integer id;
+    private final Class<? extends Packet> type;
+    private final PacketHandler handler;
+    private final ExecutionPolicy executionPolicy;
+    private final int dedicatedThreadsNumber;
+
+    // Set by PacketRouter, only for the DEDICATED policy
+    private DispatchPool dedicatedPool;
+
+    PacketRoute(Integer id, Class<? extends Packet> type, PacketHandler handler, ExecutionPolicy executionPolicy, int dedicatedThreadsNumber) {
+        this.id = id;
+        this.type = type;
+        this.handler = handler;
+        this.executionPolicy = executionPolicy;
+        this.dedicatedThreadsNumber = dedicatedThreadsNumber;
+    }
+
+    Integer getId() {
+        return id;
+    }
+
+    Class<? extends Packet> getType() {
+        return type;
+    }
+
+    PacketHandler getHandler() {
+        return handler;
+    }
+
+    ExecutionPolicy getExecutionPolicy() {
+        return executionPolicy;
+    }
+
+    int getDedicatedThreadsNumber() {
+        return dedicatedThreadsNumber;
+    }
+
+    DispatchPool getDedicatedPool() {
+        return dedicatedPool;
+    }
+
+    void setDedicatedPool(DispatchPool dedicatedPool) {
+        this.dedicatedPool = dedicatedPool;
+    }
+
+    /**
+     * Describes the packet type the way it was given, for error messages.
+     */
+    String describe() {
+        return type != null ? "packet class " + type.getName() : "packet id " + id;
+    }
+}
@@ -0,0 +1,131 @@
+/*
+    Copyright 2016 Radosław Skupnik
+
+    This file is part of pigeon-tcp-server.
+
+    Pigeon-tcp-server is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    Pigeon-tcp-server is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with pigeon-tcp-server; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+
+package com.github.rskupnik.pigeon.tcpserver;
+
+import com.github.rskupnik.pigeon.commons.Packet;
+import com.github.rskupnik.pigeon.commons.exceptions.PigeonException;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Finds the route of a received packet by its id - with a single array lookup as long as all the routed ids are small.
+ * Owns the dispatch pools of the DEDICATED routes.
+ */
+final class PacketRouter {
+
+    private static final int MAX_DENSE_ID = 4096;
+
+    private final PacketRegistry registry;
+    private final PacketRoute[] byDenseId;
+    private final Map<Integer, PacketRoute> bySparseId;
+    private final List<DispatchPool> dedicatedPools = new ArrayList<>();
+    private final boolean sharedRoutes;
+
+    /**
+     * Throws PigeonException if a route is given an unknown packet, or a packet is routed more than once.
+     */
+    PacketRouter(List<PacketRoute> routes, PacketRegistry registry, DispatchKeyExtractor keyExtractor, int dispatchQueueCapacity,
+                 PacketCodec packetCodec, ServerMetrics metrics) throws PigeonException {
+        this.registry = registry;
+
+        Map<Integer, PacketRoute> byId = new HashMap<>();
+        boolean dense = true;
+        boolean shared = false;
+        for (PacketRoute route : routes) {
+            PacketDescriptor descriptor = route.getType() != null ? registry.get(route.getType()) : registry.get(route.getId());
+            if (descriptor == null)
+                throw new PigeonException("Route for " + route.describe() + " doesn't match any known packet");
+            if (byId.put(descriptor.getId(), route) != null)
+                throw new PigeonException("Packet " + descriptor.getType().getName() + " has more than one route");
+
+            if (route.getExecutionPolicy() == ExecutionPolicy.DEDICATED) {
+                DispatchPool pool = new DispatchPool(route.getDedicatedThreadsNumber(), dispatchQueueCapacity, route.getHandler(),
+                        keyExtractor, packetCodec, metrics, "pigeon-route-" + descriptor.getId() + "-");
+                route.setDedicatedPool(pool);
+                dedicatedPools.add(pool);
+            }
+            shared |= route.getExecutionPolicy() == ExecutionPolicy.SHARED;
+            dense &= descriptor.getId() >= 0 && descriptor.getId() < MAX_DENSE_ID;
+        }
+        this.sharedRoutes = shared;
+
+        if (dense) {
+            int maxId = -1;
+            for (int id : byId.keySet())
+                maxId = Math.max(maxId, id);
+            byDenseId = new PacketRoute[maxId + 1];
+            for (Map.Entry<Integer, PacketRoute> entry : byId.entrySet())
+                byDenseId[entry.getKey()] = entry.getValue();
+            bySparseId = null;
+        } else {
+            byDenseId = null;
+            bySparseId = byId;
+        }
+    }
+
+    /**
+     * Returns the route of packets with the given id, null if they have none.
+     */
+    PacketRoute get(int id) {
+        if (byDenseId != null)
+            return id >= 0 && id < byDenseId.length ? byDenseId[id] : null;
+        return bySparseId.get(id);
+    }
+
+    /**
+     * Returns the id of the packet, for packets decoded by blocking connections whose id hasn't been seen by the server.
+     */
+    int getId(Packet packet) {
+        PacketDescriptor descriptor = registry.get(packet.getClass());
+        return descriptor != null ? descriptor.getId() : -1;
+    }
+
+    boolean hasSharedRoutes() {
+        return sharedRoutes;
+    }
+
+    int getQueueDepth() {
+        int depth = 0;
+        for (DispatchPool pool : dedicatedPools)
+            depth += pool.getQueueDepth();
+        return depth;
+    }
+
+    void start() {
+        for (DispatchPool pool : dedicatedPools)
+            pool.start();
+    }
+
+    void shutdown() {
+        for (DispatchPool pool : dedicatedPools)
+            pool.shutdown();
+    }
+
+    boolean awaitTermination(long deadline) throws InterruptedException {
+        boolean terminated = true;
+        for (DispatchPool pool : dedicatedPools)
+            terminated &= pool.awaitTermination(deadline);
+        return terminated;
+    }
+}
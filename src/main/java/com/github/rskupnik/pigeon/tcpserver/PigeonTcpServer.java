@@ -29,192 +29,1083 @@ import com.github.rskupnik.pigeon.commons.glue.designpatterns.observer.Message;
 import com.github.rskupnik.pigeon.commons.glue.designpatterns.observer.Observable;
 import com.github.rskupnik.pigeon.commons.server.PigeonServer;
 
+import javax.management.JMException;
+import javax.management.ObjectName;
 import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
 import java.net.SocketException;
 import java.net.SocketTimeoutException;
-import java.util.HashMap;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public final class PigeonTcpServer extends Thread implements PigeonServer {
 
     private static final org.apache.logging.log4j.Logger log = org.apache.logging.log4j.LogManager.getLogger(PigeonTcpServer.class);
 
+    private static final int ACCEPT_TIMEOUT_MILLIS = 100;   // How often a blocking accept checks whether to stop
+    private static final int DRAIN_CHECK_MILLIS = 10;
+
     private final int port;
     private final int receiverThreadsNumber;
+    private final ReceiverThreadsType receiverThreadsType;
     private final String packageToScan;
+    private final TransportMode transportMode;
+    private final int eventLoopThreadsNumber;
+    private final int acceptorThreadsNumber;
+    private final EventLoopSelection eventLoopSelection;
+    private final int writeQueueCapacity;
+    private final WriteQueueOverflowPolicy writeQueueOverflowPolicy;
+    private final int writeQueueHighWaterMark;
+    private final int writeQueueLowWaterMark;
+    private final boolean writeBatching;
+    private final int writeBatchWindowMillis;
+    private final int writeBatchSize;
+    private final boolean tcpNoDelay;
+    private final boolean tcpKeepAlive;
+    private final int socketReceiveBufferSize;
+    private final int socketSendBufferSize;
+    private final int readBufferMinSize;
+    private final int readBufferInitialSize;
+    private final int readBufferMaxSize;
+    private final boolean packetRecycling;
+    private final int incomingQueueCapacity;
+    private final WaitStrategy incomingQueueWaitStrategy;
+    private final int dispatchThreadsNumber;
+    private final int dispatchQueueCapacity;
+    private final boolean metricsEnabled;
+    private final int readIdleTimeoutMillis;
+    private final int writeIdleTimeoutMillis;
+    private final boolean idleEviction;
+    private final int acceptBacklog;
+    private final int maxConnections;
+    private final int acceptRateLimit;
+    private final int acceptRateLimitPerHost;
+    private final int maxPendingPackets;
+    private final int maxHandlerTimeMicros;
+    private final CompressionCodec compression;
+    private final int compressionThreshold;
+    private final boolean tlsEnabled;
+    private final String tlsKeyStore;
+    private final String tlsKeyStoreType;
+    private final String tlsProtocols;
+    private final int tlsSessionCacheSize;
+    private final int tlsSessionTimeoutSeconds;
+    private final String journalDirectory;
+    private final int journalSegmentSize;
+    private final int journalSyncIntervalMillis;
+    private final int journalRetentionSeconds;
+    private final int relayPort;
+    private final String relayPeers;
+    private final int relayBatchSize;
+    private final int relayQueueCapacity;
 
     private final ServerSocket serverSocket;
-    private final Map<UUID, Connection> connections = new HashMap<UUID, Connection>();
+    private final NioAcceptor[] acceptors;
+    private final NioEventLoop[] eventLoops;
+    private final AtomicInteger nextEventLoop = new AtomicInteger();
+    private final PacketCodec packetCodec;
+    private final BufferPool bufferPool;
+    private final ConnectionRegistry connections = new ConnectionRegistry();
+    private final ConnectionGroups groups = new ConnectionGroups();
     private final ExecutorService executorService;
+    private final ExecutorService writerExecutorService;
+    private final ScheduledExecutorService flushScheduler;
     private final IncomingPacketHandleMode incomingPacketHandleMode;
-    private final IncomingPacketQueue incomingPacketQueue;
+    private final IncomingPacketRingBuffer incomingPacketQueue;
+    private final PacketJournal journal;    // Null unless the QUEUE mode queue is journaled
+    private final RelayNode relay;          // Null unless the server is part of a cluster
     private final PacketHandler packetHandler;
+    private final DispatchPool dispatchPool;
+    private final PacketRouter router;
+    private final boolean dispatchPacketHandler;
     private final ServerCallbackHandler serverCallbackHandler;
+    private final ServerMetrics metrics;    // Null when metrics are disabled, unless the admission control needs the handler time
+    private final AdmissionController admission;
+    private final CompressionPolicy compressionPolicy;     // Null when nothing is ever compressed
+    private final TlsContext tlsContext;    // Null when TLS is disabled
+    private final ObjectName metricsObjectName;
+    private final IdleMonitor idleMonitor;
+    private final ByteBuffer heartbeat;     // Encoded once and shared by all the connections
 
-    private boolean exit;
+    private volatile boolean exit;
+    private volatile boolean handedOver;    // The listening socket belongs to the server which replaced this one
 
     public PigeonTcpServer(PigeonTcpServerBuilder builder) throws PigeonServerException {
         this.port = builder.getPort();
         this.receiverThreadsNumber = builder.getReceiverThreadsNumber();
+        this.receiverThreadsType = builder.getReceiverThreadsType();
         this.incomingPacketHandleMode = builder.getIncomingPacketHandleMode();
         this.serverCallbackHandler = builder.getServerCallbackHandler();
         this.packageToScan = builder.getPackageToScan();
+        this.transportMode = builder.getTransportMode();
+        this.eventLoopThreadsNumber = builder.getEventLoopThreadsNumber();
+        this.acceptorThreadsNumber = builder.getAcceptorThreadsNumber();
+        this.eventLoopSelection = builder.getEventLoopSelection();
+        this.writeQueueCapacity = builder.getWriteQueueCapacity();
+        this.writeQueueOverflowPolicy = builder.getWriteQueueOverflowPolicy();
+        this.writeQueueHighWaterMark = builder.getWriteQueueHighWaterMark();
+        this.writeQueueLowWaterMark = builder.getWriteQueueLowWaterMark();
+        this.writeBatching = builder.isWriteBatching();
+        this.writeBatchWindowMillis = builder.getWriteBatchWindowMillis();
+        this.writeBatchSize = builder.getWriteBatchSize();
+        this.tcpNoDelay = builder.isTcpNoDelay();
+        this.tcpKeepAlive = builder.isTcpKeepAlive();
+        this.socketReceiveBufferSize = builder.getSocketReceiveBufferSize();
+        this.socketSendBufferSize = builder.getSocketSendBufferSize();
+        this.readBufferMinSize = builder.getReadBufferMinSize();
+        this.readBufferInitialSize = builder.getReadBufferInitialSize();
+        this.readBufferMaxSize = builder.getReadBufferMaxSize();
+        this.packetRecycling = builder.isPacketRecycling();
+        this.incomingQueueCapacity = builder.getIncomingQueueCapacity();
+        this.incomingQueueWaitStrategy = builder.getIncomingQueueWaitStrategy();
+        this.dispatchThreadsNumber = builder.getDispatchThreadsNumber();
+        this.dispatchQueueCapacity = builder.getDispatchQueueCapacity();
+        this.metricsEnabled = builder.isMetricsEnabled();
+        this.readIdleTimeoutMillis = builder.getReadIdleTimeoutMillis();
+        this.writeIdleTimeoutMillis = builder.getWriteIdleTimeoutMillis();
+        this.idleEviction = builder.isIdleEviction();
+        this.acceptBacklog = builder.getAcceptBacklog();
+        this.maxConnections = builder.getMaxConnections();
+        this.acceptRateLimit = builder.getAcceptRateLimit();
+        this.acceptRateLimitPerHost = builder.getAcceptRateLimitPerHost();
+        this.maxPendingPackets = builder.getMaxPendingPackets();
+        this.maxHandlerTimeMicros = builder.getMaxHandlerTimeMicros();
+        this.compression = builder.getCompression();
+        this.compressionThreshold = builder.getCompressionThreshold();
+        this.tlsEnabled = builder.isTlsEnabled();
+        this.tlsKeyStore = builder.getTlsKeyStore();
+        this.tlsKeyStoreType = builder.getTlsKeyStoreType();
+        this.tlsProtocols = builder.getTlsProtocols();
+        this.tlsSessionCacheSize = builder.getTlsSessionCacheSize();
+        this.tlsSessionTimeoutSeconds = builder.getTlsSessionTimeoutSeconds();
+        this.journalDirectory = builder.getJournalDirectory();
+        this.journalSegmentSize = builder.getJournalSegmentSize();
+        this.journalSyncIntervalMillis = builder.getJournalSyncIntervalMillis();
+        this.journalRetentionSeconds = builder.getJournalRetentionSeconds();
+        this.relayPort = builder.getRelayPort();
+        this.relayPeers = builder.getRelayPeers();
+        this.relayBatchSize = builder.getRelayBatchSize();
+        this.relayQueueCapacity = builder.getRelayQueueCapacity();
+        this.metrics = metricsEnabled || maxHandlerTimeMicros > 0 ? new ServerMetrics() : null;
 
-        if (incomingPacketHandleMode == IncomingPacketHandleMode.QUEUE) {
-            packetHandler = null;
-            incomingPacketQueue = new IncomingPacketQueue();
-        } else {    // HANDLER mode is the default mode
-            packetHandler = builder.getPacketHandler();
-            incomingPacketQueue = null;
+        // HANDLER mode is the default mode, the queue of QUEUE mode is created once there's a codec for its journal
+        packetHandler = incomingPacketHandleMode == IncomingPacketHandleMode.QUEUE ? null : builder.getPacketHandler();
+
+        // Outgoing packets are always encoded by the server, so that they can be encoded once and written to many connections.
+        // Incoming packets are decoded by the server in NIO mode only, so that's the only mode where they can be recycled.
+        PacketRegistry packetRegistry;
+        try {
+            packetRegistry = PacketRegistry.load(packageToScan);
+        } catch (PigeonException e) {
+            throw new PigeonServerException(e.getMessage(), e);
         }
+        boolean recycleIncomingPackets = packetRecycling && transportMode == TransportMode.NIO;
+        PacketCodec compiledCodec;
+        try {
+            compiledCodec = new CompiledPacketCodec(packetRegistry, recycleIncomingPackets);
+        } catch (PigeonException e) {
+            log.warn(e.getMessage() + ", packets will be encoded and decoded through reflection");
+            compiledCodec = new ReflectivePacketCodec(packetRegistry, recycleIncomingPackets);
+        }
+        this.packetCodec = compiledCodec;
 
-        AnnotationsScanner.getInstance().scan(packageToScan);
+        // The builder only allows compression in NIO mode, as blocking connections decode packets on their own
+        CompressionPolicy policy;
+        try {
+            policy = new CompressionPolicy(compression, compressionThreshold, builder.getPacketCompression(), packetRegistry);
+        } catch (PigeonException e) {
+            throw new PigeonServerException(e.getMessage(), e);
+        }
+        this.compressionPolicy = policy.getCodecs() != 0 ? policy : null;
 
         try {
-            this.serverSocket = new ServerSocket(port);
-        } catch (IOException e) {
+            this.tlsContext = tlsEnabled ? new TlsContext(builder.getSslContext(), tlsKeyStore, builder.getTlsKeyStorePassword(),
+                    tlsKeyStoreType, tlsProtocols, tlsSessionCacheSize, tlsSessionTimeoutSeconds) : null;
+        } catch (PigeonException e) {
             throw new PigeonServerException(e.getMessage(), e);
         }
 
-        if (receiverThreadsNumber <= 0) {
-            executorService = Executors.newCachedThreadPool();
+        try {
+            this.router = builder.getRoutes().isEmpty() ? null
+                    : new PacketRouter(builder.getRoutes(), packetRegistry, builder.getDispatchKeyExtractor(), dispatchQueueCapacity, packetCodec, metrics);
+        } catch (PigeonException e) {
+            throw new PigeonServerException(e.getMessage(), e);
+        }
+
+        // Without dispatch threads the packet handler runs on the I/O thread which received the packet,
+        // while SHARED routes use as many dispatch threads as there are processors then
+        this.dispatchPacketHandler = packetHandler != null && dispatchThreadsNumber > 0;
+        if (dispatchPacketHandler || (router != null && router.hasSharedRoutes())) {
+            this.dispatchPool = new DispatchPool(dispatchThreadsNumber > 0 ? dispatchThreadsNumber : Runtime.getRuntime().availableProcessors(),
+                    dispatchQueueCapacity, new PacketHandler() {
+                        @Override
+                        public void handle(Packet packet) {
+                            PacketRoute route = router != null ? router.get(router.getId(packet)) : null;
+                            if (route != null && route.getExecutionPolicy() == ExecutionPolicy.SHARED)
+                                route.getHandler().handle(packet);
+                            else
+                                packetHandler.handle(packet);
+                        }
+                    }, builder.getDispatchKeyExtractor(), packetCodec, metrics, "pigeon-dispatcher-");
+        } else {
+            this.dispatchPool = null;
+        }
+
+        // Channels copy heap buffers into a temporary direct buffer on every write, while streams need the backing array
+        this.bufferPool = new BufferPool(transportMode == TransportMode.NIO);
+
+        if (incomingPacketHandleMode == IncomingPacketHandleMode.QUEUE) {
+            try {
+                journal = journalDirectory != null ? new PacketJournal(journalDirectory, journalSegmentSize, journalSyncIntervalMillis,
+                        journalRetentionSeconds, packetCodec, bufferPool) : null;
+            } catch (IOException e) {
+                throw new PigeonServerException(e.getMessage(), e);
+            }
+            incomingPacketQueue = new IncomingPacketRingBuffer(incomingQueueCapacity, incomingQueueWaitStrategy,
+                    metrics != null ? metrics.getQueueWaitHistogram() : null, journal);
         } else {
-            executorService = Executors.newFixedThreadPool(receiverThreadsNumber);
+            journal = null;
+            incomingPacketQueue = null;
+        }
+
+        try {
+            List<InetSocketAddress> peers = RelayNode.parsePeers(relayPeers);
+            this.relay = relayPort > 0 || !peers.isEmpty()
+                    ? new RelayNode(relayPort, peers, relayBatchSize, relayQueueCapacity, groups, bufferPool, metrics) : null;
+        } catch (PigeonException | IOException e) {
+            if (journal != null)
+                journal.close();
+            throw new PigeonServerException(e.getMessage(), e);
+        }
+
+        PigeonTcpServer previous = builder.getListenerFrom();
+        int fixedReceiverThreads = 0;
+        try {
+            this.idleMonitor = readIdleTimeoutMillis > 0 || writeIdleTimeoutMillis > 0 ? new IdleMonitor(this, readIdleTimeoutMillis, writeIdleTimeoutMillis) : null;
+            if (builder.getHeartbeatPacket() != null) {
+                try {
+                    PooledBuffer encoded = packetCodec.encode(builder.getHeartbeatPacket(), bufferPool);
+                    int size = encoded.buffer().remaining();
+                    heartbeat = transportMode == TransportMode.NIO ? ByteBuffer.allocateDirect(size) : ByteBuffer.allocate(size);
+                    heartbeat.put(encoded.buffer()).flip();
+                    encoded.release();
+                } catch (PigeonException e) {
+                    throw new PigeonServerException(e.getMessage(), e);
+                }
+            } else {
+                heartbeat = null;
+            }
+
+            if (transportMode == TransportMode.NIO) {
+                try {
+                    // 0 means one event loop per available processor
+                    this.eventLoops = new NioEventLoop[eventLoopThreadsNumber > 0 ? eventLoopThreadsNumber : Runtime.getRuntime().availableProcessors()];
+                    for (int i = 0; i < eventLoops.length; i++)
+                        eventLoops[i] = new NioEventLoop(this, packetCodec, i);
+
+                    if (previous != null) {
+                        this.acceptors = takeOverListener(previous);
+                        this.serverSocket = acceptors[0].getChannel().socket();
+                    } else {
+                        // With SO_REUSEPORT every acceptor listens on its own channel and the kernel balances connections between them,
+                        // otherwise all the acceptors share a single channel
+                        this.acceptors = new NioAcceptor[Math.max(acceptorThreadsNumber, 1)];
+                        ServerSocketChannel channel = ServerSocketChannel.open();
+                        boolean reusePort = acceptors.length > 1 && NioAcceptor.enableReusePort(channel);
+                        setReceiveBufferSize(channel.socket());
+                        channel.bind(new InetSocketAddress(port), acceptBacklog);
+                        this.serverSocket = channel.socket();
+                        acceptors[0] = new NioAcceptor(this, channel);
+                        for (int i = 1; i < acceptors.length; i++) {
+                            if (reusePort) {
+                                channel = ServerSocketChannel.open();
+                                NioAcceptor.enableReusePort(channel);
+                                setReceiveBufferSize(channel.socket());
+                                channel.bind(new InetSocketAddress(port), acceptBacklog);
+                            }
+                            acceptors[i] = new NioAcceptor(this, channel);
+                        }
+                        if (acceptors.length > 1 && !reusePort)
+                            log.info("SO_REUSEPORT is not available, " + acceptors.length + " acceptor threads will share a single listening socket");
+                    }
+                } catch (IOException e) {
+                    throw new PigeonServerException(e.getMessage(), e);
+                }
+
+                executorService = null;     // Connections are served by the event loops
+                writerExecutorService = null;
+                flushScheduler = null;      // Batch windows are timed by the event loops as well
+            } else {    // BLOCKING mode is the default mode
+                // Blocking connections decode packets on their own and need Pigeon Commons' scanner, which can at least
+                // be narrowed down to the package of the indexed packets
+                AnnotationsScanner.getInstance().scan(packageToScan != null ? packageToScan : packetRegistry.getCommonPackage());
+
+                try {
+                    if (previous != null) {
+                        this.serverSocket = previous.serverSocket;
+                    } else {
+                        this.serverSocket = new ServerSocket();
+                        setReceiveBufferSize(serverSocket);
+                        serverSocket.bind(new InetSocketAddress(port), acceptBacklog);
+                    }
+                    serverSocket.setSoTimeout(ACCEPT_TIMEOUT_MILLIS);
+                } catch (IOException e) {
+                    throw new PigeonServerException(e.getMessage(), e);
+                }
+                this.acceptors = null;
+                this.eventLoops = null;
+                this.writerExecutorService = Executors.newCachedThreadPool(new NamedThreadFactory("pigeon-writer-", true));
+                this.flushScheduler = writeBatching ? Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory("pigeon-flusher-", true)) : null;
+
+                ExecutorService virtualThreadsExecutor = null;
+                if (receiverThreadsType == ReceiverThreadsType.VIRTUAL) {
+                    virtualThreadsExecutor = VirtualThreads.newThreadPerTaskExecutor("pigeon-receiver-");
+                    if (virtualThreadsExecutor == null)
+                        log.warn("Virtual threads are not supported by this JVM, connections will be handled by platform threads");
+                }
+
+                if (virtualThreadsExecutor != null) {
+                    executorService = virtualThreadsExecutor;
+                } else if (receiverThreadsNumber <= 0) {
+                    executorService = Executors.newCachedThreadPool();
+                } else {
+                    executorService = Executors.newFixedThreadPool(receiverThreadsNumber);
+                    fixedReceiverThreads = receiverThreadsNumber;
+                }
+            }
+
+            // A fixed pool of platform receivers can serve only as many blocking connections, each of them holds one until it's closed.
+            // Virtual receivers aren't limited by their number, so it only counts once they've fallen back to platform threads.
+            int connectionLimit = maxConnections;
+            if (fixedReceiverThreads > 0)
+                connectionLimit = maxConnections > 0 ? Math.min(maxConnections, fixedReceiverThreads) : fixedReceiverThreads;
+            this.admission = new AdmissionController(this, connectionLimit, acceptRateLimit, acceptRateLimitPerHost, maxPendingPackets, maxHandlerTimeMicros);
+        } catch (PigeonServerException | RuntimeException e) {
+            // The server will never be shut down, so the directory lock and the relay port are released here for the next one
+            if (journal != null)
+                journal.close();
+            if (relay != null)
+                relay.shutdown();
+            throw e;
+        }
+
+        if (previous != null)
+            previous.handOver();    // Also unregisters its metrics, which are registered under the same name
+        this.metricsObjectName = metricsEnabled ? registerMetrics() : null;
+    }
+
+    /**
+     * Creates acceptors for the listening channels of the given server, as many as it has, or as many as configured
+     * for this server if they share a single channel.
+     */
+    private NioAcceptor[] takeOverListener(PigeonTcpServer previous) throws IOException {
+        Set<ServerSocketChannel> channels = new LinkedHashSet<>();
+        for (NioAcceptor acceptor : previous.acceptors)
+            channels.add(acceptor.getChannel());
+
+        NioAcceptor[] takenOver = new NioAcceptor[channels.size() > 1 ? channels.size() : Math.max(acceptorThreadsNumber, 1)];
+        Iterator<ServerSocketChannel> channel = channels.iterator();
+        ServerSocketChannel current = channel.next();
+        for (int i = 0; i < takenOver.length; i++) {
+            takenOver[i] = new NioAcceptor(this, current);
+            if (channel.hasNext())
+                current = channel.next();
+        }
+        log.info("Taking over the listening socket on port " + port + " from another server");
+        return takenOver;
+    }
+
+    /**
+     * Stops accepting connections, leaving the listening socket open for the server replacing this one.
+     */
+    private void handOver() {
+        handedOver = true;
+        if (acceptors != null) {
+            for (NioAcceptor acceptor : acceptors)
+                acceptor.stop();
+        }
+        if (metricsObjectName != null)
+            unregisterMetrics();
+    }
+
+    private ObjectName registerMetrics() {
+        try {
+            ObjectName name = new ObjectName("com.github.rskupnik.pigeon:type=PigeonTcpServer,port=" + port);
+            ManagementFactory.getPlatformMBeanServer().registerMBean(metrics, name);
+            return name;
+        } catch (JMException e) {
+            log.warn("Metrics will not be exported over JMX: " + e.getMessage());
+            return null;
         }
     }
 
     @Override
     public void run() {
+        if (dispatchPool != null)
+            dispatchPool.start();
+        if (router != null)
+            router.start();
+        if (idleMonitor != null)
+            idleMonitor.start();
+        if (relay != null)
+            relay.start();
+
         if (serverCallbackHandler != null)
             serverCallbackHandler.onStarted();
 
+        // Before accepting any connection, so that the packets left over from the last run are handled first
+        if (journal != null) {
+            int replayed = journal.replay(incomingPacketQueue);
+            if (replayed > 0)
+                log.info("Queued " + replayed + " unacknowledged packets from the journal");
+        }
+
+        if (transportMode == TransportMode.NIO)
+            runNio();
+        else
+            runBlocking();
+    }
+
+    private void runBlocking() {
         try {
-            while (!exit) {
+            while (!exit && !handedOver) {
                 Socket clientSocket = null;
                 try {
                     clientSocket = serverSocket.accept();
                 } catch (SocketTimeoutException e) {
-                    if (exit)
-                        break;
+                    continue;
                 }
 
-                if (clientSocket == null)
-                    continue;
+                if (clientSocket != null)
+                    accept(clientSocket);
+            }
+        } catch (IOException e) {
+            if (!(e instanceof SocketException))
+                log.error(e.getMessage(), e);
+        } finally {
+            if (!handedOver)
+                closeListener();
+        }
+    }
 
-                // Determine the number of free threads in case of THREADPOOLED mode and decline connection if there are no threads available
-                if (fixedNumberOfThreads()) {
-                    ThreadPoolExecutor tpc = (ThreadPoolExecutor) executorService;
-                    if (tpc.getActiveCount() >= receiverThreadsNumber) {
-                        clientSocket.getOutputStream().write(0);    // Indicate to the client that connection was refused
-                        log.info("Connection from IP " + clientSocket.getInetAddress().getHostAddress() + " was declined due to not enough threads to handle it.");
-                        continue;
-                    }
-                }
+    /**
+     * A client which fails before it's registered only loses its own connection, the server keeps accepting.
+     */
+    void accept(Socket clientSocket) {
+        String rejection = admission.admit(clientSocket.getInetAddress());
+        if (rejection != null) {
+            reject(clientSocket, rejection);
+            return;
+        }
 
-                UUID uuid = UUID.randomUUID();
-                Connection connection = new Connection(uuid, clientSocket);
-                if (connection.isOk()) {    // Connection is not considered ok when there is an IOException in the constructor
-                    connection.attach(this);
-                    synchronized (connections) {
-                        connections.put(uuid, connection);
-                    }
-                    log.info(String.format("Accepted a new connection [%s] from IP: %s", uuid, clientSocket.getInetAddress().getHostAddress()));
+        try {
+            configure(clientSocket);
+            UUID uuid = UUID.randomUUID();
+            Connection connection = new Connection(uuid, clientSocket);
+            if (!connection.isOk()) {   // Connection is not considered ok when there is an IOException in the constructor
+                admission.release();
+                closeQuietly(clientSocket);
+                return;
+            }
 
-                    executorService.execute(connection);
+            // Written before the session is registered so that no packet sent to it can overtake it
+            clientSocket.getOutputStream().write(1);    // Indicate to the client the connection was accepted
 
-                    clientSocket.getOutputStream().write(1);    // Indicate to the client the connection was accepted
+            connection.attach(this);
+            String host = clientSocket.getInetAddress().getHostAddress();
+            StreamSession session = new StreamSession(uuid, host, connection, clientSocket, this, writerExecutorService, flushScheduler);
+            connections.add(session);
+            if (idleMonitor != null)
+                idleMonitor.register(session);
+            log.info(String.format("Accepted a new connection [%s] from IP: %s", uuid, host));
+            if (metrics != null)
+                metrics.onConnectionAccepted();
 
-                    if (serverCallbackHandler != null)
-                        serverCallbackHandler.onNewConnection(connection);
-                }
+            executorService.execute(connection);
+
+            if (serverCallbackHandler != null)
+                serverCallbackHandler.onNewConnection(connection);
+        } catch (IOException e) {
+            log.error(e.getMessage(), e);
+            admission.release();
+            closeQuietly(clientSocket);
+        }
+    }
+
+    private void runNio() {
+        for (NioEventLoop eventLoop : eventLoops)
+            eventLoop.start();
+
+        // This thread serves as the first acceptor
+        for (int i = 1; i < acceptors.length; i++)
+            new Thread(acceptors[i], "pigeon-acceptor-" + i).start();
+        acceptors[0].run();
+    }
+
+    void accept(SocketChannel channel) {
+        Socket clientSocket = channel.socket();
+        String rejection = admission.admit(clientSocket.getInetAddress());
+        if (rejection != null) {
+            reject(clientSocket, rejection);
+            return;
+        }
+
+        try {
+            NioEventLoop eventLoop = nextEventLoop();
+            String host = clientSocket.getInetAddress().getHostAddress();
+            UUID uuid = UUID.randomUUID();
+            Connection connection = new Connection(uuid, clientSocket);
+            if (!connection.isOk()) {
+                admission.release();
+                channel.close();
+                return;
+            }
+
+            ByteBuffer accepted = ByteBuffer.wrap(new byte[] {1});  // Indicate to the client the connection was accepted
+            TlsSession tls = tlsContext != null ? tlsContext.newSession(host, clientSocket.getPort(), bufferPool) : null;
+            if (tls == null) {
+                while (accepted.hasRemaining())
+                    channel.write(accepted);
             }
+            channel.configureBlocking(false);
+            configure(clientSocket);
+
+            NioSession session = new NioSession(uuid, host, channel, connection, eventLoop, this, tls);
+            eventLoop.register(session);
+            if (tls != null)    // Goes out as the first encrypted byte, once the handshake has finished
+                session.send(accepted, null, null);
+            connections.add(session);
+            if (idleMonitor != null)
+                idleMonitor.register(session);
+            log.info(String.format("Accepted a new connection [%s] from IP: %s", uuid, host));
+            if (metrics != null)
+                metrics.onConnectionAccepted();
+
+            if (serverCallbackHandler != null)
+                serverCallbackHandler.onNewConnection(connection);
         } catch (IOException e) {
-            if (!(e instanceof SocketException))
-                log.error(e.getMessage(), e);
-        } finally {
+            log.error(e.getMessage(), e);
+            admission.release();
+            try {
+                channel.close();
+            } catch (IOException ce) {
+                log.error(ce.getMessage(), ce);
+            }
+        }
+    }
+
+    /**
+     * Sets the receive buffer size on the listening socket, before it's bound - accepted sockets inherit it, and only
+     * a size known before the handshake lets TCP advertise a window larger than 64 KiB.
+     */
+    private void setReceiveBufferSize(ServerSocket listener) throws SocketException {
+        if (socketReceiveBufferSize > 0)
+            listener.setReceiveBufferSize(socketReceiveBufferSize);
+    }
+
+    /**
+     * Applies the configured socket options to an accepted socket.
+     */
+    private void configure(Socket socket) throws SocketException {
+        socket.setTcpNoDelay(tcpNoDelay);
+        socket.setKeepAlive(tcpKeepAlive);
+        if (socketReceiveBufferSize > 0)
+            socket.setReceiveBufferSize(socketReceiveBufferSize);
+        if (socketSendBufferSize > 0)
+            socket.setSendBufferSize(socketSendBufferSize);
+    }
+
+    /**
+     * Tells the client its connection was refused and closes it right away, so that a storm of connections
+     * which can't be served costs the server as little as possible. TLS clients are refused without a handshake,
+     * so they only see the connection closed.
+     */
+    private void reject(Socket clientSocket, String reason) {
+        if (metrics != null)
+            metrics.onConnectionRejected();
+        log.debug("Connection from IP " + clientSocket.getInetAddress().getHostAddress() + " was declined: " + reason);
+
+        if (tlsContext == null) {
             try {
-                serverSocket.close();
+                clientSocket.getOutputStream().write(0);    // Indicate to the client that connection was refused
             } catch (IOException e) {
-                log.error(e.getMessage(), e);
+                // The client has given up already
+            }
+        }
+        closeQuietly(clientSocket);
+    }
+
+    private void closeQuietly(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            log.error(e.getMessage(), e);
+        }
+    }
+
+    private NioEventLoop nextEventLoop() {
+        if (eventLoopSelection == EventLoopSelection.LEAST_LOADED) {
+            NioEventLoop leastLoaded = eventLoops[0];
+            for (int i = 1; i < eventLoops.length; i++) {
+                if (eventLoops[i].getSessionCount() < leastLoaded.getSessionCount())
+                    leastLoaded = eventLoops[i];
             }
+            return leastLoaded;
         }
+
+        return eventLoops[(nextEventLoop.getAndIncrement() & Integer.MAX_VALUE) % eventLoops.length];
     }
 
     public void update(Observable observable, Message message, Object payload) {
         switch (message) {
             case DISCONNECTED:
-                UUID connectionUuid = (UUID) payload;
-                Connection connection = null;
-                synchronized (connections) {
-                    connection = connections.get(connectionUuid);
-                }
-                if (connection != null) {
-                    synchronized (connections) {
-                        connections.remove(connectionUuid);
-                        log.debug("Removed connection [" + connectionUuid + "] from [" + (connection.getHost() != null ? connection.getHost() : "unknown") + "]");
-                        log.debug("Remaining connections: " + connections.entrySet().size());
-                    }
-                    connection.disconnect();
-
-                    if (serverCallbackHandler != null)
-                        serverCallbackHandler.onDisconnected(connection);
-                }
+                onDisconnected((UUID) payload);
                 break;
             case RECEIVED_PACKET:
+                Session session = connections.get((Connection) observable);
                 Packet packet = (Packet) payload;
-                switch (incomingPacketHandleMode) {
-                    case QUEUE:
-                        incomingPacketQueue.push(packet);
-                        break;
-                    default:
-                    case HANDLER:
-                        packetHandler.handle(packet);
-                        break;
+                if (session == null) {
+                    log.debug("Dropping packet " + packet.getClass().getName() + " received after the connection was closed");
+                    break;
+                }
+                if (readIdleTimeoutMillis > 0)  // Only blocking connections report packets this way, NIO ones are marked when read
+                    session.markRead();
+                onPacketReceived(session, router != null ? router.getId(packet) : 0, packet);
+                break;
+        }
+    }
+
+    void onDisconnected(UUID connectionUuid) {
+        Session session = connections.remove(connectionUuid);
+        if (session != null) {
+            Connection connection = session.getConnection();
+            log.debug("Removed connection [" + connectionUuid + "] from [" + session.getHost() + "]");
+            log.debug("Remaining connections: " + connections.size());
+
+            session.close();
+            connection.disconnect();
+            admission.release();
+            for (String group : groups.leaveAll(session)) {
+                if (relay != null)
+                    relay.announce(group);
+            }
+            if (metrics != null)
+                metrics.onConnectionClosed();
+
+            if (serverCallbackHandler != null)
+                serverCallbackHandler.onDisconnected(connection);
+        }
+    }
+
+    /**
+     * The packet id is only used to find the packet's route.
+     */
+    void onPacketReceived(Session session, int packetId, Packet packet) {
+        if (metrics != null)
+            metrics.onPacketReceived();
+
+        PacketRoute route = router != null ? router.get(packetId) : null;
+        if (route != null) {
+            switch (route.getExecutionPolicy()) {
+                case INLINE:
+                    handleInline(route.getHandler(), packet);
+                    break;
+                case SHARED:
+                    dispatchPool.dispatch(session, packet);
+                    break;
+                case DEDICATED:
+                    route.getDedicatedPool().dispatch(session, packet);
+                    break;
+            }
+            return;
+        }
+
+        switch (incomingPacketHandleMode) {
+            case QUEUE:
+                incomingPacketQueue.push(packet);
+                break;
+            default:
+            case HANDLER:
+                if (dispatchPacketHandler) {
+                    dispatchPool.dispatch(session, packet);
+                } else if (packetHandler != null) {
+                    handleInline(packetHandler, packet);
+                } else {
+                    log.warn("Dropping packet " + packet.getClass().getName() + " which has no route and there's no packet handler");
+                    packetCodec.recycle(packet);
                 }
                 break;
         }
     }
 
+    /**
+     * Runs the handler on the calling I/O thread. The packet is recycled only if the handler doesn't throw.
+     */
+    private void handleInline(PacketHandler handler, Packet packet) {
+        if (metrics == null) {
+            handler.handle(packet);
+        } else {
+            long start = System.nanoTime();
+            try {
+                handler.handle(packet);
+            } catch (RuntimeException e) {
+                metrics.onHandlerError();
+                throw e;
+            } finally {
+                metrics.onPacketHandled(System.nanoTime() - start);
+            }
+        }
+        packetCodec.recycle(packet);
+    }
+
+    void onReadIdle(Session session) {
+        log.debug("Nothing has been received from connection [" + session.getUuid() + "] for " + readIdleTimeoutMillis + " ms");
+        if (serverCallbackHandler instanceof TcpServerCallbackHandler)
+            ((TcpServerCallbackHandler) serverCallbackHandler).onReadIdle(session.getConnection());
+
+        if (idleEviction) {
+            log.info("Evicting connection [" + session.getUuid() + "] from IP: " + session.getHost() + " which has been idle for " + readIdleTimeoutMillis + " ms");
+            update(session.getConnection(), Message.DISCONNECTED, session.getUuid());
+        }
+    }
+
+    void onWriteIdle(Session session) {
+        log.debug("Nothing has been written to connection [" + session.getUuid() + "] for " + writeIdleTimeoutMillis + " ms");
+        if (serverCallbackHandler instanceof TcpServerCallbackHandler)
+            ((TcpServerCallbackHandler) serverCallbackHandler).onWriteIdle(session.getConnection());
+
+        // Skipped while packets are waiting anyway, and never waits for room in the queue
+        if (heartbeat != null && session.getWriteQueue().getPendingBytes() == 0)
+            session.trySend(heartbeat.duplicate(), null, null);
+    }
+
+    void onWriteQueueHighWaterMark(Session session) {
+        log.debug("Write queue of connection [" + session.getUuid() + "] reached the high water mark");
+        if (serverCallbackHandler instanceof TcpServerCallbackHandler)
+            ((TcpServerCallbackHandler) serverCallbackHandler).onWriteQueueHighWaterMark(session.getConnection());
+    }
+
+    void onWriteQueueLowWaterMark(Session session) {
+        log.debug("Write queue of connection [" + session.getUuid() + "] dropped to the low water mark");
+        if (serverCallbackHandler instanceof TcpServerCallbackHandler)
+            ((TcpServerCallbackHandler) serverCallbackHandler).onWriteQueueLowWaterMark(session.getConnection());
+    }
+
+    /**
+     * Queues the packet for sending to the connection. The packet is written by the server's I/O threads,
+     * so this method returns without waiting for the network - unless the connection's write queue is full
+     * and its overflow policy is BLOCK. Throws PigeonException if the packet was rejected by the overflow policy.
+     */
     public void send(Packet packet, Connection connection) throws PigeonException {
-        connection.send(packet);
+        Session session = connections.get(connection);
+        if (session == null)
+            throw new PigeonException("Connection is not open");
+
+        PooledBuffer encoded = packetCodec.encode(packet, bufferPool);
+        if (!session.send(encoded.buffer(), encoded, null))
+            throw new PigeonException("Packet was not queued for connection [" + session.getUuid() + "] due to the write queue overflow policy " + writeQueueOverflowPolicy);
+    }
+
+    /**
+     * Queues the packet for sending to the connection. The returned future is completed once the packet has been
+     * written to the socket, or completed exceptionally if it was rejected, dropped or the connection was closed first.
+     */
+    public CompletableFuture<Void> sendAsync(Packet packet, Connection connection) {
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        Session session = connections.get(connection);
+        if (session == null) {
+            future.completeExceptionally(new PigeonException("Connection is not open"));
+            return future;
+        }
+
+        try {
+            PooledBuffer encoded = packetCodec.encode(packet, bufferPool);
+            session.send(encoded.buffer(), encoded, future);
+        } catch (PigeonException e) {
+            future.completeExceptionally(e);
+        }
+        return future;
     }
 
-    public void send(Packet packet, List<Connection> connections) throws PigeonException {
-        synchronized (connections) {
-            for (Connection connection : connections) {
-                send(packet, connection);
+    /**
+     * Sends the packet to every connection on the list, like broadcast(). Works on a copy of the list, so it can be
+     * changed meanwhile - a synchronized list is locked only while it's copied, not while the packet is queued.
+     */
+    public void send(Packet packet, List<Connection> recipients) throws PigeonException {
+        broadcast(packet, new ArrayList<>(recipients));
+    }
+
+    /**
+     * Sends the packet to every connection from the given host.
+     */
+    public void sendToHost(Packet packet, String host) throws PigeonException {
+        broadcast(packet, connections.getConnectionsFromHost(host));
+    }
+
+    /**
+     * Sends the packet to every open connection.
+     */
+    public void broadcast(Packet packet) throws PigeonException {
+        broadcast(packet, connections.getConnections().values());
+    }
+
+    /**
+     * Sends the packet to all the given connections. The packet is encoded only once and the same bytes are queued
+     * for every recipient, never waiting for room in a write queue, so a slow recipient doesn't hold up the others.
+     * Connections which are no longer open or whose write queue overflow policy rejected the packet are skipped -
+     * with the BLOCK policy, those whose queue is full.
+     */
+    public void broadcast(Packet packet, Collection<Connection> recipients) throws PigeonException {
+        PooledBuffer encoded = packetCodec.encode(packet, bufferPool);
+        try {
+            for (Connection connection : recipients) {
+                Session session = connections.get(connection);
+                if (session != null)    // Shares the content, only the position and limit are per recipient
+                    session.trySend(encoded.buffer().duplicate(), encoded.retain(), null);
             }
+        } finally {
+            encoded.release();
+        }
+    }
+
+    /**
+     * Adds the connection to the group, which exists for as long as it has members. A connection leaves all its groups
+     * when it's closed. Throws PigeonException if the connection is not open.
+     */
+    public void join(Connection connection, String group) throws PigeonException {
+        Session session = connections.get(connection);
+        if (session == null)
+            throw new PigeonException("Connection is not open");
+
+        boolean created = groups.join(session, group);
+        if (connections.get(session.getUuid()) == null) {   // Closed in the meantime, after it had left all its groups
+            groups.leave(session, group);
+            throw new PigeonException("Connection is not open");
+        }
+        if (created && relay != null)
+            relay.announce(group);
+    }
+
+    public void leave(Connection connection, String group) {
+        Session session = connections.get(connection);
+        if (session != null && groups.leave(session, group) && relay != null)
+            relay.announce(group);
+    }
+
+    /**
+     * Sends the packet to every member of the group, on this server and on the other nodes of its cluster. The packet
+     * is encoded once and, like with broadcast(), the same bytes are queued for every local member, skipping those
+     * whose write queue overflow policy rejected it. The other nodes get the bytes once each, if they have members
+     * of the group, and queue them for their members in turn. Members joining or leaving meanwhile never hold it up.
+     */
+    public void sendToGroup(Packet packet, String group) throws PigeonException {
+        PooledBuffer encoded = packetCodec.encode(packet, bufferPool);
+        try {
+            for (Session session : groups.getMembers(group))
+                session.trySend(encoded.buffer().duplicate(), encoded.retain(), null);
+            if (relay != null)
+                relay.forward(group, encoded);
+        } finally {
+            encoded.release();
         }
     }
 
+    /**
+     * Hands a received packet back to the server once the application is done with it, so that its instance can be
+     * reused for another incoming packet. Only has an effect with packet recycling enabled, in NIO transport mode.
+     * In HANDLER mode this is done automatically after the handler returns, in QUEUE mode it's up to the application.
+     * The packet must not be used after it has been recycled.
+     */
+    public void recycle(Packet packet) {
+        packetCodec.recycle(packet);
+    }
+
+    /**
+     * Marks the packets taken from the QUEUE mode queue with sequence numbers up to the given one as handled, so that
+     * they're not queued again when the server restarts. Acknowledgements are cumulative: with several consumers,
+     * acknowledge only the sequence numbers all of them have got past. Does nothing unless the journal is enabled.
+     */
+    public void acknowledge(long sequence) {
+        if (journal != null)
+            journal.acknowledge(sequence);
+    }
+
+    /**
+     * Writes the packets queued for the connection without waiting for the write batch window to pass.
+     * Useful for latency-critical packets when write batching is enabled, does nothing otherwise.
+     */
+    public void flush(Connection connection) {
+        Session session = connections.get(connection);
+        if (session != null)
+            session.scheduleFlush();
+    }
+
+    /**
+     * Writes the packets queued for every connection without waiting for the write batch window to pass.
+     */
+    public void flush() {
+        for (Session session : connections.getSessions())
+            session.scheduleFlush();
+    }
+
     public void shutdown() {
+        exit = true;
+        for (Connection connection : connections.getConnections().values()) {
+            connection.disconnect();
+        }
+        if (!handedOver)
+            closeListener();
+        if (executorService != null)
+            executorService.shutdown();
+        if (writerExecutorService != null)
+            writerExecutorService.shutdown();
+        if (flushScheduler != null)
+            flushScheduler.shutdown();
+        if (eventLoops != null) {
+            for (NioEventLoop eventLoop : eventLoops)
+                eventLoop.shutdown();
+        }
+        if (dispatchPool != null)
+            dispatchPool.shutdown();    // Packets already dispatched are still handled
+        if (router != null)
+            router.shutdown();
+        if (incomingPacketQueue != null)
+            incomingPacketQueue.close();    // Releases the I/O threads waiting for room in a full queue
+        if (journal != null)
+            journal.close();
+        if (relay != null)
+            relay.shutdown();
+        if (idleMonitor != null)
+            idleMonitor.shutdown();
+        if (tlsContext != null)
+            tlsContext.shutdown();
+        if (metricsObjectName != null && !handedOver)
+            unregisterMetrics();
+    }
+
+    /**
+     * Shuts the server down without dropping what's in flight, waiting up to the timeout for it. Stops accepting
+     * connections and reading from NIO connections, waits for the packets already received to be handled - the QUEUE
+     * mode queue has to be drained by the application - and for the write queues to be written out, then closes
+     * everything like shutdown(). Blocking connections read on their own until they're closed, so packets they
+     * receive meanwhile are handled as long as there's time left. Returns what had to be dropped.
+     */
+    public ShutdownReport shutdownGracefully(long timeout, TimeUnit unit) {
+        long start = System.nanoTime();
+        long deadline = start + unit.toNanos(timeout);
+
+        exit = true;
+        if (!handedOver)
+            closeListener();
+        for (Session session : connections.getSessions())
+            session.pauseReading();
+
+        boolean drained;
+        try {
+            // The dispatch threads stop once their queues are empty, so that the packets they're handling get sent as well
+            drained = awaitDrained(deadline, false);
+            if (dispatchPool != null)
+                dispatchPool.shutdown();
+            if (router != null)
+                router.shutdown();
+            drained &= (dispatchPool == null || dispatchPool.awaitTermination(deadline))
+                    && (router == null || router.awaitTermination(deadline))
+                    && awaitDrained(deadline, true);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            drained = false;
+        }
+
+        int unsentPackets = 0;
+        long unsentBytes = 0;
+        for (Session session : connections.getSessions()) {
+            unsentPackets += session.getWriteQueue().size();
+            unsentBytes += session.getWriteQueue().getPendingBytes();
+        }
+        ShutdownReport report = new ShutdownReport(drained, getPendingPackets(), unsentPackets, unsentBytes, connections.size(),
+                System.nanoTime() - start);
+        shutdown();
+        log.info("Server has been shut down gracefully: " + report);
+        return report;
+    }
+
+    /**
+     * Waits until no received packet is waiting to be handled and, if asked to, nothing is waiting to be written,
+     * or until the deadline (System.nanoTime()) has passed. Returns false in the latter case.
+     */
+    private boolean awaitDrained(long deadline, boolean writes) throws InterruptedException {
+        while (true) {
+            if (writes)
+                flush();    // Doesn't wait for the write batch windows
+            if (getPendingPackets() == 0 && (!writes || isFlushed()))
+                return true;
+            if (System.nanoTime() - deadline >= 0)
+                return false;
+            Thread.sleep(DRAIN_CHECK_MILLIS);
+        }
+    }
+
+    private boolean isFlushed() {
+        for (Session session : connections.getSessions()) {
+            if (session.getWriteQueue().getPendingBytes() > 0)
+                return false;
+        }
+        return true;
+    }
+
+    private void closeListener() {
+        if (acceptors != null) {
+            for (NioAcceptor acceptor : acceptors)
+                acceptor.shutdown();
+        }
         try {
-            synchronized (connections) {
-                for (Connection connection : connections.values()) {
-                    connection.disconnect();
-                }
-            }
             serverSocket.close();
-            executorService.shutdown();
-            exit = true;
         } catch (IOException e) {
             log.error(e.getMessage(), e);
         }
     }
 
+    private void unregisterMetrics() {
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(metricsObjectName);
+        } catch (JMException e) {
+            log.warn(e.getMessage(), e);
+        }
+    }
 
-
+    /**
+     * Kept for compatibility, returns the same queue as getIncomingPacketRingBuffer().
+     */
     public IncomingPacketQueue getIncomingPacketQueue() {
         return incomingPacketQueue;
     }
 
+    /**
+     * Returns the queue of received packets in QUEUE mode, null in HANDLER mode.
+     */
+    public IncomingPacketRingBuffer getIncomingPacketRingBuffer() {
+        return incomingPacketQueue;
+    }
+
     public int getPort() {
         return port;
     }
@@ -223,10 +1114,292 @@ public final class PigeonTcpServer extends Thread implements PigeonServer {
         return receiverThreadsNumber;
     }
 
+    public ReceiverThreadsType getReceiverThreadsType() {
+        return receiverThreadsType;
+    }
+
     public String getPackageToScan() {
         return packageToScan;
     }
 
+    public TransportMode getTransportMode() {
+        return transportMode;
+    }
+
+    public int getEventLoopThreadsNumber() {
+        return eventLoopThreadsNumber;
+    }
+
+    public int getAcceptorThreadsNumber() {
+        return acceptorThreadsNumber;
+    }
+
+    public EventLoopSelection getEventLoopSelection() {
+        return eventLoopSelection;
+    }
+
+    public int getWriteQueueCapacity() {
+        return writeQueueCapacity;
+    }
+
+    public WriteQueueOverflowPolicy getWriteQueueOverflowPolicy() {
+        return writeQueueOverflowPolicy;
+    }
+
+    public int getWriteQueueHighWaterMark() {
+        return writeQueueHighWaterMark;
+    }
+
+    public int getWriteQueueLowWaterMark() {
+        return writeQueueLowWaterMark;
+    }
+
+    public boolean isWriteBatching() {
+        return writeBatching;
+    }
+
+    public int getWriteBatchWindowMillis() {
+        return writeBatchWindowMillis;
+    }
+
+    public int getWriteBatchSize() {
+        return writeBatchSize;
+    }
+
+    public boolean isTcpNoDelay() {
+        return tcpNoDelay;
+    }
+
+    public boolean isTcpKeepAlive() {
+        return tcpKeepAlive;
+    }
+
+    public int getSocketReceiveBufferSize() {
+        return socketReceiveBufferSize;
+    }
+
+    public int getSocketSendBufferSize() {
+        return socketSendBufferSize;
+    }
+
+    public int getReadBufferMinSize() {
+        return readBufferMinSize;
+    }
+
+    public int getReadBufferInitialSize() {
+        return readBufferInitialSize;
+    }
+
+    public int getReadBufferMaxSize() {
+        return readBufferMaxSize;
+    }
+
+    public boolean isPacketRecycling() {
+        return packetRecycling;
+    }
+
+    public int getIncomingQueueCapacity() {
+        return incomingQueueCapacity;
+    }
+
+    public WaitStrategy getIncomingQueueWaitStrategy() {
+        return incomingQueueWaitStrategy;
+    }
+
+    public int getDispatchThreadsNumber() {
+        return dispatchThreadsNumber;
+    }
+
+    public int getDispatchQueueCapacity() {
+        return dispatchQueueCapacity;
+    }
+
+    /**
+     * Returns the number of received packets waiting for the dispatch workers, 0 if there are none.
+     */
+    public int getDispatchQueueDepth() {
+        return dispatchPool != null ? dispatchPool.getQueueDepth() : 0;
+    }
+
+    /**
+     * Returns the state of every dispatch worker, an empty array if there are none.
+     */
+    public DispatchWorkerStats[] getDispatchWorkerStats() {
+        return dispatchPool != null ? dispatchPool.getStats() : new DispatchWorkerStats[0];
+    }
+
+    public boolean isMetricsEnabled() {
+        return metricsEnabled;
+    }
+
+    public int getReadIdleTimeoutMillis() {
+        return readIdleTimeoutMillis;
+    }
+
+    public int getWriteIdleTimeoutMillis() {
+        return writeIdleTimeoutMillis;
+    }
+
+    public boolean isIdleEviction() {
+        return idleEviction;
+    }
+
+    public int getAcceptBacklog() {
+        return acceptBacklog;
+    }
+
+    public int getMaxConnections() {
+        return maxConnections;
+    }
+
+    public int getAcceptRateLimit() {
+        return acceptRateLimit;
+    }
+
+    public int getAcceptRateLimitPerHost() {
+        return acceptRateLimitPerHost;
+    }
+
+    public int getMaxPendingPackets() {
+        return maxPendingPackets;
+    }
+
+    public int getMaxHandlerTimeMicros() {
+        return maxHandlerTimeMicros;
+    }
+
+    public CompressionCodec getCompression() {
+        return compression;
+    }
+
+    public int getCompressionThreshold() {
+        return compressionThreshold;
+    }
+
+    public boolean isTlsEnabled() {
+        return tlsEnabled;
+    }
+
+    public String getTlsKeyStore() {
+        return tlsKeyStore;
+    }
+
+    public String getTlsKeyStoreType() {
+        return tlsKeyStoreType;
+    }
+
+    public String getTlsProtocols() {
+        return tlsProtocols;
+    }
+
+    public int getTlsSessionCacheSize() {
+        return tlsSessionCacheSize;
+    }
+
+    public int getTlsSessionTimeoutSeconds() {
+        return tlsSessionTimeoutSeconds;
+    }
+
+    public String getJournalDirectory() {
+        return journalDirectory;
+    }
+
+    public int getJournalSegmentSize() {
+        return journalSegmentSize;
+    }
+
+    public int getJournalSyncIntervalMillis() {
+        return journalSyncIntervalMillis;
+    }
+
+    public int getJournalRetentionSeconds() {
+        return journalRetentionSeconds;
+    }
+
+    public int getRelayPort() {
+        return relayPort;
+    }
+
+    public String getRelayPeers() {
+        return relayPeers;
+    }
+
+    public int getRelayBatchSize() {
+        return relayBatchSize;
+    }
+
+    public int getRelayQueueCapacity() {
+        return relayQueueCapacity;
+    }
+
+    /**
+     * Returns the number of other nodes of the cluster the server is linked to at this moment.
+     */
+    public int getRelayLinkCount() {
+        return relay != null ? relay.getLinkCount() : 0;
+    }
+
+    /**
+     * Returns true if another node of the cluster has announced members of the group.
+     */
+    boolean hasRemoteMembers(String group) {
+        return relay != null && relay.hasRemoteMembers(group);
+    }
+
+    /**
+     * Returns false once the server has been shut down or has handed its listening socket over to another one.
+     */
+    boolean isAccepting() {
+        return !exit && !handedOver;
+    }
+
+    /**
+     * Returns null if nothing is ever compressed.
+     */
+    CompressionPolicy getCompressionPolicy() {
+        return compressionPolicy;
+    }
+
+    /**
+     * Returns the number of connections holding a slot of the connection limit.
+     */
+    int getAdmittedConnections() {
+        return admission.getAdmittedConnections();
+    }
+
+    /**
+     * Returns the number of connections the server admits at most, 0 if it's not limited.
+     */
+    int getConnectionLimit() {
+        return admission.getConnectionLimit();
+    }
+
+    /**
+     * Returns the number of received packets waiting to be handled, in the dispatch threads' queues and the queue of QUEUE mode.
+     */
+    int getPendingPackets() {
+        int pending = getDispatchQueueDepth();
+        if (router != null)
+            pending += router.getQueueDepth();
+        if (incomingPacketQueue != null)
+            pending += incomingPacketQueue.size();
+        return pending;
+    }
+
+    /**
+     * Returns the server's counters and latency histograms at this moment, null if metrics are disabled.
+     */
+    public MetricsSnapshot getMetrics() {
+        return metricsEnabled ? metrics.snapshot() : null;
+    }
+
+    /**
+     * Returns null if metrics are disabled and the handler time isn't limited.
+     */
+    ServerMetrics getServerMetrics() {
+        return metrics;
+    }
+
     public IncomingPacketHandleMode getIncomingPacketHandleMode() {
         return incomingPacketHandleMode;
     }
@@ -239,13 +1412,57 @@ public final class PigeonTcpServer extends Thread implements PigeonServer {
         return serverCallbackHandler;
     }
 
+    /**
+     * Returns a read-only live view of the connections. Iterating over it does not block the server
+     * and reflects connections added or removed in the meantime.
+     */
     public Map<UUID, Connection> getConnections() {
-        synchronized (connections) {
-            return new HashMap<UUID, Connection>(connections);
-        }
+        return connections.getConnections();
+    }
+
+    public Connection getConnection(UUID uuid) {
+        Session session = connections.get(uuid);
+        return session != null ? session.getConnection() : null;
+    }
+
+    public int getConnectionCount() {
+        return connections.size();
+    }
+
+    /**
+     * Returns a read-only live view of the names of the groups which have members on this server.
+     */
+    public Set<String> getGroups() {
+        return Collections.unmodifiableSet(groups.getGroups());
+    }
+
+    /**
+     * Returns the group's members on this server at this moment, empty if it has none.
+     */
+    public List<Connection> getGroupMembers(String group) {
+        Session[] members = groups.getMembers(group);
+        List<Connection> connections = new ArrayList<>(members.length);
+        for (Session session : members)
+            connections.add(session.getConnection());
+        return connections;
+    }
+
+    /**
+     * Returns a read-only view of the names of the groups the connection is a member of.
+     */
+    public Set<String> getGroups(Connection connection) {
+        Session session = connections.get(connection);
+        return session != null ? Collections.unmodifiableSet(groups.getGroups(session)) : Collections.<String>emptySet();
+    }
+
+    /**
+     * Returns a read-only live view of the connections from the given IP address.
+     */
+    public Collection<Connection> getConnectionsFromHost(String host) {
+        return connections.getConnectionsFromHost(host);
     }
 
-    private boolean fixedNumberOfThreads() {
-        return receiverThreadsNumber > 0;
+    BufferPool getBufferPool() {
+        return bufferPool;
     }
 }
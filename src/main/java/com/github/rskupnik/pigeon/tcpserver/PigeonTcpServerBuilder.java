@@ -22,26 +22,142 @@ package com.github.rskupnik.pigeon.tcpserver;
 
 import com.github.rskupnik.parrot.Parrot;
 import com.github.rskupnik.pigeon.commons.IncomingPacketHandleMode;
+import com.github.rskupnik.pigeon.commons.Packet;
 import com.github.rskupnik.pigeon.commons.PacketHandler;
 import com.github.rskupnik.pigeon.commons.callback.ServerCallbackHandler;
 import com.github.rskupnik.pigeon.commons.exceptions.PigeonException;
 import com.github.rskupnik.pigeon.commons.server.PigeonServerBuilder;
 
+import javax.net.ssl.SSLContext;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
 public final class PigeonTcpServerBuilder implements PigeonServerBuilder {
 
     private final String PROPERTY_PORT = "port";
     private final String PROPERTY_RECEIVER_THREADS_NUMBER = "receiver_threads_number";
+    private final String PROPERTY_RECEIVER_THREADS_TYPE = "receiver_threads_type";
     private final String PROPERTY_PACKAGE_TO_SCAN = "package_to_scan";
     private final String PROPERTY_PACKET_HANDLE_MODE = "packet_handle_mode";
+    private final String PROPERTY_TRANSPORT_MODE = "transport_mode";
+    private final String PROPERTY_EVENT_LOOP_THREADS_NUMBER = "event_loop_threads_number";
+    private final String PROPERTY_ACCEPTOR_THREADS_NUMBER = "acceptor_threads_number";
+    private final String PROPERTY_EVENT_LOOP_SELECTION = "event_loop_selection";
+    private final String PROPERTY_WRITE_QUEUE_CAPACITY = "write_queue_capacity";
+    private final String PROPERTY_WRITE_QUEUE_OVERFLOW_POLICY = "write_queue_overflow_policy";
+    private final String PROPERTY_WRITE_QUEUE_HIGH_WATER_MARK = "write_queue_high_water_mark";
+    private final String PROPERTY_WRITE_QUEUE_LOW_WATER_MARK = "write_queue_low_water_mark";
+    private final String PROPERTY_WRITE_BATCHING = "write_batching";
+    private final String PROPERTY_WRITE_BATCH_WINDOW_MILLIS = "write_batch_window_millis";
+    private final String PROPERTY_WRITE_BATCH_SIZE = "write_batch_size";
+    private final String PROPERTY_TCP_NO_DELAY = "tcp_no_delay";
+    private final String PROPERTY_TCP_KEEP_ALIVE = "tcp_keep_alive";
+    private final String PROPERTY_SOCKET_RECEIVE_BUFFER_SIZE = "socket_receive_buffer_size";
+    private final String PROPERTY_SOCKET_SEND_BUFFER_SIZE = "socket_send_buffer_size";
+    private final String PROPERTY_READ_BUFFER_MIN_SIZE = "read_buffer_min_size";
+    private final String PROPERTY_READ_BUFFER_INITIAL_SIZE = "read_buffer_initial_size";
+    private final String PROPERTY_READ_BUFFER_MAX_SIZE = "read_buffer_max_size";
+    private final String PROPERTY_PACKET_RECYCLING = "packet_recycling";
+    private final String PROPERTY_INCOMING_QUEUE_CAPACITY = "incoming_queue_capacity";
+    private final String PROPERTY_INCOMING_QUEUE_WAIT_STRATEGY = "incoming_queue_wait_strategy";
+    private final String PROPERTY_DISPATCH_THREADS_NUMBER = "dispatch_threads_number";
+    private final String PROPERTY_DISPATCH_QUEUE_CAPACITY = "dispatch_queue_capacity";
+    private final String PROPERTY_METRICS_ENABLED = "metrics_enabled";
+    private final String PROPERTY_READ_IDLE_TIMEOUT_MILLIS = "read_idle_timeout_millis";
+    private final String PROPERTY_WRITE_IDLE_TIMEOUT_MILLIS = "write_idle_timeout_millis";
+    private final String PROPERTY_IDLE_EVICTION = "idle_eviction";
+    private final String PROPERTY_ACCEPT_BACKLOG = "accept_backlog";
+    private final String PROPERTY_MAX_CONNECTIONS = "max_connections";
+    private final String PROPERTY_ACCEPT_RATE_LIMIT = "accept_rate_limit";
+    private final String PROPERTY_ACCEPT_RATE_LIMIT_PER_HOST = "accept_rate_limit_per_host";
+    private final String PROPERTY_MAX_PENDING_PACKETS = "max_pending_packets";
+    private final String PROPERTY_MAX_HANDLER_TIME_MICROS = "max_handler_time_micros";
+    private final String PROPERTY_COMPRESSION = "compression";
+    private final String PROPERTY_COMPRESSION_THRESHOLD = "compression_threshold";
+    private final String PROPERTY_TLS_ENABLED = "tls_enabled";
+    private final String PROPERTY_TLS_KEY_STORE = "tls_key_store";
+    private final String PROPERTY_TLS_KEY_STORE_PASSWORD = "tls_key_store_password";
+    private final String PROPERTY_TLS_KEY_STORE_TYPE = "tls_key_store_type";
+    private final String PROPERTY_TLS_PROTOCOLS = "tls_protocols";
+    private final String PROPERTY_TLS_SESSION_CACHE_SIZE = "tls_session_cache_size";
+    private final String PROPERTY_TLS_SESSION_TIMEOUT_SECONDS = "tls_session_timeout_seconds";
+    private final String PROPERTY_JOURNAL_DIRECTORY = "journal_directory";
+    private final String PROPERTY_JOURNAL_SEGMENT_SIZE = "journal_segment_size";
+    private final String PROPERTY_JOURNAL_SYNC_INTERVAL_MILLIS = "journal_sync_interval_millis";
+    private final String PROPERTY_JOURNAL_RETENTION_SECONDS = "journal_retention_seconds";
+    private final String PROPERTY_RELAY_PORT = "relay_port";
+    private final String PROPERTY_RELAY_PEERS = "relay_peers";
+    private final String PROPERTY_RELAY_BATCH_SIZE = "relay_batch_size";
+    private final String PROPERTY_RELAY_QUEUE_CAPACITY = "relay_queue_capacity";
 
     private String propertiesFilename = TcpServerDefaults.PROPERTIES_FILENAME;
 
     private Integer port;
     private Integer receiverThreadsNumber;
+    private ReceiverThreadsType receiverThreadsType;
     private IncomingPacketHandleMode incomingPacketHandleMode;
     private PacketHandler packetHandler;
+    private DispatchKeyExtractor dispatchKeyExtractor;
+    private Packet heartbeatPacket;
+    private SSLContext sslContext;
+    private PigeonTcpServer listenerFrom;
+    private final List<PacketRoute> routes = new ArrayList<>();
+    private final Map<Class<? extends Packet>, CompressionCodec> packetCompression = new LinkedHashMap<>();
     private ServerCallbackHandler serverCallbackHandler;
     private String packageToScan;
+    private TransportMode transportMode;
+    private Integer eventLoopThreadsNumber;
+    private Integer acceptorThreadsNumber;
+    private EventLoopSelection eventLoopSelection;
+    private Integer writeQueueCapacity;
+    private WriteQueueOverflowPolicy writeQueueOverflowPolicy;
+    private Integer writeQueueHighWaterMark;
+    private Integer writeQueueLowWaterMark;
+    private Boolean writeBatching;
+    private Integer writeBatchWindowMillis;
+    private Integer writeBatchSize;
+    private Boolean tcpNoDelay;
+    private Boolean tcpKeepAlive;
+    private Integer socketReceiveBufferSize;
+    private Integer socketSendBufferSize;
+    private Integer readBufferMinSize;
+    private Integer readBufferInitialSize;
+    private Integer readBufferMaxSize;
+    private Boolean packetRecycling;
+    private Integer incomingQueueCapacity;
+    private WaitStrategy incomingQueueWaitStrategy;
+    private Integer dispatchThreadsNumber;
+    private Integer dispatchQueueCapacity;
+    private Boolean metricsEnabled;
+    private Integer readIdleTimeoutMillis;
+    private Integer writeIdleTimeoutMillis;
+    private Boolean idleEviction;
+    private Integer acceptBacklog;
+    private Integer maxConnections;
+    private Integer acceptRateLimit;
+    private Integer acceptRateLimitPerHost;
+    private Integer maxPendingPackets;
+    private Integer maxHandlerTimeMicros;
+    private CompressionCodec compression;
+    private Integer compressionThreshold;
+    private Boolean tlsEnabled;
+    private String tlsKeyStore;
+    private String tlsKeyStorePassword;
+    private String tlsKeyStoreType;
+    private String tlsProtocols;
+    private Integer tlsSessionCacheSize;
+    private Integer tlsSessionTimeoutSeconds;
+    private String journalDirectory;
+    private Integer journalSegmentSize;
+    private Integer journalSyncIntervalMillis;
+    private Integer journalRetentionSeconds;
+    private Integer relayPort;
+    private String relayPeers;
+    private Integer relayBatchSize;
+    private Integer relayQueueCapacity;
 
     public PigeonTcpServerBuilder withPort(int port) {
         this.port = port;
@@ -53,6 +169,11 @@ public final class PigeonTcpServerBuilder implements PigeonServerBuilder {
         return this;
     }
 
+    public PigeonTcpServerBuilder withReceiverThreadsType(ReceiverThreadsType receiverThreadsType) {
+        this.receiverThreadsType = receiverThreadsType;
+        return this;
+    }
+
     public PigeonTcpServerBuilder withIncomingPacketHandleMode(IncomingPacketHandleMode incomingPacketHandleMode) {
         this.incomingPacketHandleMode = incomingPacketHandleMode;
         return this;
@@ -63,6 +184,81 @@ public final class PigeonTcpServerBuilder implements PigeonServerBuilder {
         return this;
     }
 
+    /**
+     * Packets with the given id will be handled by the given handler instead of the packet handler or the queue.
+     * A DEDICATED route gets a single thread of its own.
+     */
+    public PigeonTcpServerBuilder withRoute(int packetId, PacketHandler handler, ExecutionPolicy executionPolicy) {
+        return withRoute(packetId, handler, executionPolicy, 1);
+    }
+
+    /**
+     * Like withRoute(packetId, handler, executionPolicy), with the number of threads of a DEDICATED route.
+     */
+    public PigeonTcpServerBuilder withRoute(int packetId, PacketHandler handler, ExecutionPolicy executionPolicy, int dedicatedThreadsNumber) {
+        routes.add(new PacketRoute(packetId, null, handler, executionPolicy, dedicatedThreadsNumber));
+        return this;
+    }
+
+    /**
+     * Packets of the given class will be handled by the given handler instead of the packet handler or the queue.
+     * A DEDICATED route gets a single thread of its own.
+     */
+    public PigeonTcpServerBuilder withRoute(Class<? extends Packet> packetClass, PacketHandler handler, ExecutionPolicy executionPolicy) {
+        return withRoute(packetClass, handler, executionPolicy, 1);
+    }
+
+    /**
+     * Like withRoute(packetClass, handler, executionPolicy), with the number of threads of a DEDICATED route.
+     */
+    public PigeonTcpServerBuilder withRoute(Class<? extends Packet> packetClass, PacketHandler handler, ExecutionPolicy executionPolicy,
+                                            int dedicatedThreadsNumber) {
+        routes.add(new PacketRoute(null, packetClass, handler, executionPolicy, dedicatedThreadsNumber));
+        return this;
+    }
+
+    public PigeonTcpServerBuilder withDispatchKeyExtractor(DispatchKeyExtractor dispatchKeyExtractor) {
+        this.dispatchKeyExtractor = dispatchKeyExtractor;
+        return this;
+    }
+
+    /**
+     * The packet sent to connections which nothing has been written to for the write idle timeout.
+     */
+    public PigeonTcpServerBuilder withHeartbeatPacket(Packet heartbeatPacket) {
+        this.heartbeatPacket = heartbeatPacket;
+        return this;
+    }
+
+    /**
+     * Packets of the given class will be compressed with the given codec instead of the one set with withCompression(),
+     * NONE leaves them uncompressed.
+     */
+    public PigeonTcpServerBuilder withPacketCompression(Class<? extends Packet> packetClass, CompressionCodec codec) {
+        packetCompression.put(packetClass, codec);
+        return this;
+    }
+
+    /**
+     * The context TLS connections are created with, instead of one loaded from the TLS key store.
+     * Its server session context is still given the TLS session cache size and timeout.
+     */
+    public PigeonTcpServerBuilder withSslContext(SSLContext sslContext) {
+        this.sslContext = sslContext;
+        return this;
+    }
+
+    /**
+     * Takes over the listening socket of a running server instead of binding a new one, e.g. to reload the configuration
+     * without refusing any connection in the meantime. The other server stops accepting connections once this one
+     * has been built, which should be started right away, and keeps serving its connections until it's shut down.
+     * Both need the same port and transport mode.
+     */
+    public PigeonTcpServerBuilder withListenerFrom(PigeonTcpServer listenerFrom) {
+        this.listenerFrom = listenerFrom;
+        return this;
+    }
+
     public PigeonTcpServerBuilder withServerCallbackHandler(ServerCallbackHandler serverCallbackHandler) {
         this.serverCallbackHandler = serverCallbackHandler;
         return this;
@@ -73,6 +269,265 @@ public final class PigeonTcpServerBuilder implements PigeonServerBuilder {
         return this;
     }
 
+    public PigeonTcpServerBuilder withTransportMode(TransportMode transportMode) {
+        this.transportMode = transportMode;
+        return this;
+    }
+
+    public PigeonTcpServerBuilder withEventLoopThreadsNumber(int eventLoopThreadsNumber) {
+        this.eventLoopThreadsNumber = eventLoopThreadsNumber;
+        return this;
+    }
+
+    public PigeonTcpServerBuilder withAcceptorThreadsNumber(int acceptorThreadsNumber) {
+        this.acceptorThreadsNumber = acceptorThreadsNumber;
+        return this;
+    }
+
+    public PigeonTcpServerBuilder withEventLoopSelection(EventLoopSelection eventLoopSelection) {
+        this.eventLoopSelection = eventLoopSelection;
+        return this;
+    }
+
+    public PigeonTcpServerBuilder withWriteQueueCapacity(int writeQueueCapacity) {
+        this.writeQueueCapacity = writeQueueCapacity;
+        return this;
+    }
+
+    public PigeonTcpServerBuilder withWriteQueueOverflowPolicy(WriteQueueOverflowPolicy writeQueueOverflowPolicy) {
+        this.writeQueueOverflowPolicy = writeQueueOverflowPolicy;
+        return this;
+    }
+
+    public PigeonTcpServerBuilder withWriteQueueHighWaterMark(int writeQueueHighWaterMark) {
+        this.writeQueueHighWaterMark = writeQueueHighWaterMark;
+        return this;
+    }
+
+    public PigeonTcpServerBuilder withWriteQueueLowWaterMark(int writeQueueLowWaterMark) {
+        this.writeQueueLowWaterMark = writeQueueLowWaterMark;
+        return this;
+    }
+
+    public PigeonTcpServerBuilder withWriteBatching(boolean writeBatching) {
+        this.writeBatching = writeBatching;
+        return this;
+    }
+
+    public PigeonTcpServerBuilder withWriteBatchWindowMillis(int writeBatchWindowMillis) {
+        this.writeBatchWindowMillis = writeBatchWindowMillis;
+        return this;
+    }
+
+    public PigeonTcpServerBuilder withWriteBatchSize(int writeBatchSize) {
+        this.writeBatchSize = writeBatchSize;
+        return this;
+    }
+
+    public PigeonTcpServerBuilder withTcpNoDelay(boolean tcpNoDelay) {
+        this.tcpNoDelay = tcpNoDelay;
+        return this;
+    }
+
+    public PigeonTcpServerBuilder withTcpKeepAlive(boolean tcpKeepAlive) {
+        this.tcpKeepAlive = tcpKeepAlive;
+        return this;
+    }
+
+    /**
+     * SO_RCVBUF of the connections' sockets in bytes, 0 leaves the operating system's default.
+     */
+    public PigeonTcpServerBuilder withSocketReceiveBufferSize(int socketReceiveBufferSize) {
+        this.socketReceiveBufferSize = socketReceiveBufferSize;
+        return this;
+    }
+
+    /**
+     * SO_SNDBUF of the connections' sockets in bytes, 0 leaves the operating system's default.
+     */
+    public PigeonTcpServerBuilder withSocketSendBufferSize(int socketSendBufferSize) {
+        this.socketSendBufferSize = socketSendBufferSize;
+        return this;
+    }
+
+    public PigeonTcpServerBuilder withReadBufferMinSize(int readBufferMinSize) {
+        this.readBufferMinSize = readBufferMinSize;
+        return this;
+    }
+
+    public PigeonTcpServerBuilder withReadBufferInitialSize(int readBufferInitialSize) {
+        this.readBufferInitialSize = readBufferInitialSize;
+        return this;
+    }
+
+    public PigeonTcpServerBuilder withReadBufferMaxSize(int readBufferMaxSize) {
+        this.readBufferMaxSize = readBufferMaxSize;
+        return this;
+    }
+
+    public PigeonTcpServerBuilder withPacketRecycling(boolean packetRecycling) {
+        this.packetRecycling = packetRecycling;
+        return this;
+    }
+
+    public PigeonTcpServerBuilder withIncomingQueueCapacity(int incomingQueueCapacity) {
+        this.incomingQueueCapacity = incomingQueueCapacity;
+        return this;
+    }
+
+    public PigeonTcpServerBuilder withIncomingQueueWaitStrategy(WaitStrategy incomingQueueWaitStrategy) {
+        this.incomingQueueWaitStrategy = incomingQueueWaitStrategy;
+        return this;
+    }
+
+    public PigeonTcpServerBuilder withDispatchThreadsNumber(int dispatchThreadsNumber) {
+        this.dispatchThreadsNumber = dispatchThreadsNumber;
+        return this;
+    }
+
+    public PigeonTcpServerBuilder withDispatchQueueCapacity(int dispatchQueueCapacity) {
+        this.dispatchQueueCapacity = dispatchQueueCapacity;
+        return this;
+    }
+
+    public PigeonTcpServerBuilder withMetricsEnabled(boolean metricsEnabled) {
+        this.metricsEnabled = metricsEnabled;
+        return this;
+    }
+
+    public PigeonTcpServerBuilder withReadIdleTimeoutMillis(int readIdleTimeoutMillis) {
+        this.readIdleTimeoutMillis = readIdleTimeoutMillis;
+        return this;
+    }
+
+    public PigeonTcpServerBuilder withWriteIdleTimeoutMillis(int writeIdleTimeoutMillis) {
+        this.writeIdleTimeoutMillis = writeIdleTimeoutMillis;
+        return this;
+    }
+
+    public PigeonTcpServerBuilder withIdleEviction(boolean idleEviction) {
+        this.idleEviction = idleEviction;
+        return this;
+    }
+
+    public PigeonTcpServerBuilder withAcceptBacklog(int acceptBacklog) {
+        this.acceptBacklog = acceptBacklog;
+        return this;
+    }
+
+    public PigeonTcpServerBuilder withMaxConnections(int maxConnections) {
+        this.maxConnections = maxConnections;
+        return this;
+    }
+
+    public PigeonTcpServerBuilder withAcceptRateLimit(int acceptRateLimit) {
+        this.acceptRateLimit = acceptRateLimit;
+        return this;
+    }
+
+    public PigeonTcpServerBuilder withAcceptRateLimitPerHost(int acceptRateLimitPerHost) {
+        this.acceptRateLimitPerHost = acceptRateLimitPerHost;
+        return this;
+    }
+
+    public PigeonTcpServerBuilder withMaxPendingPackets(int maxPendingPackets) {
+        this.maxPendingPackets = maxPendingPackets;
+        return this;
+    }
+
+    public PigeonTcpServerBuilder withMaxHandlerTimeMicros(int maxHandlerTimeMicros) {
+        this.maxHandlerTimeMicros = maxHandlerTimeMicros;
+        return this;
+    }
+
+    public PigeonTcpServerBuilder withCompression(CompressionCodec compression) {
+        this.compression = compression;
+        return this;
+    }
+
+    public PigeonTcpServerBuilder withCompressionThreshold(int compressionThreshold) {
+        this.compressionThreshold = compressionThreshold;
+        return this;
+    }
+
+    public PigeonTcpServerBuilder withTlsEnabled(boolean tlsEnabled) {
+        this.tlsEnabled = tlsEnabled;
+        return this;
+    }
+
+    public PigeonTcpServerBuilder withTlsKeyStore(String tlsKeyStore) {
+        this.tlsKeyStore = tlsKeyStore;
+        return this;
+    }
+
+    public PigeonTcpServerBuilder withTlsKeyStorePassword(String tlsKeyStorePassword) {
+        this.tlsKeyStorePassword = tlsKeyStorePassword;
+        return this;
+    }
+
+    public PigeonTcpServerBuilder withTlsKeyStoreType(String tlsKeyStoreType) {
+        this.tlsKeyStoreType = tlsKeyStoreType;
+        return this;
+    }
+
+    public PigeonTcpServerBuilder withTlsProtocols(String tlsProtocols) {
+        this.tlsProtocols = tlsProtocols;
+        return this;
+    }
+
+    public PigeonTcpServerBuilder withTlsSessionCacheSize(int tlsSessionCacheSize) {
+        this.tlsSessionCacheSize = tlsSessionCacheSize;
+        return this;
+    }
+
+    public PigeonTcpServerBuilder withTlsSessionTimeoutSeconds(int tlsSessionTimeoutSeconds) {
+        this.tlsSessionTimeoutSeconds = tlsSessionTimeoutSeconds;
+        return this;
+    }
+
+    public PigeonTcpServerBuilder withJournalDirectory(String journalDirectory) {
+        this.journalDirectory = journalDirectory;
+        return this;
+    }
+
+    public PigeonTcpServerBuilder withJournalSegmentSize(int journalSegmentSize) {
+        this.journalSegmentSize = journalSegmentSize;
+        return this;
+    }
+
+    public PigeonTcpServerBuilder withJournalSyncIntervalMillis(int journalSyncIntervalMillis) {
+        this.journalSyncIntervalMillis = journalSyncIntervalMillis;
+        return this;
+    }
+
+    public PigeonTcpServerBuilder withJournalRetentionSeconds(int journalRetentionSeconds) {
+        this.journalRetentionSeconds = journalRetentionSeconds;
+        return this;
+    }
+
+    public PigeonTcpServerBuilder withRelayPort(int relayPort) {
+        this.relayPort = relayPort;
+        return this;
+    }
+
+    /**
+     * The other nodes of the cluster to link to, as a comma separated list of host:port pairs of their relay ports.
+     */
+    public PigeonTcpServerBuilder withRelayPeers(String relayPeers) {
+        this.relayPeers = relayPeers;
+        return this;
+    }
+
+    public PigeonTcpServerBuilder withRelayBatchSize(int relayBatchSize) {
+        this.relayBatchSize = relayBatchSize;
+        return this;
+    }
+
+    public PigeonTcpServerBuilder withRelayQueueCapacity(int relayQueueCapacity) {
+        this.relayQueueCapacity = relayQueueCapacity;
+        return this;
+    }
+
     public PigeonTcpServerBuilder withPropertiesFilename(String propertiesFilename) {
         this.propertiesFilename = propertiesFilename;
         return this;
@@ -86,6 +541,10 @@ public final class PigeonTcpServerBuilder implements PigeonServerBuilder {
         return receiverThreadsNumber;
     }
 
+    public ReceiverThreadsType getReceiverThreadsType() {
+        return receiverThreadsType;
+    }
+
     public IncomingPacketHandleMode getIncomingPacketHandleMode() {
         return incomingPacketHandleMode;
     }
@@ -94,6 +553,30 @@ public final class PigeonTcpServerBuilder implements PigeonServerBuilder {
         return packetHandler;
     }
 
+    List<PacketRoute> getRoutes() {
+        return Collections.unmodifiableList(routes);
+    }
+
+    public DispatchKeyExtractor getDispatchKeyExtractor() {
+        return dispatchKeyExtractor;
+    }
+
+    Map<Class<? extends Packet>, CompressionCodec> getPacketCompression() {
+        return Collections.unmodifiableMap(packetCompression);
+    }
+
+    public SSLContext getSslContext() {
+        return sslContext;
+    }
+
+    public PigeonTcpServer getListenerFrom() {
+        return listenerFrom;
+    }
+
+    public Packet getHeartbeatPacket() {
+        return heartbeatPacket;
+    }
+
     public ServerCallbackHandler getServerCallbackHandler() {
         return serverCallbackHandler;
     }
@@ -102,6 +585,206 @@ public final class PigeonTcpServerBuilder implements PigeonServerBuilder {
         return packageToScan;
     }
 
+    public TransportMode getTransportMode() {
+        return transportMode;
+    }
+
+    public int getEventLoopThreadsNumber() {
+        return eventLoopThreadsNumber;
+    }
+
+    public int getAcceptorThreadsNumber() {
+        return acceptorThreadsNumber;
+    }
+
+    public EventLoopSelection getEventLoopSelection() {
+        return eventLoopSelection;
+    }
+
+    public int getWriteQueueCapacity() {
+        return writeQueueCapacity;
+    }
+
+    public WriteQueueOverflowPolicy getWriteQueueOverflowPolicy() {
+        return writeQueueOverflowPolicy;
+    }
+
+    public int getWriteQueueHighWaterMark() {
+        return writeQueueHighWaterMark;
+    }
+
+    public int getWriteQueueLowWaterMark() {
+        return writeQueueLowWaterMark;
+    }
+
+    public boolean isWriteBatching() {
+        return writeBatching;
+    }
+
+    public int getWriteBatchWindowMillis() {
+        return writeBatchWindowMillis;
+    }
+
+    public int getWriteBatchSize() {
+        return writeBatchSize;
+    }
+
+    public boolean isTcpNoDelay() {
+        return tcpNoDelay;
+    }
+
+    public boolean isTcpKeepAlive() {
+        return tcpKeepAlive;
+    }
+
+    public int getSocketReceiveBufferSize() {
+        return socketReceiveBufferSize;
+    }
+
+    public int getSocketSendBufferSize() {
+        return socketSendBufferSize;
+    }
+
+    public int getReadBufferMinSize() {
+        return readBufferMinSize;
+    }
+
+    public int getReadBufferInitialSize() {
+        return readBufferInitialSize;
+    }
+
+    public int getReadBufferMaxSize() {
+        return readBufferMaxSize;
+    }
+
+    public boolean isPacketRecycling() {
+        return packetRecycling;
+    }
+
+    public int getIncomingQueueCapacity() {
+        return incomingQueueCapacity;
+    }
+
+    public WaitStrategy getIncomingQueueWaitStrategy() {
+        return incomingQueueWaitStrategy;
+    }
+
+    public int getDispatchThreadsNumber() {
+        return dispatchThreadsNumber;
+    }
+
+    public int getDispatchQueueCapacity() {
+        return dispatchQueueCapacity;
+    }
+
+    public boolean isMetricsEnabled() {
+        return metricsEnabled;
+    }
+
+    public int getReadIdleTimeoutMillis() {
+        return readIdleTimeoutMillis;
+    }
+
+    public int getWriteIdleTimeoutMillis() {
+        return writeIdleTimeoutMillis;
+    }
+
+    public boolean isIdleEviction() {
+        return idleEviction;
+    }
+
+    public int getAcceptBacklog() {
+        return acceptBacklog;
+    }
+
+    public int getMaxConnections() {
+        return maxConnections;
+    }
+
+    public int getAcceptRateLimit() {
+        return acceptRateLimit;
+    }
+
+    public int getAcceptRateLimitPerHost() {
+        return acceptRateLimitPerHost;
+    }
+
+    public int getMaxPendingPackets() {
+        return maxPendingPackets;
+    }
+
+    public int getMaxHandlerTimeMicros() {
+        return maxHandlerTimeMicros;
+    }
+
+    public CompressionCodec getCompression() {
+        return compression;
+    }
+
+    public int getCompressionThreshold() {
+        return compressionThreshold;
+    }
+
+    public boolean isTlsEnabled() {
+        return tlsEnabled;
+    }
+
+    public String getTlsKeyStore() {
+        return tlsKeyStore;
+    }
+
+    public String getTlsKeyStorePassword() {
+        return tlsKeyStorePassword;
+    }
+
+    public String getTlsKeyStoreType() {
+        return tlsKeyStoreType;
+    }
+
+    public String getTlsProtocols() {
+        return tlsProtocols;
+    }
+
+    public int getTlsSessionCacheSize() {
+        return tlsSessionCacheSize;
+    }
+
+    public int getTlsSessionTimeoutSeconds() {
+        return tlsSessionTimeoutSeconds;
+    }
+
+    public String getJournalDirectory() {
+        return journalDirectory;
+    }
+
+    public int getJournalSegmentSize() {
+        return journalSegmentSize;
+    }
+
+    public int getJournalSyncIntervalMillis() {
+        return journalSyncIntervalMillis;
+    }
+
+    public int getJournalRetentionSeconds() {
+        return journalRetentionSeconds;
+    }
+
+    public int getRelayPort() {
+        return relayPort;
+    }
+
+    public String getRelayPeers() {
+        return relayPeers;
+    }
+
+    public int getRelayBatchSize() {
+        return relayBatchSize;
+    }
+
+    public int getRelayQueueCapacity() {
+        return relayQueueCapacity;
+    }
+
     public PigeonTcpServer build() throws PigeonException {
         load();
         validate();
@@ -115,11 +798,283 @@ public final class PigeonTcpServerBuilder implements PigeonServerBuilder {
         if (receiverThreadsNumber == null)
             throw new PigeonException("Receiver threads number cannot be null");
 
+        if (receiverThreadsType == null)
+            throw new PigeonException("Receiver threads type cannot be null");
+
         if (incomingPacketHandleMode == null)
             throw new PigeonException("Incoming packet handle mode cannot be null");
 
-        if (incomingPacketHandleMode == IncomingPacketHandleMode.HANDLER && packetHandler == null)
+        if (incomingPacketHandleMode == IncomingPacketHandleMode.HANDLER && packetHandler == null && routes.isEmpty())
             throw new PigeonException("Incoming packet handle mode is set to HANDLER but no handler was specified");
+
+        for (PacketRoute route : routes) {
+            if (route.getType() == null && route.getId() == null)
+                throw new PigeonException("Route packet class cannot be null");
+
+            if (route.getHandler() == null)
+                throw new PigeonException("Route handler for " + route.describe() + " cannot be null");
+
+            if (route.getExecutionPolicy() == null)
+                throw new PigeonException("Route execution policy for " + route.describe() + " cannot be null");
+
+            if (route.getDedicatedThreadsNumber() <= 0)
+                throw new PigeonException("Route dedicated threads number for " + route.describe() + " must be greater than 0");
+        }
+
+        if (transportMode == null)
+            throw new PigeonException("Transport mode cannot be null");
+
+        if (eventLoopThreadsNumber == null)
+            throw new PigeonException("Event loop threads number cannot be null");
+
+        if (acceptorThreadsNumber == null)
+            throw new PigeonException("Acceptor threads number cannot be null");
+
+        if (eventLoopSelection == null)
+            throw new PigeonException("Event loop selection cannot be null");
+
+        if (writeQueueCapacity == null)
+            throw new PigeonException("Write queue capacity cannot be null");
+
+        if (writeQueueCapacity <= 0)
+            throw new PigeonException("Write queue capacity must be greater than 0");
+
+        if (writeQueueOverflowPolicy == null)
+            throw new PigeonException("Write queue overflow policy cannot be null");
+
+        if (writeQueueHighWaterMark == null)
+            throw new PigeonException("Write queue high water mark cannot be null");
+
+        if (writeQueueLowWaterMark == null)
+            throw new PigeonException("Write queue low water mark cannot be null");
+
+        if (writeQueueLowWaterMark > writeQueueHighWaterMark)
+            throw new PigeonException("Write queue low water mark cannot be greater than the high water mark");
+
+        if (writeBatching == null)
+            throw new PigeonException("Write batching cannot be null");
+
+        if (writeBatchWindowMillis == null)
+            throw new PigeonException("Write batch window cannot be null");
+
+        if (writeBatchWindowMillis <= 0)
+            throw new PigeonException("Write batch window must be greater than 0");
+
+        if (writeBatchSize == null)
+            throw new PigeonException("Write batch size cannot be null");
+
+        if (tcpNoDelay == null)
+            throw new PigeonException("TCP no delay cannot be null");
+
+        if (tcpKeepAlive == null)
+            throw new PigeonException("TCP keep-alive cannot be null");
+
+        if (socketReceiveBufferSize == null)
+            throw new PigeonException("Socket receive buffer size cannot be null");
+
+        if (socketReceiveBufferSize < 0)
+            throw new PigeonException("Socket receive buffer size cannot be negative");
+
+        if (socketSendBufferSize == null)
+            throw new PigeonException("Socket send buffer size cannot be null");
+
+        if (socketSendBufferSize < 0)
+            throw new PigeonException("Socket send buffer size cannot be negative");
+
+        if (readBufferMinSize == null)
+            throw new PigeonException("Read buffer min size cannot be null");
+
+        if (readBufferInitialSize == null)
+            throw new PigeonException("Read buffer initial size cannot be null");
+
+        if (readBufferMaxSize == null)
+            throw new PigeonException("Read buffer max size cannot be null");
+
+        if (readBufferMinSize <= 0)
+            throw new PigeonException("Read buffer min size must be positive");
+
+        if (readBufferInitialSize < readBufferMinSize || readBufferMaxSize < readBufferInitialSize)
+            throw new PigeonException("Read buffer sizes must satisfy min <= initial <= max");
+
+        if (readBufferMaxSize > NioSession.MAX_READ_BUFFER_SIZE)
+            throw new PigeonException("Read buffer max size cannot exceed " + NioSession.MAX_READ_BUFFER_SIZE + " bytes");
+
+        if (packetRecycling == null)
+            throw new PigeonException("Packet recycling cannot be null");
+
+        if (incomingQueueCapacity == null)
+            throw new PigeonException("Incoming queue capacity cannot be null");
+
+        if (incomingQueueCapacity <= 0 || incomingQueueCapacity > 1 << 30)
+            throw new PigeonException("Incoming queue capacity must be between 1 and " + (1 << 30));
+
+        if (incomingQueueWaitStrategy == null)
+            throw new PigeonException("Incoming queue wait strategy cannot be null");
+
+        if (dispatchThreadsNumber == null)
+            throw new PigeonException("Dispatch threads number cannot be null");
+
+        if (dispatchThreadsNumber < 0)
+            throw new PigeonException("Dispatch threads number cannot be negative");
+
+        if (dispatchQueueCapacity == null)
+            throw new PigeonException("Dispatch queue capacity cannot be null");
+
+        if (dispatchQueueCapacity <= 0 || dispatchQueueCapacity > 1 << 30)
+            throw new PigeonException("Dispatch queue capacity must be between 1 and " + (1 << 30));
+
+        if (metricsEnabled == null)
+            throw new PigeonException("Metrics enabled cannot be null");
+
+        if (readIdleTimeoutMillis == null)
+            throw new PigeonException("Read idle timeout cannot be null");
+
+        if (readIdleTimeoutMillis < 0)
+            throw new PigeonException("Read idle timeout cannot be negative");
+
+        if (writeIdleTimeoutMillis == null)
+            throw new PigeonException("Write idle timeout cannot be null");
+
+        if (writeIdleTimeoutMillis < 0)
+            throw new PigeonException("Write idle timeout cannot be negative");
+
+        if (heartbeatPacket != null && writeIdleTimeoutMillis == 0)
+            throw new PigeonException("Heartbeat packet requires a write idle timeout");
+
+        if (idleEviction == null)
+            throw new PigeonException("Idle eviction cannot be null");
+
+        if (acceptBacklog == null)
+            throw new PigeonException("Accept backlog cannot be null");
+
+        if (acceptBacklog < 0)
+            throw new PigeonException("Accept backlog cannot be negative");
+
+        if (maxConnections == null)
+            throw new PigeonException("Max connections cannot be null");
+
+        if (maxConnections < 0)
+            throw new PigeonException("Max connections cannot be negative");
+
+        if (acceptRateLimit == null)
+            throw new PigeonException("Accept rate limit cannot be null");
+
+        if (acceptRateLimit < 0)
+            throw new PigeonException("Accept rate limit cannot be negative");
+
+        if (acceptRateLimitPerHost == null)
+            throw new PigeonException("Accept rate limit per host cannot be null");
+
+        if (acceptRateLimitPerHost < 0)
+            throw new PigeonException("Accept rate limit per host cannot be negative");
+
+        if (maxPendingPackets == null)
+            throw new PigeonException("Max pending packets cannot be null");
+
+        if (maxPendingPackets < 0)
+            throw new PigeonException("Max pending packets cannot be negative");
+
+        if (maxHandlerTimeMicros == null)
+            throw new PigeonException("Max handler time cannot be null");
+
+        if (maxHandlerTimeMicros < 0)
+            throw new PigeonException("Max handler time cannot be negative");
+
+        if (compression == null)
+            throw new PigeonException("Compression cannot be null");
+
+        if (compressionThreshold == null)
+            throw new PigeonException("Compression threshold cannot be null");
+
+        if (compressionThreshold < 0)
+            throw new PigeonException("Compression threshold cannot be negative");
+
+        boolean compressed = compression != CompressionCodec.NONE;
+        for (Map.Entry<Class<? extends Packet>, CompressionCodec> entry : packetCompression.entrySet()) {
+            if (entry.getValue() == null)
+                throw new PigeonException("Compression codec of " + entry.getKey().getName() + " cannot be null");
+            compressed |= entry.getValue() != CompressionCodec.NONE;
+        }
+
+        if (compressed && transportMode != TransportMode.NIO)
+            throw new PigeonException("Compression requires the NIO transport mode");
+
+        if (tlsEnabled == null)
+            throw new PigeonException("TLS enabled cannot be null");
+
+        if (tlsKeyStoreType == null)
+            throw new PigeonException("TLS key store type cannot be null");
+
+        if (tlsProtocols == null)
+            throw new PigeonException("TLS protocols cannot be null");
+
+        if (tlsSessionCacheSize == null)
+            throw new PigeonException("TLS session cache size cannot be null");
+
+        if (tlsSessionCacheSize < 0)
+            throw new PigeonException("TLS session cache size cannot be negative");
+
+        if (tlsSessionTimeoutSeconds == null)
+            throw new PigeonException("TLS session timeout cannot be null");
+
+        if (tlsSessionTimeoutSeconds < 0)
+            throw new PigeonException("TLS session timeout cannot be negative");
+
+        if (tlsEnabled && sslContext == null && tlsKeyStore == null)
+            throw new PigeonException("TLS requires a key store or an SSL context");
+
+        if (tlsEnabled && transportMode != TransportMode.NIO)
+            throw new PigeonException("TLS requires the NIO transport mode");
+
+        if (journalSegmentSize == null)
+            throw new PigeonException("Journal segment size cannot be null");
+
+        if (journalSegmentSize < 1024)
+            throw new PigeonException("Journal segment size must be at least 1024 bytes");
+
+        if (journalSyncIntervalMillis == null)
+            throw new PigeonException("Journal sync interval cannot be null");
+
+        if (journalSyncIntervalMillis < 0)
+            throw new PigeonException("Journal sync interval cannot be negative");
+
+        if (journalRetentionSeconds == null)
+            throw new PigeonException("Journal retention cannot be null");
+
+        if (journalRetentionSeconds < 0)
+            throw new PigeonException("Journal retention cannot be negative");
+
+        if (journalDirectory != null && incomingPacketHandleMode != IncomingPacketHandleMode.QUEUE)
+            throw new PigeonException("The journal requires the QUEUE incoming packet handle mode");
+
+        if (relayPort == null)
+            throw new PigeonException("Relay port cannot be null");
+
+        if (relayPort < 0)
+            throw new PigeonException("Relay port cannot be negative");
+
+        if (relayPort > 0 && relayPort == port)
+            throw new PigeonException("Relay port must differ from the server's port");
+
+        RelayNode.parsePeers(relayPeers);   // Throws if any of them is malformed
+
+        if (relayBatchSize == null)
+            throw new PigeonException("Relay batch size cannot be null");
+
+        if (relayBatchSize <= 0)
+            throw new PigeonException("Relay batch size must be positive");
+
+        if (relayQueueCapacity == null)
+            throw new PigeonException("Relay queue capacity cannot be null");
+
+        if (relayQueueCapacity <= 0)
+            throw new PigeonException("Relay queue capacity must be positive");
+
+        if (listenerFrom != null && (listenerFrom.getPort() != port || listenerFrom.getTransportMode() != transportMode))
+            throw new PigeonException("The listening socket can only be taken over by a server with the same port and transport mode");
+
+        if (listenerFrom != null && !listenerFrom.isAccepting())
+            throw new PigeonException("The server to take the listening socket over from is no longer accepting connections");
     }
 
     private void load() throws PigeonException {
@@ -132,12 +1087,165 @@ public final class PigeonTcpServerBuilder implements PigeonServerBuilder {
             if (receiverThreadsNumber == null)
                 receiverThreadsNumber = parrot.get(PROPERTY_RECEIVER_THREADS_NUMBER).isPresent() ? Integer.parseInt(parrot.get(PROPERTY_RECEIVER_THREADS_NUMBER).get()) : TcpServerDefaults.RECEIVER_THREADS_NUMBER;
 
+            if (receiverThreadsType == null)
+                receiverThreadsType = parrot.get(PROPERTY_RECEIVER_THREADS_TYPE).isPresent() ? ReceiverThreadsType.fromString(parrot.get(PROPERTY_RECEIVER_THREADS_TYPE).get()) : TcpServerDefaults.RECEIVER_THREADS_TYPE;
+
             if (packageToScan == null)
                 packageToScan = parrot.get(PROPERTY_PACKAGE_TO_SCAN).orElse(TcpServerDefaults.PACKAGE_TO_SCAN);
 
             if (incomingPacketHandleMode == null)
                 incomingPacketHandleMode = parrot.get(PROPERTY_PACKET_HANDLE_MODE).isPresent() ? IncomingPacketHandleMode.fromString(parrot.get(PROPERTY_PACKET_HANDLE_MODE).get()) : TcpServerDefaults.PACKET_HANDLE_MODE;
 
+            if (transportMode == null)
+                transportMode = parrot.get(PROPERTY_TRANSPORT_MODE).isPresent() ? TransportMode.fromString(parrot.get(PROPERTY_TRANSPORT_MODE).get()) : TcpServerDefaults.TRANSPORT_MODE;
+
+            if (eventLoopThreadsNumber == null)
+                eventLoopThreadsNumber = parrot.get(PROPERTY_EVENT_LOOP_THREADS_NUMBER).isPresent() ? Integer.parseInt(parrot.get(PROPERTY_EVENT_LOOP_THREADS_NUMBER).get()) : TcpServerDefaults.EVENT_LOOP_THREADS_NUMBER;
+
+            if (acceptorThreadsNumber == null)
+                acceptorThreadsNumber = parrot.get(PROPERTY_ACCEPTOR_THREADS_NUMBER).isPresent() ? Integer.parseInt(parrot.get(PROPERTY_ACCEPTOR_THREADS_NUMBER).get()) : TcpServerDefaults.ACCEPTOR_THREADS_NUMBER;
+
+            if (eventLoopSelection == null)
+                eventLoopSelection = parrot.get(PROPERTY_EVENT_LOOP_SELECTION).isPresent() ? EventLoopSelection.fromString(parrot.get(PROPERTY_EVENT_LOOP_SELECTION).get()) : TcpServerDefaults.EVENT_LOOP_SELECTION;
+
+            if (writeQueueCapacity == null)
+                writeQueueCapacity = parrot.get(PROPERTY_WRITE_QUEUE_CAPACITY).isPresent() ? Integer.parseInt(parrot.get(PROPERTY_WRITE_QUEUE_CAPACITY).get()) : TcpServerDefaults.WRITE_QUEUE_CAPACITY;
+
+            if (writeQueueOverflowPolicy == null)
+                writeQueueOverflowPolicy = parrot.get(PROPERTY_WRITE_QUEUE_OVERFLOW_POLICY).isPresent() ? WriteQueueOverflowPolicy.fromString(parrot.get(PROPERTY_WRITE_QUEUE_OVERFLOW_POLICY).get()) : TcpServerDefaults.WRITE_QUEUE_OVERFLOW_POLICY;
+
+            if (writeQueueHighWaterMark == null)
+                writeQueueHighWaterMark = parrot.get(PROPERTY_WRITE_QUEUE_HIGH_WATER_MARK).isPresent() ? Integer.parseInt(parrot.get(PROPERTY_WRITE_QUEUE_HIGH_WATER_MARK).get()) : TcpServerDefaults.WRITE_QUEUE_HIGH_WATER_MARK;
+
+            if (writeQueueLowWaterMark == null)
+                writeQueueLowWaterMark = parrot.get(PROPERTY_WRITE_QUEUE_LOW_WATER_MARK).isPresent() ? Integer.parseInt(parrot.get(PROPERTY_WRITE_QUEUE_LOW_WATER_MARK).get()) : TcpServerDefaults.WRITE_QUEUE_LOW_WATER_MARK;
+
+            if (writeBatching == null)
+                writeBatching = parrot.get(PROPERTY_WRITE_BATCHING).isPresent() ? Boolean.parseBoolean(parrot.get(PROPERTY_WRITE_BATCHING).get()) : TcpServerDefaults.WRITE_BATCHING;
+
+            if (writeBatchWindowMillis == null)
+                writeBatchWindowMillis = parrot.get(PROPERTY_WRITE_BATCH_WINDOW_MILLIS).isPresent() ? Integer.parseInt(parrot.get(PROPERTY_WRITE_BATCH_WINDOW_MILLIS).get()) : TcpServerDefaults.WRITE_BATCH_WINDOW_MILLIS;
+
+            if (writeBatchSize == null)
+                writeBatchSize = parrot.get(PROPERTY_WRITE_BATCH_SIZE).isPresent() ? Integer.parseInt(parrot.get(PROPERTY_WRITE_BATCH_SIZE).get()) : TcpServerDefaults.WRITE_BATCH_SIZE;
+
+            if (tcpNoDelay == null)
+                tcpNoDelay = parrot.get(PROPERTY_TCP_NO_DELAY).isPresent() ? Boolean.parseBoolean(parrot.get(PROPERTY_TCP_NO_DELAY).get()) : TcpServerDefaults.TCP_NO_DELAY;
+
+            if (tcpKeepAlive == null)
+                tcpKeepAlive = parrot.get(PROPERTY_TCP_KEEP_ALIVE).isPresent() ? Boolean.parseBoolean(parrot.get(PROPERTY_TCP_KEEP_ALIVE).get()) : TcpServerDefaults.TCP_KEEP_ALIVE;
+
+            if (socketReceiveBufferSize == null)
+                socketReceiveBufferSize = parrot.get(PROPERTY_SOCKET_RECEIVE_BUFFER_SIZE).isPresent() ? Integer.parseInt(parrot.get(PROPERTY_SOCKET_RECEIVE_BUFFER_SIZE).get()) : TcpServerDefaults.SOCKET_RECEIVE_BUFFER_SIZE;
+
+            if (socketSendBufferSize == null)
+                socketSendBufferSize = parrot.get(PROPERTY_SOCKET_SEND_BUFFER_SIZE).isPresent() ? Integer.parseInt(parrot.get(PROPERTY_SOCKET_SEND_BUFFER_SIZE).get()) : TcpServerDefaults.SOCKET_SEND_BUFFER_SIZE;
+
+            if (readBufferMinSize == null)
+                readBufferMinSize = parrot.get(PROPERTY_READ_BUFFER_MIN_SIZE).isPresent() ? Integer.parseInt(parrot.get(PROPERTY_READ_BUFFER_MIN_SIZE).get()) : TcpServerDefaults.READ_BUFFER_MIN_SIZE;
+
+            if (readBufferInitialSize == null)
+                readBufferInitialSize = parrot.get(PROPERTY_READ_BUFFER_INITIAL_SIZE).isPresent() ? Integer.parseInt(parrot.get(PROPERTY_READ_BUFFER_INITIAL_SIZE).get()) : TcpServerDefaults.READ_BUFFER_INITIAL_SIZE;
+
+            if (readBufferMaxSize == null)
+                readBufferMaxSize = parrot.get(PROPERTY_READ_BUFFER_MAX_SIZE).isPresent() ? Integer.parseInt(parrot.get(PROPERTY_READ_BUFFER_MAX_SIZE).get()) : TcpServerDefaults.READ_BUFFER_MAX_SIZE;
+
+            if (packetRecycling == null)
+                packetRecycling = parrot.get(PROPERTY_PACKET_RECYCLING).isPresent() ? Boolean.parseBoolean(parrot.get(PROPERTY_PACKET_RECYCLING).get()) : TcpServerDefaults.PACKET_RECYCLING;
+
+            if (incomingQueueCapacity == null)
+                incomingQueueCapacity = parrot.get(PROPERTY_INCOMING_QUEUE_CAPACITY).isPresent() ? Integer.parseInt(parrot.get(PROPERTY_INCOMING_QUEUE_CAPACITY).get()) : TcpServerDefaults.INCOMING_QUEUE_CAPACITY;
+
+            if (incomingQueueWaitStrategy == null)
+                incomingQueueWaitStrategy = parrot.get(PROPERTY_INCOMING_QUEUE_WAIT_STRATEGY).isPresent() ? WaitStrategy.fromString(parrot.get(PROPERTY_INCOMING_QUEUE_WAIT_STRATEGY).get()) : TcpServerDefaults.INCOMING_QUEUE_WAIT_STRATEGY;
+
+            if (dispatchThreadsNumber == null)
+                dispatchThreadsNumber = parrot.get(PROPERTY_DISPATCH_THREADS_NUMBER).isPresent() ? Integer.parseInt(parrot.get(PROPERTY_DISPATCH_THREADS_NUMBER).get()) : TcpServerDefaults.DISPATCH_THREADS_NUMBER;
+
+            if (dispatchQueueCapacity == null)
+                dispatchQueueCapacity = parrot.get(PROPERTY_DISPATCH_QUEUE_CAPACITY).isPresent() ? Integer.parseInt(parrot.get(PROPERTY_DISPATCH_QUEUE_CAPACITY).get()) : TcpServerDefaults.DISPATCH_QUEUE_CAPACITY;
+
+            if (metricsEnabled == null)
+                metricsEnabled = parrot.get(PROPERTY_METRICS_ENABLED).isPresent() ? Boolean.parseBoolean(parrot.get(PROPERTY_METRICS_ENABLED).get()) : TcpServerDefaults.METRICS_ENABLED;
+
+            if (readIdleTimeoutMillis == null)
+                readIdleTimeoutMillis = parrot.get(PROPERTY_READ_IDLE_TIMEOUT_MILLIS).isPresent() ? Integer.parseInt(parrot.get(PROPERTY_READ_IDLE_TIMEOUT_MILLIS).get()) : TcpServerDefaults.READ_IDLE_TIMEOUT_MILLIS;
+
+            if (writeIdleTimeoutMillis == null)
+                writeIdleTimeoutMillis = parrot.get(PROPERTY_WRITE_IDLE_TIMEOUT_MILLIS).isPresent() ? Integer.parseInt(parrot.get(PROPERTY_WRITE_IDLE_TIMEOUT_MILLIS).get()) : TcpServerDefaults.WRITE_IDLE_TIMEOUT_MILLIS;
+
+            if (idleEviction == null)
+                idleEviction = parrot.get(PROPERTY_IDLE_EVICTION).isPresent() ? Boolean.parseBoolean(parrot.get(PROPERTY_IDLE_EVICTION).get()) : TcpServerDefaults.IDLE_EVICTION;
+
+            if (acceptBacklog == null)
+                acceptBacklog = parrot.get(PROPERTY_ACCEPT_BACKLOG).isPresent() ? Integer.parseInt(parrot.get(PROPERTY_ACCEPT_BACKLOG).get()) : TcpServerDefaults.ACCEPT_BACKLOG;
+
+            if (maxConnections == null)
+                maxConnections = parrot.get(PROPERTY_MAX_CONNECTIONS).isPresent() ? Integer.parseInt(parrot.get(PROPERTY_MAX_CONNECTIONS).get()) : TcpServerDefaults.MAX_CONNECTIONS;
+
+            if (acceptRateLimit == null)
+                acceptRateLimit = parrot.get(PROPERTY_ACCEPT_RATE_LIMIT).isPresent() ? Integer.parseInt(parrot.get(PROPERTY_ACCEPT_RATE_LIMIT).get()) : TcpServerDefaults.ACCEPT_RATE_LIMIT;
+
+            if (acceptRateLimitPerHost == null)
+                acceptRateLimitPerHost = parrot.get(PROPERTY_ACCEPT_RATE_LIMIT_PER_HOST).isPresent() ? Integer.parseInt(parrot.get(PROPERTY_ACCEPT_RATE_LIMIT_PER_HOST).get()) : TcpServerDefaults.ACCEPT_RATE_LIMIT_PER_HOST;
+
+            if (maxPendingPackets == null)
+                maxPendingPackets = parrot.get(PROPERTY_MAX_PENDING_PACKETS).isPresent() ? Integer.parseInt(parrot.get(PROPERTY_MAX_PENDING_PACKETS).get()) : TcpServerDefaults.MAX_PENDING_PACKETS;
+
+            if (maxHandlerTimeMicros == null)
+                maxHandlerTimeMicros = parrot.get(PROPERTY_MAX_HANDLER_TIME_MICROS).isPresent() ? Integer.parseInt(parrot.get(PROPERTY_MAX_HANDLER_TIME_MICROS).get()) : TcpServerDefaults.MAX_HANDLER_TIME_MICROS;
+
+            if (compression == null)
+                compression = parrot.get(PROPERTY_COMPRESSION).isPresent() ? CompressionCodec.fromString(parrot.get(PROPERTY_COMPRESSION).get()) : TcpServerDefaults.COMPRESSION;
+
+            if (compressionThreshold == null)
+                compressionThreshold = parrot.get(PROPERTY_COMPRESSION_THRESHOLD).isPresent() ? Integer.parseInt(parrot.get(PROPERTY_COMPRESSION_THRESHOLD).get()) : TcpServerDefaults.COMPRESSION_THRESHOLD;
+
+            if (tlsEnabled == null)
+                tlsEnabled = parrot.get(PROPERTY_TLS_ENABLED).isPresent() ? Boolean.parseBoolean(parrot.get(PROPERTY_TLS_ENABLED).get()) : TcpServerDefaults.TLS_ENABLED;
+
+            if (tlsKeyStore == null)
+                tlsKeyStore = parrot.get(PROPERTY_TLS_KEY_STORE).orElse(TcpServerDefaults.TLS_KEY_STORE);
+
+            if (tlsKeyStorePassword == null)
+                tlsKeyStorePassword = parrot.get(PROPERTY_TLS_KEY_STORE_PASSWORD).orElse(TcpServerDefaults.TLS_KEY_STORE_PASSWORD);
+
+            if (tlsKeyStoreType == null)
+                tlsKeyStoreType = parrot.get(PROPERTY_TLS_KEY_STORE_TYPE).orElse(TcpServerDefaults.TLS_KEY_STORE_TYPE);
+
+            if (tlsProtocols == null)
+                tlsProtocols = parrot.get(PROPERTY_TLS_PROTOCOLS).orElse(TcpServerDefaults.TLS_PROTOCOLS);
+
+            if (tlsSessionCacheSize == null)
+                tlsSessionCacheSize = parrot.get(PROPERTY_TLS_SESSION_CACHE_SIZE).isPresent() ? Integer.parseInt(parrot.get(PROPERTY_TLS_SESSION_CACHE_SIZE).get()) : TcpServerDefaults.TLS_SESSION_CACHE_SIZE;
+
+            if (tlsSessionTimeoutSeconds == null)
+                tlsSessionTimeoutSeconds = parrot.get(PROPERTY_TLS_SESSION_TIMEOUT_SECONDS).isPresent() ? Integer.parseInt(parrot.get(PROPERTY_TLS_SESSION_TIMEOUT_SECONDS).get()) : TcpServerDefaults.TLS_SESSION_TIMEOUT_SECONDS;
+
+            if (journalDirectory == null)
+                journalDirectory = parrot.get(PROPERTY_JOURNAL_DIRECTORY).orElse(TcpServerDefaults.JOURNAL_DIRECTORY);
+
+            if (journalSegmentSize == null)
+                journalSegmentSize = parrot.get(PROPERTY_JOURNAL_SEGMENT_SIZE).isPresent() ? Integer.parseInt(parrot.get(PROPERTY_JOURNAL_SEGMENT_SIZE).get()) : TcpServerDefaults.JOURNAL_SEGMENT_SIZE;
+
+            if (journalSyncIntervalMillis == null)
+                journalSyncIntervalMillis = parrot.get(PROPERTY_JOURNAL_SYNC_INTERVAL_MILLIS).isPresent() ? Integer.parseInt(parrot.get(PROPERTY_JOURNAL_SYNC_INTERVAL_MILLIS).get()) : TcpServerDefaults.JOURNAL_SYNC_INTERVAL_MILLIS;
+
+            if (journalRetentionSeconds == null)
+                journalRetentionSeconds = parrot.get(PROPERTY_JOURNAL_RETENTION_SECONDS).isPresent() ? Integer.parseInt(parrot.get(PROPERTY_JOURNAL_RETENTION_SECONDS).get()) : TcpServerDefaults.JOURNAL_RETENTION_SECONDS;
+
+            if (relayPort == null)
+                relayPort = parrot.get(PROPERTY_RELAY_PORT).isPresent() ? Integer.parseInt(parrot.get(PROPERTY_RELAY_PORT).get()) : TcpServerDefaults.RELAY_PORT;
+
+            if (relayPeers == null)
+                relayPeers = parrot.get(PROPERTY_RELAY_PEERS).orElse(TcpServerDefaults.RELAY_PEERS);
+
+            if (relayBatchSize == null)
+                relayBatchSize = parrot.get(PROPERTY_RELAY_BATCH_SIZE).isPresent() ? Integer.parseInt(parrot.get(PROPERTY_RELAY_BATCH_SIZE).get()) : TcpServerDefaults.RELAY_BATCH_SIZE;
+
+            if (relayQueueCapacity == null)
+                relayQueueCapacity = parrot.get(PROPERTY_RELAY_QUEUE_CAPACITY).isPresent() ? Integer.parseInt(parrot.get(PROPERTY_RELAY_QUEUE_CAPACITY).get()) : TcpServerDefaults.RELAY_QUEUE_CAPACITY;
+
         } catch (ClassCastException e) {
             throw new PigeonException(e.getMessage());
         }
@@ -0,0 +1,69 @@
+/*
+    Copyright 2016 Radosław Skupnik
+
+    This file is part of pigeon-tcp-server.
+
+    Pigeon-tcp-server is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    Pigeon-tcp-server is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with pigeon-tcp-server; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+
+package com.github.rskupnik.pigeon.tcpserver;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A ByteBuffer taken from a BufferPool, returned to it once every holder has released it.
+ * A broadcast packet is held by all its recipients' write queues, each of which releases it after the write.
+ */
+final class PooledBuffer {
+
+    private final ByteBuffer buffer;
+    private final BufferPool pool;
+    private final AtomicInteger references = new AtomicInteger();
+
+    PooledBuffer(ByteBuffer buffer, BufferPool pool) {
+        this.buffer = buffer;
+        this.pool = pool;
+    }
+
+    /**
+     * Resets the buffer for a new user, to be called by the pool only.
+     */
+    PooledBuffer init(int size) {
+        buffer.clear().limit(size);
+        references.set(1);
+        return this;
+    }
+
+    /**
+     * The pooled buffer itself. Holders which need their own position and limit should use duplicate() instead.
+     */
+    ByteBuffer buffer() {
+        return buffer;
+    }
+
+    /**
+     * Adds a holder, who will have to call release() as well.
+     */
+    PooledBuffer retain() {
+        references.incrementAndGet();
+        return this;
+    }
+
+    void release() {
+        if (references.decrementAndGet() == 0 && pool != null)
+            pool.release(this);
+    }
+}
@@ -0,0 +1,78 @@
+/*
+    Copyright 2016 Radosław Skupnik
+
+    This file is part of pigeon-tcp-server.
+
+    Pigeon-tcp-server is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    Pigeon-tcp-server is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with pigeon-tcp-server; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+
+package com.github.rskupnik.pigeon.tcpserver;
+
+/**
+ * Guesses how big the next read from a connection is going to be, from the size of the reads before it, so that
+ * the read buffer taken from the pool fits the traffic - small for clients sending a packet now and then, large for
+ * those streaming a lot of data, which then need far fewer reads.
+ *
+ * Sizes are powers of two between the minimum and the maximum, like the pool's size classes. A read which fills
+ * the buffer quadruples the next one right away, while the size is halved only after two reads in a row would have
+ * fit in half of it - a burst is caught up with quickly, a single short read doesn't shrink the buffer for the rest
+ * of it. With the minimum equal to the maximum the size never changes. Only used by the connection's event loop.
+ */
+final class ReadBufferPredictor {
+
+    private static final int GROWTH_SHIFT = 2;
+
+    private final int minShift;
+    private final int maxShift;
+    private int shift;
+    private boolean shrinkNext;
+
+    /**
+     * Sizes which aren't powers of two are rounded up to one.
+     */
+    ReadBufferPredictor(int minSize, int initialSize, int maxSize) {
+        this.minShift = shiftOf(minSize);
+        this.maxShift = shiftOf(maxSize);
+        this.shift = Math.min(Math.max(shiftOf(initialSize), minShift), maxShift);
+    }
+
+    int nextSize() {
+        return 1 << shift;
+    }
+
+    /**
+     * Records the number of bytes a read got, with the room the buffer had for them - less than the predicted size
+     * when the buffer already held the beginning of a packet.
+     */
+    void record(int bytesRead, int room) {
+        if (bytesRead >= room || bytesRead >= 1 << shift) {
+            shift = Math.min(shift + GROWTH_SHIFT, maxShift);
+            shrinkNext = false;
+        } else if (bytesRead <= 1 << (shift - 1) && shift > minShift) {
+            if (shrinkNext) {
+                shift--;
+                shrinkNext = false;
+            } else {
+                shrinkNext = true;
+            }
+        } else {
+            shrinkNext = false;
+        }
+    }
+
+    private static int shiftOf(int size) {
+        return 32 - Integer.numberOfLeadingZeros(Math.max(size, 1) - 1);
+    }
+}
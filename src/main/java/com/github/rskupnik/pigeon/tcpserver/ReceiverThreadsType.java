@@ -0,0 +1,44 @@
+/*
+    Copyright 2016 Radosław Skupnik
+
+    This file is part of pigeon-tcp-server.
+
+    Pigeon-tcp-server is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    Pigeon-tcp-server is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with pigeon-tcp-server; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+
+package com.github.rskupnik.pigeon.tcpserver;
+
+/**
+ * Determines what kind of threads handle connections in BLOCKING transport mode.
+ *
+ * PLATFORM - regular threads from a cached or fixed thread pool (default).
+ * VIRTUAL - a virtual thread per connection, if the JVM supports them (Java 21+), platform threads otherwise.
+ */
+public enum ReceiverThreadsType {
+    PLATFORM,
+    VIRTUAL;
+
+    public static ReceiverThreadsType fromString(String value) {
+        if (value == null)
+            return null;
+
+        for (ReceiverThreadsType type : values()) {
+            if (type.name().equalsIgnoreCase(value.trim()))
+                return type;
+        }
+
+        return null;
+    }
+}
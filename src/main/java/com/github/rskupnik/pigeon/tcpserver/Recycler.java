@@ -0,0 +1,111 @@
+/*
+    Copyright 2016 Radosław Skupnik
+
+    This file is part of pigeon-tcp-server.
+
+    Pigeon-tcp-server is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    Pigeon-tcp-server is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with pigeon-tcp-server; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+
+package com.github.rskupnik.pigeon.tcpserver;
+
+import java.util.ArrayDeque;
+
+/**
+ * Bounded pool of reusable objects. Every thread keeps a small stack of its own, so taking and returning objects
+ * doesn't contend with other threads - the shared pool is only touched to move half a stack at a time
+ * between threads which mostly take and threads which mostly return. Virtual threads always use the shared pool,
+ * as there may be too many of them for per-thread stacks to pay off.
+ */
+final class Recycler<T> {
+
+    private final int threadCacheSize;
+    private final int sharedCapacity;
+    private final ArrayDeque<T> shared;
+    private final ThreadLocal<Stack> threadCache = new ThreadLocal<Stack>() {
+        @Override
+        protected Stack initialValue() {
+            return new Stack(threadCacheSize);
+        }
+    };
+
+    Recycler(int threadCacheSize, int sharedCapacity) {
+        this.threadCacheSize = threadCacheSize;
+        this.sharedCapacity = sharedCapacity;
+        this.shared = new ArrayDeque<>(sharedCapacity);
+    }
+
+    /**
+     * Returns a pooled object or null if there are none left, in which case the caller creates a new one.
+     */
+    @SuppressWarnings("unchecked")
+    T get() {
+        if (VirtualThreads.isVirtual(Thread.currentThread())) {
+            synchronized (shared) {
+                return shared.poll();
+            }
+        }
+
+        Stack stack = threadCache.get();
+        if (stack.size == 0) {
+            synchronized (shared) {
+                while (stack.size < threadCacheSize / 2 && !shared.isEmpty())
+                    stack.items[stack.size++] = shared.poll();
+            }
+            if (stack.size == 0)
+                return null;
+        }
+
+        T object = (T) stack.items[--stack.size];
+        stack.items[stack.size] = null;
+        return object;
+    }
+
+    /**
+     * Returns the object to the pool, or drops it if the pool is full.
+     */
+    @SuppressWarnings("unchecked")
+    void recycle(T object) {
+        if (VirtualThreads.isVirtual(Thread.currentThread())) {
+            synchronized (shared) {
+                if (shared.size() < sharedCapacity)
+                    shared.push(object);
+            }
+            return;
+        }
+
+        Stack stack = threadCache.get();
+        if (stack.size == threadCacheSize) {
+            synchronized (shared) {
+                while (stack.size > threadCacheSize / 2) {
+                    T moved = (T) stack.items[--stack.size];
+                    stack.items[stack.size] = null;
+                    if (shared.size() < sharedCapacity)
+                        shared.push(moved);
+                }
+            }
+        }
+        stack.items[stack.size++] = object;
+    }
+
+    private static final class Stack {
+
+        private final Object[] items;
+        private int size;
+
+        private Stack(int capacity) {
+            this.items = new Object[capacity];
+        }
+    }
+}
@@ -0,0 +1,154 @@
+/*
+    Copyright 2016 Radosław Skupnik
+
+    This file is part of pigeon-tcp-server.
+
+    Pigeon-tcp-server is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    Pigeon-tcp-server is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with pigeon-tcp-server; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+
+package com.github.rskupnik.pigeon.tcpserver;
+
+import com.github.rskupnik.pigeon.commons.Packet;
+import com.github.rskupnik.pigeon.commons.exceptions.PigeonException;
+
+import java.lang.reflect.InvocationTargetException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.List;
+
+/**
+ * PacketCodec which accesses packet fields through their getters and setters using reflection.
+ */
+final class ReflectivePacketCodec implements PacketCodec {
+
+    // Setter arguments, reused so that invoking a setter doesn't allocate an array every time
+    private static final ThreadLocal<Object[]> SETTER_ARGUMENTS = new ThreadLocal<Object[]>() {
+        @Override
+        protected Object[] initialValue() {
+            return new Object[1];
+        }
+    };
+
+    private final PacketRegistry registry;
+    private final boolean packetRecycling;
+
+    ReflectivePacketCodec(PacketRegistry registry, boolean packetRecycling) {
+        this.registry = registry;
+        this.packetRecycling = packetRecycling;
+    }
+
+    @Override
+    public PooledBuffer encode(Packet packet, BufferPool pool) throws PigeonException {
+        PacketDescriptor descriptor = registry.get(packet.getClass());
+        if (descriptor == null)
+            throw new PigeonException("Class " + packet.getClass().getName() + " is not a known packet");
+
+        List<PacketDescriptor.Field> fields = descriptor.getFields();
+        try {
+            // The size is computed first, so that the packet can be written straight into a buffer of the right size class
+            int size = 4;
+            for (int i = 0; i < fields.size(); i++) {
+                PacketDescriptor.Field field = fields.get(i);
+                switch (field.getType()) {
+                    case INT:
+                        size += 4;
+                        break;
+                    case STRING:
+                        int length = ModifiedUtf8.length(string(field.getGetter().invoke(packet)));
+                        if (length > ModifiedUtf8.MAX_LENGTH)
+                            throw new PigeonException("Field " + field.getName() + " of " + packet.getClass().getName() + " is too long to be encoded");
+                        size += length;
+                        break;
+                }
+            }
+
+            PooledBuffer pooled = pool.acquire(size);
+            ByteBuffer buffer = pooled.buffer();
+            buffer.putInt(descriptor.getId());
+            for (int i = 0; i < fields.size(); i++) {
+                PacketDescriptor.Field field = fields.get(i);
+                Object value = field.getGetter().invoke(packet);
+                switch (field.getType()) {
+                    case INT:
+                        buffer.putInt((Integer) value);
+                        break;
+                    case STRING:
+                        ModifiedUtf8.write(string(value), buffer);
+                        break;
+                }
+            }
+            buffer.flip();
+            return pooled;
+        } catch (IllegalAccessException | InvocationTargetException e) {
+            throw new PigeonException(e.getMessage());
+        }
+    }
+
+    @Override
+    public Packet decode(ByteBuffer buffer) throws PigeonException {
+        int start = buffer.position();
+        Packet packet = null;
+        PacketDescriptor descriptor = null;
+        try {
+            int id = buffer.getInt();
+            descriptor = registry.get(id);
+            if (descriptor == null)
+                throw new PigeonException("Received a packet with an unknown id: " + id);
+
+            packet = packetRecycling ? descriptor.getRecycler().get() : null;
+            if (packet == null)
+                packet = descriptor.getConstructor().newInstance();
+
+            List<PacketDescriptor.Field> fields = descriptor.getFields();
+            Object[] arguments = SETTER_ARGUMENTS.get();
+            for (int i = 0; i < fields.size(); i++) {
+                PacketDescriptor.Field field = fields.get(i);
+                switch (field.getType()) {
+                    case INT:
+                        arguments[0] = buffer.getInt();
+                        break;
+                    case STRING:
+                        arguments[0] = ModifiedUtf8.read(buffer);
+                        break;
+                }
+                field.getSetter().invoke(packet, arguments);
+            }
+            arguments[0] = null;
+
+            return packet;
+        } catch (BufferUnderflowException e) {
+            buffer.position(start);
+            if (packet != null && packetRecycling)
+                descriptor.getRecycler().recycle(packet);
+            return null;
+        } catch (InstantiationException | IllegalAccessException | InvocationTargetException e) {
+            throw new PigeonException(e.getMessage());
+        }
+    }
+
+    @Override
+    public void recycle(Packet packet) {
+        if (!packetRecycling)
+            return;
+
+        PacketDescriptor descriptor = registry.get(packet.getClass());
+        if (descriptor != null)
+            descriptor.getRecycler().recycle(packet);
+    }
+
+    private static String string(Object value) {
+        return value != null ? (String) value : "";
+    }
+}
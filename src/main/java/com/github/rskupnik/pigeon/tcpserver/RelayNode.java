@@ -0,0 +1,535 @@
+/*
+    Copyright 2016 Radosław Skupnik
+
+    This file is part of pigeon-tcp-server.
+
+    Pigeon-tcp-server is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    Pigeon-tcp-server is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with pigeon-tcp-server; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+
+package com.github.rskupnik.pigeon.tcpserver;
+
+import com.github.rskupnik.pigeon.commons.exceptions.PigeonException;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Links the server with the other nodes of a cluster, so that a packet published to a group reaches the group's members
+ * on every node, not only those connected to the node it was published on.
+ *
+ * Every two nodes share a single link, a TCP connection opened by either of them, which starts with both nodes sending
+ * a magic number and their node ids. Each node then tells the other which groups have members on it and keeps it
+ * up to date, so a published packet is forwarded - encoded, as it's going to be written to the clients - only to the
+ * nodes which have members of its group, once per node however many members there are. The receiving node writes
+ * the same bytes to its members and doesn't forward them any further, so the nodes have to be fully meshed.
+ *
+ * Every link has a writer thread, which takes all the packets queued for the link at once and writes them as a single
+ * frame - the busier the link, the larger the frames, while a lone packet isn't held back at all. A link's queue is
+ * bounded, packets which don't fit while a node is slow are dropped. Links to the configured peers are reopened
+ * after they've been lost, every second until they succeed.
+ */
+final class RelayNode {
+
+    private static final org.apache.logging.log4j.Logger log = org.apache.logging.log4j.LogManager.getLogger(RelayNode.class);
+
+    private static final int MAGIC = 0x50474E52;    // "PGNR"
+    private static final byte SUBSCRIBE = 1;        // Followed by the group, as modified UTF-8
+    private static final byte UNSUBSCRIBE = 2;      // Likewise
+    private static final byte PACKETS = 3;          // Followed by their number and, for every packet, its group, length and bytes
+    private static final int MAX_PACKET_SIZE = NioSession.MAX_READ_BUFFER_SIZE;     // A larger length read from a link means it's corrupt
+    private static final long RECONNECT_DELAY_MILLIS = 1000;
+
+    private static final RelayMessage WAKE_UP = new RelayMessage(null, null, 0);   // Tells a writer there are subscriptions to send
+    private static final RelayMessage CLOSE = new RelayMessage(null, null, 0);
+
+    private final String nodeId = UUID.randomUUID().toString();
+    private final List<InetSocketAddress> peers;
+    private final int batchSize;
+    private final int queueCapacity;
+    private final ConnectionGroups groups;
+    private final BufferPool bufferPool;
+    private final ServerMetrics metrics;
+    private final ServerSocket serverSocket;    // Null if the node only links to its peers
+    private final ConcurrentHashMap<String, RelayLink> links = new ConcurrentHashMap<>();     // By the other node's id
+    private final Object subscriptionLock = new Object();
+    private final ExecutorService threads = Executors.newCachedThreadPool(new NamedThreadFactory("pigeon-relay-", true));
+
+    private volatile boolean exit;
+
+    /**
+     * A port of 0 means the node doesn't accept links, only opens them to its peers. The batch size is the number of bytes
+     * above which a frame is closed, the queue capacity the number of packets a link can hold.
+     */
+    RelayNode(int port, List<InetSocketAddress> peers, int batchSize, int queueCapacity, ConnectionGroups groups,
+              BufferPool bufferPool, ServerMetrics metrics) throws IOException {
+        this.peers = peers;
+        this.batchSize = batchSize;
+        this.queueCapacity = queueCapacity;
+        this.groups = groups;
+        this.bufferPool = bufferPool;
+        this.metrics = metrics;
+        this.serverSocket = port > 0 ? new ServerSocket(port) : null;
+    }
+
+    /**
+     * Parses a comma separated list of host:port pairs.
+     */
+    static List<InetSocketAddress> parsePeers(String peers) throws PigeonException {
+        if (peers == null || peers.trim().isEmpty())
+            return Collections.emptyList();
+
+        List<InetSocketAddress> addresses = new ArrayList<>();
+        for (String peer : peers.split(",")) {
+            int colon = peer.lastIndexOf(':');
+            try {
+                addresses.add(InetSocketAddress.createUnresolved(peer.substring(0, colon).trim(), Integer.parseInt(peer.substring(colon + 1).trim())));
+            } catch (RuntimeException e) {
+                throw new PigeonException("Relay peer " + peer.trim() + " is not a host:port pair");
+            }
+        }
+        return addresses;
+    }
+
+    void start() {
+        if (serverSocket != null) {
+            threads.execute(new Runnable() {
+                @Override
+                public void run() {
+                    accept();
+                }
+            });
+        }
+        for (final InetSocketAddress peer : peers) {
+            threads.execute(new Runnable() {
+                @Override
+                public void run() {
+                    connect(peer);
+                }
+            });
+        }
+    }
+
+    void shutdown() {
+        exit = true;
+        try {
+            if (serverSocket != null)
+                serverSocket.close();
+        } catch (IOException e) {
+            log.warn(e.getMessage(), e);
+        }
+        for (RelayLink link : links.values())
+            link.close();
+        threads.shutdownNow();
+    }
+
+    /**
+     * Queues the encoded packet for every node with members of the group. The caller keeps its reference to the buffer.
+     */
+    void forward(String group, PooledBuffer encoded) {
+        boolean tooLarge = encoded.buffer().remaining() > MAX_PACKET_SIZE;   // The other nodes would take the link for corrupt
+        for (RelayLink link : links.values()) {
+            if (!link.remoteGroups.contains(group))
+                continue;
+
+            if (tooLarge) {
+                log.warn("Packet of " + encoded.buffer().remaining() + " bytes sent to group " + group + " is too large to be relayed");
+                if (metrics != null)
+                    metrics.onRelayPacketDropped();
+                continue;
+            }
+
+            if (!link.messages.offer(new RelayMessage(group, encoded.retain(), metrics != null ? System.nanoTime() : 0))) {
+                encoded.release();
+                if (metrics != null)
+                    metrics.onRelayPacketDropped();
+            }
+        }
+    }
+
+    /**
+     * Tells the other nodes whether the group has members on this node, to be called whenever it may have changed.
+     * The state is read under the same lock the messages are queued with, so the last message queued always tells the truth,
+     * whichever order concurrent joins and leaves get here in.
+     */
+    void announce(String group) {
+        synchronized (subscriptionLock) {
+            boolean subscribed = groups.hasMembers(group);
+            for (RelayLink link : links.values())
+                link.queueSubscription(subscribed ? SUBSCRIBE : UNSUBSCRIBE, group);
+        }
+    }
+
+    int getLinkCount() {
+        return links.size();
+    }
+
+    /**
+     * Returns true if any of the linked nodes has told this one the group has members on it.
+     */
+    boolean hasRemoteMembers(String group) {
+        for (RelayLink link : links.values()) {
+            if (link.remoteGroups.contains(group))
+                return true;
+        }
+        return false;
+    }
+
+    private void accept() {
+        while (!exit) {
+            final Socket socket;
+            try {
+                socket = serverSocket.accept();
+            } catch (IOException e) {
+                if (!exit)
+                    log.error("Relay node stopped accepting links: " + e.getMessage(), e);
+                return;
+            }
+            threads.execute(new Runnable() {
+                @Override
+                public void run() {
+                    RelayLink link = open(socket, false);
+                    if (link != null)
+                        link.read();
+                }
+            });
+        }
+    }
+
+    /**
+     * Keeps a link to the peer open until the node is shut down.
+     */
+    private void connect(InetSocketAddress peer) {
+        while (!exit) {
+            try {
+                Socket socket = new Socket(peer.getHostString(), peer.getPort());
+                RelayLink link = open(socket, true);
+                if (link != null)
+                    link.read();
+            } catch (IOException e) {
+                log.debug("Relay peer " + peer + " is not reachable: " + e.getMessage());
+            }
+
+            try {
+                Thread.sleep(RECONNECT_DELAY_MILLIS);
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Exchanges the node ids and registers the link, returns null if it's not needed. If the peer has linked to this node
+     * in the meantime, waits until that link is closed first.
+     */
+    private RelayLink open(Socket socket, boolean initiated) {
+        RelayLink link;
+        try {
+            socket.setTcpNoDelay(true);     // Frames are batched already
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), batchSize + 1024));
+            out.writeInt(MAGIC);
+            out.writeUTF(nodeId);
+            out.flush();
+
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            if (in.readInt() != MAGIC)
+                throw new IOException("Not a relay node");
+            String peerId = in.readUTF();
+            if (peerId.equals(nodeId))
+                throw new IOException("Linked to itself");
+            link = new RelayLink(socket, in, out, peerId, initiated ? nodeId : peerId);
+        } catch (IOException e) {
+            log.warn("Relay link to " + socket.getRemoteSocketAddress() + " has failed: " + e.getMessage());
+            closeQuietly(socket);
+            return null;
+        }
+
+        RelayLink kept = register(link);
+        if (kept != link) {
+            link.close();
+            if (initiated)
+                kept.awaitClosed();
+            return null;
+        }
+
+        log.info("Linked to relay node " + link.peerId + " at " + socket.getRemoteSocketAddress());
+        threads.execute(new Runnable() {
+            @Override
+            public void run() {
+                link.write();
+            }
+        });
+        return link;
+    }
+
+    /**
+     * Returns the link which is kept for the node. When two nodes link to each other at once, both keep the link opened
+     * by the node with the lower id.
+     */
+    private RelayLink register(RelayLink link) {
+        synchronized (subscriptionLock) {
+            RelayLink existing = links.get(link.peerId);
+            if (existing != null) {
+                String preferred = nodeId.compareTo(link.peerId) < 0 ? nodeId : link.peerId;
+                if (existing.openedBy.equals(preferred) || !link.openedBy.equals(preferred))
+                    return existing;
+                existing.close();
+            }
+            links.put(link.peerId, link);
+            for (String group : groups.getGroups())
+                link.queueSubscription(SUBSCRIBE, group);
+            return link;
+        }
+    }
+
+    private void deliver(String group, PooledBuffer packet) {
+        for (Session session : groups.getMembers(group))
+            session.trySend(packet.buffer().duplicate(), packet.retain(), null);
+        packet.release();
+    }
+
+    private static void closeQuietly(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            // Nothing else to do with it
+        }
+    }
+
+    /**
+     * A packet, or a subscription change when it has no buffer.
+     */
+    private static final class RelayMessage {
+
+        private final String group;
+        private final PooledBuffer packet;
+        private final long queuedAt;
+
+        private RelayMessage(String group, PooledBuffer packet, long queuedAt) {
+            this.group = group;
+            this.packet = packet;
+            this.queuedAt = queuedAt;
+        }
+    }
+
+    private final class RelayLink {
+
+        private final Socket socket;
+        private final DataInputStream in;
+        private final DataOutputStream out;
+        private final String peerId;
+        private final String openedBy;
+        private final Set<String> remoteGroups = ConcurrentHashMap.newKeySet();
+        private final BlockingQueue<RelayMessage> messages = new ArrayBlockingQueue<>(queueCapacity);
+        private final ConcurrentLinkedQueue<Object[]> subscriptions = new ConcurrentLinkedQueue<>();   // Type and group
+        private final CountDownLatch closed = new CountDownLatch(1);
+        private byte[] readScratch = new byte[1024];
+        private byte[] writeScratch = new byte[1024];     // For direct buffers, which have no array to write from
+
+        private RelayLink(Socket socket, DataInputStream in, DataOutputStream out, String peerId, String openedBy) {
+            this.socket = socket;
+            this.in = in;
+            this.out = out;
+            this.peerId = peerId;
+            this.openedBy = openedBy;
+        }
+
+        /**
+         * Subscriptions are never dropped, so they have a queue of their own.
+         */
+        void queueSubscription(byte type, String group) {
+            subscriptions.add(new Object[] {type, group});
+            messages.offer(WAKE_UP);    // If the queue is full, the writer is busy anyway
+        }
+
+        /**
+         * Reads frames from the other node until the link is closed.
+         */
+        void read() {
+            try {
+                while (true) {
+                    byte type = in.readByte();
+                    if (type == SUBSCRIBE) {
+                        remoteGroups.add(in.readUTF());
+                    } else if (type == UNSUBSCRIBE) {
+                        remoteGroups.remove(in.readUTF());
+                    } else if (type == PACKETS) {
+                        int count = in.readInt();
+                        int bytes = 5;
+                        for (int i = 0; i < count; i++) {
+                            String group = in.readUTF();
+                            int length = in.readInt();
+                            if (length < 0 || length > MAX_PACKET_SIZE)
+                                throw new IOException("Packet length " + length + " is out of bounds");
+                            bytes += length + 4 + ModifiedUtf8.length(group);
+                            deliver(group, readPacket(length));
+                        }
+                        if (metrics != null)
+                            metrics.onRelayFrameReceived(count, bytes);
+                    } else {
+                        throw new IOException("Unknown frame type " + type);
+                    }
+                }
+            } catch (EOFException e) {
+                log.info("Relay node " + peerId + " has closed the link");
+            } catch (IOException e) {
+                if (!exit && !socket.isClosed())
+                    log.warn("Relay link to node " + peerId + " has been lost: " + e.getMessage());
+            } finally {
+                close();
+            }
+        }
+
+        private PooledBuffer readPacket(int length) throws IOException {
+            if (readScratch.length < length)
+                readScratch = new byte[Math.max(length, readScratch.length * 2)];
+            in.readFully(readScratch, 0, length);
+            PooledBuffer packet = bufferPool.acquire(length);
+            packet.buffer().put(readScratch, 0, length).flip();
+            return packet;
+        }
+
+        /**
+         * Writes whatever has been queued as a single flush, the packets in frames of up to batchSize bytes.
+         */
+        void write() {
+            List<RelayMessage> batch = new ArrayList<>();
+            try {
+                while (true) {
+                    batch.add(messages.take());
+                    messages.drainTo(batch);
+
+                    Object[] subscription;
+                    while ((subscription = subscriptions.poll()) != null) {
+                        out.writeByte((Byte) subscription[0]);
+                        out.writeUTF((String) subscription[1]);
+                    }
+
+                    int start = 0;
+                    while (start < batch.size()) {
+                        RelayMessage message = batch.get(start);
+                        if (message == CLOSE)
+                            return;
+                        if (message == WAKE_UP) {
+                            start++;
+                            continue;
+                        }
+                        start = writeFrame(batch, start);
+                    }
+                    out.flush();
+
+                    long now = metrics != null ? System.nanoTime() : 0;
+                    for (RelayMessage message : batch) {
+                        if (message.packet == null)
+                            continue;
+                        if (metrics != null)
+                            metrics.onRelayPacketForwarded(now - message.queuedAt);
+                        message.packet.release();
+                    }
+                    batch.clear();
+                }
+            } catch (IOException e) {
+                if (!exit && !socket.isClosed())
+                    log.warn("Relay link to node " + peerId + " has been lost: " + e.getMessage());
+            } catch (InterruptedException e) {
+                // Shutting down
+            } finally {
+                close();
+                for (RelayMessage message : batch) {
+                    if (message.packet != null)
+                        message.packet.release();
+                }
+                RelayMessage message;
+                while ((message = messages.poll()) != null) {
+                    if (message.packet != null)
+                        message.packet.release();
+                }
+            }
+        }
+
+        /**
+         * Writes the packets from the start of the batch up to the first message which isn't a packet, or up to batchSize bytes.
+         * Returns the index of the first message left out.
+         */
+        private int writeFrame(List<RelayMessage> batch, int start) throws IOException {
+            int end = start;
+            int bytes = 5;
+            while (end < batch.size() && batch.get(end).packet != null && (end == start || bytes < batchSize)) {
+                RelayMessage message = batch.get(end);
+                bytes += message.packet.buffer().remaining() + 4 + ModifiedUtf8.length(message.group);
+                end++;
+            }
+
+            out.writeByte(PACKETS);
+            out.writeInt(end - start);
+            for (int i = start; i < end; i++) {
+                RelayMessage message = batch.get(i);
+                ByteBuffer packet = message.packet.buffer().duplicate();
+                out.writeUTF(message.group);
+                out.writeInt(packet.remaining());
+                if (packet.hasArray()) {
+                    out.write(packet.array(), packet.arrayOffset() + packet.position(), packet.remaining());
+                } else {
+                    int length = packet.remaining();
+                    if (writeScratch.length < length)
+                        writeScratch = new byte[Math.max(length, writeScratch.length * 2)];
+                    packet.get(writeScratch, 0, length);
+                    out.write(writeScratch, 0, length);
+                }
+            }
+            if (metrics != null)
+                metrics.onRelayFrameSent(end - start, bytes);
+            return end;
+        }
+
+        void close() {
+            if (closed.getCount() == 0)
+                return;
+            closed.countDown();
+            closeQuietly(socket);
+            messages.offer(CLOSE);
+            if (links.remove(peerId, this))
+                log.info("Unlinked from relay node " + peerId);
+        }
+
+        void awaitClosed() {
+            try {
+                closed.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
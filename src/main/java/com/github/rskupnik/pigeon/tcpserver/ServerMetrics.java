@@ -0,0 +1,250 @@
+/*
+    Copyright 2016 Radosław Skupnik
+
+    This file is part of pigeon-tcp-server.
+
+    Pigeon-tcp-server is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    Pigeon-tcp-server is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with pigeon-tcp-server; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+
+package com.github.rskupnik.pigeon.tcpserver;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters and latency histograms updated on the server's hot paths. It exists only when metrics are enabled (or the
+ * admission control needs the handler time) - every caller checks for null first, so a server without metrics doesn't
+ * even read the clock.
+ * Counters are LongAdders, so threads updating the same counter at once don't fight over a single cache line.
+ */
+final class ServerMetrics implements ServerMetricsMXBean {
+
+    private final LongAdder connectionsAccepted = new LongAdder();
+    private final LongAdder connectionsRejected = new LongAdder();
+    private final LongAdder connectionsClosed = new LongAdder();
+    private final LongAdder packetsReceived = new LongAdder();
+    private final LongAdder bytesReceived = new LongAdder();
+    private final LongAdder socketReads = new LongAdder();
+    private final LongAdder packetsSent = new LongAdder();
+    private final LongAdder bytesSent = new LongAdder();
+    private final LongAdder packetsDropped = new LongAdder();
+    private final LongAdder handlerErrors = new LongAdder();
+    private final LongAdder relayPacketsSent = new LongAdder();
+    private final LongAdder relayBytesSent = new LongAdder();
+    private final LongAdder relayFramesSent = new LongAdder();
+    private final LongAdder relayPacketsReceived = new LongAdder();
+    private final LongAdder relayBytesReceived = new LongAdder();
+    private final LongAdder relayPacketsDropped = new LongAdder();
+
+    private final LatencyHistogram decodeTime = new LatencyHistogram();
+    private final LatencyHistogram handlerTime = new LatencyHistogram();
+    private final LatencyHistogram queueWaitTime = new LatencyHistogram();
+    private final LatencyHistogram sendTime = new LatencyHistogram();
+    private final LatencyHistogram relayForwardTime = new LatencyHistogram();
+
+    // Moving average of the handler time, weighing every packet by 1/16. Threads updating it at once may lose
+    // each other's updates, which an average doesn't miss
+    private volatile long recentHandlerTime;
+
+    void onConnectionAccepted() {
+        connectionsAccepted.increment();
+    }
+
+    void onConnectionRejected() {
+        connectionsRejected.increment();
+    }
+
+    void onConnectionClosed() {
+        connectionsClosed.increment();
+    }
+
+    void onBytesReceived(int bytes) {
+        socketReads.increment();
+        bytesReceived.add(bytes);
+    }
+
+    void onPacketDecoded(long decodeNanos) {
+        decodeTime.record(decodeNanos);
+    }
+
+    void onPacketReceived() {
+        packetsReceived.increment();
+    }
+
+    void onPacketHandled(long handlerNanos) {
+        handlerTime.record(handlerNanos);
+        long recent = recentHandlerTime;
+        recentHandlerTime = recent + ((handlerNanos - recent) >> 4);
+    }
+
+    void onHandlerError() {
+        handlerErrors.increment();
+    }
+
+    /**
+     * The send time runs from queueing the packet for a connection to having written it to the socket.
+     */
+    void onPacketSent(int bytes, long sendNanos) {
+        packetsSent.increment();
+        bytesSent.add(bytes);
+        sendTime.record(sendNanos);
+    }
+
+    void onPacketDropped() {
+        packetsDropped.increment();
+    }
+
+    void onRelayFrameSent(int packets, int bytes) {
+        relayFramesSent.increment();
+        relayPacketsSent.add(packets);
+        relayBytesSent.add(bytes);
+    }
+
+    /**
+     * The forward time runs from queueing a published packet for another node to having written it to the link.
+     */
+    void onRelayPacketForwarded(long forwardNanos) {
+        relayForwardTime.record(forwardNanos);
+    }
+
+    void onRelayFrameReceived(int packets, int bytes) {
+        relayPacketsReceived.add(packets);
+        relayBytesReceived.add(bytes);
+    }
+
+    void onRelayPacketDropped() {
+        relayPacketsDropped.increment();
+    }
+
+    /**
+     * Given to the queues of received packets, which record how long every packet waited before being taken.
+     */
+    LatencyHistogram getQueueWaitHistogram() {
+        return queueWaitTime;
+    }
+
+    MetricsSnapshot snapshot() {
+        return new MetricsSnapshot(this);
+    }
+
+    @Override
+    public long getConnectionsAccepted() {
+        return connectionsAccepted.sum();
+    }
+
+    @Override
+    public long getConnectionsRejected() {
+        return connectionsRejected.sum();
+    }
+
+    @Override
+    public long getConnectionsClosed() {
+        return connectionsClosed.sum();
+    }
+
+    @Override
+    public long getPacketsReceived() {
+        return packetsReceived.sum();
+    }
+
+    @Override
+    public long getBytesReceived() {
+        return bytesReceived.sum();
+    }
+
+    @Override
+    public long getSocketReads() {
+        return socketReads.sum();
+    }
+
+    @Override
+    public long getPacketsSent() {
+        return packetsSent.sum();
+    }
+
+    @Override
+    public long getBytesSent() {
+        return bytesSent.sum();
+    }
+
+    @Override
+    public long getPacketsDropped() {
+        return packetsDropped.sum();
+    }
+
+    @Override
+    public long getHandlerErrors() {
+        return handlerErrors.sum();
+    }
+
+    @Override
+    public long getRelayPacketsSent() {
+        return relayPacketsSent.sum();
+    }
+
+    @Override
+    public long getRelayBytesSent() {
+        return relayBytesSent.sum();
+    }
+
+    @Override
+    public long getRelayFramesSent() {
+        return relayFramesSent.sum();
+    }
+
+    @Override
+    public long getRelayPacketsReceived() {
+        return relayPacketsReceived.sum();
+    }
+
+    @Override
+    public long getRelayBytesReceived() {
+        return relayBytesReceived.sum();
+    }
+
+    @Override
+    public long getRelayPacketsDropped() {
+        return relayPacketsDropped.sum();
+    }
+
+    @Override
+    public long getRecentHandlerTimeNanos() {
+        return recentHandlerTime;
+    }
+
+    @Override
+    public HistogramSnapshot getDecodeTime() {
+        return decodeTime.snapshot();
+    }
+
+    @Override
+    public HistogramSnapshot getHandlerTime() {
+        return handlerTime.snapshot();
+    }
+
+    @Override
+    public HistogramSnapshot getQueueWaitTime() {
+        return queueWaitTime.snapshot();
+    }
+
+    @Override
+    public HistogramSnapshot getSendTime() {
+        return sendTime.snapshot();
+    }
+
+    @Override
+    public HistogramSnapshot getRelayForwardTime() {
+        return relayForwardTime.snapshot();
+    }
+}
@@ -0,0 +1,72 @@
+/*
+    Copyright 2016 Radosław Skupnik
+
+    This file is part of pigeon-tcp-server.
+
+    Pigeon-tcp-server is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    Pigeon-tcp-server is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with pigeon-tcp-server; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+
+package com.github.rskupnik.pigeon.tcpserver;
+
+/**
+ * Server metrics as exported over JMX, under com.github.rskupnik.pigeon:type=PigeonTcpServer,port=[port].
+ * Counters are totals since the server was created, histograms are exported as composite data.
+ */
+public interface ServerMetricsMXBean {
+
+    long getConnectionsAccepted();
+
+    long getConnectionsRejected();
+
+    long getConnectionsClosed();
+
+    long getPacketsReceived();
+
+    long getBytesReceived();
+
+    long getSocketReads();
+
+    long getPacketsSent();
+
+    long getBytesSent();
+
+    long getPacketsDropped();
+
+    long getHandlerErrors();
+
+    long getRelayPacketsSent();
+
+    long getRelayBytesSent();
+
+    long getRelayFramesSent();
+
+    long getRelayPacketsReceived();
+
+    long getRelayBytesReceived();
+
+    long getRelayPacketsDropped();
+
+    long getRecentHandlerTimeNanos();
+
+    HistogramSnapshot getDecodeTime();
+
+    HistogramSnapshot getHandlerTime();
+
+    HistogramSnapshot getQueueWaitTime();
+
+    HistogramSnapshot getSendTime();
+
+    HistogramSnapshot getRelayForwardTime();
+}
@@ -0,0 +1,201 @@
+/*
+    Copyright 2016 Radosław Skupnik
+
+    This file is part of pigeon-tcp-server.
+
+    Pigeon-tcp-server is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    Pigeon-tcp-server is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with pigeon-tcp-server; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+
+package com.github.rskupnik.pigeon.tcpserver;
+
+import com.github.rskupnik.pigeon.commons.Connection;
+
+import java.nio.ByteBuffer;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Server-side state of a single connection. Sessions own the outbound direction of their socket:
+ * sent packets are queued in a bounded WriteQueue and written by the I/O layer, never by the thread calling send().
+ */
+abstract class Session {
+
+    private final UUID uuid;
+    private final String host;
+    private final Connection connection;
+    private final WriteQueue writeQueue;
+    private final AtomicBoolean closed = new AtomicBoolean();
+
+    // Updated only when idle connections are monitored
+    private volatile long lastReadTime = System.nanoTime();
+    private volatile long lastWriteTime = lastReadTime;
+
+    // Write batching, the window is 0 when batching is disabled
+    private final long writeBatchWindowNanos;
+    private final int writeBatchSize;
+    private final AtomicBoolean delayedFlushScheduled = new AtomicBoolean();
+    private final Runnable delayedFlushTask = new Runnable() {
+        @Override
+        public void run() {
+            delayedFlushScheduled.set(false);
+            scheduleFlush();
+        }
+    };
+
+    Session(UUID uuid, String host, Connection connection, PigeonTcpServer server) {
+        this.uuid = uuid;
+        this.host = host;
+        this.connection = connection;
+        this.writeQueue = new WriteQueue(this, server);
+        this.writeBatchWindowNanos = server.isWriteBatching() ? TimeUnit.MILLISECONDS.toNanos(server.getWriteBatchWindowMillis()) : 0;
+        this.writeBatchSize = server.getWriteBatchSize();
+    }
+
+    /**
+     * Queues the encoded packet for writing. Can be called from any thread and never blocks on the network,
+     * it can only wait for room in the write queue if its overflow policy is BLOCK.
+     * The buffer must not be modified afterwards - the same content may be shared by many sessions.
+     * The session takes over the caller's reference to the pooled buffer backing it, if any.
+     * The future, if given, is completed once the packet has been written to the socket.
+     * Returns false if the packet was rejected by the overflow policy or the session is closed.
+     *
+     * With write batching the queue is drained only once the batch window has passed or the batch size
+     * has been reached, so that many packets go out in a single write.
+     */
+    final boolean send(ByteBuffer buffer, PooledBuffer pooled, CompletableFuture<Void> future) {
+        return send(buffer, pooled, future, true);
+    }
+
+    /**
+     * Like send(), but never waits for room in the write queue - with the BLOCK policy a packet which doesn't fit
+     * is dropped, as with DROP_NEWEST. Used when sending to many sessions, so that a slow one doesn't hold up the rest.
+     */
+    final boolean trySend(ByteBuffer buffer, PooledBuffer pooled, CompletableFuture<Void> future) {
+        return send(buffer, pooled, future, false);
+    }
+
+    private boolean send(ByteBuffer buffer, PooledBuffer pooled, CompletableFuture<Void> future, boolean mayWait) {
+        if (!writeQueue.offer(buffer, pooled, future, mayWait))
+            return false;
+
+        if (writeBatchWindowNanos == 0 || writeQueue.getPendingBytes() >= writeBatchSize)
+            scheduleFlush();
+        else if (delayedFlushScheduled.compareAndSet(false, true))
+            scheduleDelayed(delayedFlushTask, writeBatchWindowNanos);
+        return true;
+    }
+
+    /**
+     * Makes sure the I/O layer drains the write queue, can be called from any thread.
+     * Everything queued so far is written without waiting for the batch window.
+     */
+    abstract void scheduleFlush();
+
+    /**
+     * Runs the task after the given delay, used to close batch windows.
+     */
+    abstract void scheduleDelayed(Runnable task, long delayNanos);
+
+    /**
+     * Returns true if the calling thread is the one draining the write queue.
+     */
+    abstract boolean isIoThread();
+
+    /**
+     * Runs the task on a thread of the I/O layer serving this session, can be called from any thread.
+     * Used by timers shared by all the sessions, so that one session's work doesn't hold up the others.
+     */
+    abstract void execute(Runnable task);
+
+    /**
+     * Stops reading from the socket, while the write queue is still drained. Only NIO sessions can stop reading,
+     * blocking connections run their own read loops until they're closed.
+     */
+    void pauseReading() {
+
+    }
+
+    /**
+     * Stops reading from the socket until resumeReading() is called, to hold the client back while its packets can't
+     * be taken. Returns false if the session can't stop reading - blocking connections run their own read loops,
+     * which have to wait instead.
+     */
+    boolean suspendReading() {
+        return false;
+    }
+
+    /**
+     * Reads from the socket again after suspendReading(), unless reading has been paused for good by pauseReading().
+     */
+    void resumeReading() {
+
+    }
+
+    /**
+     * Closes the socket, can be called more than once.
+     */
+    abstract void close();
+
+    /**
+     * Returns true only for the first call, to be used by close() implementations.
+     */
+    protected boolean markClosed() {
+        return closed.compareAndSet(false, true);
+    }
+
+    boolean isClosed() {
+        return closed.get();
+    }
+
+    UUID getUuid() {
+        return uuid;
+    }
+
+    String getHost() {
+        return host;
+    }
+
+    Connection getConnection() {
+        return connection;
+    }
+
+    /**
+     * Notes that something has been read from the connection, to be called by the reading thread.
+     */
+    void markRead() {
+        lastReadTime = System.nanoTime();
+    }
+
+    /**
+     * Notes that something has been written to the connection, to be called by the writing thread.
+     */
+    void markWritten() {
+        lastWriteTime = System.nanoTime();
+    }
+
+    long getLastReadTime() {
+        return lastReadTime;
+    }
+
+    long getLastWriteTime() {
+        return lastWriteTime;
+    }
+
+    WriteQueue getWriteQueue() {
+        return writeQueue;
+    }
+}
@@ -0,0 +1,88 @@
+/*
+    Copyright 2016 Radosław Skupnik
+
+    This file is part of pigeon-tcp-server.
+
+    Pigeon-tcp-server is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    Pigeon-tcp-server is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with pigeon-tcp-server; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+
+package com.github.rskupnik.pigeon.tcpserver;
+
+/**
+ * What was left over when the server shut down gracefully, once it stopped waiting for the packets in flight.
+ */
+public final class ShutdownReport {
+
+    private final boolean drained;
+    private final int unhandledPackets;
+    private final int unsentPackets;
+    private final long unsentBytes;
+    private final int closedConnections;
+    private final long elapsedNanos;
+
+    ShutdownReport(boolean drained, int unhandledPackets, int unsentPackets, long unsentBytes, int closedConnections, long elapsedNanos) {
+        this.drained = drained;
+        this.unhandledPackets = unhandledPackets;
+        this.unsentPackets = unsentPackets;
+        this.unsentBytes = unsentBytes;
+        this.closedConnections = closedConnections;
+        this.elapsedNanos = elapsedNanos;
+    }
+
+    /**
+     * Returns true if everything was handled and written before the timeout, so nothing has been dropped.
+     */
+    public boolean isDrained() {
+        return drained;
+    }
+
+    /**
+     * Number of received packets dropped while still waiting in the dispatch threads' queues or the QUEUE mode queue.
+     */
+    public int getUnhandledPackets() {
+        return unhandledPackets;
+    }
+
+    /**
+     * Number of packets dropped from the write queues, not counting those partly written already.
+     */
+    public int getUnsentPackets() {
+        return unsentPackets;
+    }
+
+    /**
+     * Number of bytes in the write queues which were never written, including the rest of partly written packets.
+     */
+    public long getUnsentBytes() {
+        return unsentBytes;
+    }
+
+    /**
+     * Number of connections which were still open and have been closed by the shutdown.
+     */
+    public int getClosedConnections() {
+        return closedConnections;
+    }
+
+    public long getElapsedNanos() {
+        return elapsedNanos;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("drained=%b, unhandledPackets=%d, unsentPackets=%d, unsentBytes=%d, closedConnections=%d, elapsedMillis=%d",
+                drained, unhandledPackets, unsentPackets, unsentBytes, closedConnections, elapsedNanos / 1000000);
+    }
+}
@@ -0,0 +1,212 @@
+/*
+    Copyright 2016 Radosław Skupnik
+
+    This file is part of pigeon-tcp-server.
+
+    Pigeon-tcp-server is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    Pigeon-tcp-server is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with pigeon-tcp-server; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+
+package com.github.rskupnik.pigeon.tcpserver;
+
+import com.github.rskupnik.pigeon.commons.Connection;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.UUID;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Session of a connection in BLOCKING mode. Reading is done by the Connection's own thread,
+ * writing by a task on the shared writer executor which drains the queue while it's not empty.
+ * Small packets queued together are copied into a single buffer and written with one call.
+ */
+final class StreamSession extends Session {
+
+    private static final org.apache.logging.log4j.Logger log = org.apache.logging.log4j.LogManager.getLogger(StreamSession.class);
+
+    static final int WRITE_BATCH_BUFFER_SIZE = 8192;
+    static final int MAX_BATCHED_WRITES = 64;
+
+    // Writer threads drain one session at a time, so each of them needs a single batch
+    private static final ThreadLocal<WriteBatch> WRITE_BATCH = new ThreadLocal<WriteBatch>() {
+        @Override
+        protected WriteBatch initialValue() {
+            return new WriteBatch();
+        }
+    };
+
+    private final PigeonTcpServer server;
+    private final Socket socket;
+    private final OutputStream out;
+    private final Executor writerExecutor;
+    private final ScheduledExecutorService flushScheduler;
+    private final AtomicBoolean draining = new AtomicBoolean();
+    private volatile Thread drainingThread;
+    private final Runnable drainTask = new Runnable() {
+        @Override
+        public void run() {
+            drain();
+        }
+    };
+
+    StreamSession(UUID uuid, String host, Connection connection, Socket socket, PigeonTcpServer server,
+                  Executor writerExecutor, ScheduledExecutorService flushScheduler) throws IOException {
+        super(uuid, host, connection, server);
+        this.server = server;
+        this.socket = socket;
+        this.out = socket.getOutputStream();
+        this.writerExecutor = writerExecutor;
+        this.flushScheduler = flushScheduler;
+    }
+
+    @Override
+    void scheduleFlush() {
+        if (draining.compareAndSet(false, true))
+            writerExecutor.execute(drainTask);
+    }
+
+    @Override
+    void scheduleDelayed(Runnable task, long delayNanos) {
+        try {
+            flushScheduler.schedule(task, delayNanos, TimeUnit.NANOSECONDS);
+        } catch (RejectedExecutionException e) {    // The server is shutting down
+            task.run();
+        }
+    }
+
+    @Override
+    boolean isIoThread() {
+        return Thread.currentThread() == drainingThread;
+    }
+
+    @Override
+    void execute(Runnable task) {
+        try {
+            writerExecutor.execute(task);
+        } catch (RejectedExecutionException e) {
+            // The server is shutting down and closes the connection anyway
+        }
+    }
+
+    @Override
+    void close() {
+        if (!markClosed())
+            return;
+
+        // The entries being written, if any, are failed by drain() once the write throws
+        getWriteQueue().failAll();
+        try {
+            socket.close();
+        } catch (IOException e) {
+            log.error(e.getMessage(), e);
+        }
+    }
+
+    private void drain() {
+        WriteQueue writeQueue = getWriteQueue();
+        WriteBatch batch = WRITE_BATCH.get();
+        WriteQueue.Entry entry = null;    // Polled but not in the batch yet
+        try {
+            do {
+                drainingThread = Thread.currentThread();
+                while ((entry = writeQueue.poll()) != null) {
+                    if (!batch.fits(entry.getBuffer()))
+                        batch.writeTo(out, writeQueue);
+
+                    if (batch.fits(entry.getBuffer())) {
+                        batch.add(entry);
+                    } else {    // Too big to be copied into the batch
+                        write(entry.getBuffer());
+                        writeQueue.written(entry);
+                    }
+                }
+                batch.writeTo(out, writeQueue);
+                drainingThread = null;
+                draining.set(false);
+                // Packets queued after the last poll but before the flag was cleared would otherwise wait for the next send
+            } while (!writeQueue.isEmpty() && draining.compareAndSet(false, true));
+        } catch (IOException e) {
+            drainingThread = null;
+            draining.set(false);
+            close();
+            batch.fail(writeQueue);
+            if (entry != null)
+                writeQueue.fail(entry);
+            server.onDisconnected(getUuid());
+        }
+    }
+
+    private void write(ByteBuffer buffer) throws IOException {
+        if (buffer.hasArray()) {
+            out.write(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+        } else {    // Direct or read-only buffers don't expose their content as an array
+            byte[] bytes = new byte[buffer.remaining()];
+            buffer.duplicate().get(bytes);
+            out.write(bytes);
+        }
+    }
+
+    /**
+     * Packets copied into a single array, to be written to the stream at once.
+     */
+    private static final class WriteBatch {
+
+        private final byte[] bytes = new byte[WRITE_BATCH_BUFFER_SIZE];
+        private final WriteQueue.Entry[] entries = new WriteQueue.Entry[MAX_BATCHED_WRITES];
+        private int length;
+        private int count;
+
+        boolean fits(ByteBuffer buffer) {
+            return count < entries.length && buffer.remaining() <= bytes.length - length;
+        }
+
+        void add(WriteQueue.Entry entry) {
+            ByteBuffer buffer = entry.getBuffer().duplicate();
+            int size = buffer.remaining();
+            buffer.get(bytes, length, size);
+            length += size;
+            entries[count++] = entry;
+        }
+
+        void writeTo(OutputStream out, WriteQueue writeQueue) throws IOException {
+            if (count == 0)
+                return;
+
+            out.write(bytes, 0, length);
+            for (int i = 0; i < count; i++)
+                writeQueue.written(entries[i]);
+            clear();
+        }
+
+        void fail(WriteQueue writeQueue) {
+            for (int i = 0; i < count; i++)
+                writeQueue.fail(entries[i]);
+            clear();
+        }
+
+        private void clear() {
+            for (int i = 0; i < count; i++)
+                entries[i] = null;
+            length = 0;
+            count = 0;
+        }
+    }
+}
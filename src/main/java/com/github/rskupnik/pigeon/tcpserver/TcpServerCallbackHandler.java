@@ -0,0 +1,65 @@
+/*
+    Copyright 2016 Radosław Skupnik
+
+    This file is part of pigeon-tcp-server.
+
+    Pigeon-tcp-server is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    Pigeon-tcp-server is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with pigeon-tcp-server; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+
+package com.github.rskupnik.pigeon.tcpserver;
+
+import com.github.rskupnik.pigeon.commons.Connection;
+import com.github.rskupnik.pigeon.commons.callback.ServerCallbackHandler;
+
+/**
+ * ServerCallbackHandler with additional callbacks specific to PigeonTcpServer.
+ * Pass an implementation of it to withServerCallbackHandler() to receive them - all of them are optional.
+ */
+public interface TcpServerCallbackHandler extends ServerCallbackHandler {
+
+    /**
+     * The amount of data waiting to be written to the connection has reached the high water mark -
+     * the client reads slower than packets are being sent to it.
+     */
+    default void onWriteQueueHighWaterMark(Connection connection) {
+
+    }
+
+    /**
+     * The amount of data waiting to be written to the connection has dropped to the low water mark
+     * after having reached the high water mark.
+     */
+    default void onWriteQueueLowWaterMark(Connection connection) {
+
+    }
+
+    /**
+     * Nothing has been received from the connection for the read idle timeout. Called again every time the timeout
+     * passes with no data, unless idle eviction is enabled - then the connection is closed right after this callback.
+     * Called on the connection's event loop in NIO mode and on a writer thread in BLOCKING mode, so it should return quickly.
+     */
+    default void onReadIdle(Connection connection) {
+
+    }
+
+    /**
+     * Nothing has been written to the connection for the write idle timeout. If a heartbeat packet is set,
+     * it's sent right after this callback. Called on the connection's event loop in NIO mode and on a writer thread
+     * in BLOCKING mode, so it should return quickly.
+     */
+    default void onWriteIdle(Connection connection) {
+
+    }
+}
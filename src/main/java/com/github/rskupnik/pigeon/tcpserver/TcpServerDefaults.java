@@ -26,6 +26,57 @@ public interface TcpServerDefaults {
     String PROPERTIES_FILENAME = "pigeon-tcp-server.properties";
     int PORT = 9191;
     int RECEIVER_THREADS_NUMBER = 0;    // This equals to inifinite
+    ReceiverThreadsType RECEIVER_THREADS_TYPE = ReceiverThreadsType.PLATFORM;
     String PACKAGE_TO_SCAN = null;
     IncomingPacketHandleMode PACKET_HANDLE_MODE = IncomingPacketHandleMode.HANDLER;
+    TransportMode TRANSPORT_MODE = TransportMode.BLOCKING;
+    int EVENT_LOOP_THREADS_NUMBER = 0;  // This equals to the number of available processors
+    int ACCEPTOR_THREADS_NUMBER = 1;
+    EventLoopSelection EVENT_LOOP_SELECTION = EventLoopSelection.ROUND_ROBIN;
+    int WRITE_QUEUE_CAPACITY = 4 * 1024 * 1024;     // In bytes, per connection
+    WriteQueueOverflowPolicy WRITE_QUEUE_OVERFLOW_POLICY = WriteQueueOverflowPolicy.BLOCK;
+    int WRITE_QUEUE_HIGH_WATER_MARK = 64 * 1024;
+    int WRITE_QUEUE_LOW_WATER_MARK = 32 * 1024;
+    boolean WRITE_BATCHING = false;
+    int WRITE_BATCH_WINDOW_MILLIS = 1;
+    int WRITE_BATCH_SIZE = 16 * 1024;
+    boolean TCP_NO_DELAY = false;
+    boolean TCP_KEEP_ALIVE = false;
+    int SOCKET_RECEIVE_BUFFER_SIZE = 0;   // This means the operating system's default
+    int SOCKET_SEND_BUFFER_SIZE = 0;      // Likewise
+    int READ_BUFFER_MIN_SIZE = 64;
+    int READ_BUFFER_INITIAL_SIZE = 1024;
+    int READ_BUFFER_MAX_SIZE = 64 * 1024;
+    boolean PACKET_RECYCLING = false;
+    int INCOMING_QUEUE_CAPACITY = 64 * 1024;
+    WaitStrategy INCOMING_QUEUE_WAIT_STRATEGY = WaitStrategy.PARK;
+    int DISPATCH_THREADS_NUMBER = 0;    // This means packets are handled on the I/O threads
+    int DISPATCH_QUEUE_CAPACITY = 8 * 1024;
+    boolean METRICS_ENABLED = false;
+    int READ_IDLE_TIMEOUT_MILLIS = 0;     // This means connections are never considered idle
+    int WRITE_IDLE_TIMEOUT_MILLIS = 0;    // This means connections are never considered idle
+    boolean IDLE_EVICTION = true;
+    int ACCEPT_BACKLOG = 0;               // This means the JVM default
+    int MAX_CONNECTIONS = 0;              // This means no limit, the same for the rest of the admission limits
+    int ACCEPT_RATE_LIMIT = 0;
+    int ACCEPT_RATE_LIMIT_PER_HOST = 0;
+    int MAX_PENDING_PACKETS = 0;
+    int MAX_HANDLER_TIME_MICROS = 0;
+    CompressionCodec COMPRESSION = CompressionCodec.NONE;
+    int COMPRESSION_THRESHOLD = 128;
+    boolean TLS_ENABLED = false;
+    String TLS_KEY_STORE = null;          // Required when TLS is enabled, unless an SSL context is given
+    String TLS_KEY_STORE_PASSWORD = null;
+    String TLS_KEY_STORE_TYPE = "PKCS12";
+    String TLS_PROTOCOLS = "TLSv1.3,TLSv1.2";
+    int TLS_SESSION_CACHE_SIZE = 20480;
+    int TLS_SESSION_TIMEOUT_SECONDS = 86400;
+    String JOURNAL_DIRECTORY = null;      // This means the QUEUE mode queue isn't journaled
+    int JOURNAL_SEGMENT_SIZE = 64 * 1024 * 1024;
+    int JOURNAL_SYNC_INTERVAL_MILLIS = 100;     // 0 means every packet is synced on its own
+    int JOURNAL_RETENTION_SECONDS = 0;    // This means acknowledged segments are deleted right away
+    int RELAY_PORT = 0;                   // This means the server doesn't accept links from other nodes
+    String RELAY_PEERS = null;            // Together with no relay port, this means the server isn't part of a cluster
+    int RELAY_BATCH_SIZE = 64 * 1024;
+    int RELAY_QUEUE_CAPACITY = 16384;
 }
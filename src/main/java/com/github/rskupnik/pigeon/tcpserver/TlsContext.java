@@ -0,0 +1,126 @@
+/*
+    Copyright 2016 Radosław Skupnik
+
+    This file is part of pigeon-tcp-server.
+
+    Pigeon-tcp-server is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    Pigeon-tcp-server is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with pigeon-tcp-server; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+
+package com.github.rskupnik.pigeon.tcpserver;
+
+import com.github.rskupnik.pigeon.commons.exceptions.PigeonException;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLException;
+import javax.net.ssl.SSLSessionContext;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Creates the SSLEngines of TLS connections, all from a single SSLContext.
+ *
+ * Sessions are resumed from the server session context of the SSLContext, whose size and timeout are set here.
+ * Clients resuming a session skip the key exchange and certificate verification of a full handshake, which is what
+ * makes a storm of reconnecting clients affordable. With TLS 1.3 the JDK hands out stateless session tickets instead
+ * (unless jdk.tls.server.enableSessionTicketExtension is set to false), which don't take any room in the cache.
+ */
+final class TlsContext {
+
+    private final SSLContext sslContext;
+    private final String[] protocols;
+    private final ExecutorService taskExecutor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(),
+            new NamedThreadFactory("pigeon-tls-", true));
+
+    /**
+     * The SSL context, if not null, is used instead of loading the key store. The protocols are a comma separated list,
+     * those not supported by the JVM are left out.
+     */
+    TlsContext(SSLContext sslContext, String keyStore, String keyStorePassword, String keyStoreType, String protocols,
+               int sessionCacheSize, int sessionTimeoutSeconds) throws PigeonException {
+        this.sslContext = sslContext != null ? sslContext : load(keyStore, keyStorePassword, keyStoreType);
+
+        SSLSessionContext sessionContext = this.sslContext.getServerSessionContext();
+        if (sessionContext != null) {
+            sessionContext.setSessionCacheSize(sessionCacheSize);
+            sessionContext.setSessionTimeout(sessionTimeoutSeconds);
+        }
+
+        List<String> supported = Arrays.asList(this.sslContext.getSupportedSSLParameters().getProtocols());
+        List<String> enabled = new ArrayList<>();
+        for (String protocol : protocols.split(",")) {
+            if (supported.contains(protocol.trim()))
+                enabled.add(protocol.trim());
+        }
+        if (enabled.isEmpty())
+            throw new PigeonException("None of the TLS protocols " + protocols + " is supported, the supported ones are " + supported);
+        this.protocols = enabled.toArray(new String[enabled.size()]);
+    }
+
+    /**
+     * Starts the server side of a handshake with the given peer. The peer is a hint for resuming its sessions.
+     */
+    TlsSession newSession(String peerHost, int peerPort, BufferPool bufferPool) throws SSLException {
+        SSLEngine engine = sslContext.createSSLEngine(peerHost, peerPort);
+        engine.setUseClientMode(false);
+        engine.setEnabledProtocols(protocols);
+        return new TlsSession(engine, bufferPool, taskExecutor);
+    }
+
+    void shutdown() {
+        taskExecutor.shutdown();
+    }
+
+    /**
+     * Loads the key store from a file or, if there's no such file, from the classpath.
+     */
+    private static SSLContext load(String keyStore, String password, String type) throws PigeonException {
+        char[] passwordChars = password != null ? password.toCharArray() : null;
+        try (InputStream input = open(keyStore)) {
+            KeyStore store = KeyStore.getInstance(type);
+            store.load(input, passwordChars);
+
+            KeyManagerFactory keyManagers = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+            keyManagers.init(store, passwordChars);
+
+            SSLContext context = SSLContext.getInstance("TLS");
+            context.init(keyManagers.getKeyManagers(), null, null);
+            return context;
+        } catch (IOException | GeneralSecurityException e) {
+            throw new PigeonException("Unable to load the TLS key store " + keyStore + ": " + e.getMessage());
+        }
+    }
+
+    private static InputStream open(String keyStore) throws IOException {
+        File file = new File(keyStore);
+        if (file.isFile())
+            return new FileInputStream(file);
+
+        InputStream resource = TlsContext.class.getClassLoader().getResourceAsStream(keyStore);
+        if (resource == null)
+            throw new IOException("No such file or classpath resource");
+        return resource;
+    }
+}
@@ -0,0 +1,272 @@
+/*
+    Copyright 2016 Radosław Skupnik
+
+    This file is part of pigeon-tcp-server.
+
+    Pigeon-tcp-server is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    Pigeon-tcp-server is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with pigeon-tcp-server; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+
+package com.github.rskupnik.pigeon.tcpserver;
+
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLEngineResult;
+import javax.net.ssl.SSLException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * The TLS side of an NioSession: its SSLEngine and the encrypted bytes on their way from and to the socket.
+ *
+ * Both network buffers are taken from the pool only while they hold something, so idle connections don't keep any.
+ * The expensive parts of a handshake - the key exchange and signatures - come as delegated tasks, which are run
+ * on the task executor so that a storm of handshakes doesn't stall the event loop serving established connections.
+ *
+ * Only touched by the event loop thread of the connection, apart from the delegated tasks.
+ */
+final class TlsSession {
+
+    /**
+     * Why unwrap() stopped.
+     */
+    enum Status {
+        UNDERFLOW,  // Everything read from the socket has been unwrapped, or the rest isn't a whole record yet
+        OVERFLOW,   // The application buffer has no room for another record
+        WRAP,       // The handshake has something to send
+        TASK,       // The handshake is waiting for a delegated task
+        CLOSED      // The client has closed the connection
+    }
+
+    private static final int NET_OUT_RECORDS = 3;     // Written with a single write, as long as there's that much to send
+    private static final ByteBuffer[] NOTHING = {ByteBuffer.allocate(0)};
+
+    private final SSLEngine engine;
+    private final BufferPool pool;
+    private final Executor taskExecutor;
+
+    private PooledBuffer netIn;     // In write mode, null when empty
+    private PooledBuffer netOut;    // In read mode, null once everything has been written
+    private volatile boolean runningTasks;
+    private volatile SSLException taskFailure;
+
+    TlsSession(SSLEngine engine, BufferPool pool, Executor taskExecutor) throws SSLException {
+        this.engine = engine;
+        this.pool = pool;
+        this.taskExecutor = taskExecutor;
+        engine.beginHandshake();
+    }
+
+    /**
+     * Reads encrypted bytes from the socket. Returns the number of bytes read, -1 at the end of the stream.
+     */
+    int read(SocketChannel channel) throws IOException {
+        int packetSize = engine.getSession().getPacketBufferSize();
+        if (netIn == null) {
+            netIn = pool.acquire(packetSize);
+        } else if (netIn.buffer().capacity() < packetSize) {    // The session has negotiated larger records
+            PooledBuffer larger = pool.acquire(packetSize);
+            netIn.buffer().flip();
+            larger.buffer().put(netIn.buffer());
+            netIn.release();
+            netIn = larger;
+        }
+
+        int read = channel.read(netIn.buffer());
+        releaseEmptyNetIn();
+        return read;
+    }
+
+    /**
+     * Decrypts the records read so far into the application buffer, which is in write mode.
+     */
+    Status unwrap(ByteBuffer application) throws SSLException {
+        if (netIn == null)
+            return handshakeWaiting() != null ? handshakeWaiting() : Status.UNDERFLOW;
+
+        ByteBuffer buffer = netIn.buffer();
+        buffer.flip();
+        try {
+            while (true) {
+                Status waiting = handshakeWaiting();
+                if (waiting != null)
+                    return waiting;
+                if (!buffer.hasRemaining())
+                    return Status.UNDERFLOW;
+
+                SSLEngineResult result = engine.unwrap(buffer, application);
+                switch (result.getStatus()) {
+                    case BUFFER_UNDERFLOW:
+                        return Status.UNDERFLOW;
+                    case BUFFER_OVERFLOW:
+                        return Status.OVERFLOW;
+                    case CLOSED:
+                        return Status.CLOSED;
+                    default:
+                        break;
+                }
+            }
+        } finally {
+            buffer.compact();
+            releaseEmptyNetIn();
+        }
+    }
+
+    /**
+     * Encrypts as much of the given buffers as fits in one write, advancing their positions. Everything written
+     * before must have been sent already. While handshaking, produces the handshake's next message instead.
+     */
+    void wrap(ByteBuffer[] buffers, int offset, int length) throws SSLException {
+        int packetSize = engine.getSession().getPacketBufferSize();
+        netOut = pool.acquire(packetSize * NET_OUT_RECORDS);
+        ByteBuffer buffer = netOut.buffer();
+        try {
+            while (buffer.remaining() >= packetSize) {
+                SSLEngineResult result = engine.wrap(buffers, offset, length, buffer);
+                if (result.getStatus() != SSLEngineResult.Status.OK)
+                    throw new SSLException("Unable to send, the engine is " + result.getStatus());
+                if (result.bytesProduced() == 0 || engine.getHandshakeStatus() == SSLEngineResult.HandshakeStatus.NEED_TASK)
+                    break;
+                if (result.bytesConsumed() == 0 && engine.getHandshakeStatus() != SSLEngineResult.HandshakeStatus.NEED_WRAP)
+                    break;
+                if (result.bytesConsumed() > 0 && !hasRemaining(buffers, offset, length))
+                    break;
+            }
+        } finally {
+            buffer.flip();
+            if (!buffer.hasRemaining()) {
+                netOut.release();
+                netOut = null;
+            }
+        }
+    }
+
+    /**
+     * Produces the handshake's next message.
+     */
+    void wrapHandshake() throws SSLException {
+        wrap(NOTHING, 0, 1);
+    }
+
+    /**
+     * Writes what's been encrypted so far. Returns true if all of it has been written.
+     */
+    boolean write(SocketChannel channel) throws IOException {
+        if (netOut == null)
+            return true;
+
+        channel.write(netOut.buffer());
+        if (netOut.buffer().hasRemaining())
+            return false;
+
+        netOut.release();
+        netOut = null;
+        return true;
+    }
+
+    /**
+     * Runs the delegated tasks of the handshake on the task executor, then the given task on the event loop - also
+     * when a task has failed, which checkTasks() then reports. Throws if the executor has been shut down.
+     */
+    void runTasks(final NioEventLoop eventLoop, final Runnable resume) throws SSLException {
+        runningTasks = true;
+        try {
+            taskExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        Runnable task;
+                        while ((task = engine.getDelegatedTask()) != null)
+                            task.run();
+                    } catch (RuntimeException e) {
+                        taskFailure = new SSLException("Handshake task failed: " + e.getMessage(), e);
+                    } finally {
+                        runningTasks = false;
+                        eventLoop.execute(resume);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            runningTasks = false;
+            throw new SSLException("Unable to run the handshake's tasks", e);
+        }
+    }
+
+    /**
+     * Throws the failure of the delegated tasks, if any - the handshake can't go on then.
+     */
+    void checkTasks() throws SSLException {
+        if (taskFailure != null)
+            throw taskFailure;
+    }
+
+    boolean hasPendingOutput() {
+        return netOut != null;
+    }
+
+    boolean isRunningTasks() {
+        return runningTasks;
+    }
+
+    SSLEngineResult.HandshakeStatus getHandshakeStatus() {
+        return engine.getHandshakeStatus();
+    }
+
+    int getApplicationBufferSize() {
+        return engine.getSession().getApplicationBufferSize();
+    }
+
+    /**
+     * Returns the buffers to the pool, to be called by the event loop once the session has been closed.
+     */
+    void release() {
+        engine.closeOutbound();
+        if (netIn != null) {
+            netIn.release();
+            netIn = null;
+        }
+        if (netOut != null) {
+            netOut.release();
+            netOut = null;
+        }
+    }
+
+    private Status handshakeWaiting() {
+        switch (engine.getHandshakeStatus()) {
+            case NEED_TASK:
+                return Status.TASK;
+            case NEED_WRAP:
+                return Status.WRAP;
+            default:
+                return null;
+        }
+    }
+
+    private void releaseEmptyNetIn() {
+        if (netIn != null && netIn.buffer().position() == 0) {
+            netIn.release();
+            netIn = null;
+        }
+    }
+
+    private static boolean hasRemaining(ByteBuffer[] buffers, int offset, int length) {
+        for (int i = offset; i < offset + length; i++) {
+            if (buffers[i].hasRemaining())
+                return true;
+        }
+        return false;
+    }
+}
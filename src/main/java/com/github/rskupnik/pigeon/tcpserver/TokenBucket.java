@@ -0,0 +1,82 @@
+/*
+    Copyright 2016 Radosław Skupnik
+
+    This file is part of pigeon-tcp-server.
+
+    Pigeon-tcp-server is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    Pigeon-tcp-server is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with pigeon-tcp-server; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+
+package com.github.rskupnik.pigeon.tcpserver;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Allows up to a given number of events per second, with bursts of up to a second's worth of them.
+ * Tokens are refilled lazily from the time passed since the last call, so an unused bucket costs nothing.
+ */
+final class TokenBucket {
+
+    private static final long SECOND_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private final int capacity;
+    private final long nanosPerToken;
+
+    private long tokens;
+    private long lastRefill;
+
+    TokenBucket(int perSecond, long now) {
+        if (perSecond <= 0)
+            throw new IllegalArgumentException("Rate must be greater than 0");
+
+        this.capacity = perSecond;
+        this.nanosPerToken = Math.max(SECOND_NANOS / perSecond, 1);
+        this.tokens = perSecond;
+        this.lastRefill = now;
+    }
+
+    /**
+     * Takes a token if there's one left. The time is passed in so that it's read once for all the buckets checked together.
+     */
+    synchronized boolean tryAcquire(long now) {
+        refill(now);
+        if (tokens == 0)
+            return false;
+
+        tokens--;
+        return true;
+    }
+
+    /**
+     * A full bucket behaves exactly like a new one, so it can be thrown away.
+     */
+    synchronized boolean isFull(long now) {
+        refill(now);
+        return tokens == capacity;
+    }
+
+    private void refill(long now) {
+        long refilled = (now - lastRefill) / nanosPerToken;
+        if (refilled <= 0)
+            return;
+
+        if (tokens + refilled >= capacity) {
+            tokens = capacity;
+            lastRefill = now;
+        } else {
+            tokens += refilled;
+            lastRefill += refilled * nanosPerToken;     // Keeps the remainder, so slow callers don't lose tokens to rounding
+        }
+    }
+}
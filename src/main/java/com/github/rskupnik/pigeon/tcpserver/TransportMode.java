@@ -0,0 +1,44 @@
+/*
+    Copyright 2016 Radosław Skupnik
+
+    This file is part of pigeon-tcp-server.
+
+    Pigeon-tcp-server is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    Pigeon-tcp-server is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with pigeon-tcp-server; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+
+package com.github.rskupnik.pigeon.tcpserver;
+
+/**
+ * Determines how PigeonTcpServer performs network I/O.
+ *
+ * BLOCKING - every connection is handled by its own thread blocking on the socket (default).
+ * NIO - connections are multiplexed over a small, fixed set of selector-based event loop threads.
+ */
+public enum TransportMode {
+    BLOCKING,
+    NIO;
+
+    public static TransportMode fromString(String value) {
+        if (value == null)
+            return null;
+
+        for (TransportMode mode : values()) {
+            if (mode.name().equalsIgnoreCase(value.trim()))
+                return mode;
+        }
+
+        return null;
+    }
+}
@@ -0,0 +1,46 @@
+/*
+    Copyright 2016 Radosław Skupnik
+
+    This file is part of pigeon-tcp-server.
+
+    Pigeon-tcp-server is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    Pigeon-tcp-server is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with pigeon-tcp-server; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+
+package com.github.rskupnik.pigeon.tcpserver;
+
+/**
+ * Determines how a thread waits for packets in an empty IncomingPacketRingBuffer, or for room in a full one.
+ *
+ * BUSY_SPIN - keeps checking, for the lowest latency at the cost of a fully used core per waiting thread.
+ * YIELD - keeps checking but gives up the processor between the checks.
+ * PARK - sleeps until woken up by the other side, using no processor time while waiting (default).
+ */
+public enum WaitStrategy {
+    BUSY_SPIN,
+    YIELD,
+    PARK;
+
+    public static WaitStrategy fromString(String value) {
+        if (value == null)
+            return null;
+
+        for (WaitStrategy strategy : values()) {
+            if (strategy.name().equalsIgnoreCase(value.trim()))
+                return strategy;
+        }
+
+        return null;
+    }
+}
@@ -0,0 +1,283 @@
+/*
+    Copyright 2016 Radosław Skupnik
+
+    This file is part of pigeon-tcp-server.
+
+    Pigeon-tcp-server is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    Pigeon-tcp-server is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with pigeon-tcp-server; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+
+package com.github.rskupnik.pigeon.tcpserver;
+
+import com.github.rskupnik.pigeon.commons.exceptions.PigeonException;
+
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded queue of encoded packets waiting to be written to a session's socket.
+ * Any thread can offer packets, a single I/O thread at a time polls and completes them.
+ */
+final class WriteQueue {
+
+    /**
+     * Set on the threads many connections depend on - the event loops and the dispatch workers. The BLOCK policy never
+     * makes them wait for another connection's queue, whose own I/O thread might be waiting for them in turn.
+     */
+    private static final ThreadLocal<Boolean> SHARED_THREAD = new ThreadLocal<>();
+
+    private final Session session;
+    private final PigeonTcpServer server;
+    private final long capacity;
+    private final long highWaterMark;
+    private final long lowWaterMark;
+    private final WriteQueueOverflowPolicy overflowPolicy;
+    private final ServerMetrics metrics;   // Null when metrics are disabled
+    private final boolean idleMonitored;
+
+    private final Queue<Entry> entries = new ConcurrentLinkedQueue<>();
+    private final AtomicLong pendingBytes = new AtomicLong();
+    private final AtomicBoolean aboveHighWaterMark = new AtomicBoolean();
+    private final AtomicInteger blockedSenders = new AtomicInteger();
+    private final Object space = new Object();
+
+    WriteQueue(Session session, PigeonTcpServer server) {
+        this.session = session;
+        this.server = server;
+        this.capacity = server.getWriteQueueCapacity();
+        this.highWaterMark = server.getWriteQueueHighWaterMark();
+        this.lowWaterMark = server.getWriteQueueLowWaterMark();
+        this.overflowPolicy = server.getWriteQueueOverflowPolicy();
+        this.metrics = server.getServerMetrics();
+        this.idleMonitored = server.getWriteIdleTimeoutMillis() > 0;
+    }
+
+    /**
+     * Marks the calling thread as one serving many connections, so that full queues of other connections never block it.
+     */
+    static void markSharedThread() {
+        SHARED_THREAD.set(Boolean.TRUE);
+    }
+
+    /**
+     * Queues the buffer, applying the overflow policy if there's no room for it. The queue takes over the caller's
+     * reference to the pooled buffer backing it (if any) and releases it once the buffer is written or dropped.
+     * Returns false if the buffer was not queued, in which case the future (if any) has been completed exceptionally.
+     */
+    boolean offer(ByteBuffer buffer, PooledBuffer pooled, CompletableFuture<Void> future) {
+        return offer(buffer, pooled, future, true);
+    }
+
+    /**
+     * Like offer(buffer, pooled, future), but if waiting isn't allowed the BLOCK policy drops the buffer as DROP_NEWEST does.
+     */
+    boolean offer(ByteBuffer buffer, PooledBuffer pooled, CompletableFuture<Void> future, boolean mayWait) {
+        int size = buffer.remaining();
+        if (session.isClosed())
+            return reject(pooled, future, "Connection is closed");
+
+        if (pendingBytes.get() + size > capacity && !makeRoom(size, mayWait)) {
+            if (metrics != null)
+                metrics.onPacketDropped();
+            return reject(pooled, future, "Write queue of connection [" + session.getUuid() + "] is full");
+        }
+
+        pendingBytes.addAndGet(size);
+        entries.add(new Entry(buffer, pooled, future, metrics != null ? System.nanoTime() : 0));
+        if (session.isClosed()) {   // Closed concurrently, failAll() might have missed this entry
+            failAll();
+            return false;
+        }
+
+        if (pendingBytes.get() >= highWaterMark && aboveHighWaterMark.compareAndSet(false, true))
+            server.onWriteQueueHighWaterMark(session);
+
+        return true;
+    }
+
+    /**
+     * Takes the next buffer to be written, to be called by the I/O thread only.
+     */
+    Entry poll() {
+        return entries.poll();
+    }
+
+    boolean isEmpty() {
+        return entries.isEmpty();
+    }
+
+    /**
+     * Marks the polled entry as fully written, to be called by the I/O thread only.
+     */
+    void written(Entry entry) {
+        if (!session.isClosed())    // The pending bytes of a closed session have already been reset by failAll()
+            release(entry.size);
+        entry.releaseBuffer();
+        if (idleMonitored)
+            session.markWritten();
+        if (metrics != null)
+            metrics.onPacketSent(entry.sentSize, System.nanoTime() - entry.queuedAt);
+        if (entry.future != null)
+            entry.future.complete(null);
+    }
+
+    /**
+     * Fails a polled entry which will not be written anymore because the session has been closed.
+     */
+    void fail(Entry entry) {
+        entry.releaseBuffer();
+        if (entry.future != null)
+            entry.future.completeExceptionally(closedException());
+    }
+
+    /**
+     * Fails everything still in the queue, to be called once the session has been closed.
+     */
+    void failAll() {
+        Entry entry;
+        while ((entry = entries.poll()) != null)
+            fail(entry);
+        pendingBytes.set(0);
+        wakeUpBlockedSenders();
+    }
+
+    /**
+     * Returns the number of queued packets, not counting those taken by the I/O thread already. Walks the whole queue.
+     */
+    int size() {
+        return entries.size();
+    }
+
+    long getPendingBytes() {
+        return pendingBytes.get();
+    }
+
+    private boolean makeRoom(int size, boolean mayWait) {
+        switch (overflowPolicy) {
+            case DROP_OLDEST:
+                // Entries still in the queue haven't been touched by the I/O thread, so they can be dropped safely
+                Entry dropped;
+                while (pendingBytes.get() + size > capacity && (dropped = entries.poll()) != null) {
+                    release(dropped.size);
+                    dropped.releaseBuffer();
+                    if (metrics != null)
+                        metrics.onPacketDropped();
+                    if (dropped.future != null)
+                        dropped.future.completeExceptionally(new PigeonException("Packet dropped to make room in the write queue of connection [" + session.getUuid() + "]"));
+                }
+                return true;
+            case DROP_NEWEST:
+                return false;
+            case DISCONNECT:
+                session.close();
+                server.onDisconnected(session.getUuid());
+                return false;
+            default:
+            case BLOCK:
+                // The thread draining this queue must never wait for itself, let the queue grow instead
+                if (session.isIoThread())
+                    return true;
+                // Nor may a thread other connections depend on, the packet is dropped as with DROP_NEWEST
+                if (!mayWait || SHARED_THREAD.get() != null)
+                    return false;
+                return awaitRoom(size);
+        }
+    }
+
+    private boolean awaitRoom(int size) {
+        blockedSenders.incrementAndGet();
+        try {
+            synchronized (space) {
+                while (pendingBytes.get() + size > capacity && !session.isClosed())
+                    space.wait(100);
+            }
+            return !session.isClosed();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } finally {
+            blockedSenders.decrementAndGet();
+        }
+    }
+
+    private void release(int size) {
+        long pending = pendingBytes.addAndGet(-size);
+        if (pending <= lowWaterMark && aboveHighWaterMark.compareAndSet(true, false))
+            server.onWriteQueueLowWaterMark(session);
+        wakeUpBlockedSenders();
+    }
+
+    private void wakeUpBlockedSenders() {
+        if (blockedSenders.get() > 0) {
+            synchronized (space) {
+                space.notifyAll();
+            }
+        }
+    }
+
+    private PigeonException closedException() {
+        return new PigeonException("Connection [" + session.getUuid() + "] was closed before the packet was written");
+    }
+
+    private boolean reject(PooledBuffer pooled, CompletableFuture<Void> future, String reason) {
+        if (pooled != null)
+            pooled.release();
+        if (future != null)
+            future.completeExceptionally(new PigeonException(reason));
+        return false;
+    }
+
+    static final class Entry {
+
+        private ByteBuffer buffer;
+        private PooledBuffer pooled;
+        private final CompletableFuture<Void> future;
+        private final int size;         // Counted against the capacity of the queue
+        private int sentSize;           // Different once the packet has been compressed
+        private final long queuedAt;    // Read from the clock only when metrics are enabled
+
+        private Entry(ByteBuffer buffer, PooledBuffer pooled, CompletableFuture<Void> future, long queuedAt) {
+            this.buffer = buffer;
+            this.pooled = pooled;
+            this.future = future;
+            this.size = buffer.remaining();
+            this.sentSize = size;
+            this.queuedAt = queuedAt;
+        }
+
+        ByteBuffer getBuffer() {
+            return buffer;
+        }
+
+        /**
+         * Writes the given buffer instead, releasing the current one. To be called by the I/O thread before writing anything.
+         */
+        void replaceBuffer(PooledBuffer replacement) {
+            releaseBuffer();
+            this.buffer = replacement.buffer();
+            this.pooled = replacement;
+            this.sentSize = buffer.remaining();
+        }
+
+        private void releaseBuffer() {
+            if (pooled != null)
+                pooled.release();
+        }
+    }
+}
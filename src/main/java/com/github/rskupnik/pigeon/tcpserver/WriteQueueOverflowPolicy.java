@@ -0,0 +1,49 @@
+/*
+    Copyright 2016 Radosław Skupnik
+
+    This file is part of pigeon-tcp-server.
+
+    Pigeon-tcp-server is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    Pigeon-tcp-server is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with pigeon-tcp-server; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+
+package com.github.rskupnik.pigeon.tcpserver;
+
+/**
+ * Determines what happens to a packet sent to a connection whose write queue is full.
+ *
+ * BLOCK - the sending thread waits until there's room in the queue (default). The event loops and the dispatch threads
+ *         never wait for another connection, the packet is discarded as with DROP_NEWEST.
+ * DROP_OLDEST - the oldest packets that haven't started being written are discarded to make room.
+ * DROP_NEWEST - the packet being sent is discarded.
+ * DISCONNECT - the connection is closed.
+ */
+public enum WriteQueueOverflowPolicy {
+    BLOCK,
+    DROP_OLDEST,
+    DROP_NEWEST,
+    DISCONNECT;
+
+    public static WriteQueueOverflowPolicy fromString(String value) {
+        if (value == null)
+            return null;
+
+        for (WriteQueueOverflowPolicy policy : values()) {
+            if (policy.name().equalsIgnoreCase(value.trim()))
+                return policy;
+        }
+
+        return null;
+    }
+}
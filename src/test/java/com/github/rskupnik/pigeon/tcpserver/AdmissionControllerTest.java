@@ -0,0 +1,171 @@
+/*
+    Copyright 2016 Radosław Skupnik
+
+    This file is part of pigeon-tcp-server.
+
+    Pigeon-tcp-server is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    Pigeon-tcp-server is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with pigeon-tcp-server; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+
+package com.github.rskupnik.pigeon.tcpserver;
+
+import com.github.rskupnik.pigeon.commons.IncomingPacketHandleMode;
+import com.github.rskupnik.pigeon.commons.exceptions.PigeonException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.net.UnknownHostException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+public class AdmissionControllerTest {
+
+    private static final int PORT = 9210;
+    private static final int HOSTS_CLEANED_UP_ABOVE = 4096;
+
+    private PigeonTcpServer server;
+
+    @Before
+    public void before() throws PigeonException {
+        // Gives the controllers the load to check, it's never started
+        server = Pigeon.newServer()
+                .withPort(PORT)
+                .withPackageToScan("com.github.rskupnik.pigeon.tcpserver")
+                .withIncomingPacketHandleMode(IncomingPacketHandleMode.QUEUE)
+                .withMetricsEnabled(true)
+                .withMaxConnections(1)
+                .build();
+    }
+
+    @After
+    public void after() {
+        server.shutdown();
+    }
+
+    @Test
+    public void shouldReserveAndReleaseConnectionSlots() throws UnknownHostException {
+        AdmissionController admission = new AdmissionController(server, 2, 0, 0, 0, 0);
+
+        assertNull(admission.admit(host(1)));
+        assertNull(admission.admit(host(2)));
+        assertNotNull(admission.admit(host(3)));
+        assertEquals(2, admission.getAdmittedConnections());
+
+        admission.release();
+        assertNull(admission.admit(host(3)));
+        assertEquals(2, admission.getAdmittedConnections());
+    }
+
+    @Test
+    public void shouldReleaseTheSlotOfAClientWhichFailsToBeAccepted() throws IOException {
+        // Setting up a closed socket fails after the client has been admitted
+        Socket socket = new Socket();
+        socket.close();
+        server.accept(socket);
+        assertEquals(0, server.getAdmittedConnections());
+    }
+
+    @Test
+    public void shouldLimitBlockingConnectionsToAFixedNumberOfPlatformThreads() throws PigeonException {
+        assertEquals(2, connectionLimit(ReceiverThreadsType.PLATFORM, 2));
+    }
+
+    @Test
+    public void shouldNotLimitBlockingConnectionsToTheNumberOfVirtualThreads() throws PigeonException {
+        // Where virtual threads aren't available the server falls back to a fixed pool of platform threads
+        ExecutorService virtualThreads = VirtualThreads.newThreadPerTaskExecutor("admission-test-");
+        if (virtualThreads != null)
+            virtualThreads.shutdown();
+        assertEquals(virtualThreads != null ? 0 : 2, connectionLimit(ReceiverThreadsType.VIRTUAL, 2));
+    }
+
+    @Test
+    public void shouldLimitTheAcceptRateOfEveryHostSeparately() throws UnknownHostException {
+        AdmissionController admission = new AdmissionController(server, 0, 0, 2, 0, 0);
+
+        assertNull(admission.admit(host(1)));
+        assertNull(admission.admit(host(1)));
+        assertNotNull(admission.admit(host(1)));
+        assertNull(admission.admit(host(2)));
+        assertNull(admission.admit(host(2)));
+
+        // A rejected connection doesn't keep its slot
+        assertEquals(4, admission.getAdmittedConnections());
+    }
+
+    @Test
+    public void shouldThrowAwayTheBucketsOfHostsWhichStoppedConnecting() throws Exception {
+        AdmissionController admission = new AdmissionController(server, 0, 0, 1, 0, 0);
+        for (int i = 0; i < HOSTS_CLEANED_UP_ABOVE; i++) {
+            assertNull(admission.admit(host(i)));
+            admission.release();
+        }
+        assertEquals(HOSTS_CLEANED_UP_ABOVE, admission.getTrackedHosts());
+
+        // Once a second has passed the buckets are full again, so the next new host has them thrown away
+        Thread.sleep(1100);
+        assertNull(admission.admit(host(HOSTS_CLEANED_UP_ABOVE)));
+        assertEquals(1, admission.getTrackedHosts());
+    }
+
+    @Test
+    public void shouldRefuseConnectionsWhilePacketsAreWaitingToBeHandled() throws UnknownHostException {
+        AdmissionController admission = new AdmissionController(server, 0, 0, 0, 2, 0);
+        assertNull(admission.admit(host(1)));
+
+        TestSession session = new TestSession("10.0.0.1", server);
+        for (int i = 0; i < 3; i++)
+            server.onPacketReceived(session, 0, new TestPacket());
+        assertNotNull(admission.admit(host(2)));
+        assertEquals(1, admission.getAdmittedConnections());
+    }
+
+    @Test
+    public void shouldRefuseConnectionsWhileHandlingPacketsIsSlow() throws UnknownHostException {
+        AdmissionController admission = new AdmissionController(server, 0, 0, 0, 0, 1000);
+        assertNull(admission.admit(host(1)));
+
+        for (int i = 0; i < 100; i++)
+            server.getServerMetrics().onPacketHandled(TimeUnit.MILLISECONDS.toNanos(10));
+        assertNotNull(admission.admit(host(2)));
+        assertEquals(1, admission.getAdmittedConnections());
+    }
+
+    private static int connectionLimit(ReceiverThreadsType type, int threads) throws PigeonException {
+        PigeonTcpServer server = Pigeon.newServer()
+                .withPort(PORT + 1)
+                .withPackageToScan("com.github.rskupnik.pigeon.tcpserver")
+                .withIncomingPacketHandleMode(IncomingPacketHandleMode.QUEUE)
+                .withReceiverThreadsType(type)
+                .withReceiverThreadsNumber(threads)
+                .build();
+        try {
+            return server.getConnectionLimit();
+        } finally {
+            server.shutdown();
+        }
+    }
+
+    private static InetAddress host(int number) throws UnknownHostException {
+        return InetAddress.getByAddress(new byte[] {10, 1, (byte) (number >>> 8), (byte) number});
+    }
+}
@@ -0,0 +1,97 @@
+/*
+    Copyright 2016 Radosław Skupnik
+
+    This file is part of pigeon-tcp-server.
+
+    Pigeon-tcp-server is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    Pigeon-tcp-server is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with pigeon-tcp-server; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+
+package com.github.rskupnik.pigeon.tcpserver;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class BufferPoolTest {
+
+    private final BufferPool pool = new BufferPool(false);
+
+    @Test
+    public void shouldRoundSizesUpToTheirSizeClass() {
+        assertEquals(BufferPool.MIN_SIZE, pool.acquire(1).buffer().capacity());
+        assertEquals(BufferPool.MIN_SIZE, pool.acquire(BufferPool.MIN_SIZE).buffer().capacity());
+        assertEquals(128, pool.acquire(BufferPool.MIN_SIZE + 1).buffer().capacity());
+        assertEquals(4096, pool.acquire(3000).buffer().capacity());
+        assertEquals(BufferPool.MAX_SIZE, pool.acquire(BufferPool.MAX_SIZE).buffer().capacity());
+    }
+
+    @Test
+    public void shouldAllocateBuffersAboveTheLargestSizeClassExactly() {
+        PooledBuffer buffer = pool.acquire(BufferPool.MAX_SIZE + 1);
+        assertEquals(BufferPool.MAX_SIZE + 1, buffer.buffer().capacity());
+
+        // Left to the garbage collector
+        buffer.release();
+        assertNotSame(buffer, pool.acquire(BufferPool.MAX_SIZE + 1));
+    }
+
+    @Test
+    public void shouldHandOutBuffersSetToTheRequestedSize() {
+        PooledBuffer buffer = pool.acquire(100);
+        assertEquals(0, buffer.buffer().position());
+        assertEquals(100, buffer.buffer().limit());
+
+        buffer.buffer().putInt(42).flip();
+        buffer.release();
+
+        PooledBuffer reused = pool.acquire(80);
+        assertSame(buffer, reused);
+        assertEquals(0, reused.buffer().position());
+        assertEquals(80, reused.buffer().limit());
+    }
+
+    @Test
+    public void shouldReturnABufferToThePoolOnceEveryHolderHasReleasedIt() {
+        PooledBuffer buffer = pool.acquire(100).retain().retain();
+
+        buffer.release();
+        buffer.release();
+        PooledBuffer other = pool.acquire(100);
+        assertNotSame(buffer, other);
+
+        buffer.release();
+        assertSame(buffer, pool.acquire(100));
+        other.release();
+    }
+
+    @Test
+    public void shouldKeepSizeClassesApart() {
+        PooledBuffer small = pool.acquire(BufferPool.MIN_SIZE);
+        small.release();
+
+        assertNotSame(small, pool.acquire(BufferPool.MIN_SIZE * 2));
+        assertSame(small, pool.acquire(BufferPool.MIN_SIZE));
+    }
+
+    @Test
+    public void shouldAllocateDirectBuffersForADirectPool() {
+        assertTrue(new BufferPool(true).acquire(100).buffer().isDirect());
+        assertFalse(pool.acquire(100).buffer().isDirect());
+    }
+}
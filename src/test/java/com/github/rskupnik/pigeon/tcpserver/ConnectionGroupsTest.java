@@ -0,0 +1,142 @@
+/*
+    Copyright 2016 Radosław Skupnik
+
+    This file is part of pigeon-tcp-server.
+
+    Pigeon-tcp-server is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    Pigeon-tcp-server is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with pigeon-tcp-server; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+
+package com.github.rskupnik.pigeon.tcpserver;
+
+import com.github.rskupnik.pigeon.commons.Packet;
+import com.github.rskupnik.pigeon.commons.PacketHandler;
+import com.github.rskupnik.pigeon.commons.exceptions.PigeonException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ConnectionGroupsTest {
+
+    private static final int PORT = 9195;
+
+    private PigeonTcpServer server;
+    private ConnectionGroups groups;
+    private Session first;
+    private Session second;
+
+    @Before
+    public void before() throws PigeonException {
+        // Sessions need a server for their settings only, it's never started
+        server = Pigeon.newServer()
+                .withPort(PORT)
+                .withPackageToScan("com.github.rskupnik.pigeon.tcpserver")
+                .withPacketHandler(new PacketHandler() {
+                    @Override
+                    public void handle(Packet packet) {
+
+                    }
+                })
+                .build();
+        groups = new ConnectionGroups();
+        first = new TestSession("127.0.0.1", server);
+        second = new TestSession("127.0.0.1", server);
+    }
+
+    @After
+    public void after() {
+        server.shutdown();
+    }
+
+    @Test
+    public void shouldTellTheFirstAndTheLastMember() {
+        assertTrue(groups.join(first, "lobby"));
+        assertFalse(groups.join(second, "lobby"));
+        assertArrayEquals(new Session[] {first, second}, groups.getMembers("lobby"));
+
+        assertFalse(groups.leave(first, "lobby"));
+        assertArrayEquals(new Session[] {second}, groups.getMembers("lobby"));
+        assertTrue(groups.leave(second, "lobby"));
+        assertFalse(groups.hasMembers("lobby"));
+        assertEquals(0, groups.getMembers("lobby").length);
+        assertTrue(groups.getGroups().isEmpty());
+    }
+
+    @Test
+    public void shouldJoinAGroupOnlyOnce() {
+        assertTrue(groups.join(first, "lobby"));
+        assertFalse(groups.join(first, "lobby"));
+        assertArrayEquals(new Session[] {first}, groups.getMembers("lobby"));
+
+        assertTrue(groups.leave(first, "lobby"));
+        assertFalse(groups.hasMembers("lobby"));
+    }
+
+    @Test
+    public void shouldNotEmptyAGroupTheSessionIsNotAMemberOf() {
+        groups.join(first, "lobby");
+
+        assertFalse(groups.leave(second, "lobby"));
+        assertFalse(groups.leave(second, "nowhere"));
+        assertArrayEquals(new Session[] {first}, groups.getMembers("lobby"));
+    }
+
+    @Test
+    public void shouldLeaveAllGroupsAndReturnThoseEmptied() {
+        groups.join(first, "lobby");
+        groups.join(first, "game");
+        groups.join(second, "game");
+
+        assertEquals(Collections.singletonList("lobby"), groups.leaveAll(first));
+        assertFalse(groups.hasMembers("lobby"));
+        assertArrayEquals(new Session[] {second}, groups.getMembers("game"));
+        assertTrue(groups.getGroups(first).isEmpty());
+        assertTrue(groups.leaveAll(first).isEmpty());
+    }
+
+    @Test
+    public void shouldKnowTheGroupsOfASession() {
+        groups.join(first, "lobby");
+        groups.join(first, "game");
+        assertEquals(new HashSet<>(Arrays.asList("lobby", "game")), groups.getGroups(first));
+
+        groups.leave(first, "lobby");
+        assertEquals(Collections.singleton("game"), groups.getGroups(first));
+        groups.leave(first, "game");
+        assertTrue(groups.getGroups(first).isEmpty());
+        assertTrue(groups.getGroups(second).isEmpty());
+    }
+
+    @Test
+    public void shouldForgetASessionWhichJoinedAfterLeavingAll() {
+        // A session closed while joining: its groups are left before the join is recorded, then the join is undone
+        groups.join(first, "lobby");
+        groups.leaveAll(first);
+        groups.join(first, "game");
+        groups.leave(first, "game");
+
+        assertTrue(groups.getGroups(first).isEmpty());
+        assertTrue(groups.leaveAll(first).isEmpty());
+        assertTrue(groups.getGroups().isEmpty());
+    }
+}
@@ -0,0 +1,150 @@
+/*
+    Copyright 2016 Radosław Skupnik
+
+    This file is part of pigeon-tcp-server.
+
+    Pigeon-tcp-server is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    Pigeon-tcp-server is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with pigeon-tcp-server; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+
+package com.github.rskupnik.pigeon.tcpserver;
+
+import com.github.rskupnik.pigeon.commons.Connection;
+import com.github.rskupnik.pigeon.commons.Packet;
+import com.github.rskupnik.pigeon.commons.PacketHandler;
+import com.github.rskupnik.pigeon.commons.exceptions.PigeonException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.UUID;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class ConnectionRegistryTest {
+
+    private static final int PORT = 9196;
+    private static final String HOST = "10.0.0.15";
+
+    private PigeonTcpServer server;
+    private ConnectionRegistry registry;
+
+    @Before
+    public void before() throws PigeonException {
+        // Sessions need a server for their settings only, it's never started
+        server = Pigeon.newServer()
+                .withPort(PORT)
+                .withPackageToScan("com.github.rskupnik.pigeon.tcpserver")
+                .withPacketHandler(new PacketHandler() {
+                    @Override
+                    public void handle(Packet packet) {
+
+                    }
+                })
+                .build();
+        registry = new ConnectionRegistry();
+    }
+
+    @After
+    public void after() {
+        server.shutdown();
+    }
+
+    @Test
+    public void shouldFindAnAddedSession() {
+        Session session = new TestSession(HOST, server);
+        registry.add(session);
+
+        assertSame(session, registry.get(session.getUuid()));
+        assertSame(session, registry.get(session.getConnection()));
+        assertSame(session.getConnection(), registry.getConnections().get(session.getUuid()));
+        assertTrue(registry.getConnectionsFromHost(HOST).contains(session.getConnection()));
+        assertEquals(1, registry.size());
+    }
+
+    @Test
+    public void shouldRemoveASessionOnlyOnce() {
+        Session session = new TestSession(HOST, server);
+        registry.add(session);
+
+        // Only the first of the threads closing a connection gets its session back and cleans up after it
+        assertSame(session, registry.remove(session.getUuid()));
+        assertNull(registry.remove(session.getUuid()));
+        assertNull(registry.remove(UUID.randomUUID()));
+
+        assertNull(registry.get(session.getUuid()));
+        assertNull(registry.get(session.getConnection()));
+        assertTrue(registry.getConnections().isEmpty());
+        assertTrue(registry.getSessions().isEmpty());
+        assertEquals(0, registry.size());
+    }
+
+    @Test
+    public void shouldClearTheHostIndexOnTheLastRemoval() {
+        Session first = new TestSession(HOST, server);
+        Session second = new TestSession(HOST, server);
+        Session other = new TestSession("10.0.0.16", server);
+        registry.add(first);
+        registry.add(second);
+        registry.add(other);
+
+        Collection<Connection> fromHost = registry.getConnectionsFromHost(HOST);
+        assertEquals(2, fromHost.size());
+        registry.remove(first.getUuid());
+        assertEquals(1, fromHost.size());
+        assertTrue(fromHost.contains(second.getConnection()));
+
+        registry.remove(second.getUuid());
+        assertTrue(registry.getConnectionsFromHost(HOST).isEmpty());
+        assertEquals(1, registry.getConnectionsFromHost("10.0.0.16").size());
+
+        // The host's entry is gone, a new connection from it gets a new one which the old view doesn't see
+        Session third = new TestSession(HOST, server);
+        registry.add(third);
+        assertTrue(fromHost.isEmpty());
+        assertTrue(registry.getConnectionsFromHost(HOST).contains(third.getConnection()));
+    }
+
+    @Test
+    public void shouldKeepTheViewOfConnectionsLive() {
+        Map<UUID, Connection> connections = registry.getConnections();
+        Session session = new TestSession(HOST, server);
+
+        registry.add(session);
+        assertSame(session.getConnection(), connections.get(session.getUuid()));
+        registry.remove(session.getUuid());
+        assertFalse(connections.containsKey(session.getUuid()));
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void shouldNotLetTheViewOfConnectionsBeModified() {
+        Session session = new TestSession(HOST, server);
+
+        registry.getConnections().put(session.getUuid(), session.getConnection());
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void shouldNotLetTheViewOfAHostsConnectionsBeModified() {
+        Session session = new TestSession(HOST, server);
+        registry.add(session);
+
+        registry.getConnectionsFromHost(HOST).clear();
+    }
+}
@@ -0,0 +1,263 @@
+/*
+    Copyright 2016 Radosław Skupnik
+
+    This file is part of pigeon-tcp-server.
+
+    Pigeon-tcp-server is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    Pigeon-tcp-server is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with pigeon-tcp-server; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+
+package com.github.rskupnik.pigeon.tcpserver;
+
+import com.github.rskupnik.pigeon.commons.Connection;
+import com.github.rskupnik.pigeon.commons.Packet;
+import com.github.rskupnik.pigeon.commons.PacketHandler;
+import com.github.rskupnik.pigeon.commons.exceptions.PigeonException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class DispatchPoolTest {
+
+    private static final int KEYS = 8;
+    private static final int PACKETS_PER_KEY = 1000;
+
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+    private PigeonTcpServer server;
+    private TestSession session;
+
+    @Before
+    public void before() throws PigeonException {
+        // Sessions need a server for their settings only, it's never started
+        server = Pigeon.newServer()
+                .withPort(9206)
+                .withPackageToScan("com.github.rskupnik.pigeon.tcpserver")
+                .withPacketHandler(new PacketHandler() {
+                    @Override
+                    public void handle(Packet packet) {
+
+                    }
+                })
+                .build();
+        session = new TestSession("127.0.0.1", server);
+    }
+
+    @After
+    public void after() {
+        executor.shutdownNow();
+        server.shutdown();
+    }
+
+    @Test
+    public void shouldHandlePacketsWithTheSameKeyInOrder() throws PigeonException, InterruptedException {
+        final List<List<Integer>> handled = new ArrayList<>();
+        for (int i = 0; i < KEYS; i++)
+            handled.add(new ArrayList<Integer>());
+        final CountDownLatch done = new CountDownLatch(KEYS * PACKETS_PER_KEY);
+
+        // The key is the remainder of the packet's data, the handler records the order of every key's packets
+        PacketHandler handler = new PacketHandler() {
+            @Override
+            public void handle(Packet packet) {
+                int data = ((TestPacket) packet).getTestData();
+                List<Integer> keyPackets = handled.get(data % KEYS);
+                synchronized (keyPackets) {
+                    keyPackets.add(data / KEYS);
+                }
+                done.countDown();
+            }
+        };
+        DispatchKeyExtractor keyExtractor = new DispatchKeyExtractor() {
+            @Override
+            public Object getKey(Connection connection, Packet packet) {
+                return ((TestPacket) packet).getTestData() % KEYS;
+            }
+        };
+
+        PacketCodec codec = new ReflectivePacketCodec(PacketRegistry.scan("com.github.rskupnik.pigeon.tcpserver"), false);
+        DispatchPool pool = new DispatchPool(4, 16, handler, keyExtractor, codec, null, "test-dispatcher-");
+        pool.start();
+        for (int i = 0; i < KEYS * PACKETS_PER_KEY; i++) {
+            TestPacket packet = new TestPacket();
+            packet.setTestData(i);
+            pool.dispatch(session, packet);
+        }
+
+        assertTrue(done.await(30, TimeUnit.SECONDS));
+        for (List<Integer> keyPackets : handled) {
+            assertEquals(PACKETS_PER_KEY, keyPackets.size());
+            for (int i = 0; i < PACKETS_PER_KEY; i++)
+                assertEquals(i, (int) keyPackets.get(i));
+        }
+
+        long handledPackets = 0;
+        for (DispatchWorkerStats stats : pool.getStats())
+            handledPackets += stats.getHandledPackets();
+        pool.shutdown();
+        assertTrue(handledPackets <= KEYS * PACKETS_PER_KEY);
+        assertEquals(0, pool.getQueueDepth());
+    }
+
+    @Test
+    public void shouldHandleQueuedPacketsBeforeTerminating() throws PigeonException, InterruptedException {
+        final AtomicInteger handled = new AtomicInteger();
+        PacketHandler handler = new PacketHandler() {
+            @Override
+            public void handle(Packet packet) {
+                try {
+                    Thread.sleep(1);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                handled.incrementAndGet();
+            }
+        };
+
+        PacketCodec codec = new ReflectivePacketCodec(PacketRegistry.scan("com.github.rskupnik.pigeon.tcpserver"), false);
+        DispatchKeyExtractor keyExtractor = new DispatchKeyExtractor() {
+            @Override
+            public Object getKey(Connection connection, Packet packet) {
+                return ((TestPacket) packet).getTestData();
+            }
+        };
+        DispatchPool pool = new DispatchPool(2, 64, handler, keyExtractor, codec, null, "test-dispatcher-");
+        pool.start();
+        for (int i = 0; i < 100; i++) {
+            TestPacket packet = new TestPacket();
+            packet.setTestData(i);
+            pool.dispatch(session, packet);
+        }
+
+        pool.shutdown();
+        assertFalse(pool.awaitTermination(System.nanoTime()));
+        assertTrue(pool.awaitTermination(System.nanoTime() + TimeUnit.SECONDS.toNanos(30)));
+        assertEquals(100, handled.get());
+    }
+
+    @Test
+    public void shouldStopReadingInsteadOfWaitingForAFullQueue() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        final List<Integer> handled = Collections.synchronizedList(new ArrayList<Integer>());
+        PacketHandler handler = new PacketHandler() {
+            @Override
+            public void handle(Packet packet) {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                handled.add(((TestPacket) packet).getTestData());
+            }
+        };
+
+        final DispatchPool pool = new DispatchPool(1, 4, handler, null, codec(), null, "test-dispatcher-");
+        pool.start();
+        session.setSuspendable(true);
+        TestPacket first = new TestPacket();
+        first.setTestData(0);
+        pool.dispatch(session, first);
+        while (pool.getQueueDepth() > 0)
+            Thread.sleep(1);
+
+        Future<?> dispatched = executor.submit(new Callable<Void>() {
+            @Override
+            public Void call() {
+                for (int i = 1; i < 20; i++) {
+                    TestPacket packet = new TestPacket();
+                    packet.setTestData(i);
+                    pool.dispatch(session, packet);
+                }
+                return null;
+            }
+        });
+
+        // The worker is stuck on the first packet, the queue holds 4 and the rest wait in the overflow
+        dispatched.get(5, TimeUnit.SECONDS);
+        assertTrue(session.isReadingSuspended());
+        assertEquals(19, pool.getQueueDepth());
+
+        release.countDown();
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while ((handled.size() < 20 || session.isReadingSuspended()) && System.nanoTime() < deadline)
+            Thread.sleep(10);
+        assertFalse(session.isReadingSuspended());
+        assertEquals(0, pool.getQueueDepth());
+        for (int i = 0; i < 20; i++)
+            assertEquals(i, (int) handled.get(i));
+        pool.shutdown();
+    }
+
+    @Test
+    public void shouldWaitForAFullQueueIfTheSessionCannotStopReading() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger handled = new AtomicInteger();
+        PacketHandler handler = new PacketHandler() {
+            @Override
+            public void handle(Packet packet) {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                handled.incrementAndGet();
+            }
+        };
+
+        final DispatchPool pool = new DispatchPool(1, 4, handler, null, codec(), null, "test-dispatcher-");
+        pool.start();
+        Future<?> dispatched = executor.submit(new Callable<Void>() {
+            @Override
+            public Void call() {
+                for (int i = 0; i < 20; i++)
+                    pool.dispatch(session, new TestPacket());
+                return null;
+            }
+        });
+
+        // Like a blocking connection's thread, which has nothing else to do
+        try {
+            dispatched.get(200, TimeUnit.MILLISECONDS);
+            fail("Dispatching to a full queue didn't wait");
+        } catch (TimeoutException e) {
+            // Waiting, as it should
+        }
+
+        release.countDown();
+        dispatched.get(5, TimeUnit.SECONDS);
+        pool.shutdown();
+        assertTrue(pool.awaitTermination(System.nanoTime() + TimeUnit.SECONDS.toNanos(5)));
+        assertEquals(20, handled.get());
+    }
+
+    private static PacketCodec codec() throws PigeonException {
+        return new ReflectivePacketCodec(PacketRegistry.scan("com.github.rskupnik.pigeon.tcpserver"), false);
+    }
+}
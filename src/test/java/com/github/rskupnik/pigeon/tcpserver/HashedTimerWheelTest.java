@@ -0,0 +1,113 @@
+/*
+    Copyright 2016 Radosław Skupnik
+
+    This file is part of pigeon-tcp-server.
+
+    Pigeon-tcp-server is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    Pigeon-tcp-server is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with pigeon-tcp-server; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+
+package com.github.rskupnik.pigeon.tcpserver;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class HashedTimerWheelTest {
+
+    private static final long TICK_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+    private HashedTimerWheel wheel;
+
+    @Before
+    public void setUp() {
+        // Only 8 buckets, so that most delays take more than one turn of the wheel
+        wheel = new HashedTimerWheel(TICK_NANOS, 8, "test-timer");
+        wheel.start();
+    }
+
+    @After
+    public void tearDown() {
+        wheel.shutdown();
+    }
+
+    @Test
+    public void shouldNeverRunTasksEarly() throws InterruptedException {
+        final int tasks = 200;
+        final CountDownLatch done = new CountDownLatch(tasks);
+        final AtomicInteger early = new AtomicInteger();
+        final AtomicLong maxLateness = new AtomicLong();
+        for (int i = 0; i < tasks; i++) {
+            final long delay = TimeUnit.MILLISECONDS.toNanos(i * 2);
+            final long deadline = System.nanoTime() + delay;
+            wheel.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    long lateness = System.nanoTime() - deadline;
+                    if (lateness < 0)
+                        early.incrementAndGet();
+                    maxLateness.set(Math.max(maxLateness.get(), lateness));
+                    done.countDown();
+                }
+            }, delay);
+        }
+
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(0, early.get());
+        // A tick late at most, with some leeway for a busy machine
+        assertTrue("Late by " + maxLateness.get() + " ns", maxLateness.get() < TICK_NANOS * 20);
+    }
+
+    @Test
+    public void shouldRunTasksScheduledByTasks() throws InterruptedException {
+        final CountDownLatch done = new CountDownLatch(5);
+        wheel.schedule(new Runnable() {
+            @Override
+            public void run() {
+                done.countDown();
+                if (done.getCount() > 0)
+                    wheel.schedule(this, TICK_NANOS * 3);
+            }
+        }, 0);
+
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void shouldKeepRunningAfterFailingTask() throws InterruptedException {
+        final CountDownLatch done = new CountDownLatch(1);
+        wheel.schedule(new Runnable() {
+            @Override
+            public void run() {
+                throw new IllegalStateException("Expected by the test");
+            }
+        }, 0);
+        wheel.schedule(new Runnable() {
+            @Override
+            public void run() {
+                done.countDown();
+            }
+        }, TICK_NANOS);
+
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+    }
+}
@@ -0,0 +1,176 @@
+/*
+    Copyright 2016 Radosław Skupnik
+
+    This file is part of pigeon-tcp-server.
+
+    Pigeon-tcp-server is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    Pigeon-tcp-server is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with pigeon-tcp-server; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+
+package com.github.rskupnik.pigeon.tcpserver;
+
+import com.github.rskupnik.pigeon.commons.Connection;
+import com.github.rskupnik.pigeon.commons.Packet;
+import com.github.rskupnik.pigeon.commons.PacketHandler;
+import com.github.rskupnik.pigeon.commons.exceptions.PigeonException;
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class IdleMonitorTest {
+
+    private static final int PORT = 9209;
+    private static final String PACKAGE = "com.github.rskupnik.pigeon.tcpserver";
+    private static final String TIMER_THREAD = "pigeon-idle-monitor";
+
+    private final Map<String, String> callbackThreads = new ConcurrentHashMap<>();
+    private final CountDownLatch disconnected = new CountDownLatch(1);
+    private final CountDownLatch release = new CountDownLatch(1);
+    private final AtomicBoolean blockFirstReadIdle = new AtomicBoolean();
+    private PigeonTcpServer server;
+    private Socket first;
+    private Socket second;
+
+    @After
+    public void after() throws IOException {
+        release.countDown();
+        if (first != null)
+            first.close();
+        if (second != null)
+            second.close();
+        if (server != null)
+            server.shutdown();
+    }
+
+    @Test
+    public void shouldEvictAReadIdleConnectionOffTheTimerThread() throws Exception {
+        server = server(Pigeon.newServer()
+                .withTransportMode(TransportMode.NIO)
+                .withReadIdleTimeoutMillis(300));
+        first = connect();
+
+        assertEquals(-1, first.getInputStream().read());
+        assertTrue(disconnected.await(5, TimeUnit.SECONDS));
+        assertFalse(callbackThreads.get("onReadIdle").startsWith(TIMER_THREAD));
+        assertFalse(callbackThreads.get("onDisconnected").startsWith(TIMER_THREAD));
+    }
+
+    @Test
+    public void shouldSendTheHeartbeatToAWriteIdleConnection() throws Exception {
+        TestPacket heartbeat = new TestPacket();
+        heartbeat.setTestData(7);
+        heartbeat.setTestText("still here");
+        server = server(Pigeon.newServer()
+                .withWriteIdleTimeoutMillis(300)
+                .withHeartbeatPacket(heartbeat));
+        first = connect();
+
+        byte[] expected = encode(heartbeat);
+        byte[] received = new byte[expected.length];
+        new DataInputStream(first.getInputStream()).readFully(received);
+        assertArrayEquals(expected, received);
+        assertFalse(callbackThreads.get("onWriteIdle").startsWith(TIMER_THREAD));
+    }
+
+    @Test
+    public void shouldKeepEvictingConnectionsWhileACallbackIsSlow() throws Exception {
+        blockFirstReadIdle.set(true);
+        server = server(Pigeon.newServer()
+                .withReceiverThreadsNumber(2)
+                .withReadIdleTimeoutMillis(300));
+        first = connect();
+        second = connect();
+
+        // The first connection reported is held up in its callback, the other one is evicted all the same
+        assertTrue(disconnected.await(5, TimeUnit.SECONDS));
+        assertEquals(1, server.getConnectionCount());
+    }
+
+    private PigeonTcpServer server(PigeonTcpServerBuilder builder) throws PigeonException {
+        PigeonTcpServer server = builder
+                .withPort(PORT)
+                .withPackageToScan(PACKAGE)
+                .withServerCallbackHandler(new TcpServerCallbackHandler() {
+                    @Override
+                    public void onReadIdle(Connection connection) {
+                        callbackThreads.put("onReadIdle", Thread.currentThread().getName());
+                        if (blockFirstReadIdle.compareAndSet(true, false)) {
+                            try {
+                                release.await();
+                            } catch (InterruptedException e) {
+                                Thread.currentThread().interrupt();
+                            }
+                        }
+                    }
+
+                    @Override
+                    public void onWriteIdle(Connection connection) {
+                        callbackThreads.put("onWriteIdle", Thread.currentThread().getName());
+                    }
+
+                    @Override
+                    public void onStarted() {
+
+                    }
+
+                    @Override
+                    public void onNewConnection(Connection connection) {
+
+                    }
+
+                    @Override
+                    public void onDisconnected(Connection connection) {
+                        callbackThreads.put("onDisconnected", Thread.currentThread().getName());
+                        disconnected.countDown();
+                    }
+                })
+                .withPacketHandler(new PacketHandler() {
+                    @Override
+                    public void handle(Packet packet) {
+
+                    }
+                })
+                .build();
+        server.start();
+        return server;
+    }
+
+    private static Socket connect() throws IOException {
+        Socket socket = new Socket("localhost", PORT);
+        socket.setSoTimeout(5000);
+        assertEquals(1, socket.getInputStream().read());
+        return socket;
+    }
+
+    private static byte[] encode(Packet packet) throws Exception {
+        ByteBuffer buffer = new CompiledPacketCodec(PacketRegistry.scan(PACKAGE), false).encode(packet, new BufferPool(false)).buffer();
+        byte[] encoded = new byte[buffer.remaining()];
+        buffer.get(encoded);
+        return encoded;
+    }
+}
@@ -0,0 +1,186 @@
+/*
+    Copyright 2016 Radosław Skupnik
+
+    This file is part of pigeon-tcp-server.
+
+    Pigeon-tcp-server is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    Pigeon-tcp-server is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with pigeon-tcp-server; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+
+package com.github.rskupnik.pigeon.tcpserver;
+
+import com.github.rskupnik.pigeon.commons.Packet;
+import com.github.rskupnik.pigeon.commons.PacketHandler;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class IncomingPacketRingBufferTest {
+
+    @Test
+    public void shouldRoundCapacityUpToPowerOfTwo() {
+        assertEquals(8, new IncomingPacketRingBuffer(5, WaitStrategy.PARK).getCapacity());
+        assertEquals(8, new IncomingPacketRingBuffer(8, WaitStrategy.PARK).getCapacity());
+    }
+
+    @Test
+    public void shouldRejectPacketsWhenFull() {
+        IncomingPacketRingBuffer queue = new IncomingPacketRingBuffer(2, WaitStrategy.PARK);
+
+        assertTrue(queue.offer(packet(1)));
+        assertTrue(queue.offer(packet(2)));
+        assertFalse(queue.offer(packet(3)));
+        assertEquals(1, ((TestPacket) queue.poll()).getTestData());
+        assertTrue(queue.offer(packet(3)));
+        assertEquals(2, queue.size());
+    }
+
+    @Test
+    public void shouldDrainInOrderUpToMaxBatch() {
+        IncomingPacketRingBuffer queue = new IncomingPacketRingBuffer(16, WaitStrategy.PARK);
+        for (int i = 0; i < 10; i++)
+            queue.push(packet(i));
+
+        final List<Packet> drained = new ArrayList<>();
+        PacketHandler handler = new PacketHandler() {
+            @Override
+            public void handle(Packet packet) {
+                drained.add(packet);
+            }
+        };
+
+        assertEquals(4, queue.drainTo(handler, 4));
+        assertEquals(6, queue.drainTo(handler, 100));
+        assertEquals(0, queue.drainTo(handler, 100));
+        for (int i = 0; i < 10; i++)
+            assertEquals(i, ((TestPacket) drained.get(i)).getTestData());
+    }
+
+    @Test
+    public void shouldHandOverPositionsAsSequenceNumbers() {
+        IncomingPacketRingBuffer queue = new IncomingPacketRingBuffer(4, WaitStrategy.PARK);
+        final List<Long> sequences = new ArrayList<>();
+        SequencedPacketHandler handler = new SequencedPacketHandler() {
+            @Override
+            public void handle(Packet packet, long sequence) {
+                assertEquals(sequence, ((TestPacket) packet).getTestData());
+                sequences.add(sequence);
+            }
+        };
+
+        // Goes around the ring a few times
+        for (int i = 0; i < 10; i++) {
+            queue.push(packet(i));
+            assertEquals(1, queue.drainTo(handler, 100));
+        }
+        assertEquals(10, sequences.size());
+        assertEquals(9L, (long) sequences.get(9));
+    }
+
+    @Test
+    public void shouldReturnNullWhenTakeTimesOut() throws InterruptedException {
+        IncomingPacketRingBuffer queue = new IncomingPacketRingBuffer(16, WaitStrategy.PARK);
+
+        assertNull(queue.take(10, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void shouldWakeUpWaitingConsumer() throws InterruptedException {
+        final IncomingPacketRingBuffer queue = new IncomingPacketRingBuffer(16, WaitStrategy.PARK);
+        final TestPacket packet = packet(1);
+        Thread producer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(50);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                queue.push(packet);
+            }
+        });
+        producer.start();
+
+        assertSame(packet, queue.take(10, TimeUnit.SECONDS));
+        producer.join();
+    }
+
+    @Test
+    public void shouldPassEveryPacketFromManyProducersToManyConsumers() throws InterruptedException {
+        // BUSY_SPIN is left out, it needs a free core for every waiting thread not to crawl
+        passPackets(new IncomingPacketRingBuffer(64, WaitStrategy.PARK));
+        passPackets(new IncomingPacketRingBuffer(64, WaitStrategy.YIELD));
+    }
+
+    private static void passPackets(final IncomingPacketRingBuffer queue) throws InterruptedException {
+        final int producersCount = 3;
+        final int packetsPerProducer = 20000;
+        final AtomicLong received = new AtomicLong();
+        final AtomicLong sum = new AtomicLong();
+
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < producersCount; i++) {
+            threads.add(new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int j = 1; j <= packetsPerProducer; j++)
+                        queue.push(packet(j));
+                }
+            }));
+        }
+        for (int i = 0; i < 2; i++) {
+            threads.add(new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    PacketHandler handler = new PacketHandler() {
+                        @Override
+                        public void handle(Packet packet) {
+                            sum.addAndGet(((TestPacket) packet).getTestData());
+                        }
+                    };
+                    try {
+                        while (received.get() < producersCount * packetsPerProducer)
+                            received.addAndGet(queue.drainTo(handler, 16, 10, TimeUnit.MILLISECONDS));
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            }));
+        }
+
+        for (Thread thread : threads)
+            thread.start();
+        for (Thread thread : threads)
+            thread.join(30000);
+
+        assertEquals(producersCount * packetsPerProducer, received.get());
+        assertEquals((long) producersCount * packetsPerProducer * (packetsPerProducer + 1) / 2, sum.get());
+        assertTrue(queue.isEmpty());
+    }
+
+    private static TestPacket packet(int data) {
+        TestPacket packet = new TestPacket();
+        packet.setTestData(data);
+        return packet;
+    }
+}
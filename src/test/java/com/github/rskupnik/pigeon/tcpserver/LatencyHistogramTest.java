@@ -0,0 +1,101 @@
+/*
+    Copyright 2016 Radosław Skupnik
+
+    This file is part of pigeon-tcp-server.
+
+    Pigeon-tcp-server is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    Pigeon-tcp-server is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with pigeon-tcp-server; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+
+package com.github.rskupnik.pigeon.tcpserver;
+
+import org.junit.Test;
+
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+import java.lang.management.ManagementFactory;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void shouldKeepValuesWithinRelativeError() {
+        for (long value = 0; value < LatencyHistogram.MAX_VALUE; value = value * 3 / 2 + 1) {
+            long highest = LatencyHistogram.highestValueAt(LatencyHistogram.index(value));
+            assertTrue(value + " counted as " + highest, highest >= value && highest - value <= value / 64);
+        }
+    }
+
+    @Test
+    public void shouldGiveIndexesInValueOrder() {
+        int previous = -1;
+        for (long value = 0; value < 100000; value++) {
+            int index = LatencyHistogram.index(value);
+            assertTrue(index == previous || index == previous + 1);
+            previous = index;
+        }
+    }
+
+    @Test
+    public void shouldComputePercentiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 1000; i++)
+            histogram.record(i * 1000L);
+
+        HistogramSnapshot snapshot = histogram.snapshot();
+        assertEquals(1000, snapshot.getCount());
+        assertEquals(1000000, snapshot.getMaxNanos());
+        assertEquals(500500, snapshot.getMeanNanos(), 0.001);
+        assertWithinError(500000, snapshot.getP50Nanos());
+        assertWithinError(990000, snapshot.getP99Nanos());
+        assertEquals(1000000, snapshot.getValueAtPercentile(100));
+        assertWithinError(1000, snapshot.getValueAtPercentile(0));
+    }
+
+    @Test
+    public void shouldClampValuesOutOfRange() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(-5);
+        histogram.record(Long.MAX_VALUE);
+
+        HistogramSnapshot snapshot = histogram.snapshot();
+        assertEquals(2, snapshot.getCount());
+        assertEquals(0, snapshot.getValueAtPercentile(50));
+        assertEquals(LatencyHistogram.MAX_VALUE, snapshot.getMaxNanos());
+    }
+
+    @Test
+    public void shouldExportMetricsOverJmx() throws Exception {
+        ServerMetrics metrics = new ServerMetrics();
+        metrics.onConnectionAccepted();
+        metrics.onPacketHandled(2000);
+
+        ObjectName name = new ObjectName("com.github.rskupnik.pigeon:type=PigeonTcpServer,port=0");
+        ManagementFactory.getPlatformMBeanServer().registerMBean(metrics, name);
+        try {
+            assertEquals(1L, ManagementFactory.getPlatformMBeanServer().getAttribute(name, "ConnectionsAccepted"));
+            CompositeData handlerTime = (CompositeData) ManagementFactory.getPlatformMBeanServer().getAttribute(name, "HandlerTime");
+            assertEquals(1L, handlerTime.get("count"));
+            assertEquals(2000L, handlerTime.get("maxNanos"));
+        } finally {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+        }
+    }
+
+    private static void assertWithinError(long expected, long actual) {
+        assertTrue("Expected " + expected + " but was " + actual, actual >= expected && actual - expected <= expected / 64);
+    }
+}
@@ -0,0 +1,76 @@
+/*
+    Copyright 2016 Radosław Skupnik
+
+    This file is part of pigeon-tcp-server.
+
+    Pigeon-tcp-server is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    Pigeon-tcp-server is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with pigeon-tcp-server; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+
+package com.github.rskupnik.pigeon.tcpserver;
+
+import com.github.rskupnik.pigeon.commons.exceptions.PigeonException;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class PacketCodecTest {
+
+    private PacketRegistry registry;
+    private BufferPool pool;
+    private TestPacket packet;
+
+    @Before
+    public void before() throws PigeonException {
+        registry = PacketRegistry.scan("com.github.rskupnik.pigeon.tcpserver");
+        pool = new BufferPool(false);
+        packet = new TestPacket();
+        packet.setTestData(123456);
+        packet.setTestText("zażółć");
+    }
+
+    @Test
+    public void shouldEncodeTheSameBytesWithBothCodecs() throws PigeonException {
+        ByteBuffer reflective = new ReflectivePacketCodec(registry, false).encode(packet, pool).buffer();
+        ByteBuffer compiled = new CompiledPacketCodec(registry, false).encode(packet, pool).buffer();
+
+        assertEquals(reflective, compiled);
+    }
+
+    @Test
+    public void shouldDecodeEncodedPacket() throws PigeonException {
+        CompiledPacketCodec codec = new CompiledPacketCodec(registry, false);
+        ByteBuffer encoded = codec.encode(packet, pool).buffer();
+
+        TestPacket decoded = (TestPacket) codec.decode(encoded);
+
+        assertEquals(123456, decoded.getTestData());
+        assertEquals("zażółć", decoded.getTestText());
+        assertEquals(0, encoded.remaining());
+    }
+
+    @Test
+    public void shouldNotDecodeIncompletePacket() throws PigeonException {
+        CompiledPacketCodec codec = new CompiledPacketCodec(registry, false);
+        ByteBuffer encoded = codec.encode(packet, pool).buffer();
+        encoded.limit(encoded.limit() - 1);
+
+        assertNull(codec.decode(encoded));
+        assertEquals(0, encoded.position());
+    }
+}
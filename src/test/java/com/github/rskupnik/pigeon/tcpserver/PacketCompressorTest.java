@@ -0,0 +1,145 @@
+/*
+    Copyright 2016 Radosław Skupnik
+
+    This file is part of pigeon-tcp-server.
+
+    Pigeon-tcp-server is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    Pigeon-tcp-server is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with pigeon-tcp-server; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+
+package com.github.rskupnik.pigeon.tcpserver;
+
+import com.github.rskupnik.pigeon.commons.exceptions.PigeonException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class PacketCompressorTest {
+
+    private static final int CODECS = CompressionCodec.DEFLATE_FAST.getMask() | CompressionCodec.DEFLATE.getMask();
+
+    private PacketCodec codec;
+    private BufferPool pool;
+    private PacketCompressor sender;
+    private PacketCompressor receiver;
+
+    @Before
+    public void before() throws PigeonException {
+        codec = new CompiledPacketCodec(PacketRegistry.scan("com.github.rskupnik.pigeon.tcpserver"), false);
+        pool = new BufferPool(false);
+        sender = new PacketCompressor(null, CODECS, pool);
+        receiver = new PacketCompressor(null, CODECS, pool);
+    }
+
+    @After
+    public void after() {
+        sender.end();
+        receiver.end();
+    }
+
+    @Test
+    public void shouldDecompressPacketsInOrder() throws PigeonException {
+        int firstSize = 0;
+        int lastSize = 0;
+        for (int i = 0; i < 100; i++) {
+            CompressionCodec compressionCodec = i % 3 == 0 ? CompressionCodec.DEFLATE : CompressionCodec.DEFLATE_FAST;
+            ByteBuffer frame = sender.deflate(encode(i), compressionCodec).buffer();
+            if (i == 0)
+                firstSize = frame.remaining();
+            lastSize = frame.remaining();
+
+            TestPacket decoded = (TestPacket) codec.decode(receiver.inflate(frame));
+            assertEquals(i, decoded.getTestData());
+            assertEquals(text(i), decoded.getTestText());
+            assertEquals(0, frame.remaining());
+        }
+
+        // The dictionary is kept between packets, so the later ones are mostly references to the earlier ones
+        assertTrue("First " + firstSize + " bytes, last " + lastSize + " bytes", lastSize < firstSize / 2);
+    }
+
+    @Test
+    public void shouldLeaveTheSourceUntouched() throws PigeonException {
+        ByteBuffer encoded = encode(1);
+        int position = encoded.position();
+        int limit = encoded.limit();
+
+        sender.deflate(encoded, CompressionCodec.DEFLATE);
+
+        assertEquals(position, encoded.position());
+        assertEquals(limit, encoded.limit());
+    }
+
+    @Test
+    public void shouldWaitForTheRestOfTheFrame() throws PigeonException {
+        ByteBuffer frame = sender.deflate(encode(1), CompressionCodec.DEFLATE).buffer();
+
+        // A direct buffer, like the read buffers of NIO connections
+        ByteBuffer partial = ByteBuffer.allocateDirect(frame.remaining());
+        partial.put(frame.duplicate()).flip();
+        partial.limit(partial.limit() - 1);
+
+        assertNull(receiver.inflate(partial));
+        assertEquals(0, partial.position());
+
+        partial.limit(partial.capacity());
+        TestPacket decoded = (TestPacket) codec.decode(receiver.inflate(partial));
+        assertEquals(text(1), decoded.getTestText());
+    }
+
+    @Test(expected = PigeonException.class)
+    public void shouldRejectAFrameOfAnotherSize() throws PigeonException {
+        ByteBuffer frame = sender.deflate(encode(1), CompressionCodec.DEFLATE).buffer();
+        frame.putInt(5, frame.getInt(5) - 1);   // The declared size of the packet
+
+        receiver.inflate(frame);
+    }
+
+    @Test(expected = PigeonException.class)
+    public void shouldRejectACorruptedFrame() throws PigeonException {
+        ByteBuffer frame = sender.deflate(encode(1), CompressionCodec.DEFLATE).buffer();
+        for (int i = PacketCompressor.HEADER_SIZE; i < frame.limit(); i++)
+            frame.put(i, (byte) 0xFF);
+
+        receiver.inflate(frame);
+    }
+
+    @Test(expected = PigeonException.class)
+    public void shouldRejectACodecWhichHasNotBeenNegotiated() throws PigeonException {
+        PacketCompressor fastOnly = new PacketCompressor(null, CompressionCodec.DEFLATE_FAST.getMask(), pool);
+        try {
+            fastOnly.inflate(sender.deflate(encode(1), CompressionCodec.DEFLATE).buffer());
+        } finally {
+            fastOnly.end();
+        }
+    }
+
+    private ByteBuffer encode(int i) throws PigeonException {
+        TestPacket packet = new TestPacket();
+        packet.setTestData(i);
+        packet.setTestText(text(i));
+        return codec.encode(packet, pool).buffer();
+    }
+
+    private static String text(int i) {
+        return "{\"sensor\":\"temperature\",\"unit\":\"celsius\",\"location\":\"warehouse-3\",\"reading\":" + (20 + i % 7)
+                + ",\"status\":\"ok\",\"sequence\":" + i + "}";
+    }
+}
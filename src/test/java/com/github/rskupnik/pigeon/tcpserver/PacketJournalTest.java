@@ -0,0 +1,177 @@
+/*
+    Copyright 2016 Radosław Skupnik
+
+    This file is part of pigeon-tcp-server.
+
+    Pigeon-tcp-server is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    Pigeon-tcp-server is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with pigeon-tcp-server; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+
+package com.github.rskupnik.pigeon.tcpserver;
+
+import com.github.rskupnik.pigeon.commons.Packet;
+import com.github.rskupnik.pigeon.commons.exceptions.PigeonException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class PacketJournalTest {
+
+    private File directory;
+    private PacketCodec codec;
+    private BufferPool pool;
+
+    @Before
+    public void before() throws IOException, PigeonException {
+        directory = Files.createTempDirectory("pigeon-journal").toFile();
+        codec = new CompiledPacketCodec(PacketRegistry.scan("com.github.rskupnik.pigeon.tcpserver"), false);
+        pool = new BufferPool(false);
+    }
+
+    @After
+    public void after() {
+        for (File file : directory.listFiles())
+            file.delete();
+        directory.delete();
+    }
+
+    @Test
+    public void shouldReplayUnacknowledgedPacketsAfterRestart() throws IOException {
+        PacketJournal journal = open(1024 * 1024);
+        IncomingPacketRingBuffer queue = queue(journal);
+        for (int i = 0; i < 10; i++)
+            queue.offer(packet(i));
+        assertEquals(10, drain(queue).size());
+        journal.acknowledge(5);
+        journal.close();
+
+        journal = open(1024 * 1024);
+        queue = queue(journal);
+        assertEquals(10, journal.getFirstSequence());
+        assertEquals(4, journal.replay(queue));
+
+        List<Packet> replayed = drain(queue);
+        for (int i = 0; i < 4; i++)
+            assertEquals(6 + i, ((TestPacket) replayed.get(i)).getTestData());
+        journal.close();
+    }
+
+    @Test
+    public void shouldNotReplayAcknowledgedPackets() throws IOException {
+        PacketJournal journal = open(1024 * 1024);
+        IncomingPacketRingBuffer queue = queue(journal);
+        for (int i = 0; i < 3; i++)
+            queue.offer(packet(i));
+        journal.acknowledge(2);
+        journal.acknowledge(1);     // Lower than before, ignored
+        journal.close();
+
+        journal = open(1024 * 1024);
+        assertEquals(2, journal.getAcknowledged());
+        assertEquals(0, journal.replay(queue(journal)));
+        journal.close();
+    }
+
+    @Test
+    public void shouldRollSegmentsAndDeleteAcknowledgedOnes() throws IOException {
+        PacketJournal journal = open(1024);
+        IncomingPacketRingBuffer queue = queue(journal);
+        for (int i = 0; i < 100; i++) {
+            queue.offer(packet(i));
+            drain(queue);
+        }
+        assertTrue(segments() > 2);
+
+        journal.acknowledge(99);
+        journal.sync();
+        assertEquals(1, segments());    // Only the active one
+        journal.close();
+    }
+
+    @Test
+    public void shouldStopReadingAtDamagedRecord() throws IOException, PigeonException {
+        PacketJournal journal = open(1024 * 1024);
+        IncomingPacketRingBuffer queue = queue(journal);
+        for (int i = 0; i < 3; i++)
+            queue.offer(packet(i));
+        journal.close();
+
+        // Flips a byte in the content of the second record
+        int recordSize = codec.encode(packet(0), pool).buffer().remaining() + PacketJournal.RECORD_HEADER_SIZE;
+        try (RandomAccessFile segment = new RandomAccessFile(new File(directory, String.format("%020d.journal", 0)), "rw")) {
+            segment.seek(recordSize + PacketJournal.RECORD_HEADER_SIZE + 2);
+            segment.write(segment.read() ^ 0xFF);
+        }
+
+        journal = open(1024 * 1024);
+        assertEquals(1, journal.replay(queue(journal)));
+        journal.close();
+    }
+
+    @Test
+    public void shouldNotOpenDirectoryInUse() throws IOException {
+        PacketJournal journal = open(1024 * 1024);
+        try {
+            open(1024 * 1024);
+            fail();
+        } catch (IOException e) {
+            // Expected
+        } finally {
+            journal.close();
+        }
+    }
+
+    private PacketJournal open(int segmentSize) throws IOException {
+        return new PacketJournal(directory.getPath(), segmentSize, 0, 0, codec, pool);
+    }
+
+    private IncomingPacketRingBuffer queue(PacketJournal journal) {
+        return new IncomingPacketRingBuffer(16, WaitStrategy.PARK, null, journal);
+    }
+
+    private int segments() {
+        int segments = 0;
+        for (String name : directory.list()) {
+            if (name.endsWith(".journal"))
+                segments++;
+        }
+        return segments;
+    }
+
+    private static List<Packet> drain(IncomingPacketRingBuffer queue) {
+        List<Packet> packets = new ArrayList<>();
+        Packet packet;
+        while ((packet = queue.poll()) != null)
+            packets.add(packet);
+        return packets;
+    }
+
+    private static TestPacket packet(int data) {
+        TestPacket packet = new TestPacket();
+        packet.setTestData(data);
+        packet.setTestText("journaled");
+        return packet;
+    }
+}
@@ -0,0 +1,57 @@
+/*
+    Copyright 2016 Radosław Skupnik
+
+    This file is part of pigeon-tcp-server.
+
+    Pigeon-tcp-server is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    Pigeon-tcp-server is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with pigeon-tcp-server; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+
+package com.github.rskupnik.pigeon.tcpserver;
+
+import com.github.rskupnik.pigeon.commons.exceptions.PigeonException;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+public class PacketRegistryTest {
+
+    private static final String PACKAGE = "com.github.rskupnik.pigeon.tcpserver";
+
+    @Test
+    public void shouldLoadPacketsInPackage() throws PigeonException {
+        PacketRegistry registry = PacketRegistry.load(PACKAGE);
+
+        assertNotNull(registry.get(1));
+        assertEquals(TestPacket.class, registry.get(1).getType());
+        assertEquals(PACKAGE, registry.getCommonPackage());
+    }
+
+    @Test
+    public void shouldParseIndexEntries() {
+        PacketRegistry.IndexEntry entry = PacketRegistry.IndexEntry.parse(" 7 com.example.Outer$Inner ");
+
+        assertEquals(7, entry.getId());
+        assertEquals("com.example.Outer$Inner", entry.getClassName());
+        assertNull(PacketRegistry.IndexEntry.parse("# Generated by PacketIndexProcessor"));
+        assertNull(PacketRegistry.IndexEntry.parse(""));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldRejectMalformedIndexEntries() {
+        PacketRegistry.IndexEntry.parse("com.example.Packet");
+    }
+}
@@ -0,0 +1,77 @@
+/*
+    Copyright 2016 Radosław Skupnik
+
+    This file is part of pigeon-tcp-server.
+
+    Pigeon-tcp-server is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    Pigeon-tcp-server is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with pigeon-tcp-server; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+
+package com.github.rskupnik.pigeon.tcpserver;
+
+import com.github.rskupnik.pigeon.commons.Packet;
+import com.github.rskupnik.pigeon.commons.PacketHandler;
+import com.github.rskupnik.pigeon.commons.exceptions.PigeonException;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class PacketRouterTest {
+
+    private PacketRegistry registry;
+    private PacketCodec codec;
+    private PacketHandler handler;
+
+    @Before
+    public void before() throws PigeonException {
+        registry = PacketRegistry.scan("com.github.rskupnik.pigeon.tcpserver");
+        codec = new ReflectivePacketCodec(registry, false);
+        handler = new PacketHandler() {
+            @Override
+            public void handle(Packet packet) {
+
+            }
+        };
+    }
+
+    @Test
+    public void shouldRouteByClassAndId() throws PigeonException {
+        PacketRoute route = new PacketRoute(null, TestPacket.class, handler, ExecutionPolicy.INLINE, 1);
+        PacketRouter router = new PacketRouter(Collections.singletonList(route), registry, null, 16, codec, null);
+
+        assertSame(route, router.get(1));
+        assertSame(route, router.get(router.getId(new TestPacket())));
+        assertEquals(1, router.getId(new TestPacket()));
+        assertNull(router.get(2));
+        assertNull(router.get(-1));
+    }
+
+    @Test(expected = PigeonException.class)
+    public void shouldRejectUnknownPacket() throws PigeonException {
+        new PacketRouter(Collections.singletonList(new PacketRoute(12345, null, handler, ExecutionPolicy.INLINE, 1)), registry, null, 16, codec, null);
+    }
+
+    @Test(expected = PigeonException.class)
+    public void shouldRejectPacketRoutedTwice() throws PigeonException {
+        new PacketRouter(Arrays.asList(
+                new PacketRoute(1, null, handler, ExecutionPolicy.INLINE, 1),
+                new PacketRoute(null, TestPacket.class, handler, ExecutionPolicy.SHARED, 1)), registry, null, 16, codec, null);
+    }
+}
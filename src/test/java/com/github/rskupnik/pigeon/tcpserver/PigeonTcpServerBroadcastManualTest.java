@@ -0,0 +1,113 @@
+/*
+    Copyright 2016 Radosław Skupnik
+
+    This file is part of pigeon-tcp-server.
+
+    Pigeon-tcp-server is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    Pigeon-tcp-server is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with pigeon-tcp-server; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+
+package com.github.rskupnik.pigeon.tcpserver;
+
+import com.github.rskupnik.pigeon.commons.Packet;
+import com.github.rskupnik.pigeon.commons.PacketHandler;
+
+import java.io.InputStream;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Broadcasts packets to many connected clients and reports how fast the fan-out reaches all of them.
+ *
+ * Arguments: [blocking|nio] [clients] [broadcasts]
+ */
+public class PigeonTcpServerBroadcastManualTest {
+
+    private static final int PORT = 9053;
+    private static final String PACKAGE = "com.github.rskupnik.pigeon.tcpserver";
+
+    public static void main(String[] args) throws Exception {
+        TransportMode mode = args.length > 0 ? TransportMode.fromString(args[0]) : TransportMode.NIO;
+        int clients = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+        int broadcasts = args.length > 2 ? Integer.parseInt(args[2]) : 1000;
+
+        PigeonTcpServer server = Pigeon.newServer()
+                .withPort(PORT)
+                .withTransportMode(mode)
+                .withPackageToScan(PACKAGE)
+                .withPacketHandler(new PacketHandler() {
+                    @Override
+                    public void handle(Packet packet) {
+
+                    }
+                })
+                .build();
+        server.start();
+
+        final LongAdder bytesReceived = new LongAdder();
+        List<Socket> sockets = new ArrayList<>(clients);
+        for (int i = 0; i < clients; i++) {
+            final Socket socket = new Socket("localhost", PORT);
+            socket.getInputStream().read();
+            sockets.add(socket);
+            Thread reader = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    byte[] buffer = new byte[8192];
+                    try {
+                        InputStream in = socket.getInputStream();
+                        int read;
+                        while ((read = in.read(buffer)) >= 0)
+                            bytesReceived.add(read);
+                    } catch (Exception e) {
+                        // Socket closed at the end of the test
+                    }
+                }
+            });
+            reader.setDaemon(true);
+            reader.start();
+        }
+        while (server.getConnectionCount() < clients)
+            Thread.sleep(10);
+
+        TestPacket packet = new TestPacket();
+        packet.setTestData(42);
+        packet.setTestText("a broadcast to everyone");
+        int packetSize = new ReflectivePacketCodec(PacketRegistry.scan(PACKAGE), false).encode(packet, new BufferPool(false)).buffer().remaining();
+
+        long start = System.nanoTime();
+        for (int i = 0; i < broadcasts; i++)
+            server.broadcast(packet);
+        long queued = System.nanoTime() - start;
+
+        long expected = (long) clients * broadcasts * packetSize;
+        while (bytesReceived.sum() < expected && System.nanoTime() - start < TimeUnit.MINUTES.toNanos(5))
+            Thread.sleep(1);
+        long elapsed = System.nanoTime() - start;
+
+        System.out.println("Transport mode:          " + mode);
+        System.out.println("Recipients:              " + clients);
+        System.out.println("Broadcast call time (ms): " + TimeUnit.NANOSECONDS.toMillis(queued));
+        System.out.println("Delivered (bytes):       " + bytesReceived.sum() + " / " + expected);
+        System.out.println("Delivered (packets/s):   " + (long) (bytesReceived.sum() / packetSize / (elapsed / 1e9)));
+
+        for (Socket socket : sockets)
+            socket.close();
+        server.shutdown();
+        System.exit(0);
+    }
+}
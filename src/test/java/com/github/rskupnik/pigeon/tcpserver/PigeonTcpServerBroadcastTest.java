@@ -0,0 +1,196 @@
+/*
+    Copyright 2016 Radosław Skupnik
+
+    This file is part of pigeon-tcp-server.
+
+    Pigeon-tcp-server is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    Pigeon-tcp-server is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with pigeon-tcp-server; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+
+package com.github.rskupnik.pigeon.tcpserver;
+
+import com.github.rskupnik.pigeon.commons.Connection;
+import com.github.rskupnik.pigeon.commons.Packet;
+import com.github.rskupnik.pigeon.commons.PacketHandler;
+import com.github.rskupnik.pigeon.commons.exceptions.PigeonException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class PigeonTcpServerBroadcastTest {
+
+    private static final int PORT = 9205;
+    private static final String PACKAGE = "com.github.rskupnik.pigeon.tcpserver";
+    private static final String GROUP = "lobby";
+
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private PigeonTcpServer server;
+    private Socket slow;
+    private Socket fast;
+    private Connection slowConnection;
+    private Connection fastConnection;
+
+    @Before
+    public void before() throws Exception {
+        server = Pigeon.newServer()
+                .withPort(PORT)
+                .withTransportMode(TransportMode.NIO)
+                .withPackageToScan(PACKAGE)
+                .withWriteQueueOverflowPolicy(WriteQueueOverflowPolicy.BLOCK)
+                .withWriteQueueCapacity(16 * 1024)
+                .withSocketSendBufferSize(4096)
+                .withPacketHandler(new PacketHandler() {
+                    @Override
+                    public void handle(Packet packet) {
+
+                    }
+                })
+                .build();
+        server.start();
+
+        // Never reads anything past the accept byte
+        slow = connect();
+        slowConnection = awaitConnection(null);
+        fast = connect();
+        fastConnection = awaitConnection(slowConnection);
+        fillWriteQueue(slowConnection);
+    }
+
+    @After
+    public void after() throws IOException {
+        slow.close();
+        fast.close();
+        server.shutdown();
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void shouldBroadcastPastARecipientWithAFullQueue() throws Exception {
+        final TestPacket packet = packet("to everyone");
+        Future<?> broadcast = executor.submit(new Callable<Void>() {
+            @Override
+            public Void call() throws PigeonException {
+                server.broadcast(packet);
+                return null;
+            }
+        });
+
+        broadcast.get(5, TimeUnit.SECONDS);
+        assertReceived(packet);
+    }
+
+    @Test
+    public void shouldSendToAGroupPastAMemberWithAFullQueue() throws Exception {
+        server.join(slowConnection, GROUP);
+        server.join(fastConnection, GROUP);
+        final TestPacket packet = packet("to the lobby");
+        Future<?> send = executor.submit(new Callable<Void>() {
+            @Override
+            public Void call() throws PigeonException {
+                server.sendToGroup(packet, GROUP);
+                return null;
+            }
+        });
+
+        send.get(5, TimeUnit.SECONDS);
+        assertReceived(packet);
+    }
+
+    private Socket connect() throws IOException {
+        Socket socket = new Socket();
+        socket.setReceiveBufferSize(4096);
+        socket.connect(new InetSocketAddress("localhost", PORT));
+        socket.setSoTimeout(5000);
+        assertEquals(1, socket.getInputStream().read());
+        return socket;
+    }
+
+    private Connection awaitConnection(Connection other) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (System.nanoTime() < deadline) {
+            for (Connection connection : server.getConnections().values()) {
+                if (connection != other)
+                    return connection;
+            }
+            Thread.sleep(10);
+        }
+        throw new AssertionError("The server hasn't registered the connection");
+    }
+
+    /**
+     * Sends to the connection until the sending thread blocks, which it does once the socket buffers and the write queue are full.
+     */
+    private void fillWriteQueue(final Connection connection) throws InterruptedException {
+        final AtomicInteger sent = new AtomicInteger();
+        executor.submit(new Callable<Void>() {
+            @Override
+            public Void call() throws PigeonException {
+                TestPacket packet = packet("filler");
+                while (!Thread.currentThread().isInterrupted()) {
+                    server.send(packet, connection);
+                    sent.incrementAndGet();
+                }
+                return null;
+            }
+        });
+
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        int last = -1;
+        while (sent.get() != last && System.nanoTime() < deadline) {
+            last = sent.get();
+            Thread.sleep(300);
+        }
+        assertTrue("The write queue of a client which doesn't read never filled up", sent.get() == last && last > 0);
+    }
+
+    private void assertReceived(TestPacket packet) throws Exception {
+        byte[] expected = encode(packet);
+        byte[] received = new byte[expected.length];
+        new DataInputStream(fast.getInputStream()).readFully(received);
+        assertArrayEquals(expected, received);
+    }
+
+    private static TestPacket packet(String prefix) {
+        char[] text = new char[1000];
+        Arrays.fill(text, 'x');
+        TestPacket packet = new TestPacket();
+        packet.setTestData(42);
+        packet.setTestText(prefix + new String(text));
+        return packet;
+    }
+
+    private static byte[] encode(Packet packet) throws Exception {
+        ByteBuffer buffer = new CompiledPacketCodec(PacketRegistry.scan(PACKAGE), false).encode(packet, new BufferPool(false)).buffer();
+        byte[] encoded = new byte[buffer.remaining()];
+        buffer.get(encoded);
+        return encoded;
+    }
+}
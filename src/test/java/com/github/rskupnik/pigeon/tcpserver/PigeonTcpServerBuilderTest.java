@@ -29,17 +29,35 @@ import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.mockito.runners.MockitoJUnitRunner;
 
+import java.io.File;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.nio.file.Files;
+
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 @RunWith(MockitoJUnitRunner.class)
 public class PigeonTcpServerBuilderTest {
 
     private PigeonTcpServer server;
+    private File journalDirectory;
 
     @After
     public void after() {
-        server.shutdown();
+        if (server != null)
+            server.shutdown();
+        if (journalDirectory != null) {
+            File[] files = journalDirectory.listFiles();
+            if (files != null) {
+                for (File file : files)
+                    file.delete();
+            }
+            journalDirectory.delete();
+        }
     }
 
     @Test
@@ -57,8 +75,22 @@ public class PigeonTcpServerBuilderTest {
         assertNotNull(server);
         assertEquals(TcpServerDefaults.PORT, server.getPort());
         assertEquals(TcpServerDefaults.RECEIVER_THREADS_NUMBER, server.getReceiverThreadsNumber());
+        assertEquals(TcpServerDefaults.RECEIVER_THREADS_TYPE, server.getReceiverThreadsType());
         assertEquals(TcpServerDefaults.PACKAGE_TO_SCAN, server.getPackageToScan());
         assertEquals(TcpServerDefaults.PACKET_HANDLE_MODE, server.getIncomingPacketHandleMode());
+        assertEquals(TcpServerDefaults.TRANSPORT_MODE, server.getTransportMode());
+        assertEquals(TcpServerDefaults.EVENT_LOOP_THREADS_NUMBER, server.getEventLoopThreadsNumber());
+        assertEquals(TcpServerDefaults.ACCEPTOR_THREADS_NUMBER, server.getAcceptorThreadsNumber());
+        assertEquals(TcpServerDefaults.EVENT_LOOP_SELECTION, server.getEventLoopSelection());
+        assertEquals(TcpServerDefaults.WRITE_QUEUE_CAPACITY, server.getWriteQueueCapacity());
+        assertEquals(TcpServerDefaults.WRITE_QUEUE_OVERFLOW_POLICY, server.getWriteQueueOverflowPolicy());
+        assertEquals(TcpServerDefaults.WRITE_QUEUE_HIGH_WATER_MARK, server.getWriteQueueHighWaterMark());
+        assertEquals(TcpServerDefaults.WRITE_QUEUE_LOW_WATER_MARK, server.getWriteQueueLowWaterMark());
+        assertEquals(TcpServerDefaults.WRITE_BATCHING, server.isWriteBatching());
+        assertEquals(TcpServerDefaults.WRITE_BATCH_WINDOW_MILLIS, server.getWriteBatchWindowMillis());
+        assertEquals(TcpServerDefaults.WRITE_BATCH_SIZE, server.getWriteBatchSize());
+        assertEquals(TcpServerDefaults.TCP_NO_DELAY, server.isTcpNoDelay());
+        assertEquals(TcpServerDefaults.PACKET_RECYCLING, server.isPacketRecycling());
     }
 
     @Test
@@ -92,6 +124,27 @@ public class PigeonTcpServerBuilderTest {
         assertEquals(IncomingPacketHandleMode.QUEUE, server.getIncomingPacketHandleMode());
     }
 
+    @Test
+    public void shouldBuildServerWithNioPropertiesFile() throws PigeonException {
+        server = Pigeon.newServer()
+                .withPropertiesFilename("pigeon-tcp-server-nio")
+                .withPacketHandler(new PacketHandler() {
+                    @Override
+                    public void handle(Packet packet) {
+
+                    }
+                })
+                .build();
+
+        assertNotNull(server);
+        assertEquals(9198, server.getPort());
+        assertEquals(IncomingPacketHandleMode.HANDLER, server.getIncomingPacketHandleMode());
+        assertEquals(TransportMode.NIO, server.getTransportMode());
+        assertEquals(2, server.getEventLoopThreadsNumber());
+        assertEquals(2, server.getAcceptorThreadsNumber());
+        assertEquals(EventLoopSelection.LEAST_LOADED, server.getEventLoopSelection());
+    }
+
     @Test
     public void shouldBuildServerWithUserSpecifiedProperties() throws PigeonException {
         int port = 9194;
@@ -101,13 +154,403 @@ public class PigeonTcpServerBuilderTest {
         server = Pigeon.newServer()
                 .withPort(port)
                 .withReceiverThreadsNumber(threads)
+                .withReceiverThreadsType(ReceiverThreadsType.VIRTUAL)
                 .withIncomingPacketHandleMode(handleMode)
+                .withWriteQueueCapacity(1024 * 1024)
+                .withWriteQueueOverflowPolicy(WriteQueueOverflowPolicy.DROP_OLDEST)
+                .withWriteQueueHighWaterMark(16 * 1024)
+                .withWriteQueueLowWaterMark(8 * 1024)
+                .withWriteBatching(true)
+                .withWriteBatchWindowMillis(5)
+                .withWriteBatchSize(4096)
+                .withTcpNoDelay(true)
+                .withPacketRecycling(true)
                 .build();
 
         assertNotNull(server);
         assertEquals(port, server.getPort());
         assertEquals(threads, server.getReceiverThreadsNumber());
+        assertEquals(ReceiverThreadsType.VIRTUAL, server.getReceiverThreadsType());
         assertEquals("com.github.rskupnik.pigeon.tcpserver", server.getPackageToScan());
         assertEquals(handleMode, server.getIncomingPacketHandleMode());
+        assertEquals(1024 * 1024, server.getWriteQueueCapacity());
+        assertEquals(WriteQueueOverflowPolicy.DROP_OLDEST, server.getWriteQueueOverflowPolicy());
+        assertEquals(16 * 1024, server.getWriteQueueHighWaterMark());
+        assertEquals(8 * 1024, server.getWriteQueueLowWaterMark());
+        assertTrue(server.isWriteBatching());
+        assertEquals(5, server.getWriteBatchWindowMillis());
+        assertEquals(4096, server.getWriteBatchSize());
+        assertTrue(server.isTcpNoDelay());
+        assertTrue(server.isPacketRecycling());
+    }
+
+    @Test(expected = PigeonException.class)
+    public void shouldNotBuildServerWithLowWaterMarkAboveHighWaterMark() throws PigeonException {
+        server = Pigeon.newServer()
+                .withPort(9196)
+                .withWriteQueueHighWaterMark(1024)
+                .withWriteQueueLowWaterMark(2048)
+                .withIncomingPacketHandleMode(IncomingPacketHandleMode.QUEUE)
+                .build();
+    }
+
+    @Test
+    public void shouldBuildServerWithNioTransport() throws PigeonException {
+        server = Pigeon.newServer()
+                .withPort(9195)
+                .withTransportMode(TransportMode.NIO)
+                .withEventLoopThreadsNumber(2)
+                .withAcceptorThreadsNumber(2)
+                .withEventLoopSelection(EventLoopSelection.LEAST_LOADED)
+                .withPacketHandler(new PacketHandler() {
+                    @Override
+                    public void handle(Packet packet) {
+
+                    }
+                })
+                .build();
+
+        assertNotNull(server);
+        assertEquals(9195, server.getPort());
+        assertEquals(TransportMode.NIO, server.getTransportMode());
+        assertEquals(2, server.getEventLoopThreadsNumber());
+        assertEquals(2, server.getAcceptorThreadsNumber());
+        assertEquals(EventLoopSelection.LEAST_LOADED, server.getEventLoopSelection());
+    }
+
+    @Test
+    public void shouldBuildServerWithCompression() throws PigeonException {
+        server = Pigeon.newServer()
+                .withPort(9208)
+                .withTransportMode(TransportMode.NIO)
+                .withCompression(CompressionCodec.DEFLATE)
+                .withCompressionThreshold(512)
+                .withPacketCompression(TestPacket.class, CompressionCodec.NONE)
+                .withPacketHandler(new PacketHandler() {
+                    @Override
+                    public void handle(Packet packet) {
+
+                    }
+                })
+                .build();
+
+        assertNotNull(server);
+        assertEquals(CompressionCodec.DEFLATE, server.getCompression());
+        assertEquals(512, server.getCompressionThreshold());
+    }
+
+    @Test(expected = PigeonException.class)
+    public void shouldNotBuildBlockingServerWithCompression() throws PigeonException {
+        server = Pigeon.newServer()
+                .withPort(9208)
+                .withCompression(CompressionCodec.DEFLATE)
+                .withPacketHandler(new PacketHandler() {
+                    @Override
+                    public void handle(Packet packet) {
+
+                    }
+                })
+                .build();
+    }
+
+    @Test(expected = PigeonException.class)
+    public void shouldNotBuildBlockingServerWithPacketCompression() throws PigeonException {
+        server = Pigeon.newServer()
+                .withPort(9208)
+                .withPacketCompression(TestPacket.class, CompressionCodec.DEFLATE_FAST)
+                .withPacketHandler(new PacketHandler() {
+                    @Override
+                    public void handle(Packet packet) {
+
+                    }
+                })
+                .build();
+    }
+
+    @Test
+    public void shouldReleaseTheJournalAndTheRelayPortIfTheListenerCannotBeBound() throws Exception {
+        journalDirectory = Files.createTempDirectory("pigeon-builder-test-").toFile();
+        ServerSocket taken = new ServerSocket(9207);
+        try {
+            buildWithJournalAndRelay();
+            fail("The server was built on a port in use");
+        } catch (PigeonException e) {
+            // The port is taken
+        } finally {
+            taken.close();
+        }
+
+        // Neither the journal directory nor the relay port is held by the server which failed
+        server = buildWithJournalAndRelay();
+        assertEquals(journalDirectory.getPath(), server.getJournalDirectory());
+        assertEquals(9307, server.getRelayPort());
+    }
+
+    @Test
+    public void shouldBuildServerWithWriteQueuePropertiesFile() throws PigeonException {
+        server = build(Pigeon.newServer()
+                .withPropertiesFilename("pigeon-tcp-server-write-queue"));
+
+        assertNotNull(server);
+        assertEquals(1024 * 1024, server.getWriteQueueCapacity());
+        assertEquals(WriteQueueOverflowPolicy.DROP_NEWEST, server.getWriteQueueOverflowPolicy());
+        assertEquals(16 * 1024, server.getWriteQueueHighWaterMark());
+        assertEquals(8 * 1024, server.getWriteQueueLowWaterMark());
+    }
+
+    @Test
+    public void shouldBuildServerWithWriteBatchingPropertiesFile() throws PigeonException {
+        server = build(Pigeon.newServer()
+                .withPropertiesFilename("pigeon-tcp-server-write-batching"));
+
+        assertNotNull(server);
+        assertTrue(server.isWriteBatching());
+        assertEquals(5, server.getWriteBatchWindowMillis());
+        assertEquals(4096, server.getWriteBatchSize());
+        assertTrue(server.isTcpNoDelay());
+    }
+
+    @Test
+    public void shouldBuildServerWithPacketRecyclingPropertiesFile() throws PigeonException {
+        server = build(Pigeon.newServer()
+                .withPropertiesFilename("pigeon-tcp-server-packet-recycling"));
+
+        assertNotNull(server);
+        assertTrue(server.isPacketRecycling());
+    }
+
+    @Test
+    public void shouldBuildServerWithIncomingQueue() throws PigeonException {
+        server = build(Pigeon.newServer()
+                .withPropertiesFilename("nonexistant-config.properties"));
+
+        assertNotNull(server);
+        assertEquals(TcpServerDefaults.INCOMING_QUEUE_CAPACITY, server.getIncomingQueueCapacity());
+        assertEquals(TcpServerDefaults.INCOMING_QUEUE_WAIT_STRATEGY, server.getIncomingQueueWaitStrategy());
+
+        server = build(Pigeon.newServer()
+                .withPropertiesFilename("pigeon-tcp-server-incoming-queue"));
+
+        assertNotNull(server);
+        assertEquals(IncomingPacketHandleMode.QUEUE, server.getIncomingPacketHandleMode());
+        assertEquals(1024, server.getIncomingQueueCapacity());
+        assertEquals(WaitStrategy.BUSY_SPIN, server.getIncomingQueueWaitStrategy());
+    }
+
+    @Test
+    public void shouldBuildServerWithDispatchPool() throws PigeonException {
+        server = build(Pigeon.newServer()
+                .withPropertiesFilename("nonexistant-config.properties"));
+
+        assertNotNull(server);
+        assertEquals(TcpServerDefaults.DISPATCH_THREADS_NUMBER, server.getDispatchThreadsNumber());
+        assertEquals(TcpServerDefaults.DISPATCH_QUEUE_CAPACITY, server.getDispatchQueueCapacity());
+
+        server = build(Pigeon.newServer()
+                .withPropertiesFilename("pigeon-tcp-server-dispatch"));
+
+        assertNotNull(server);
+        assertEquals(2, server.getDispatchThreadsNumber());
+        assertEquals(1024, server.getDispatchQueueCapacity());
+    }
+
+    @Test
+    public void shouldBuildServerWithMetrics() throws PigeonException {
+        server = build(Pigeon.newServer()
+                .withPropertiesFilename("nonexistant-config.properties"));
+
+        assertNotNull(server);
+        assertEquals(TcpServerDefaults.METRICS_ENABLED, server.isMetricsEnabled());
+
+        server = build(Pigeon.newServer()
+                .withPropertiesFilename("pigeon-tcp-server-metrics"));
+
+        assertNotNull(server);
+        assertTrue(server.isMetricsEnabled());
+        assertNotNull(server.getMetrics());
+    }
+
+    @Test
+    public void shouldBuildServerWithIdleTimeouts() throws PigeonException {
+        server = build(Pigeon.newServer()
+                .withPropertiesFilename("nonexistant-config.properties"));
+
+        assertNotNull(server);
+        assertEquals(TcpServerDefaults.READ_IDLE_TIMEOUT_MILLIS, server.getReadIdleTimeoutMillis());
+        assertEquals(TcpServerDefaults.WRITE_IDLE_TIMEOUT_MILLIS, server.getWriteIdleTimeoutMillis());
+        assertEquals(TcpServerDefaults.IDLE_EVICTION, server.isIdleEviction());
+
+        server = build(Pigeon.newServer()
+                .withPropertiesFilename("pigeon-tcp-server-idle"));
+
+        assertNotNull(server);
+        assertEquals(30000, server.getReadIdleTimeoutMillis());
+        assertEquals(10000, server.getWriteIdleTimeoutMillis());
+        assertFalse(server.isIdleEviction());
+    }
+
+    @Test
+    public void shouldBuildServerWithAdmissionControl() throws PigeonException {
+        server = build(Pigeon.newServer()
+                .withPropertiesFilename("nonexistant-config.properties"));
+
+        assertNotNull(server);
+        assertEquals(TcpServerDefaults.ACCEPT_BACKLOG, server.getAcceptBacklog());
+        assertEquals(TcpServerDefaults.MAX_CONNECTIONS, server.getMaxConnections());
+        assertEquals(TcpServerDefaults.ACCEPT_RATE_LIMIT, server.getAcceptRateLimit());
+        assertEquals(TcpServerDefaults.ACCEPT_RATE_LIMIT_PER_HOST, server.getAcceptRateLimitPerHost());
+        assertEquals(TcpServerDefaults.MAX_PENDING_PACKETS, server.getMaxPendingPackets());
+        assertEquals(TcpServerDefaults.MAX_HANDLER_TIME_MICROS, server.getMaxHandlerTimeMicros());
+
+        server = build(Pigeon.newServer()
+                .withPropertiesFilename("pigeon-tcp-server-admission"));
+
+        assertNotNull(server);
+        assertEquals(256, server.getAcceptBacklog());
+        assertEquals(1000, server.getMaxConnections());
+        assertEquals(100, server.getAcceptRateLimit());
+        assertEquals(10, server.getAcceptRateLimitPerHost());
+        assertEquals(5000, server.getMaxPendingPackets());
+        assertEquals(2000, server.getMaxHandlerTimeMicros());
+    }
+
+    @Test
+    public void shouldBuildServerWithCompressionPropertiesFile() throws PigeonException {
+        server = build(Pigeon.newServer()
+                .withPropertiesFilename("nonexistant-config.properties"));
+
+        assertNotNull(server);
+        assertEquals(TcpServerDefaults.COMPRESSION, server.getCompression());
+        assertEquals(TcpServerDefaults.COMPRESSION_THRESHOLD, server.getCompressionThreshold());
+
+        server = build(Pigeon.newServer()
+                .withPropertiesFilename("pigeon-tcp-server-compression"));
+
+        assertNotNull(server);
+        assertEquals(CompressionCodec.DEFLATE_FAST, server.getCompression());
+        assertEquals(256, server.getCompressionThreshold());
+    }
+
+    @Test
+    public void shouldBuildServerWithTlsSettings() throws PigeonException {
+        server = build(Pigeon.newServer()
+                .withPropertiesFilename("nonexistant-config.properties"));
+
+        assertNotNull(server);
+        assertEquals(TcpServerDefaults.TLS_ENABLED, server.isTlsEnabled());
+        assertEquals(TcpServerDefaults.TLS_KEY_STORE, server.getTlsKeyStore());
+        assertEquals(TcpServerDefaults.TLS_KEY_STORE_TYPE, server.getTlsKeyStoreType());
+        assertEquals(TcpServerDefaults.TLS_PROTOCOLS, server.getTlsProtocols());
+        assertEquals(TcpServerDefaults.TLS_SESSION_CACHE_SIZE, server.getTlsSessionCacheSize());
+        assertEquals(TcpServerDefaults.TLS_SESSION_TIMEOUT_SECONDS, server.getTlsSessionTimeoutSeconds());
+
+        server = build(Pigeon.newServer()
+                .withPropertiesFilename("pigeon-tcp-server-tls"));
+
+        assertNotNull(server);
+        assertFalse(server.isTlsEnabled());
+        assertEquals("JKS", server.getTlsKeyStoreType());
+        assertEquals("TLSv1.2", server.getTlsProtocols());
+        assertEquals(1024, server.getTlsSessionCacheSize());
+        assertEquals(3600, server.getTlsSessionTimeoutSeconds());
+    }
+
+    @Test
+    public void shouldBuildServerWithJournal() throws PigeonException, IOException {
+        journalDirectory = Files.createTempDirectory("pigeon-builder-test-").toFile();
+        server = build(Pigeon.newServer()
+                .withPropertiesFilename("nonexistant-config.properties"));
+
+        assertNotNull(server);
+        assertEquals(TcpServerDefaults.JOURNAL_DIRECTORY, server.getJournalDirectory());
+        assertEquals(TcpServerDefaults.JOURNAL_SEGMENT_SIZE, server.getJournalSegmentSize());
+        assertEquals(TcpServerDefaults.JOURNAL_SYNC_INTERVAL_MILLIS, server.getJournalSyncIntervalMillis());
+        assertEquals(TcpServerDefaults.JOURNAL_RETENTION_SECONDS, server.getJournalRetentionSeconds());
+
+        server = build(Pigeon.newServer()
+                .withPropertiesFilename("pigeon-tcp-server-journal")
+                .withJournalDirectory(journalDirectory.getPath()));
+
+        assertNotNull(server);
+        assertEquals(journalDirectory.getPath(), server.getJournalDirectory());
+        assertEquals(1024 * 1024, server.getJournalSegmentSize());
+        assertEquals(0, server.getJournalSyncIntervalMillis());
+        assertEquals(60, server.getJournalRetentionSeconds());
+    }
+
+    @Test
+    public void shouldBuildServerWithRelay() throws PigeonException {
+        server = build(Pigeon.newServer()
+                .withPropertiesFilename("nonexistant-config.properties"));
+
+        assertNotNull(server);
+        assertEquals(TcpServerDefaults.RELAY_PORT, server.getRelayPort());
+        assertEquals(TcpServerDefaults.RELAY_PEERS, server.getRelayPeers());
+        assertEquals(TcpServerDefaults.RELAY_BATCH_SIZE, server.getRelayBatchSize());
+        assertEquals(TcpServerDefaults.RELAY_QUEUE_CAPACITY, server.getRelayQueueCapacity());
+
+        server = build(Pigeon.newServer()
+                .withPropertiesFilename("pigeon-tcp-server-relay"));
+
+        assertNotNull(server);
+        assertEquals(9298, server.getRelayPort());
+        assertEquals("localhost:9299", server.getRelayPeers());
+        assertEquals(32 * 1024, server.getRelayBatchSize());
+        assertEquals(4096, server.getRelayQueueCapacity());
+    }
+
+    @Test
+    public void shouldBuildServerWithSocketOptionsAndReadBuffers() throws PigeonException {
+        server = build(Pigeon.newServer()
+                .withPropertiesFilename("nonexistant-config.properties"));
+
+        assertNotNull(server);
+        assertEquals(TcpServerDefaults.TCP_KEEP_ALIVE, server.isTcpKeepAlive());
+        assertEquals(TcpServerDefaults.SOCKET_RECEIVE_BUFFER_SIZE, server.getSocketReceiveBufferSize());
+        assertEquals(TcpServerDefaults.SOCKET_SEND_BUFFER_SIZE, server.getSocketSendBufferSize());
+        assertEquals(TcpServerDefaults.READ_BUFFER_MIN_SIZE, server.getReadBufferMinSize());
+        assertEquals(TcpServerDefaults.READ_BUFFER_INITIAL_SIZE, server.getReadBufferInitialSize());
+        assertEquals(TcpServerDefaults.READ_BUFFER_MAX_SIZE, server.getReadBufferMaxSize());
+
+        server = build(Pigeon.newServer()
+                .withPropertiesFilename("pigeon-tcp-server-socket-options"));
+
+        assertNotNull(server);
+        assertTrue(server.isTcpKeepAlive());
+        assertEquals(256 * 1024, server.getSocketReceiveBufferSize());
+        assertEquals(128 * 1024, server.getSocketSendBufferSize());
+        assertEquals(128, server.getReadBufferMinSize());
+        assertEquals(2048, server.getReadBufferInitialSize());
+        assertEquals(32 * 1024, server.getReadBufferMaxSize());
+    }
+
+    private PigeonTcpServer buildWithJournalAndRelay() throws PigeonException {
+        return Pigeon.newServer()
+                .withPort(9207)
+                .withPackageToScan("com.github.rskupnik.pigeon.tcpserver")
+                .withIncomingPacketHandleMode(IncomingPacketHandleMode.QUEUE)
+                .withJournalDirectory(journalDirectory.getPath())
+                .withRelayPort(9307)
+                .build();
+    }
+
+    /**
+     * Builds a server on the port of the tests of single features, shutting down the one built before.
+     */
+    private PigeonTcpServer build(PigeonTcpServerBuilder builder) throws PigeonException {
+        if (server != null) {
+            server.shutdown();
+            server = null;
+        }
+        server = builder
+                .withPort(9208)
+                .withPacketHandler(new PacketHandler() {
+                    @Override
+                    public void handle(Packet packet) {
+
+                    }
+                })
+                .build();
+        return server;
     }
 }
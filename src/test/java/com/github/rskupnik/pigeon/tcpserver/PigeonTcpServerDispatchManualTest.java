@@ -0,0 +1,128 @@
+/*
+    Copyright 2016 Radosław Skupnik
+
+    This file is part of pigeon-tcp-server.
+
+    Pigeon-tcp-server is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    Pigeon-tcp-server is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with pigeon-tcp-server; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+
+package com.github.rskupnik.pigeon.tcpserver;
+
+import com.github.rskupnik.pigeon.commons.Packet;
+import com.github.rskupnik.pigeon.commons.PacketHandler;
+
+import java.io.BufferedOutputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Sends packets from a few connections to a server whose handler keeps the processor busy for a while with every packet,
+ * to compare handling them on the I/O threads (0 dispatch threads) with spreading them over dispatch workers.
+ * Prints the throughput, the state of every worker and the server's metrics.
+ *
+ * Arguments: [blocking|nio] [dispatch threads] [handler micros] [clients] [packets per client]
+ */
+public class PigeonTcpServerDispatchManualTest {
+
+    private static final int PORT = 9056;
+    private static final String PACKAGE = "com.github.rskupnik.pigeon.tcpserver";
+
+    public static void main(String[] args) throws Exception {
+        TransportMode mode = args.length > 0 ? TransportMode.fromString(args[0]) : TransportMode.NIO;
+        int dispatchThreads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+        final long handlerNanos = TimeUnit.MICROSECONDS.toNanos(args.length > 2 ? Long.parseLong(args[2]) : 50);
+        int clients = args.length > 3 ? Integer.parseInt(args[3]) : 2;
+        int packetsPerClient = args.length > 4 ? Integer.parseInt(args[4]) : 20000;
+
+        final AtomicLong received = new AtomicLong();
+        PigeonTcpServer server = Pigeon.newServer()
+                .withPort(PORT)
+                .withTransportMode(mode)
+                .withEventLoopThreadsNumber(1)
+                .withPackageToScan(PACKAGE)
+                .withDispatchThreadsNumber(dispatchThreads)
+                .withMetricsEnabled(true)
+                // Every packet is keyed separately, so even a single connection keeps all the workers busy
+                .withDispatchKeyExtractor(new DispatchKeyExtractor() {
+                    @Override
+                    public Object getKey(com.github.rskupnik.pigeon.commons.Connection connection, Packet packet) {
+                        return ((TestPacket) packet).getTestData();
+                    }
+                })
+                .withPacketHandler(new PacketHandler() {
+                    @Override
+                    public void handle(Packet packet) {
+                        long end = System.nanoTime() + handlerNanos;
+                        while (System.nanoTime() < end) {
+                            // Simulates business logic
+                        }
+                        received.incrementAndGet();
+                    }
+                })
+                .build();
+        server.start();
+
+        List<Socket> sockets = new ArrayList<>(clients);
+        for (int i = 0; i < clients; i++) {
+            Socket socket = new Socket("localhost", PORT);
+            if (socket.getInputStream().read() != 1)
+                throw new IllegalStateException("Connection " + i + " was refused");
+            sockets.add(socket);
+        }
+        while (server.getConnectionCount() < clients)
+            Thread.sleep(10);
+
+        PacketCodec codec = new ReflectivePacketCodec(PacketRegistry.scan(PACKAGE), false);
+        BufferPool pool = new BufferPool(false);
+        long start = System.nanoTime();
+        for (Socket socket : sockets) {
+            OutputStream out = new BufferedOutputStream(socket.getOutputStream());
+            for (int p = 0; p < packetsPerClient; p++) {
+                TestPacket packet = new TestPacket();
+                packet.setTestData(p);
+                packet.setTestText("dispatch");
+                ByteBuffer encoded = codec.encode(packet, pool).buffer();
+                out.write(encoded.array(), encoded.arrayOffset() + encoded.position(), encoded.remaining());
+            }
+            out.flush();
+        }
+
+        long expected = (long) clients * packetsPerClient;
+        while (received.get() < expected && System.nanoTime() - start < TimeUnit.MINUTES.toNanos(5)) {
+            Thread.sleep(500);
+            System.out.println("Received " + received.get() + ", waiting for the workers: " + server.getDispatchQueueDepth());
+        }
+        long elapsed = System.nanoTime() - start;
+
+        System.out.println("Transport mode:         " + mode);
+        System.out.println("Dispatch threads:       " + dispatchThreads);
+        System.out.println("Packets received:       " + received.get() + " / " + expected);
+        System.out.println("Throughput (packets/s): " + (long) (received.get() / (elapsed / 1e9)));
+        DispatchWorkerStats[] stats = server.getDispatchWorkerStats();
+        for (int i = 0; i < stats.length; i++)
+            System.out.println("Worker " + i + ":               " + stats[i]);
+        System.out.println(server.getMetrics());
+
+        for (Socket socket : sockets)
+            socket.close();
+        server.shutdown();
+        System.exit(0);
+    }
+}
@@ -0,0 +1,137 @@
+/*
+    Copyright 2016 Radosław Skupnik
+
+    This file is part of pigeon-tcp-server.
+
+    Pigeon-tcp-server is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    Pigeon-tcp-server is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with pigeon-tcp-server; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+
+package com.github.rskupnik.pigeon.tcpserver;
+
+import com.github.rskupnik.pigeon.commons.Packet;
+import com.github.rskupnik.pigeon.commons.PacketHandler;
+
+import java.io.BufferedOutputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Opens many client connections to a local server and pushes packets through them,
+ * reporting thread count, heap usage and throughput for the chosen transport mode.
+ *
+ * Arguments: [blocking|nio] [clients] [packets per client]
+ */
+public class PigeonTcpServerLoadManualTest {
+
+    private static final int PORT = 9051;
+    private static final String PACKAGE = "com.github.rskupnik.pigeon.tcpserver";
+
+    public static void main(String[] args) throws Exception {
+        TransportMode mode = args.length > 0 ? TransportMode.fromString(args[0]) : TransportMode.NIO;
+        int clients = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+        int packetsPerClient = args.length > 2 ? Integer.parseInt(args[2]) : 1000;
+
+        final AtomicLong received = new AtomicLong();
+        PigeonTcpServer server = Pigeon.newServer()
+                .withPort(PORT)
+                .withTransportMode(mode)
+                .withPackageToScan(PACKAGE)
+                .withPacketHandler(new PacketHandler() {
+                    @Override
+                    public void handle(Packet packet) {
+                        received.incrementAndGet();
+                    }
+                })
+                .build();
+        server.start();
+
+        int threadsBefore = ManagementFactory.getThreadMXBean().getThreadCount();
+        long heapBefore = usedHeap();
+
+        List<Socket> sockets = new ArrayList<>(clients);
+        for (int i = 0; i < clients; i++) {
+            Socket socket = new Socket("localhost", PORT);
+            if (socket.getInputStream().read() != 1)
+                throw new IllegalStateException("Connection " + i + " was refused");
+            sockets.add(socket);
+        }
+        while (server.getConnectionCount() < clients)
+            Thread.sleep(10);
+
+        System.out.println("Transport mode:        " + mode);
+        System.out.println("Connections:           " + clients);
+        System.out.println("Threads:               " + threadsBefore + " -> " + ManagementFactory.getThreadMXBean().getThreadCount());
+        System.out.println("Heap used (MB):        " + heapBefore / (1024 * 1024) + " -> " + usedHeap() / (1024 * 1024));
+
+        TestPacket packet = new TestPacket();
+        packet.setTestData(42);
+        packet.setTestText("load");
+        ByteBuffer encoded = new ReflectivePacketCodec(PacketRegistry.scan(PACKAGE), false).encode(packet, new BufferPool(false)).buffer();
+        final byte[] frame = new byte[encoded.remaining()];
+        encoded.get(frame);
+
+        int senders = Runtime.getRuntime().availableProcessors();
+        ExecutorService executor = Executors.newFixedThreadPool(senders);
+        long start = System.nanoTime();
+        for (int i = 0; i < senders; i++) {
+            final List<Socket> slice = sockets.subList(i * clients / senders, (i + 1) * clients / senders);
+            final int packets = packetsPerClient;
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        for (Socket socket : slice) {
+                            OutputStream out = new BufferedOutputStream(socket.getOutputStream());
+                            for (int p = 0; p < packets; p++)
+                                out.write(frame);
+                            out.flush();
+                        }
+                    } catch (Exception e) {
+                        e.printStackTrace();
+                    }
+                }
+            });
+        }
+
+        long expected = (long) clients * packetsPerClient;
+        while (received.get() < expected && System.nanoTime() - start < TimeUnit.MINUTES.toNanos(5))
+            Thread.sleep(1);
+        long elapsed = System.nanoTime() - start;
+
+        System.out.println("Packets received:      " + received.get() + " / " + expected);
+        System.out.println("Throughput (packets/s): " + (long) (received.get() / (elapsed / 1e9)));
+        System.out.println("Threads under load:    " + ManagementFactory.getThreadMXBean().getThreadCount());
+        System.out.println("Heap used (MB):        " + usedHeap() / (1024 * 1024));
+
+        executor.shutdown();
+        for (Socket socket : sockets)
+            socket.close();
+        server.shutdown();
+        System.exit(0);
+    }
+
+    private static long usedHeap() {
+        System.gc();
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+}
@@ -0,0 +1,153 @@
+/*
+    Copyright 2016 Radosław Skupnik
+
+    This file is part of pigeon-tcp-server.
+
+    Pigeon-tcp-server is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    Pigeon-tcp-server is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with pigeon-tcp-server; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+
+package com.github.rskupnik.pigeon.tcpserver;
+
+import com.github.rskupnik.pigeon.commons.Connection;
+import com.github.rskupnik.pigeon.commons.Packet;
+import com.github.rskupnik.pigeon.commons.PacketHandler;
+
+import java.io.InputStream;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Starts a cluster of servers on localhost, spreads clients over them, has all the clients join a single group and
+ * publishes packets to it on the first node, one at a time. Reports how long every publication takes to reach all
+ * the clients and how many bytes the nodes send each other per publication.
+ *
+ * Arguments: [nodes] [clients] [publications]
+ */
+public class PigeonTcpServerRelayManualTest {
+
+    private static final int PORT = 9057;
+    private static final int RELAY_PORT = 9157;
+    private static final String PACKAGE = "com.github.rskupnik.pigeon.tcpserver";
+    private static final String GROUP = "room";
+
+    public static void main(String[] args) throws Exception {
+        int nodes = args.length > 0 ? Integer.parseInt(args[0]) : 3;
+        int clients = args.length > 1 ? Integer.parseInt(args[1]) : 300;
+        int publications = args.length > 2 ? Integer.parseInt(args[2]) : 10000;
+
+        // Every node links to the nodes started before it, which makes a full mesh
+        PigeonTcpServer[] servers = new PigeonTcpServer[nodes];
+        for (int i = 0; i < nodes; i++) {
+            StringBuilder peers = new StringBuilder();
+            for (int j = 0; j < i; j++)
+                peers.append(j > 0 ? "," : "").append("localhost:").append(RELAY_PORT + j);
+            servers[i] = Pigeon.newServer()
+                    .withPort(PORT + i)
+                    .withTransportMode(TransportMode.NIO)
+                    .withPackageToScan(PACKAGE)
+                    .withMetricsEnabled(true)
+                    .withRelayPort(RELAY_PORT + i)
+                    .withRelayPeers(peers.toString())
+                    .withPacketHandler(new PacketHandler() {
+                        @Override
+                        public void handle(Packet packet) {
+
+                        }
+                    })
+                    .build();
+            servers[i].start();
+        }
+
+        final LongAdder bytesReceived = new LongAdder();
+        List<Socket> sockets = new ArrayList<>(clients);
+        for (int i = 0; i < clients; i++) {
+            final Socket socket = new Socket("localhost", PORT + i % nodes);
+            socket.getInputStream().read();
+            sockets.add(socket);
+            Thread reader = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    byte[] buffer = new byte[8192];
+                    try {
+                        InputStream in = socket.getInputStream();
+                        int read;
+                        while ((read = in.read(buffer)) >= 0)
+                            bytesReceived.add(read);
+                    } catch (Exception e) {
+                        // Socket closed at the end of the test
+                    }
+                }
+            });
+            reader.setDaemon(true);
+            reader.start();
+        }
+
+        int connected = 0;
+        while (connected < clients) {
+            Thread.sleep(10);
+            connected = 0;
+            for (PigeonTcpServer server : servers)
+                connected += server.getConnectionCount();
+        }
+        for (PigeonTcpServer server : servers) {
+            while (server.getRelayLinkCount() < nodes - 1)
+                Thread.sleep(10);
+            for (Connection connection : server.getConnections().values())
+                server.join(connection, GROUP);
+        }
+        Thread.sleep(500);  // For the subscriptions to reach the other nodes
+
+        TestPacket packet = new TestPacket();
+        packet.setTestData(42);
+        packet.setTestText("a message to the room");
+        int packetSize = new ReflectivePacketCodec(PacketRegistry.scan(PACKAGE), false).encode(packet, new BufferPool(false)).buffer().remaining();
+
+        LatencyHistogram latency = new LatencyHistogram();
+        long expected = 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < publications; i++) {
+            long published = System.nanoTime();
+            servers[0].sendToGroup(packet, GROUP);
+            expected += (long) clients * packetSize;
+            while (bytesReceived.sum() < expected && System.nanoTime() - published < TimeUnit.SECONDS.toNanos(10))
+                Thread.yield();
+            latency.record(System.nanoTime() - published);
+        }
+        long elapsed = System.nanoTime() - start;
+
+        long relayBytes = 0;
+        long relayFrames = 0;
+        for (PigeonTcpServer server : servers) {
+            relayBytes += server.getMetrics().getRelayBytesSent();
+            relayFrames += server.getMetrics().getRelayFramesSent();
+        }
+
+        System.out.println("Nodes:                     " + nodes);
+        System.out.println("Recipients:                " + clients);
+        System.out.println("Delivered (bytes):         " + bytesReceived.sum() + " / " + expected);
+        System.out.println("Publications/s:            " + (long) (publications / (elapsed / 1e9)));
+        System.out.println("Fan-out latency:           " + latency.snapshot());
+        System.out.println("Relay bytes/publication:   " + relayBytes / publications + " in " + relayFrames + " frames");
+
+        for (Socket socket : sockets)
+            socket.close();
+        for (PigeonTcpServer server : servers)
+            server.shutdown();
+        System.exit(0);
+    }
+}
@@ -0,0 +1,206 @@
+/*
+    Copyright 2016 Radosław Skupnik
+
+    This file is part of pigeon-tcp-server.
+
+    Pigeon-tcp-server is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    Pigeon-tcp-server is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with pigeon-tcp-server; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+
+package com.github.rskupnik.pigeon.tcpserver;
+
+import com.github.rskupnik.pigeon.commons.Connection;
+import com.github.rskupnik.pigeon.commons.Packet;
+import com.github.rskupnik.pigeon.commons.PacketHandler;
+import com.github.rskupnik.pigeon.commons.exceptions.PigeonException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class PigeonTcpServerRelayTest {
+
+    private static final String PACKAGE = "com.github.rskupnik.pigeon.tcpserver";
+    private static final String GROUP = "lobby";
+
+    private PigeonTcpServer first;
+    private PigeonTcpServer second;
+    private Socket client;
+
+    @Before
+    public void before() throws Exception {
+        // The second node links to the first one, which is the whole mesh of two
+        first = node(9202, 9302, "");
+        second = node(9203, 9303, "localhost:9302");
+        awaitLinks(first, 1);
+        awaitLinks(second, 1);
+
+        client = new Socket("localhost", 9203);
+        client.setSoTimeout(5000);
+        assertEquals(1, client.getInputStream().read());
+    }
+
+    @After
+    public void after() throws IOException {
+        if (client != null)
+            client.close();
+        if (second != null)
+            second.shutdown();
+        if (first != null)
+            first.shutdown();
+    }
+
+    @Test
+    public void shouldDeliverAPacketSentToAGroupOnAnotherNode() throws Exception {
+        Connection member = awaitConnection(second);
+        second.join(member, GROUP);
+        awaitAnnouncement(first, true);
+
+        TestPacket packet = new TestPacket();
+        packet.setTestData(42);
+        packet.setTestText("to the lobby");
+        first.sendToGroup(packet, GROUP);
+
+        byte[] expected = encode(packet);
+        byte[] received = new byte[expected.length];
+        new DataInputStream(client.getInputStream()).readFully(received);
+        assertArrayEquals(expected, received);
+        assertEquals(1, first.getMetrics().getRelayPacketsSent());
+    }
+
+    @Test
+    public void shouldWithdrawTheAnnouncementWhenTheLastMemberLeaves() throws Exception {
+        Connection member = awaitConnection(second);
+        second.join(member, GROUP);
+        awaitAnnouncement(first, true);
+
+        second.leave(member, GROUP);
+        awaitAnnouncement(first, false);
+
+        // The group has no members left anywhere, so nothing is sent to the second node
+        TestPacket packet = new TestPacket();
+        packet.setTestData(42);
+        packet.setTestText("to nobody");
+        first.sendToGroup(packet, GROUP);
+
+        client.setSoTimeout(200);
+        try {
+            int read = client.getInputStream().read();
+            fail("The client received " + read + " after leaving the group");
+        } catch (SocketTimeoutException e) {
+            // Nothing has been sent
+        }
+        assertEquals(0, first.getMetrics().getRelayPacketsSent());
+    }
+
+    @Test
+    public void shouldWithdrawTheAnnouncementWhenTheLastMemberDisconnects() throws Exception {
+        second.join(awaitConnection(second), GROUP);
+        awaitAnnouncement(first, true);
+
+        client.close();
+        awaitAnnouncement(first, false);
+        assertTrue(second.getGroups().isEmpty());
+    }
+
+    @Test
+    public void shouldCloseALinkWhichSendsAPacketLengthOutOfBounds() throws Exception {
+        try (Socket rogue = new Socket("localhost", 9302)) {
+            rogue.setSoTimeout(5000);
+            DataOutputStream out = new DataOutputStream(rogue.getOutputStream());
+            out.writeInt(0x50474E52);
+            out.writeUTF("rogue");
+            out.flush();
+            DataInputStream in = new DataInputStream(rogue.getInputStream());
+            assertEquals(0x50474E52, in.readInt());
+            in.readUTF();
+            awaitLinks(first, 2);
+
+            // A frame with one packet, claiming to be far longer than any packet the node reads
+            out.writeByte(3);
+            out.writeInt(1);
+            out.writeUTF(GROUP);
+            out.writeInt(64 * 1024 * 1024);
+            out.flush();
+
+            try {
+                while (in.read() != -1) {
+                    // Subscriptions sent before the link was closed
+                }
+            } catch (SocketTimeoutException e) {
+                fail("The link is still open");
+            }
+        }
+        awaitLinks(first, 1);
+    }
+
+    private static PigeonTcpServer node(int port, int relayPort, String peers) throws PigeonException {
+        PigeonTcpServer server = Pigeon.newServer()
+                .withPort(port)
+                .withTransportMode(TransportMode.NIO)
+                .withPackageToScan(PACKAGE)
+                .withMetricsEnabled(true)
+                .withRelayPort(relayPort)
+                .withRelayPeers(peers)
+                .withPacketHandler(new PacketHandler() {
+                    @Override
+                    public void handle(Packet packet) {
+
+                    }
+                })
+                .build();
+        server.start();
+        return server;
+    }
+
+    private static byte[] encode(Packet packet) throws Exception {
+        ByteBuffer buffer = new CompiledPacketCodec(PacketRegistry.scan(PACKAGE), false).encode(packet, new BufferPool(false)).buffer();
+        byte[] encoded = new byte[buffer.remaining()];
+        buffer.get(encoded);
+        return encoded;
+    }
+
+    private static void awaitLinks(PigeonTcpServer server, int links) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (server.getRelayLinkCount() != links && System.nanoTime() < deadline)
+            Thread.sleep(10);
+        assertEquals(links, server.getRelayLinkCount());
+    }
+
+    private static Connection awaitConnection(PigeonTcpServer server) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (server.getConnectionCount() == 0 && System.nanoTime() < deadline)
+            Thread.sleep(10);
+        return server.getConnections().values().iterator().next();
+    }
+
+    private static void awaitAnnouncement(PigeonTcpServer server, boolean members) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (server.hasRemoteMembers(GROUP) != members && System.nanoTime() < deadline)
+            Thread.sleep(10);
+        assertEquals(members, server.hasRemoteMembers(GROUP));
+    }
+}
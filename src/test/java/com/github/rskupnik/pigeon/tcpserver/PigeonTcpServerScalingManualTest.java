@@ -0,0 +1,143 @@
+/*
+    Copyright 2016 Radosław Skupnik
+
+    This file is part of pigeon-tcp-server.
+
+    Pigeon-tcp-server is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    Pigeon-tcp-server is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with pigeon-tcp-server; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+
+package com.github.rskupnik.pigeon.tcpserver;
+
+import com.github.rskupnik.pigeon.commons.Packet;
+import com.github.rskupnik.pigeon.commons.PacketHandler;
+
+import java.io.BufferedOutputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Measures how connection rate and packet rate of the NIO transport scale with the number of
+ * acceptor threads and event loops, doubling the event loops from 1 up to the given maximum.
+ *
+ * Arguments: [max event loops] [acceptors per event loop divisor] [clients] [packets per client]
+ */
+public class PigeonTcpServerScalingManualTest {
+
+    private static final int FIRST_PORT = 9060;
+    private static final String PACKAGE = "com.github.rskupnik.pigeon.tcpserver";
+
+    public static void main(String[] args) throws Exception {
+        int processors = Runtime.getRuntime().availableProcessors();
+        int maxEventLoops = args.length > 0 ? Integer.parseInt(args[0]) : processors;
+        int divisor = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+        int clients = args.length > 2 ? Integer.parseInt(args[2]) : 2000;
+        int packetsPerClient = args.length > 3 ? Integer.parseInt(args[3]) : 500;
+
+        TestPacket packet = new TestPacket();
+        packet.setTestData(42);
+        packet.setTestText("scaling");
+        ByteBuffer encoded = new ReflectivePacketCodec(PacketRegistry.scan(PACKAGE), false).encode(packet, new BufferPool(false)).buffer();
+        byte[] frame = new byte[encoded.remaining()];
+        encoded.get(frame);
+
+        System.out.println("acceptors\tevent loops\tconnections/s\tpackets/s");
+        int port = FIRST_PORT;
+        for (int eventLoops = 1; eventLoops <= maxEventLoops; eventLoops *= 2) {
+            int acceptors = Math.max(1, eventLoops / divisor);
+            run(port++, acceptors, eventLoops, clients, packetsPerClient, frame, processors);
+        }
+
+        System.exit(0);
+    }
+
+    private static void run(int port, int acceptors, int eventLoops, int clients, final int packetsPerClient, final byte[] frame, int clientThreads) throws Exception {
+        final LongAdder received = new LongAdder();
+        PigeonTcpServer server = Pigeon.newServer()
+                .withPort(port)
+                .withTransportMode(TransportMode.NIO)
+                .withAcceptorThreadsNumber(acceptors)
+                .withEventLoopThreadsNumber(eventLoops)
+                .withPackageToScan(PACKAGE)
+                .withPacketHandler(new PacketHandler() {
+                    @Override
+                    public void handle(Packet packet) {
+                        received.increment();
+                    }
+                })
+                .build();
+        server.start();
+
+        final List<Socket> sockets = Collections.synchronizedList(new ArrayList<Socket>(clients));
+        ExecutorService executor = Executors.newFixedThreadPool(clientThreads);
+        long connectStart = System.nanoTime();
+        for (int i = 0; i < clients; i++) {
+            final int clientPort = port;
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        Socket socket = new Socket("localhost", clientPort);
+                        socket.getInputStream().read();
+                        sockets.add(socket);
+                    } catch (Exception e) {
+                        e.printStackTrace();
+                    }
+                }
+            });
+        }
+        while (server.getConnectionCount() < clients)
+            Thread.sleep(1);
+        long connectElapsed = System.nanoTime() - connectStart;
+
+        long sendStart = System.nanoTime();
+        for (int i = 0; i < clientThreads; i++) {
+            final List<Socket> slice = sockets.subList(i * clients / clientThreads, (i + 1) * clients / clientThreads);
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        for (Socket socket : slice) {
+                            OutputStream out = new BufferedOutputStream(socket.getOutputStream());
+                            for (int p = 0; p < packetsPerClient; p++)
+                                out.write(frame);
+                            out.flush();
+                        }
+                    } catch (Exception e) {
+                        e.printStackTrace();
+                    }
+                }
+            });
+        }
+        long expected = (long) clients * packetsPerClient;
+        while (received.sum() < expected && System.nanoTime() - sendStart < TimeUnit.MINUTES.toNanos(5))
+            Thread.sleep(1);
+        long sendElapsed = System.nanoTime() - sendStart;
+
+        System.out.println(acceptors + "\t\t" + eventLoops + "\t\t" + (long) (clients / (connectElapsed / 1e9)) + "\t\t" + (long) (received.sum() / (sendElapsed / 1e9)));
+
+        executor.shutdown();
+        for (Socket socket : sockets)
+            socket.close();
+        server.shutdown();
+    }
+}
@@ -0,0 +1,208 @@
+/*
+    Copyright 2016 Radosław Skupnik
+
+    This file is part of pigeon-tcp-server.
+
+    Pigeon-tcp-server is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    Pigeon-tcp-server is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with pigeon-tcp-server; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+
+package com.github.rskupnik.pigeon.tcpserver;
+
+import com.github.rskupnik.pigeon.commons.IncomingPacketHandleMode;
+import com.github.rskupnik.pigeon.commons.Packet;
+import com.github.rskupnik.pigeon.commons.PacketHandler;
+import com.github.rskupnik.pigeon.commons.exceptions.PigeonException;
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class PigeonTcpServerShutdownTest {
+
+    private static final String PACKAGE = "com.github.rskupnik.pigeon.tcpserver";
+    private static final int PACKETS = 10;
+
+    private final List<PigeonTcpServer> servers = new ArrayList<>();
+    private final List<Socket> clients = new ArrayList<>();
+
+    @After
+    public void after() throws IOException {
+        for (Socket client : clients)
+            client.close();
+        for (PigeonTcpServer server : servers)
+            server.shutdown();
+    }
+
+    @Test
+    public void shouldHandleThePacketsInFlightBeforeShuttingDown() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger handled = new AtomicInteger();
+        final PigeonTcpServer server = start(Pigeon.newServer()
+                .withPort(9199)
+                .withTransportMode(TransportMode.NIO)
+                .withPackageToScan(PACKAGE)
+                .withDispatchThreadsNumber(1)
+                .withPacketHandler(new PacketHandler() {
+                    @Override
+                    public void handle(Packet packet) {
+                        try {
+                            release.await();
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                        handled.incrementAndGet();
+                    }
+                }));
+
+        send(connect(9199), PACKETS);
+        // The first packet keeps the dispatch thread busy, the rest wait in its queue
+        awaitPendingPackets(server, PACKETS - 1);
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<ShutdownReport> shutdown = executor.submit(new Callable<ShutdownReport>() {
+                @Override
+                public ShutdownReport call() {
+                    return server.shutdownGracefully(5, TimeUnit.SECONDS);
+                }
+            });
+            release.countDown();
+            ShutdownReport report = shutdown.get(10, TimeUnit.SECONDS);
+
+            assertTrue(report.isDrained());
+            assertEquals(0, report.getUnhandledPackets());
+            assertEquals(0, report.getUnsentPackets());
+            assertEquals(1, report.getClosedConnections());
+            assertEquals(PACKETS, handled.get());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void shouldReportThePacketsDroppedAfterTheTimeout() throws Exception {
+        PigeonTcpServer server = start(Pigeon.newServer()
+                .withPort(9200)
+                .withTransportMode(TransportMode.NIO)
+                .withPackageToScan(PACKAGE)
+                .withIncomingPacketHandleMode(IncomingPacketHandleMode.QUEUE));
+
+        send(connect(9200), PACKETS);
+        awaitPendingPackets(server, PACKETS);
+
+        // Nothing takes the packets from the queue
+        ShutdownReport report = server.shutdownGracefully(100, TimeUnit.MILLISECONDS);
+
+        assertFalse(report.isDrained());
+        assertEquals(PACKETS, report.getUnhandledPackets());
+        assertEquals(1, report.getClosedConnections());
+        assertTrue(report.getElapsedNanos() >= TimeUnit.MILLISECONDS.toNanos(100));
+    }
+
+    @Test
+    public void shouldAcceptConnectionsOnTheServerTakingOverTheListener() throws Exception {
+        PigeonTcpServer previous = start(Pigeon.newServer()
+                .withPort(9201)
+                .withTransportMode(TransportMode.NIO)
+                .withPackageToScan(PACKAGE)
+                .withIncomingPacketHandleMode(IncomingPacketHandleMode.QUEUE));
+        connect(9201);
+        awaitConnections(previous, 1);
+
+        PigeonTcpServer next = start(Pigeon.newServer()
+                .withPort(9201)
+                .withTransportMode(TransportMode.NIO)
+                .withPackageToScan(PACKAGE)
+                .withIncomingPacketHandleMode(IncomingPacketHandleMode.QUEUE)
+                .withListenerFrom(previous));
+        connect(9201);
+        awaitConnections(next, 1);
+        assertEquals(1, previous.getConnectionCount());
+
+        // The previous server closes its own connections only, the listening socket stays open for the next one
+        ShutdownReport report = previous.shutdownGracefully(1, TimeUnit.SECONDS);
+        assertTrue(report.isDrained());
+        assertEquals(1, report.getClosedConnections());
+
+        connect(9201);
+        awaitConnections(next, 2);
+    }
+
+    private PigeonTcpServer start(PigeonTcpServerBuilder builder) throws PigeonException {
+        PigeonTcpServer server = builder.build();
+        servers.add(server);
+        server.start();
+        return server;
+    }
+
+    /**
+     * Connects to the server and waits until it's been accepted.
+     */
+    private Socket connect(int port) throws IOException {
+        Socket client = new Socket("localhost", port);
+        clients.add(client);
+        client.setSoTimeout(5000);
+        assertEquals(1, client.getInputStream().read());
+        return client;
+    }
+
+    private static void send(Socket client, int packets) throws Exception {
+        OutputStream output = client.getOutputStream();
+        for (int i = 0; i < packets; i++) {
+            TestPacket packet = new TestPacket();
+            packet.setTestData(i);
+            packet.setTestText("packet " + i);
+            output.write(encode(packet));
+        }
+        output.flush();
+    }
+
+    private static byte[] encode(Packet packet) throws Exception {
+        ByteBuffer buffer = new CompiledPacketCodec(PacketRegistry.scan(PACKAGE), false).encode(packet, new BufferPool(false)).buffer();
+        byte[] encoded = new byte[buffer.remaining()];
+        buffer.get(encoded);
+        return encoded;
+    }
+
+    private static void awaitPendingPackets(PigeonTcpServer server, int packets) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (server.getPendingPackets() != packets && System.nanoTime() < deadline)
+            Thread.sleep(10);
+        assertEquals(packets, server.getPendingPackets());
+    }
+
+    private static void awaitConnections(PigeonTcpServer server, int connections) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (server.getConnectionCount() != connections && System.nanoTime() < deadline)
+            Thread.sleep(10);
+        assertEquals(connections, server.getConnectionCount());
+    }
+}
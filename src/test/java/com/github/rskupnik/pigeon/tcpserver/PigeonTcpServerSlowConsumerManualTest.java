@@ -0,0 +1,150 @@
+/*
+    Copyright 2016 Radosław Skupnik
+
+    This file is part of pigeon-tcp-server.
+
+    Pigeon-tcp-server is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    Pigeon-tcp-server is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with pigeon-tcp-server; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+
+package com.github.rskupnik.pigeon.tcpserver;
+
+import com.github.rskupnik.pigeon.commons.Connection;
+import com.github.rskupnik.pigeon.commons.Packet;
+import com.github.rskupnik.pigeon.commons.PacketHandler;
+
+import java.net.Socket;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+
+/**
+ * Sends packets to a client which never reads them and reports how the write queue overflow policy handles it.
+ * The sending thread should never stall, except with the BLOCK policy, where it waits for a bounded time per packet
+ * and is released once the client disconnects.
+ *
+ * Arguments: [blocking|nio] [block|drop_oldest|drop_newest|disconnect] [packets]
+ */
+public class PigeonTcpServerSlowConsumerManualTest {
+
+    private static final int PORT = 9054;
+    private static final String PACKAGE = "com.github.rskupnik.pigeon.tcpserver";
+
+    public static void main(String[] args) throws Exception {
+        TransportMode mode = args.length > 0 ? TransportMode.fromString(args[0]) : TransportMode.NIO;
+        WriteQueueOverflowPolicy policy = args.length > 1 ? WriteQueueOverflowPolicy.fromString(args[1]) : WriteQueueOverflowPolicy.DROP_NEWEST;
+        int packets = args.length > 2 ? Integer.parseInt(args[2]) : 1000000;
+
+        final AtomicInteger highWaterMarks = new AtomicInteger();
+        final AtomicInteger disconnects = new AtomicInteger();
+        PigeonTcpServer server = Pigeon.newServer()
+                .withPort(PORT)
+                .withTransportMode(mode)
+                .withPackageToScan(PACKAGE)
+                .withWriteQueueCapacity(1024 * 1024)
+                .withWriteQueueOverflowPolicy(policy)
+                .withPacketHandler(new PacketHandler() {
+                    @Override
+                    public void handle(Packet packet) {
+
+                    }
+                })
+                .withServerCallbackHandler(new TcpServerCallbackHandler() {
+                    @Override
+                    public void onStarted() {
+
+                    }
+
+                    @Override
+                    public void onNewConnection(Connection connection) {
+
+                    }
+
+                    @Override
+                    public void onDisconnected(Connection connection) {
+                        disconnects.incrementAndGet();
+                    }
+
+                    @Override
+                    public void onWriteQueueHighWaterMark(Connection connection) {
+                        highWaterMarks.incrementAndGet();
+                    }
+                })
+                .build();
+        server.start();
+        Thread.sleep(500);
+
+        // The client never reads, so the socket buffers fill up and then the server's write queue does
+        final Socket socket = new Socket("localhost", PORT);
+        socket.getInputStream().read();
+        while (server.getConnectionCount() < 1)
+            Thread.sleep(10);
+        Connection connection = server.getConnections().values().iterator().next();
+
+        if (policy == WriteQueueOverflowPolicy.BLOCK) {
+            Thread closer = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        Thread.sleep(3000);
+                        socket.close();
+                    } catch (Exception e) {
+                        e.printStackTrace();
+                    }
+                }
+            });
+            closer.setDaemon(true);
+            closer.start();
+        }
+
+        TestPacket packet = new TestPacket();
+        packet.setTestData(42);
+        packet.setTestText("nobody is reading this");
+
+        final AtomicInteger written = new AtomicInteger();
+        final AtomicInteger failed = new AtomicInteger();
+        BiConsumer<Void, Throwable> counter = new BiConsumer<Void, Throwable>() {
+            @Override
+            public void accept(Void result, Throwable error) {
+                if (error == null)
+                    written.incrementAndGet();
+                else
+                    failed.incrementAndGet();
+            }
+        };
+
+        long start = System.nanoTime();
+        CompletableFuture<Void> last = null;
+        for (int i = 0; i < packets; i++) {
+            last = server.sendAsync(packet, connection);
+            last.whenComplete(counter);
+        }
+        long elapsed = System.nanoTime() - start;
+        Thread.sleep(500);
+
+        System.out.println("Transport mode:          " + mode);
+        System.out.println("Overflow policy:         " + policy);
+        System.out.println("Send loop time (ms):     " + TimeUnit.NANOSECONDS.toMillis(elapsed));
+        System.out.println("Written:                 " + written.get());
+        System.out.println("Failed or dropped:       " + failed.get());
+        System.out.println("Still pending:           " + (packets - written.get() - failed.get()));
+        System.out.println("High water mark reached: " + highWaterMarks.get());
+        System.out.println("Disconnected:            " + disconnects.get());
+
+        socket.close();
+        server.shutdown();
+        System.exit(0);
+    }
+}
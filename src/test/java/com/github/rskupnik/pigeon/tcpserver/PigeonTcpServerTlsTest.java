@@ -0,0 +1,201 @@
+/*
+    Copyright 2016 Radosław Skupnik
+
+    This file is part of pigeon-tcp-server.
+
+    Pigeon-tcp-server is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    Pigeon-tcp-server is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with pigeon-tcp-server; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+
+package com.github.rskupnik.pigeon.tcpserver;
+
+import com.github.rskupnik.pigeon.commons.Connection;
+import com.github.rskupnik.pigeon.commons.Packet;
+import com.github.rskupnik.pigeon.commons.PacketHandler;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.TrustManagerFactory;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.security.KeyStore;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class PigeonTcpServerTlsTest {
+
+    private static final int PORT = 9197;
+    private static final String PACKAGE = "com.github.rskupnik.pigeon.tcpserver";
+    private static final String PASSWORD = "password";
+
+    private final BlockingQueue<Packet> received = new LinkedBlockingQueue<>();
+    private File directory;
+    private PigeonTcpServer server;
+    private SSLContext clientContext;
+
+    @Before
+    public void before() throws Exception {
+        // A self-signed certificate for localhost, which the clients trust
+        directory = Files.createTempDirectory("pigeon-tls-test-").toFile();
+        File keyStore = new File(directory, "server.p12");
+        keytool("-genkeypair", "-alias", "server", "-keyalg", "EC", "-dname", "CN=localhost",
+                "-ext", "san=dns:localhost,ip:127.0.0.1", "-validity", "2", "-storetype", "PKCS12",
+                "-keystore", keyStore.getPath(), "-storepass", PASSWORD, "-keypass", PASSWORD);
+
+        KeyStore trusted = KeyStore.getInstance("PKCS12");
+        try (InputStream input = new FileInputStream(keyStore)) {
+            trusted.load(input, PASSWORD.toCharArray());
+        }
+        TrustManagerFactory trustManagers = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+        trustManagers.init(trusted);
+        clientContext = SSLContext.getInstance("TLS");
+        clientContext.init(null, trustManagers.getTrustManagers(), null);
+
+        server = Pigeon.newServer()
+                .withPort(PORT)
+                .withTransportMode(TransportMode.NIO)
+                .withPackageToScan(PACKAGE)
+                .withTlsEnabled(true)
+                .withTlsKeyStore(keyStore.getPath())
+                .withTlsKeyStorePassword(PASSWORD)
+                .withPacketHandler(new PacketHandler() {
+                    @Override
+                    public void handle(Packet packet) {
+                        received.add(packet);
+                    }
+                })
+                .build();
+        server.start();
+    }
+
+    @After
+    public void after() {
+        server.shutdown();
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files)
+                file.delete();
+        }
+        directory.delete();
+    }
+
+    @Test
+    public void shouldExchangePacketsWithATlsClient() throws Exception {
+        SSLSocket socket = (SSLSocket) clientContext.getSocketFactory().createSocket("localhost", PORT);
+        try {
+            socket.setSoTimeout(5000);
+            socket.startHandshake();
+            DataInputStream input = new DataInputStream(socket.getInputStream());
+            assertEquals(1, input.read());     // Sent once the handshake has finished
+
+            TestPacket packet = new TestPacket();
+            packet.setTestData(123456);
+            packet.setTestText("zażółć");
+            byte[] encoded = encode(packet);
+            OutputStream output = socket.getOutputStream();
+            output.write(encoded);
+            output.flush();
+
+            TestPacket handled = (TestPacket) received.poll(5, TimeUnit.SECONDS);
+            assertNotNull(handled);
+            assertEquals(123456, handled.getTestData());
+            assertEquals("zażółć", handled.getTestText());
+
+            Connection connection = server.getConnections().values().iterator().next();
+            server.send(packet, connection);
+            byte[] response = new byte[encoded.length];
+            input.readFully(response);
+            assertArrayEquals(encoded, response);
+        } finally {
+            socket.close();
+        }
+    }
+
+    @Test
+    public void shouldCloseAnUnencryptedClient() throws Exception {
+        TestPacket packet = new TestPacket();
+        packet.setTestData(123456);
+        packet.setTestText("plain");
+
+        Socket socket = new Socket("localhost", PORT);
+        try {
+            socket.setSoTimeout(5000);
+            OutputStream output = socket.getOutputStream();
+            output.write(encode(packet));
+            output.flush();
+
+            // Not a TLS record, the server gives up on the handshake and closes the connection
+            int read;
+            try {
+                while ((read = socket.getInputStream().read()) >= 0)
+                    assertTrue("The server sent the accept byte to an unencrypted client", read != 1);
+            } catch (SocketException e) {
+                // Reset by the server
+            }
+        } finally {
+            socket.close();
+        }
+        assertNull(received.poll(100, TimeUnit.MILLISECONDS));
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (server.getConnectionCount() > 0 && System.nanoTime() < deadline)
+            Thread.sleep(10);
+        assertEquals(0, server.getConnectionCount());
+    }
+
+    private static byte[] encode(Packet packet) throws Exception {
+        ByteBuffer buffer = new CompiledPacketCodec(PacketRegistry.scan(PACKAGE), false).encode(packet, new BufferPool(false)).buffer();
+        byte[] encoded = new byte[buffer.remaining()];
+        buffer.get(encoded);
+        return encoded;
+    }
+
+    private void keytool(String... args) throws IOException, InterruptedException {
+        List<String> command = new ArrayList<>();
+        command.add(new File(System.getProperty("java.home"), "bin" + File.separator + "keytool").getPath());
+        command.addAll(Arrays.asList(args));
+
+        Process process = new ProcessBuilder(command).directory(directory).redirectErrorStream(true).start();
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        try (InputStream input = process.getInputStream()) {
+            byte[] buffer = new byte[1024];
+            int read;
+            while ((read = input.read(buffer)) > 0)
+                output.write(buffer, 0, read);
+        }
+        if (process.waitFor() != 0)
+            throw new IOException("keytool " + args[0] + " failed: " + output.toString("UTF-8"));
+    }
+}
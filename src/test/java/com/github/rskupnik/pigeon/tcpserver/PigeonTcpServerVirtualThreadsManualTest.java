@@ -0,0 +1,125 @@
+/*
+    Copyright 2016 Radosław Skupnik
+
+    This file is part of pigeon-tcp-server.
+
+    Pigeon-tcp-server is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    Pigeon-tcp-server is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with pigeon-tcp-server; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+
+package com.github.rskupnik.pigeon.tcpserver;
+
+import com.github.rskupnik.pigeon.commons.Packet;
+import com.github.rskupnik.pigeon.commons.PacketHandler;
+
+import java.io.BufferedOutputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Holds a large number of idle connections open while a small slice of active connections
+ * pushes packets, comparing platform and virtual receiver threads in BLOCKING mode.
+ *
+ * Client sockets are bound to several loopback addresses to get past the ephemeral port range,
+ * the file descriptor limit has to be raised accordingly (e.g. ulimit -n 200000).
+ *
+ * Arguments: [platform|virtual] [idle connections] [active connections] [packets per active connection]
+ */
+public class PigeonTcpServerVirtualThreadsManualTest {
+
+    private static final int PORT = 9052;
+    private static final String PACKAGE = "com.github.rskupnik.pigeon.tcpserver";
+    private static final int CONNECTIONS_PER_LOCAL_ADDRESS = 20000;
+
+    public static void main(String[] args) throws Exception {
+        ReceiverThreadsType type = args.length > 0 ? ReceiverThreadsType.fromString(args[0]) : ReceiverThreadsType.VIRTUAL;
+        int idle = args.length > 1 ? Integer.parseInt(args[1]) : 50000;
+        int active = args.length > 2 ? Integer.parseInt(args[2]) : 500;
+        int packetsPerConnection = args.length > 3 ? Integer.parseInt(args[3]) : 1000;
+
+        final LongAdder received = new LongAdder();
+        PigeonTcpServer server = Pigeon.newServer()
+                .withPort(PORT)
+                .withReceiverThreadsType(type)
+                .withPackageToScan(PACKAGE)
+                .withPacketHandler(new PacketHandler() {
+                    @Override
+                    public void handle(Packet packet) {
+                        received.increment();
+                    }
+                })
+                .build();
+        server.start();
+
+        long heapBefore = usedHeap();
+        long connectStart = System.nanoTime();
+        List<Socket> sockets = new ArrayList<>(idle + active);
+        for (int i = 0; i < idle + active; i++) {
+            Socket socket = new Socket();
+            socket.bind(new InetSocketAddress("127.0.0." + (2 + i / CONNECTIONS_PER_LOCAL_ADDRESS), 0));
+            socket.connect(new InetSocketAddress("127.0.0.1", PORT));
+            if (socket.getInputStream().read() != 1)
+                throw new IllegalStateException("Connection " + i + " was refused");
+            sockets.add(socket);
+        }
+        while (server.getConnectionCount() < idle + active)
+            Thread.sleep(10);
+        long connectElapsed = System.nanoTime() - connectStart;
+
+        System.out.println("Receiver threads type: " + type);
+        System.out.println("Connections:           " + idle + " idle + " + active + " active");
+        System.out.println("Connect time (ms):     " + TimeUnit.NANOSECONDS.toMillis(connectElapsed));
+        System.out.println("Live threads:          " + ManagementFactory.getThreadMXBean().getThreadCount() + " (platform only)");
+        System.out.println("Heap used (MB):        " + heapBefore / (1024 * 1024) + " -> " + usedHeap() / (1024 * 1024));
+
+        TestPacket packet = new TestPacket();
+        packet.setTestData(42);
+        packet.setTestText("virtual");
+        ByteBuffer encoded = new ReflectivePacketCodec(PacketRegistry.scan(PACKAGE), false).encode(packet, new BufferPool(false)).buffer();
+        byte[] frame = new byte[encoded.remaining()];
+        encoded.get(frame);
+
+        long sendStart = System.nanoTime();
+        for (Socket socket : sockets.subList(idle, idle + active)) {
+            OutputStream out = new BufferedOutputStream(socket.getOutputStream());
+            for (int p = 0; p < packetsPerConnection; p++)
+                out.write(frame);
+            out.flush();
+        }
+        long expected = (long) active * packetsPerConnection;
+        while (received.sum() < expected && System.nanoTime() - sendStart < TimeUnit.MINUTES.toNanos(5))
+            Thread.sleep(1);
+        long sendElapsed = System.nanoTime() - sendStart;
+
+        System.out.println("Packets received:      " + received.sum() + " / " + expected);
+        System.out.println("Throughput (packets/s): " + (long) (received.sum() / (sendElapsed / 1e9)));
+
+        for (Socket socket : sockets)
+            socket.close();
+        server.shutdown();
+        System.exit(0);
+    }
+
+    private static long usedHeap() {
+        System.gc();
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+}
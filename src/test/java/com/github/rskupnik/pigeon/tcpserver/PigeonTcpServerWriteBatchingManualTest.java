@@ -0,0 +1,126 @@
+/*
+    Copyright 2016 Radosław Skupnik
+
+    This file is part of pigeon-tcp-server.
+
+    Pigeon-tcp-server is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    Pigeon-tcp-server is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with pigeon-tcp-server; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+
+package com.github.rskupnik.pigeon.tcpserver;
+
+import com.github.rskupnik.pigeon.commons.Connection;
+import com.github.rskupnik.pigeon.commons.Packet;
+import com.github.rskupnik.pigeon.commons.PacketHandler;
+
+import java.io.InputStream;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Sends many small packets back-to-back to every client, with or without write batching, and reports the throughput
+ * and the average number of bytes delivered per read on the client side - a rough measure of how many packets
+ * share a single write. Run under `strace -c -f` to count the write syscalls directly.
+ *
+ * Arguments: [blocking|nio] [batching: true|false] [clients] [packets per client]
+ */
+public class PigeonTcpServerWriteBatchingManualTest {
+
+    private static final int PORT = 9055;
+    private static final String PACKAGE = "com.github.rskupnik.pigeon.tcpserver";
+
+    public static void main(String[] args) throws Exception {
+        TransportMode mode = args.length > 0 ? TransportMode.fromString(args[0]) : TransportMode.NIO;
+        boolean batching = args.length > 1 ? Boolean.parseBoolean(args[1]) : true;
+        int clients = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+        int packets = args.length > 3 ? Integer.parseInt(args[3]) : 100000;
+
+        PigeonTcpServer server = Pigeon.newServer()
+                .withPort(PORT)
+                .withTransportMode(mode)
+                .withPackageToScan(PACKAGE)
+                .withWriteBatching(batching)
+                .withTcpNoDelay(true)
+                .withPacketHandler(new PacketHandler() {
+                    @Override
+                    public void handle(Packet packet) {
+
+                    }
+                })
+                .build();
+        server.start();
+        Thread.sleep(500);
+
+        final LongAdder bytesReceived = new LongAdder();
+        final LongAdder reads = new LongAdder();
+        List<Socket> sockets = new ArrayList<>(clients);
+        for (int i = 0; i < clients; i++) {
+            final Socket socket = new Socket("localhost", PORT);
+            socket.getInputStream().read();
+            sockets.add(socket);
+            Thread reader = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    byte[] buffer = new byte[65536];
+                    try {
+                        InputStream in = socket.getInputStream();
+                        int read;
+                        while ((read = in.read(buffer)) >= 0) {
+                            bytesReceived.add(read);
+                            reads.increment();
+                        }
+                    } catch (Exception e) {
+                        // Socket closed at the end of the test
+                    }
+                }
+            });
+            reader.setDaemon(true);
+            reader.start();
+        }
+        while (server.getConnectionCount() < clients)
+            Thread.sleep(10);
+        List<Connection> connections = new ArrayList<>(server.getConnections().values());
+
+        TestPacket packet = new TestPacket();
+        packet.setTestData(42);
+        packet.setTestText("small");
+        int packetSize = new ReflectivePacketCodec(PacketRegistry.scan(PACKAGE), false).encode(packet, new BufferPool(false)).buffer().remaining();
+
+        long start = System.nanoTime();
+        for (int i = 0; i < packets; i++) {
+            for (Connection connection : connections)
+                server.send(packet, connection);
+        }
+        server.flush();
+
+        long expected = (long) clients * packets * packetSize;
+        while (bytesReceived.sum() < expected && System.nanoTime() - start < TimeUnit.MINUTES.toNanos(5))
+            Thread.sleep(1);
+        long elapsed = System.nanoTime() - start;
+
+        System.out.println("Transport mode:          " + mode);
+        System.out.println("Write batching:          " + batching);
+        System.out.println("Delivered (bytes):       " + bytesReceived.sum() + " / " + expected);
+        System.out.println("Delivered (packets/s):   " + (long) (bytesReceived.sum() / packetSize / (elapsed / 1e9)));
+        System.out.println("Bytes per client read:   " + bytesReceived.sum() / Math.max(reads.sum(), 1));
+
+        for (Socket socket : sockets)
+            socket.close();
+        server.shutdown();
+        System.exit(0);
+    }
+}
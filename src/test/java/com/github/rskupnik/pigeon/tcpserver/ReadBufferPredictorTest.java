@@ -0,0 +1,89 @@
+/*
+    Copyright 2016 Radosław Skupnik
+
+    This file is part of pigeon-tcp-server.
+
+    Pigeon-tcp-server is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    Pigeon-tcp-server is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with pigeon-tcp-server; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+
+package com.github.rskupnik.pigeon.tcpserver;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class ReadBufferPredictorTest {
+
+    @Test
+    public void shouldRoundSizesUpToPowersOfTwo() {
+        ReadBufferPredictor predictor = new ReadBufferPredictor(50, 1000, 60000);
+
+        assertEquals(1024, predictor.nextSize());
+    }
+
+    @Test
+    public void shouldGrowQuicklyUpToTheMax() {
+        ReadBufferPredictor predictor = new ReadBufferPredictor(64, 1024, 65536);
+
+        predictor.record(1024, 1024);
+        assertEquals(4096, predictor.nextSize());
+        predictor.record(4096, 4096);
+        assertEquals(16384, predictor.nextSize());
+        predictor.record(16384, 16384);
+        predictor.record(65536, 65536);
+        assertEquals(65536, predictor.nextSize());
+    }
+
+    @Test
+    public void shouldGrowWhenTheRoomLeftWasFilled() {
+        ReadBufferPredictor predictor = new ReadBufferPredictor(64, 1024, 65536);
+
+        // The buffer held the beginning of a packet, the read took all the room there was
+        predictor.record(100, 100);
+        assertEquals(4096, predictor.nextSize());
+    }
+
+    @Test
+    public void shouldShrinkOnlyAfterTwoSmallReadsInARow() {
+        ReadBufferPredictor predictor = new ReadBufferPredictor(64, 1024, 65536);
+
+        predictor.record(100, 1024);
+        assertEquals(1024, predictor.nextSize());
+        predictor.record(800, 1024);    // Breaks the streak
+        predictor.record(100, 1024);
+        assertEquals(1024, predictor.nextSize());
+        predictor.record(100, 1024);
+        assertEquals(512, predictor.nextSize());
+    }
+
+    @Test
+    public void shouldNotShrinkBelowTheMin() {
+        ReadBufferPredictor predictor = new ReadBufferPredictor(64, 1024, 65536);
+
+        for (int i = 0; i < 100; i++)
+            predictor.record(10, predictor.nextSize());
+        assertEquals(64, predictor.nextSize());
+    }
+
+    @Test
+    public void shouldKeepTheSizeWhenMinEqualsMax() {
+        ReadBufferPredictor predictor = new ReadBufferPredictor(1024, 1024, 1024);
+
+        predictor.record(1024, 1024);
+        predictor.record(10, 1024);
+        predictor.record(10, 1024);
+        assertEquals(1024, predictor.nextSize());
+    }
+}
@@ -0,0 +1,123 @@
+/*
+    Copyright 2016 Radosław Skupnik
+
+    This file is part of pigeon-tcp-server.
+
+    Pigeon-tcp-server is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    Pigeon-tcp-server is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with pigeon-tcp-server; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+
+package com.github.rskupnik.pigeon.tcpserver;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class RecyclerTest {
+
+    private static final int THREAD_CACHE_SIZE = 4;
+
+    private final ExecutorService otherThread = Executors.newSingleThreadExecutor();
+
+    @After
+    public void after() {
+        otherThread.shutdownNow();
+    }
+
+    @Test
+    public void shouldReturnNullWhenEmpty() {
+        assertNull(new Recycler<Object>(THREAD_CACHE_SIZE, 8).get());
+    }
+
+    @Test
+    public void shouldReuseTheLastRecycledObjectFirst() {
+        Recycler<Object> recycler = new Recycler<>(THREAD_CACHE_SIZE, 8);
+        Object first = new Object();
+        Object second = new Object();
+        recycler.recycle(first);
+        recycler.recycle(second);
+
+        assertSame(second, recycler.get());
+        assertSame(first, recycler.get());
+        assertNull(recycler.get());
+    }
+
+    @Test
+    public void shouldKeepObjectsInTheThreadCacheUntilItIsFull() throws Exception {
+        Recycler<Object> recycler = new Recycler<>(THREAD_CACHE_SIZE, 8);
+        for (int i = 0; i < THREAD_CACHE_SIZE; i++)
+            recycler.recycle(new Object());
+
+        assertTrue(getAllOnOtherThread(recycler).isEmpty());
+    }
+
+    @Test
+    public void shouldSpillHalfOfAFullThreadCacheToTheSharedPool() throws Exception {
+        Recycler<Object> recycler = new Recycler<>(THREAD_CACHE_SIZE, 8);
+        List<Object> recycled = new ArrayList<>();
+        for (int i = 0; i <= THREAD_CACHE_SIZE; i++) {
+            Object object = new Object();
+            recycled.add(object);
+            recycler.recycle(object);
+        }
+
+        // The two spilled objects are the ones on top of the full cache, the rest stay with this thread
+        Set<Object> taken = getAllOnOtherThread(recycler);
+        assertEquals(THREAD_CACHE_SIZE / 2, taken.size());
+        assertTrue(taken.contains(recycled.get(2)));
+        assertTrue(taken.contains(recycled.get(3)));
+
+        assertSame(recycled.get(4), recycler.get());
+        assertSame(recycled.get(1), recycler.get());
+        assertSame(recycled.get(0), recycler.get());
+        assertNull(recycler.get());
+    }
+
+    @Test
+    public void shouldDropObjectsWhenTheSharedPoolIsFull() throws Exception {
+        Recycler<Object> recycler = new Recycler<>(THREAD_CACHE_SIZE, 3);
+        for (int i = 0; i < 20; i++)
+            recycler.recycle(new Object());
+
+        assertEquals(3, getAllOnOtherThread(recycler).size());
+    }
+
+    /**
+     * Takes everything another thread can get, that is whatever is in the shared pool.
+     */
+    private Set<Object> getAllOnOtherThread(final Recycler<Object> recycler) throws Exception {
+        return otherThread.submit(new Callable<Set<Object>>() {
+            @Override
+            public Set<Object> call() {
+                Set<Object> taken = new HashSet<>();
+                Object object;
+                while ((object = recycler.get()) != null)
+                    taken.add(object);
+                return taken;
+            }
+        }).get();
+    }
+}
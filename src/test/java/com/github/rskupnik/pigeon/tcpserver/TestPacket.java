@@ -0,0 +1,51 @@
+/*
+    Copyright 2016 Radosław Skupnik
+
+    This file is part of pigeon-tcp-server.
+
+    Pigeon-tcp-server is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    Pigeon-tcp-server is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with pigeon-tcp-server; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+
+package com.github.rskupnik.pigeon.tcpserver;
+
+import com.github.rskupnik.pigeon.commons.Packet;
+import com.github.rskupnik.pigeon.commons.annotations.PacketDataField;
+import com.github.rskupnik.pigeon.commons.annotations.PigeonPacket;
+
+@PigeonPacket(id = 1)
+public class TestPacket extends Packet {
+
+    @PacketDataField
+    private int testData;
+
+    @PacketDataField
+    private String testText;
+
+    public int getTestData() {
+        return testData;
+    }
+
+    public void setTestData(int testData) {
+        this.testData = testData;
+    }
+
+    public String getTestText() {
+        return testText;
+    }
+
+    public void setTestText(String testText) {
+        this.testText = testText;
+    }
+}
@@ -0,0 +1,101 @@
+/*
+    Copyright 2016 Radosław Skupnik
+
+    This file is part of pigeon-tcp-server.
+
+    Pigeon-tcp-server is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    Pigeon-tcp-server is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with pigeon-tcp-server; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+
+package com.github.rskupnik.pigeon.tcpserver;
+
+import com.github.rskupnik.pigeon.commons.Connection;
+
+import java.net.Socket;
+import java.util.UUID;
+
+/**
+ * A session without a connected socket, nothing is ever written - for tests of how the server keeps track of its sessions
+ * and of the write queue, which the tests drain themselves.
+ */
+class TestSession extends Session {
+
+    private volatile Thread ioThread;
+    private volatile boolean suspendable;
+    private volatile boolean readingSuspended;
+
+    TestSession(String host, PigeonTcpServer server) {
+        this(UUID.randomUUID(), host, server);
+    }
+
+    private TestSession(UUID uuid, String host, PigeonTcpServer server) {
+        super(uuid, host, new Connection(uuid, new Socket()), server);
+    }
+
+    @Override
+    void scheduleFlush() {
+
+    }
+
+    @Override
+    void scheduleDelayed(Runnable task, long delayNanos) {
+
+    }
+
+    /**
+     * Makes the given thread the one draining the write queue, as far as the queue can tell.
+     */
+    void setIoThread(Thread ioThread) {
+        this.ioThread = ioThread;
+    }
+
+    /**
+     * Lets the session stop reading like an NIO session does, instead of holding up its caller like a blocking one.
+     */
+    void setSuspendable(boolean suspendable) {
+        this.suspendable = suspendable;
+    }
+
+    boolean isReadingSuspended() {
+        return readingSuspended;
+    }
+
+    @Override
+    boolean suspendReading() {
+        if (suspendable)
+            readingSuspended = true;
+        return suspendable;
+    }
+
+    @Override
+    void resumeReading() {
+        readingSuspended = false;
+    }
+
+    @Override
+    boolean isIoThread() {
+        return Thread.currentThread() == ioThread;
+    }
+
+    @Override
+    void execute(Runnable task) {
+        task.run();
+    }
+
+    @Override
+    void close() {
+        if (markClosed())
+            getWriteQueue().failAll();
+    }
+}
@@ -0,0 +1,83 @@
+/*
+    Copyright 2016 Radosław Skupnik
+
+    This file is part of pigeon-tcp-server.
+
+    Pigeon-tcp-server is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    Pigeon-tcp-server is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with pigeon-tcp-server; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+
+package com.github.rskupnik.pigeon.tcpserver;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TokenBucketTest {
+
+    private static final long START = 1000;
+
+    @Test
+    public void shouldAllowABurstOfASecondsWorth() {
+        TokenBucket bucket = new TokenBucket(10, START);
+
+        assertEquals(10, acquired(bucket, 100, START));
+        assertFalse(bucket.tryAcquire(START));
+    }
+
+    @Test
+    public void shouldRefillAtTheRate() {
+        TokenBucket bucket = new TokenBucket(10, START);
+        acquired(bucket, 10, START);
+
+        assertFalse(bucket.tryAcquire(START + TimeUnit.MILLISECONDS.toNanos(99)));
+        assertTrue(bucket.tryAcquire(START + TimeUnit.MILLISECONDS.toNanos(100)));
+        assertEquals(5, acquired(bucket, 100, START + TimeUnit.MILLISECONDS.toNanos(600)));
+    }
+
+    @Test
+    public void shouldNotLoseTokensToFrequentCalls() {
+        TokenBucket bucket = new TokenBucket(10, START);
+        acquired(bucket, 10, START);
+
+        // Calls more frequent than the token interval must not throw away the time already accumulated
+        int total = 0;
+        for (long now = START; now <= START + TimeUnit.SECONDS.toNanos(1); now += TimeUnit.MILLISECONDS.toNanos(30))
+            total += acquired(bucket, 1, now);
+        assertEquals(9, total);
+    }
+
+    @Test
+    public void shouldNotGrowBeyondItsCapacity() {
+        TokenBucket bucket = new TokenBucket(10, START);
+        acquired(bucket, 1, START);
+
+        long later = START + TimeUnit.MINUTES.toNanos(1);
+        assertTrue(bucket.isFull(later));
+        assertEquals(10, acquired(bucket, 100, later));
+    }
+
+    private static int acquired(TokenBucket bucket, int attempts, long now) {
+        int acquired = 0;
+        for (int i = 0; i < attempts; i++) {
+            if (bucket.tryAcquire(now))
+                acquired++;
+        }
+        return acquired;
+    }
+}
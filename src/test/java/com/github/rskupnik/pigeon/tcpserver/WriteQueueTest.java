@@ -0,0 +1,252 @@
+/*
+    Copyright 2016 Radosław Skupnik
+
+    This file is part of pigeon-tcp-server.
+
+    Pigeon-tcp-server is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    Pigeon-tcp-server is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with pigeon-tcp-server; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+
+package com.github.rskupnik.pigeon.tcpserver;
+
+import com.github.rskupnik.pigeon.commons.Connection;
+import com.github.rskupnik.pigeon.commons.Packet;
+import com.github.rskupnik.pigeon.commons.PacketHandler;
+import com.github.rskupnik.pigeon.commons.exceptions.PigeonException;
+import org.junit.After;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class WriteQueueTest {
+
+    private static final int PORT = 9204;
+    private static final int CAPACITY = 100;
+    private static final int PACKET = 40;   // Two fit in the queue, the third one doesn't
+
+    private final AtomicInteger highWaterMarks = new AtomicInteger();
+    private final AtomicInteger lowWaterMarks = new AtomicInteger();
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+    private PigeonTcpServer server;
+    private TestSession session;
+
+    @After
+    public void after() {
+        executor.shutdownNow();
+        if (server != null)
+            server.shutdown();
+    }
+
+    @Test
+    public void shouldDropTheNewestPacket() throws PigeonException {
+        WriteQueue queue = queue(WriteQueueOverflowPolicy.DROP_NEWEST);
+        assertTrue(queue.offer(packet(), null, null));
+        assertTrue(queue.offer(packet(), null, null));
+
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        assertFalse(queue.offer(packet(), null, future));
+        assertTrue(future.isCompletedExceptionally());
+        assertEquals(2, queue.size());
+        assertEquals(2 * PACKET, queue.getPendingBytes());
+    }
+
+    @Test
+    public void shouldDropTheOldestPackets() throws PigeonException {
+        WriteQueue queue = queue(WriteQueueOverflowPolicy.DROP_OLDEST);
+        CompletableFuture<Void> oldest = new CompletableFuture<>();
+        ByteBuffer second = packet();
+        ByteBuffer third = packet();
+        assertTrue(queue.offer(packet(), null, oldest));
+        assertTrue(queue.offer(second, null, null));
+
+        assertTrue(queue.offer(third, null, null));
+        assertTrue(oldest.isCompletedExceptionally());
+        assertEquals(2, queue.size());
+        assertEquals(2 * PACKET, queue.getPendingBytes());
+        assertSame(second, queue.poll().getBuffer());
+        assertSame(third, queue.poll().getBuffer());
+    }
+
+    @Test
+    public void shouldDisconnectTheSession() throws PigeonException {
+        WriteQueue queue = queue(WriteQueueOverflowPolicy.DISCONNECT);
+        CompletableFuture<Void> queued = new CompletableFuture<>();
+        assertTrue(queue.offer(packet(), null, queued));
+        assertTrue(queue.offer(packet(), null, null));
+
+        assertFalse(queue.offer(packet(), null, null));
+        assertTrue(queue.isEmpty());
+        assertTrue(queued.isCompletedExceptionally());
+        assertFalse(queue.offer(packet(), null, null));    // The session is closed for good
+    }
+
+    @Test
+    public void shouldBlockUntilThereIsRoom() throws Exception {
+        final WriteQueue queue = queue(WriteQueueOverflowPolicy.BLOCK);
+        queue.offer(packet(), null, null);
+        queue.offer(packet(), null, null);
+
+        Future<Boolean> blocked = offerOnAnotherThread(queue, false);
+        try {
+            blocked.get(200, TimeUnit.MILLISECONDS);
+            fail("The sender didn't wait for room in the queue");
+        } catch (TimeoutException e) {
+            // Waiting, as it should
+        }
+
+        queue.written(queue.poll());
+        assertTrue(blocked.get(5, TimeUnit.SECONDS));
+        assertEquals(2, queue.size());
+    }
+
+    @Test
+    public void shouldStopBlockingOnceTheSessionIsClosed() throws Exception {
+        WriteQueue queue = queue(WriteQueueOverflowPolicy.BLOCK);
+        queue.offer(packet(), null, null);
+        queue.offer(packet(), null, null);
+
+        Future<Boolean> blocked = offerOnAnotherThread(queue, false);
+        Thread.sleep(100);
+        session.close();
+        assertFalse(blocked.get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void shouldLetTheQueueGrowOnItsOwnIoThread() throws Exception {
+        final WriteQueue queue = queue(WriteQueueOverflowPolicy.BLOCK);
+        queue.offer(packet(), null, null);
+        queue.offer(packet(), null, null);
+
+        Future<Boolean> offered = executor.submit(new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                session.setIoThread(Thread.currentThread());
+                return queue.offer(packet(), null, null);
+            }
+        });
+        assertTrue(offered.get(1, TimeUnit.SECONDS));
+        assertEquals(3, queue.size());
+    }
+
+    @Test
+    public void shouldNotBlockAThreadServingOtherConnections() throws Exception {
+        WriteQueue queue = queue(WriteQueueOverflowPolicy.BLOCK);
+        queue.offer(packet(), null, null);
+        queue.offer(packet(), null, null);
+
+        // An event loop or a dispatch thread sending to another connection drops the packet instead of waiting
+        assertFalse(offerOnAnotherThread(queue, true).get(1, TimeUnit.SECONDS));
+        assertEquals(2, queue.size());
+    }
+
+    @Test
+    public void shouldReportTheWaterMarksOnce() throws PigeonException {
+        WriteQueue queue = queue(WriteQueueOverflowPolicy.DROP_NEWEST);
+        queue.offer(packet(), null, null);
+        assertEquals(0, highWaterMarks.get());
+
+        queue.offer(packet(), null, null);     // 80 bytes, above the high water mark of 60
+        queue.offer(packet(), null, null);     // Dropped
+        assertEquals(1, highWaterMarks.get());
+
+        queue.written(queue.poll());           // 40 bytes, above the low water mark of 20
+        assertEquals(0, lowWaterMarks.get());
+        queue.offer(packet(), null, null);
+        assertEquals(1, highWaterMarks.get());
+
+        queue.written(queue.poll());
+        queue.written(queue.poll());
+        assertEquals(1, lowWaterMarks.get());
+        assertNull(queue.poll());
+
+        queue.offer(packet(), null, null);
+        queue.offer(packet(), null, null);
+        assertEquals(2, highWaterMarks.get());
+    }
+
+    private WriteQueue queue(WriteQueueOverflowPolicy policy) throws PigeonException {
+        server = Pigeon.newServer()
+                .withPort(PORT)
+                .withPackageToScan("com.github.rskupnik.pigeon.tcpserver")
+                .withWriteQueueCapacity(CAPACITY)
+                .withWriteQueueHighWaterMark(60)
+                .withWriteQueueLowWaterMark(20)
+                .withWriteQueueOverflowPolicy(policy)
+                .withServerCallbackHandler(new TcpServerCallbackHandler() {
+                    @Override
+                    public void onWriteQueueHighWaterMark(Connection connection) {
+                        highWaterMarks.incrementAndGet();
+                    }
+
+                    @Override
+                    public void onWriteQueueLowWaterMark(Connection connection) {
+                        lowWaterMarks.incrementAndGet();
+                    }
+
+                    @Override
+                    public void onStarted() {
+
+                    }
+
+                    @Override
+                    public void onNewConnection(Connection connection) {
+
+                    }
+
+                    @Override
+                    public void onDisconnected(Connection connection) {
+
+                    }
+                })
+                .withPacketHandler(new PacketHandler() {
+                    @Override
+                    public void handle(Packet packet) {
+
+                    }
+                })
+                .build();
+        session = new TestSession("127.0.0.1", server);
+        return session.getWriteQueue();
+    }
+
+    private Future<Boolean> offerOnAnotherThread(final WriteQueue queue, final boolean sharedThread) {
+        return executor.submit(new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                if (sharedThread)
+                    WriteQueue.markSharedThread();
+                return queue.offer(packet(), null, null);
+            }
+        });
+    }
+
+    private static ByteBuffer packet() {
+        return ByteBuffer.allocate(PACKET);
+    }
+}